@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.cache.AstIO;
+import org.teavm.cache.ProgramIO;
+import org.teavm.javascript.ast.ClassNode;
+import org.teavm.javascript.ast.MethodNode;
+import org.teavm.javascript.ast.RegularMethodNode;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Program;
+
+/**
+ * <p>Measures how fast incremental build caches store and load entries: writes optimized programs with
+ * {@link ProgramIO} or decompiled methods with {@link AstIO} into memory and reads them back.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheIOBenchmark {
+    @Param({ TestCompilation.COLLECTIONS, TestCompilation.ARITHMETIC, TestCompilation.FORMATTING })
+    public String testClass;
+    private List<Program> programs = new ArrayList<>();
+    private List<RegularMethodNode> methodNodes = new ArrayList<>();
+    private ProgramIO programIO;
+    private AstIO astIO;
+
+    @Setup
+    public void setup() {
+        TestCompilation compilation = new TestCompilation(testClass);
+        compilation.compile();
+        ListableClassHolderSource classes = compilation.getOptimizedClasses();
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getProgram() != null && method.getProgram().basicBlockCount() > 0) {
+                    programs.add(method.getProgram());
+                }
+            }
+        }
+        for (ClassNode classNode : compilation.decompile()) {
+            for (MethodNode methodNode : classNode.getMethods()) {
+                if (methodNode instanceof RegularMethodNode) {
+                    methodNodes.add((RegularMethodNode) methodNode);
+                }
+            }
+        }
+        InMemorySymbolTable symbolTable = new InMemorySymbolTable();
+        InMemorySymbolTable fileTable = new InMemorySymbolTable();
+        programIO = new ProgramIO(symbolTable, fileTable);
+        astIO = new AstIO(symbolTable, fileTable);
+    }
+
+    @Benchmark
+    public void programRoundTrip(Blackhole blackhole) throws IOException {
+        for (Program program : programs) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            programIO.write(program, output);
+            blackhole.consume(programIO.read(new ByteArrayInputStream(output.toByteArray())));
+        }
+    }
+
+    @Benchmark
+    public void astRoundTrip(Blackhole blackhole) throws IOException {
+        for (RegularMethodNode methodNode : methodNodes) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            astIO.write(new DataOutputStream(output), methodNode);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+            blackhole.consume(astIO.read(input, methodNode.getReference()));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MutableClassHolderSource;
+
+/**
+ * <p>Compares {@link ClassHierarchy} with {@link MutableClassHolderSource#isSuperType(String, String)} on queries
+ * like the ones dependency checker and devirtualization make. Dependency checker filters each type that reaches
+ * a virtual call by the class that declares called method, so it repeats a small set of queries many times,
+ * which is what <code>repeatCount</code> of 5 stands for. Devirtualization checks every type that reached a call
+ * site once. Each invocation builds a fresh index, since an index lives as long as a build.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassHierarchyBenchmark {
+    private static final int CLASS_COUNT = 5000;
+    private static final int INTERFACE_COUNT = 800;
+    @Param({ "1", "5" })
+    public int repeatCount;
+    private MutableClassHolderSource classSource;
+    private String[] superTypes = new String[50];
+    private String[] subTypes = new String[1000];
+
+    @Setup
+    public void setup() {
+        classSource = generate(new Random(0));
+        Random random = new Random(1);
+        for (int i = 0; i < superTypes.length; ++i) {
+            superTypes[i] = random.nextBoolean() ? "Class" + random.nextInt(CLASS_COUNT)
+                    : "Interface" + random.nextInt(INTERFACE_COUNT);
+        }
+        for (int i = 0; i < subTypes.length; ++i) {
+            subTypes[i] = "Class" + random.nextInt(CLASS_COUNT);
+        }
+    }
+
+    @Benchmark
+    public int classSource() {
+        int matches = 0;
+        for (int i = 0; i < repeatCount; ++i) {
+            for (String superType : superTypes) {
+                for (String subType : subTypes) {
+                    if (classSource.isSuperType(superType, subType).orElse(false)) {
+                        ++matches;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int hierarchy() {
+        ClassHierarchy hierarchy = new ClassHierarchy(classSource);
+        int matches = 0;
+        for (int i = 0; i < repeatCount; ++i) {
+            for (String superType : superTypes) {
+                for (String subType : subTypes) {
+                    if (hierarchy.isSuperType(superType, subType, false)) {
+                        ++matches;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * <p>Generates random hierarchy of classes that extend each other and implement several interfaces.</p>
+     */
+    private static MutableClassHolderSource generate(Random random) {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+        classSource.putClassHolder(new ClassHolder("java.lang.Object"));
+        for (int i = 0; i < INTERFACE_COUNT; ++i) {
+            ClassHolder cls = new ClassHolder("Interface" + i);
+            cls.getModifiers().add(ElementModifier.INTERFACE);
+            cls.setParent("java.lang.Object");
+            addInterfaces(random, cls, i);
+            classSource.putClassHolder(cls);
+        }
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            ClassHolder cls = new ClassHolder("Class" + i);
+            if (i == 0 || random.nextInt(5) == 0) {
+                cls.setParent("java.lang.Object");
+            } else {
+                cls.setParent("Class" + random.nextInt(i));
+            }
+            addInterfaces(random, cls, INTERFACE_COUNT);
+            classSource.putClassHolder(cls);
+        }
+        return classSource;
+    }
+
+    private static void addInterfaces(Random random, ClassHolder cls, int interfaceCount) {
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; ++i) {
+            if (interfaceCount > 0) {
+                cls.getInterfaces().add("Interface" + random.nextInt(interfaceCount));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.javascript.Decompiler;
+import org.teavm.model.ListableClassHolderSource;
+
+/**
+ * <p>Measures decompilation of all classes of a test after optimizations and register allocation, see
+ * {@link Decompiler}.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecompilerBenchmark {
+    @Param({ TestCompilation.COLLECTIONS, TestCompilation.ARITHMETIC, TestCompilation.FORMATTING })
+    public String testClass;
+    private TestCompilation compilation;
+    private List<String> classOrder;
+
+    @Setup
+    public void setup() {
+        compilation = new TestCompilation(testClass);
+        compilation.compile();
+        ListableClassHolderSource classes = compilation.getOptimizedClasses();
+        classOrder = compilation.createDecompiler().getClassOrdering(classes.getClassNames());
+    }
+
+    @Benchmark
+    public void decompile(Blackhole blackhole) {
+        Decompiler decompiler = compilation.createDecompiler();
+        ListableClassHolderSource classes = compilation.getOptimizedClasses();
+        for (String className : classOrder) {
+            blackhole.consume(decompiler.decompile(classes.get(className)));
+        }
+    }
+}
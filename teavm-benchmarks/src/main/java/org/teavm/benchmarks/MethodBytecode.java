@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.JSRInlinerAdapter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.ValueType;
+import org.teavm.parsing.ClasspathResourceMapper;
+
+/**
+ * <p>Bytecode of a method, prepared for {@link org.teavm.parsing.ProgramParser} the same way
+ * {@link org.teavm.parsing.Parser} does it, i.e. with subroutines inlined.</p>
+ *
+ * @author Alexey Andreev
+ */
+class MethodBytecode {
+    final String className;
+    final String fileName;
+    final MethodNode node;
+    final ValueType[] parameterTypes;
+
+    MethodBytecode(String className, String fileName, MethodNode node) {
+        this.className = className;
+        this.fileName = fileName;
+        this.node = node;
+        ValueType[] signature = MethodDescriptor.parseSignature(node.desc);
+        parameterTypes = Arrays.copyOf(signature, signature.length - 1);
+    }
+
+    /**
+     * <p>Reads bytecode of all methods that have bodies. Classes are located the same way
+     * {@link org.teavm.parsing.ClasspathClassHolderSource} does it, so that emulated classes of the class library
+     * are found by names of the classes they emulate.</p>
+     */
+    static List<MethodBytecode> readAll(ClassLoader classLoader, Collection<String> classNames) {
+        List<MethodBytecode> methods = new ArrayList<>();
+        ClasspathResourceMapper mapper = new ClasspathResourceMapper(classLoader, name -> {
+            readClass(classLoader, name, methods);
+            return null;
+        });
+        for (String className : classNames) {
+            mapper.map(className);
+        }
+        return methods;
+    }
+
+    private static void readClass(ClassLoader classLoader, String name, List<MethodBytecode> methods) {
+        ClassNode cls = new ClassNode();
+        try (InputStream input = classLoader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (input == null) {
+                return;
+            }
+            new ClassReader(input).accept(cls, 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading class " + name, e);
+        }
+        String fileName = cls.name.substring(0, cls.name.lastIndexOf('/') + 1) + cls.sourceFile;
+        for (MethodNode method : cls.methods) {
+            if (method.instructions.size() == 0) {
+                continue;
+            }
+            String[] exceptions = method.exceptions.toArray(new String[0]);
+            MethodNode methodWithoutJsr = new MethodNode(Opcodes.ASM5, method.access, method.name, method.desc,
+                    method.signature, exceptions);
+            method.accept(new JSRInlinerAdapter(methodWithoutJsr, method.access, method.name, method.desc,
+                    method.signature, exceptions));
+            methods.add(new MethodBytecode(cls.name, fileName, methodWithoutJsr));
+        }
+    }
+}
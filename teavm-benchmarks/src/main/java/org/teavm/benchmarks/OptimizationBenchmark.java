@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Program;
+import org.teavm.model.util.ProgramUtils;
+import org.teavm.optimization.ArrayUnwrapMotion;
+import org.teavm.optimization.GlobalValueNumbering;
+import org.teavm.optimization.LoopInvariantMotion;
+import org.teavm.optimization.MethodOptimization;
+import org.teavm.optimization.UnusedVariableElimination;
+
+/**
+ * <p>Measures each method optimization on programs of all linked methods. Optimizations run in the same order
+ * as in {@link org.teavm.vm.TeaVM}, and input of an optimization is the output of the previous ones, so that
+ * each of them gets the input it gets in a real build. Programs are copied before each invocation, since
+ * optimizations modify them.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OptimizationBenchmark {
+    @Param({ TestCompilation.COLLECTIONS, TestCompilation.ARITHMETIC, TestCompilation.FORMATTING })
+    public String testClass;
+    @Param({ "ArrayUnwrapMotion", "LoopInvariantMotion", "GlobalValueNumbering", "UnusedVariableElimination" })
+    public String optimization;
+    private MethodOptimization measuredOptimization;
+    private List<MethodHolder> methods = new ArrayList<>();
+    private List<Program> inputPrograms = new ArrayList<>();
+    private List<Program> programs = new ArrayList<>();
+
+    static List<MethodOptimization> getOptimizations() {
+        return Arrays.<MethodOptimization>asList(new ArrayUnwrapMotion(), new LoopInvariantMotion(),
+                new GlobalValueNumbering(), new UnusedVariableElimination());
+    }
+
+    /**
+     * <p>Collects methods of linked classes that have bodies, and their programs after the given number of
+     * optimizations.</p>
+     */
+    static void prepare(TestCompilation compilation, int optimizationCount, List<MethodHolder> methods,
+            List<Program> programs) {
+        ListableClassHolderSource classes = compilation.link();
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                Program program = method.getProgram();
+                if (program == null || program.basicBlockCount() == 0) {
+                    continue;
+                }
+                program = ProgramUtils.copy(program);
+                for (MethodOptimization optimization : getOptimizations().subList(0, optimizationCount)) {
+                    optimization.optimize(method, program);
+                }
+                methods.add(method);
+                programs.add(program);
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        TestCompilation compilation = new TestCompilation(testClass);
+        compilation.compile();
+        List<MethodOptimization> optimizations = getOptimizations();
+        int index = 0;
+        while (!optimizations.get(index).getClass().getSimpleName().equals(optimization)) {
+            ++index;
+        }
+        measuredOptimization = optimizations.get(index);
+        prepare(compilation, index, methods, inputPrograms);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyPrograms() {
+        programs.clear();
+        for (Program program : inputPrograms) {
+            programs.add(ProgramUtils.copy(program));
+        }
+    }
+
+    @Benchmark
+    public void optimize(Blackhole blackhole) {
+        for (int i = 0; i < programs.size(); ++i) {
+            measuredOptimization.optimize(methods.get(i), programs.get(i));
+            blackhole.consume(programs.get(i));
+        }
+    }
+}
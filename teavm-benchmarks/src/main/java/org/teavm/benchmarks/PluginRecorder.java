@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import org.teavm.common.ServiceRepository;
+import org.teavm.dependency.BootstrapMethodSubstitutor;
+import org.teavm.dependency.DependencyListener;
+import org.teavm.javascript.spi.Generator;
+import org.teavm.javascript.spi.Injector;
+import org.teavm.model.ClassHolderTransformer;
+import org.teavm.model.MethodReference;
+import org.teavm.vm.spi.RendererListener;
+import org.teavm.vm.spi.TeaVMHost;
+import org.teavm.vm.spi.TeaVMPlugin;
+
+/**
+ * <p>Host that remembers everything that plugins install. Benchmarks exercise compiler phases separately,
+ * while plugins are only able to install themselves into a whole {@link org.teavm.vm.TeaVM}, so the recorded
+ * extensions are passed either to TeaVM or directly to a phase. The same instances are passed everywhere,
+ * since generators may rely on state that the dependency listeners of the same plugin collect. Plugins may add
+ * extensions later, during compilation, these are passed to the host that the recorder was replayed to.</p>
+ *
+ * @author Alexey Andreev
+ */
+class PluginRecorder implements TeaVMHost, ServiceRepository {
+    private ClassLoader classLoader;
+    private Properties properties;
+    private List<DependencyListener> dependencyListeners = new ArrayList<>();
+    private List<ClassHolderTransformer> classTransformers = new ArrayList<>();
+    private Map<MethodReference, Generator> generators = new LinkedHashMap<>();
+    private Map<MethodReference, Injector> injectors = new LinkedHashMap<>();
+    private Map<MethodReference, BootstrapMethodSubstitutor> bootstrapMethodSubstitutors = new LinkedHashMap<>();
+    private List<RendererListener> rendererListeners = new ArrayList<>();
+    private Map<Class<?>, Object> services = new HashMap<>();
+    private TeaVMHost target;
+
+    PluginRecorder(ClassLoader classLoader, Properties properties) {
+        this.classLoader = classLoader;
+        this.properties = properties;
+    }
+
+    void installPlugins() {
+        for (TeaVMPlugin plugin : ServiceLoader.load(TeaVMPlugin.class, classLoader)) {
+            plugin.install(this);
+        }
+    }
+
+    void replay(TeaVMHost host) {
+        target = host;
+        for (DependencyListener listener : dependencyListeners) {
+            host.add(listener);
+        }
+        for (ClassHolderTransformer transformer : classTransformers) {
+            host.add(transformer);
+        }
+        for (Map.Entry<MethodReference, Generator> entry : generators.entrySet()) {
+            host.add(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<MethodReference, Injector> entry : injectors.entrySet()) {
+            host.add(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<MethodReference, BootstrapMethodSubstitutor> entry : bootstrapMethodSubstitutors.entrySet()) {
+            host.add(entry.getKey(), entry.getValue());
+        }
+        for (RendererListener listener : rendererListeners) {
+            host.add(listener);
+        }
+        for (Map.Entry<Class<?>, Object> entry : services.entrySet()) {
+            registerService(host, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static <T> void registerService(TeaVMHost host, Class<T> type, Object instance) {
+        host.registerService(type, type.cast(instance));
+    }
+
+    Map<MethodReference, Generator> getGenerators() {
+        return generators;
+    }
+
+    Map<MethodReference, Injector> getInjectors() {
+        return injectors;
+    }
+
+    List<RendererListener> getRendererListeners() {
+        return rendererListeners;
+    }
+
+    @Override
+    public void add(DependencyListener dependencyListener) {
+        dependencyListeners.add(dependencyListener);
+        if (target != null) {
+            target.add(dependencyListener);
+        }
+    }
+
+    @Override
+    public void add(ClassHolderTransformer classTransformer) {
+        classTransformers.add(classTransformer);
+        if (target != null) {
+            target.add(classTransformer);
+        }
+    }
+
+    @Override
+    public void add(MethodReference methodRef, Generator generator) {
+        generators.put(methodRef, generator);
+        if (target != null) {
+            target.add(methodRef, generator);
+        }
+    }
+
+    @Override
+    public void add(MethodReference methodRef, Injector injector) {
+        injectors.put(methodRef, injector);
+        if (target != null) {
+            target.add(methodRef, injector);
+        }
+    }
+
+    @Override
+    public void add(MethodReference methodRef, BootstrapMethodSubstitutor substitutor) {
+        bootstrapMethodSubstitutors.put(methodRef, substitutor);
+        if (target != null) {
+            target.add(methodRef, substitutor);
+        }
+    }
+
+    @Override
+    public void add(RendererListener listener) {
+        rendererListeners.add(listener);
+        if (target != null) {
+            target.add(listener);
+        }
+    }
+
+    @Override
+    public <T> void registerService(Class<T> type, T instance) {
+        services.put(type, instance);
+        if (target != null) {
+            target.registerService(type, instance);
+        }
+    }
+
+    @Override
+    public <T> T getService(Class<T> type) {
+        Object service = services.get(type);
+        if (service == null) {
+            throw new IllegalArgumentException("Service not registered: " + type.getName());
+        }
+        return type.cast(service);
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    @Override
+    public Properties getProperties() {
+        return properties;
+    }
+}
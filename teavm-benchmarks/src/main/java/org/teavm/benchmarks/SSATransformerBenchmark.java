@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.model.Program;
+import org.teavm.optimization.UnreachableBasicBlockEliminator;
+import org.teavm.parsing.ProgramParser;
+import org.teavm.parsing.SSATransformer;
+
+/**
+ * <p>Measures transformation of freshly parsed programs of all reached methods into SSA form, see
+ * {@link SSATransformer}. Programs are parsed again before each invocation, since the transformation
+ * modifies them.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SSATransformerBenchmark {
+    @Param({ TestCompilation.COLLECTIONS, TestCompilation.ARITHMETIC, TestCompilation.FORMATTING })
+    public String testClass;
+    private List<MethodBytecode> methods;
+    private List<ProgramParser> parsers = new ArrayList<>();
+    private List<Program> programs = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        TestCompilation compilation = new TestCompilation(testClass);
+        compilation.compile();
+        methods = MethodBytecode.readAll(compilation.getClassLoader(), compilation.getReachedClasses());
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() {
+        parsers.clear();
+        programs.clear();
+        for (MethodBytecode method : methods) {
+            ProgramParser parser = new ProgramParser();
+            parser.setFileName(method.fileName);
+            Program program = parser.parse(method.node, method.className);
+            new UnreachableBasicBlockEliminator().optimize(program);
+            parsers.add(parser);
+            programs.add(program);
+        }
+    }
+
+    @Benchmark
+    public void transformToSSA(Blackhole blackhole) {
+        for (int i = 0; i < programs.size(); ++i) {
+            new SSATransformer().transformToSSA(programs.get(i), parsers.get(i), methods.get(i).parameterTypes);
+            blackhole.consume(programs.get(i));
+        }
+    }
+}
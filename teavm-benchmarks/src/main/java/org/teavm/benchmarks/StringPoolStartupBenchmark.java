@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+import org.teavm.parsing.ClasspathClassHolderSource;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+
+/**
+ * <p>Measures startup of generated JavaScript that contains many string constants, like an application with
+ * a large bundle of localized messages. Each invocation evaluates the whole script in a new global scope of
+ * Nashorn and calls an entry point. The <code>start</code> entry point touches only the first part of the
+ * messages, so the time should not grow with the number of constants, since constants are materialized when
+ * they are first accessed. The <code>startAll</code> entry point touches every constant. The <code>eager</code>
+ * string pool replaces the runtime's <code>$rt_stringPool</code> with its former version, which materialized
+ * all constants before running any code, to get the baseline. The benchmark requires a JDK that ships Nashorn,
+ * i.e. JDK 8 to 14.</p>
+ *
+ * @author Alexey Andreev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringPoolStartupBenchmark {
+    private static final String MESSAGES_CLASS = "org.teavm.benchmarks.generated.Messages";
+    private static final int PART_SIZE = 500;
+    private static final String EAGER_STRING_POOL = ""
+            + "function $rt_stringPool(strings) {\n"
+            + "    $rt_stringPool_instance = new Array(strings.length);\n"
+            + "    for (var i = 0; i < strings.length; ++i) {\n"
+            + "        $rt_stringPool_instance[i] = $rt_intern($rt_str(strings[i]));\n"
+            + "    }\n"
+            + "}\n";
+    @Param({ "1000", "20000" })
+    public int stringCount;
+    @Param({ "eager", "lazy", "packed" })
+    public String stringPool;
+    @Param({ "false", "true" })
+    public boolean accessAll;
+    private File classesDir;
+    private ScriptEngine engine;
+    private CompiledScript script;
+
+    @Setup
+    public void setup() throws IOException, ScriptException {
+        engine = new ScriptEngineManager().getEngineByName("nashorn");
+        if (engine == null) {
+            throw new IllegalStateException("Nashorn is not available, run the benchmark on JDK 8 to 14");
+        }
+        classesDir = Files.createTempDirectory("teavm-benchmark").toFile();
+        writeMessagesClass();
+        StringBuilder output = new StringBuilder();
+        // Generated code runs in a browser and puts static methods into window
+        output.append("var window = this;\n");
+        appendRuntime(output);
+        if (stringPool.equals("eager")) {
+            // Declared later, so it replaces the function of the runtime
+            output.append(EAGER_STRING_POOL);
+        }
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { classesDir.toURI().toURL() },
+                StringPoolStartupBenchmark.class.getClassLoader())) {
+            compile(classLoader, output);
+        }
+        output.append(accessAll ? "startAll" : "start").append("();\n");
+        script = ((Compilable) engine).compile(output.toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(classesDir);
+    }
+
+    @Benchmark
+    public Object start() throws ScriptException {
+        return script.eval(engine.createBindings());
+    }
+
+    private void compile(ClassLoader classLoader, StringBuilder output) {
+        Properties properties = new Properties();
+        PluginRecorder plugins = new PluginRecorder(classLoader, properties);
+        plugins.installPlugins();
+        TeaVM vm = new TeaVMBuilder()
+                .setClassLoader(classLoader)
+                .setClassSource(new ClasspathClassHolderSource(classLoader))
+                .build();
+        vm.setProperties(properties);
+        vm.setMinifying(true);
+        vm.setStringPoolPacked(stringPool.equals("packed"));
+        plugins.replay(vm);
+        vm.entryPoint("start", new MethodReference(MESSAGES_CLASS, "start", ValueType.INTEGER));
+        vm.entryPoint("startAll", new MethodReference(MESSAGES_CLASS, "startAll", ValueType.INTEGER));
+        vm.build(output, TestCompilation.NullBuildTarget.INSTANCE);
+        if (!vm.getProblemProvider().getSevereProblems().isEmpty()) {
+            throw new IllegalStateException("Error compiling " + MESSAGES_CLASS + ": "
+                    + vm.getProblemProvider().getSevereProblems().get(0).getText());
+        }
+    }
+
+    private void appendRuntime(StringBuilder output) throws IOException {
+        ClassLoader classLoader = StringPoolStartupBenchmark.class.getClassLoader();
+        try (InputStream input = classLoader.getResourceAsStream("org/teavm/javascript/runtime.js");
+                Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                output.append(buffer, 0, count);
+            }
+        }
+        output.append('\n');
+    }
+
+    /**
+     * <p>Generates a class with static methods <code>part0</code>, <code>part1</code> and so on, each returns
+     * an array of distinct message strings. The <code>start</code> method returns the length of the first part,
+     * the <code>startAll</code> method returns the total length of all parts.</p>
+     */
+    private void writeMessagesClass() throws IOException {
+        String internalName = MESSAGES_CLASS.replace('.', '/');
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object",
+                null);
+        int partCount = (stringCount + PART_SIZE - 1) / PART_SIZE;
+        for (int part = 0; part < partCount; ++part) {
+            int size = Math.min(PART_SIZE, stringCount - part * PART_SIZE);
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "part" + part,
+                    "()[Ljava/lang/String;", null, null);
+            method.visitCode();
+            method.visitLdcInsn(size);
+            method.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/String");
+            for (int i = 0; i < size; ++i) {
+                method.visitInsn(Opcodes.DUP);
+                method.visitLdcInsn(i);
+                method.visitLdcInsn("messages.section" + part + ".key" + i + " = Message number " + i
+                        + " of section " + part + ", shown to the user");
+                method.visitInsn(Opcodes.AASTORE);
+            }
+            method.visitInsn(Opcodes.ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writeStartMethod(writer, internalName, "start", 1);
+        writeStartMethod(writer, internalName, "startAll", partCount);
+        writer.visitEnd();
+
+        File file = new File(classesDir, internalName + ".class");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), writer.toByteArray());
+    }
+
+    private void writeStartMethod(ClassWriter writer, String internalName, String name, int partCount) {
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "()I", null,
+                null);
+        method.visitCode();
+        method.visitInsn(Opcodes.ICONST_0);
+        for (int part = 0; part < partCount; ++part) {
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, internalName, "part" + part, "()[Ljava/lang/String;",
+                    false);
+            method.visitInsn(Opcodes.ARRAYLENGTH);
+            method.visitInsn(Opcodes.IADD);
+        }
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.Test;
+import org.teavm.codegen.DefaultAliasProvider;
+import org.teavm.codegen.DefaultNamingStrategy;
+import org.teavm.codegen.SourceWriter;
+import org.teavm.codegen.SourceWriterBuilder;
+import org.teavm.diagnostics.AccumulationDiagnostics;
+import org.teavm.diagnostics.Diagnostics;
+import org.teavm.javascript.Decompiler;
+import org.teavm.javascript.Renderer;
+import org.teavm.javascript.ast.ClassNode;
+import org.teavm.javascript.spi.Generator;
+import org.teavm.javascript.spi.Injector;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+import org.teavm.model.util.AsyncMethodFinder;
+import org.teavm.optimization.Devirtualization;
+import org.teavm.parsing.ClasspathClassHolderSource;
+import org.teavm.vm.BuildTarget;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMPhase;
+import org.teavm.vm.TeaVMProgressFeedback;
+import org.teavm.vm.TeaVMProgressListener;
+import org.teavm.vm.spi.RendererListener;
+
+/**
+ * <p>Compiles a JUnit test class from <code>teavm-tests</code> the same way the test runner does, and keeps
+ * intermediate results of each phase, so that benchmarks of a phase start from realistic input. Entry points
+ * are the constructor of the class and all its test methods. Compilation runs in a single thread with no
+ * caches.</p>
+ *
+ * @author Alexey Andreev
+ */
+class TestCompilation {
+    static final String COLLECTIONS = "org.teavm.classlib.java.util.ArrayListTest";
+    static final String ARITHMETIC = "org.teavm.classlib.java.math.BigDecimalArithmeticTest";
+    static final String FORMATTING = "org.teavm.classlib.java.text.SimpleDateFormatTest";
+    private String testClassName;
+    private ClassLoader classLoader;
+    private Properties properties = new Properties();
+    private ClasspathClassHolderSource classSource;
+    private PluginRecorder plugins;
+    private TeaVM vm;
+    private ListableClassHolderSource optimizedClasses;
+    private Set<MethodReference> asyncMethods;
+    private Set<MethodReference> asyncFamilyMethods;
+
+    TestCompilation(String testClassName) {
+        this.testClassName = testClassName;
+        classLoader = TestCompilation.class.getClassLoader();
+        properties.setProperty("java.util.Locale.available", "en, en_US, en_GB, ru, ru_RU");
+        classSource = new ClasspathClassHolderSource(classLoader);
+    }
+
+    /**
+     * <p>Runs the whole compilation once. Besides preparing input for benchmarks, it fills the class source
+     * with parsed classes, so that benchmarks don't measure parsing unless they want to.</p>
+     */
+    void compile() {
+        plugins = createPlugins();
+        vm = createVM(plugins);
+        vm.build(new StringBuilder(), NullBuildTarget.INSTANCE);
+        if (!vm.getProblemProvider().getSevereProblems().isEmpty()) {
+            throw new IllegalStateException("Error compiling " + testClassName + ": "
+                    + vm.getProblemProvider().getSevereProblems().get(0).getText());
+        }
+        // Written classes are the same holders that TeaVM optimized and passed to decompiler
+        optimizedClasses = (ListableClassHolderSource) vm.getWrittenClasses();
+        AsyncMethodFinder asyncFinder = new AsyncMethodFinder(vm.getDependencyInfo().getCallGraph(),
+                new AccumulationDiagnostics());
+        asyncFinder.find(optimizedClasses);
+        asyncMethods = asyncFinder.getAsyncMethods();
+        asyncFamilyMethods = asyncFinder.getAsyncFamilyMethods();
+    }
+
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    ClasspathClassHolderSource getClassSource() {
+        return classSource;
+    }
+
+    PluginRecorder createPlugins() {
+        PluginRecorder plugins = new PluginRecorder(classLoader, properties);
+        plugins.installPlugins();
+        return plugins;
+    }
+
+    TeaVM createVM(PluginRecorder plugins) {
+        TeaVM vm = new TeaVMBuilder()
+                .setClassLoader(classLoader)
+                .setClassSource(classSource)
+                .build();
+        vm.setProperties(properties);
+        vm.setNumThreads(1);
+        plugins.replay(vm);
+        MethodReference cons = new MethodReference(testClassName, "<init>", ValueType.VOID);
+        vm.entryPoint("initInstance", cons);
+        for (MethodReference testMethod : getTestMethods()) {
+            vm.entryPoint("test_" + testMethod.getName(), testMethod).withValue(0, testClassName).async();
+        }
+        return vm;
+    }
+
+    /**
+     * <p>Creates a TeaVM instance that stops right after dependency analysis.</p>
+     */
+    TeaVM createDependencyAnalyzer() {
+        TeaVM vm = createVM(createPlugins());
+        vm.setProgressListener(new TeaVMProgressListener() {
+            @Override
+            public TeaVMProgressFeedback phaseStarted(TeaVMPhase phase, int count) {
+                return phase == TeaVMPhase.DEPENDENCY_CHECKING ? TeaVMProgressFeedback.CONTINUE
+                        : TeaVMProgressFeedback.CANCEL;
+            }
+
+            @Override
+            public TeaVMProgressFeedback progressReached(int progress) {
+                return TeaVMProgressFeedback.CONTINUE;
+            }
+        });
+        return vm;
+    }
+
+    private List<MethodReference> getTestMethods() {
+        Class<?> testClass;
+        try {
+            testClass = Class.forName(testClassName, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Test class not found: " + testClassName, e);
+        }
+        List<MethodReference> testMethods = new ArrayList<>();
+        for (Method method : testClass.getMethods()) {
+            if (method.isAnnotationPresent(Test.class)) {
+                testMethods.add(new MethodReference(testClassName, method.getName(), ValueType.VOID));
+            }
+        }
+        Collections.sort(testMethods, (a, b) -> a.getName().compareTo(b.getName()));
+        return testMethods;
+    }
+
+    Set<String> getReachedClasses() {
+        return optimizedClasses.getClassNames();
+    }
+
+    /**
+     * <p>Links and devirtualizes reached classes again, which gives the input of method optimizations.
+     * Each call returns new copies of classes.</p>
+     */
+    ListableClassHolderSource link() {
+        ListableClassHolderSource classes = vm.link(vm.getDependencyInfo());
+        Devirtualization devirtualization = new Devirtualization(vm.getDependencyInfo(), classes);
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getProgram() != null) {
+                    devirtualization.apply(method);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * <p>Classes after optimizations and register allocation, the input of decompiler.</p>
+     */
+    ListableClassHolderSource getOptimizedClasses() {
+        return optimizedClasses;
+    }
+
+    Decompiler createDecompiler() {
+        Decompiler decompiler = new Decompiler(optimizedClasses, classLoader, asyncMethods, asyncFamilyMethods);
+        for (Map.Entry<MethodReference, Generator> entry : plugins.getGenerators().entrySet()) {
+            decompiler.addGenerator(entry.getKey(), entry.getValue());
+        }
+        for (MethodReference injectedMethod : plugins.getInjectors().keySet()) {
+            decompiler.addMethodToPass(injectedMethod);
+        }
+        return decompiler;
+    }
+
+    List<ClassNode> decompile() {
+        Decompiler decompiler = createDecompiler();
+        List<ClassNode> classNodes = new ArrayList<>();
+        for (String className : decompiler.getClassOrdering(optimizedClasses.getClassNames())) {
+            ClassHolder cls = optimizedClasses.get(className);
+            classNodes.add(decompiler.decompile(cls));
+        }
+        return classNodes;
+    }
+
+    /**
+     * <p>Renders classes into the given output the same way {@link TeaVM#build(Appendable, BuildTarget)} does,
+     * resources that plugins produce are discarded.</p>
+     */
+    void render(List<ClassNode> classNodes, Appendable output) throws IOException {
+        DefaultNamingStrategy naming = new DefaultNamingStrategy(new DefaultAliasProvider(),
+                vm.getDependencyClassSource());
+        SourceWriter sourceWriter = new SourceWriterBuilder(naming).build(output);
+        Diagnostics diagnostics = new AccumulationDiagnostics();
+        Renderer renderer = new Renderer(sourceWriter, optimizedClasses, classLoader, plugins, asyncMethods,
+                asyncFamilyMethods, diagnostics);
+        renderer.setProperties(properties);
+        renderer.getDebugEmitter().setLocationProvider(sourceWriter);
+        for (Map.Entry<MethodReference, Injector> entry : plugins.getInjectors().entrySet()) {
+            renderer.addInjector(entry.getKey(), entry.getValue());
+        }
+        for (RendererListener listener : plugins.getRendererListeners()) {
+            listener.begin(renderer, NullBuildTarget.INSTANCE);
+        }
+        sourceWriter.append("\"use strict\";").newLine();
+        renderer.renderRuntime();
+        renderer.render(classNodes);
+        renderer.renderStringPool();
+        for (RendererListener listener : plugins.getRendererListeners()) {
+            listener.complete();
+        }
+    }
+
+    static class NullBuildTarget implements BuildTarget {
+        static final NullBuildTarget INSTANCE = new NullBuildTarget();
+
+        @Override
+        public OutputStream createResource(String fileName) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+        }
+    }
+}
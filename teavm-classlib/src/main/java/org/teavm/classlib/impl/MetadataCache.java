@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.classlib.impl;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * <p>Keeps data that generators read from large resources, like CLDR or time zone database, so that builds
+ * that run in the same process one after another read them only once. Data is identified by URL and
+ * modification date of the resource, and by a string that describes other inputs, like properties of the
+ * build. Data should not be modified by those who get it. Only a few recently used entries are kept.</p>
+ *
+ * @author Alexey Andreev
+ * @param <T> type of data.
+ */
+public final class MetadataCache<T> {
+    private static final int CAPACITY = 4;
+    private Map<String, T> entries = new LinkedHashMap<String, T>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    public synchronized T get(URL resource, String variant, Function<URL, T> loader) {
+        if (resource == null) {
+            return loader.apply(null);
+        }
+        File file = getFile(resource);
+        String key = resource.toExternalForm() + "@" + (file != null ? file.lastModified() : 0) + ":" + variant;
+        T data = entries.get(key);
+        if (data == null) {
+            data = loader.apply(resource);
+            entries.put(key, data);
+        }
+        return data;
+    }
+
+    private static File getFile(URL url) {
+        try {
+            if (url.getProtocol().equals("file")) {
+                return new File(url.toURI());
+            } else if (url.getProtocol().equals("jar")) {
+                String path = url.getPath();
+                int exclIndex = path.indexOf("!/");
+                return getFile(new URL(exclIndex >= 0 ? path.substring(0, exclIndex) : path));
+            }
+        } catch (URISyntaxException | MalformedURLException e) {
+            // Date is unknown, so let's rely on URL only
+        }
+        return null;
+    }
+}
@@ -19,9 +19,13 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import org.teavm.classlib.impl.MetadataCache;
 import org.teavm.model.MethodReference;
 import org.teavm.platform.metadata.MetadataGenerator;
 import org.teavm.platform.metadata.MetadataGeneratorContext;
@@ -34,6 +38,8 @@ import org.teavm.platform.metadata.ResourceMap;
 public class TimeZoneGenerator implements MetadataGenerator {
     public static final String TIMEZONE_DB_VERSION = "2015d";
     public static final String TIMEZONE_DB_PATH = "org/teavm/classlib/impl/tz/tzdata" + TIMEZONE_DB_VERSION + ".zip";
+    private static final String TIMEZONE_CACHE_PATH = "org/teavm/classlib/impl/tz/cache";
+    private static final MetadataCache<Map<String, String>> cache = new MetadataCache<>();
 
     public static void compile(ZoneInfoCompiler compiler, ClassLoader classLoader) {
         try (InputStream input = classLoader.getResourceAsStream(TIMEZONE_DB_PATH)) {
@@ -71,21 +77,8 @@ public class TimeZoneGenerator implements MetadataGenerator {
     public ResourceMap<ResourceMap<TimeZoneResource>> generateMetadata(
             MetadataGeneratorContext context, MethodReference method) {
         ResourceMap<ResourceMap<TimeZoneResource>> result = context.createResourceMap();
-        ZoneInfoCompiler compiler = new ZoneInfoCompiler();
-        Collection<StorableDateTimeZone> zones;
-        try (InputStream input = context.getClassLoader().getResourceAsStream("org/teavm/classlib/impl/tz/cache")) {
-            if (input != null) {
-                TimeZoneCache cache = new TimeZoneCache();
-                zones = cache.read(input).values();
-            } else {
-                compile(compiler, context.getClassLoader());
-                zones = compiler.compile().values();
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Error generating time zones", e);
-        }
-        for (StorableDateTimeZone tz : zones) {
-            String id = tz.getID();
+        for (Map.Entry<String, String> zone : getZones(context.getClassLoader()).entrySet()) {
+            String id = zone.getKey();
             int sepIndex = id.indexOf('/');
             String areaName;
             String locationName;
@@ -103,12 +96,42 @@ public class TimeZoneGenerator implements MetadataGenerator {
             }
 
             TimeZoneResource tzRes = context.createResource(TimeZoneResource.class);
-            StringBuilder data = new StringBuilder();
-            tz.write(data);
-            tzRes.setData(data.toString());
+            tzRes.setData(zone.getValue());
             area.put(locationName, tzRes);
         }
 
         return result;
     }
+
+    private static Map<String, String> getZones(ClassLoader classLoader) {
+        URL cacheResource = classLoader.getResource(TIMEZONE_CACHE_PATH);
+        if (cacheResource != null) {
+            return cache.get(cacheResource, "cache", TimeZoneGenerator::readZones);
+        }
+        return cache.get(classLoader.getResource(TIMEZONE_DB_PATH), "db", resource -> compileZones(classLoader));
+    }
+
+    private static Map<String, String> readZones(URL resource) {
+        try (InputStream input = resource.openStream()) {
+            return serializeZones(new TimeZoneCache().read(input).values());
+        } catch (IOException e) {
+            throw new RuntimeException("Error generating time zones", e);
+        }
+    }
+
+    private static Map<String, String> compileZones(ClassLoader classLoader) {
+        ZoneInfoCompiler compiler = new ZoneInfoCompiler();
+        compile(compiler, classLoader);
+        return serializeZones(compiler.compile().values());
+    }
+
+    private static Map<String, String> serializeZones(Collection<StorableDateTimeZone> zones) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (StorableDateTimeZone tz : zones) {
+            StringBuilder data = new StringBuilder();
+            tz.write(data);
+            result.put(tz.getID(), data.toString());
+        }
+        return result;
+    }
 }
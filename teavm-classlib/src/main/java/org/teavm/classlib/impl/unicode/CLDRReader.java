@@ -21,6 +21,7 @@ import com.google.gson.JsonParser;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -32,12 +33,15 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import org.teavm.classlib.impl.MetadataCache;
 
 /**
  *
  * @author Alexey Andreev
  */
 public class CLDRReader {
+    private static final String CLDR_PATH = "org/teavm/classlib/impl/unicode/cldr-json.zip";
+    private static final MetadataCache<CLDRReader> cache = new MetadataCache<>();
     private static String[] weekdayKeys = { "sun", "mon", "tue", "wed", "thu", "fri", "sat" };
     private Map<String, CLDRLocale> knownLocales = new LinkedHashMap<>();
     private Map<String, Integer> minDaysMap = new LinkedHashMap<>();
@@ -47,24 +51,40 @@ public class CLDRReader {
     private Set<String> availableLanguages = new LinkedHashSet<>();
     private Set<String> availableCountries = new LinkedHashSet<>();
     private boolean initialized;
-    private Properties properties;
-    private ClassLoader classLoader;
+    private String availableLocalesString;
+    private URL resource;
 
     public CLDRReader(Properties properties, ClassLoader classLoader) {
-        this.properties = properties;
-        this.classLoader = classLoader;
+        this(getAvailableLocalesString(properties), classLoader.getResource(CLDR_PATH));
+    }
+
+    private CLDRReader(String availableLocalesString, URL resource) {
+        this.availableLocalesString = availableLocalesString;
+        this.resource = resource;
+    }
+
+    /**
+     * <p>Gets reader that is shared by builds with the same CLDR data and the same available locales.</p>
+     */
+    public static CLDRReader getInstance(Properties properties, ClassLoader classLoader) {
+        String availableLocalesString = getAvailableLocalesString(properties);
+        return cache.get(classLoader.getResource(CLDR_PATH), availableLocalesString,
+                resource -> new CLDRReader(availableLocalesString, resource));
+    }
+
+    private static String getAvailableLocalesString(Properties properties) {
+        return properties.getProperty("java.util.Locale.available", "en_EN").trim();
     }
 
     private synchronized void ensureInitialized() {
         if (!initialized) {
             initialized = true;
-            findAvailableLocales(properties);
-            readCLDR(classLoader);
+            findAvailableLocales();
+            readCLDR();
         }
     }
 
-    private void findAvailableLocales(Properties properties) {
-        String availableLocalesString = properties.getProperty("java.util.Locale.available", "en_EN").trim();
+    private void findAvailableLocales() {
         for (String locale : Arrays.asList(availableLocalesString.split(" *, *"))) {
             int countryIndex = locale.indexOf('_');
             if (countryIndex > 0) {
@@ -81,9 +101,8 @@ public class CLDRReader {
         }
     }
 
-    private void readCLDR(ClassLoader classLoader) {
-        try (ZipInputStream input = new ZipInputStream(classLoader.getResourceAsStream(
-                "org/teavm/classlib/impl/unicode/cldr-json.zip"))) {
+    private void readCLDR() {
+        try (ZipInputStream input = new ZipInputStream(resource.openStream())) {
             while (true) {
                 ZipEntry entry = input.getNextEntry();
                 if (entry == null) {
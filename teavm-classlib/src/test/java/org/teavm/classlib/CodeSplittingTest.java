@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.classlib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.javascript.spi.SplitPoint;
+import org.teavm.model.MethodReference;
+import org.teavm.parsing.ClasspathClassHolderSource;
+import org.teavm.vm.BuildTarget;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMChunk;
+
+/**
+ * <p>Builds a program with and without code splitting and runs both outputs in Nashorn, so it requires a JDK
+ * that ships Nashorn. Chunks are evaluated in the global scope when a stub asks for them.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class CodeSplittingTest {
+    private ScriptEngineManager engineManager = new ScriptEngineManager();
+
+    @Before
+    public void checkNashorn() {
+        Assume.assumeTrue(engineManager.getEngineByName("nashorn") != null);
+    }
+
+    @Test
+    public void splitCodeBehavesLikeWholeCode() throws IOException, ScriptException {
+        Output whole = build(false);
+        assertThat(whole.chunks.size(), is(0));
+        List<String> expected = callAll(run(whole));
+        assertThat(expected.get(0), is("main 13:******** 14:********* 15:**********"));
+
+        Output split = build(true);
+        assertThat(split.chunks.size(), is(2));
+        ScriptEngine engine = run(split);
+        ChunkLoader loader = (ChunkLoader) engine.get("chunkLoader");
+        assertThat(loader.loadedChunks.size(), is(0));
+        assertThat(callAll(engine), is(expected));
+
+        // Each chunk is loaded once, when its split point is called for the first time. Chunks are ordered
+        // by names of split points, so describe goes first
+        assertThat(loader.loadedChunks, is(Arrays.asList(split.chunks.get(1).getFileName(),
+                split.chunks.get(0).getFileName())));
+    }
+
+    @Test
+    public void classesOfChunksAreNotInMainCode() throws IOException, ScriptException {
+        Output split = build(true);
+        TeaVMChunk describeChunk = split.chunks.get(0);
+        TeaVMChunk renderChunk = split.chunks.get(1);
+
+        // Main code calls Feature.render, so Feature stays in main code and gets a stub of the split point.
+        // Exported is not used by main code at all, so it goes to the chunk and gets a stub in main code.
+        assertThat(describeChunk.getSplitPoint().getClassName(), is(Exported.class.getName()));
+        assertThat(describeChunk.getClassNames().contains(Exported.class.getName()), is(true));
+        assertThat(describeChunk.getClassNames().contains(ExportedHelper.class.getName()), is(true));
+        assertThat(renderChunk.getSplitPoint().getClassName(), is(Feature.class.getName()));
+        assertThat(renderChunk.getClassNames().contains(Feature.class.getName()), is(false));
+        assertThat(renderChunk.getClassNames().contains(FeatureWriter.class.getName()), is(true));
+
+        String mainCode = split.code;
+        assertThat(mainCode.split("\\$rt_loadChunk\\(\"", -1).length - 1, is(2));
+        assertThat(mainCode.contains("\"" + describeChunk.getFileName() + "\""), is(true));
+        assertThat(mainCode.contains("\"" + renderChunk.getFileName() + "\""), is(true));
+        for (String chunkCode : split.chunkCode.values()) {
+            assertThat(chunkCode.contains("$rt_loadChunk"), is(false));
+        }
+    }
+
+    private Output build(boolean codeSplitting) throws IOException {
+        ClassLoader classLoader = CodeSplittingTest.class.getClassLoader();
+        TeaVM vm = new TeaVMBuilder()
+                .setClassLoader(classLoader)
+                .setClassSource(new ClasspathClassHolderSource(classLoader))
+                .build();
+        vm.installPlugins();
+        vm.setMinifying(false);
+        vm.setCodeSplitting(codeSplitting);
+        vm.entryPoint("main", new MethodReference(Feature.class, "main", String.class));
+        vm.entryPoint("describe", new MethodReference(Exported.class, "describe", String.class));
+
+        Output output = new Output();
+        StringBuilder code = new StringBuilder();
+        Map<String, ByteArrayOutputStream> resources = new LinkedHashMap<>();
+        BuildTarget target = fileName -> {
+            ByteArrayOutputStream resource = new ByteArrayOutputStream();
+            resources.put(fileName, resource);
+            return resource;
+        };
+        vm.build(code, target);
+        if (!vm.getProblemProvider().getSevereProblems().isEmpty()) {
+            throw new AssertionError("Error compiling test program: "
+                    + vm.getProblemProvider().getSevereProblems().get(0).getText());
+        }
+        output.code = code.toString();
+        output.chunks = vm.getChunks();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : resources.entrySet()) {
+            output.chunkCode.put(entry.getKey(), new String(entry.getValue().toByteArray(),
+                    StandardCharsets.UTF_8));
+        }
+        return output;
+    }
+
+    private ScriptEngine run(Output output) throws IOException, ScriptException {
+        ScriptEngine engine = engineManager.getEngineByName("nashorn");
+        engine.put("chunkLoader", new ChunkLoader(engine, output.chunkCode));
+        // Generated code runs in a browser and puts static methods into window
+        engine.eval("var window = this;");
+        try (InputStream input = TeaVM.class.getClassLoader().getResourceAsStream(
+                "org/teavm/javascript/runtime.js");
+                Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            engine.eval(reader);
+        }
+        engine.eval(output.code);
+        engine.eval("$rt_loadChunk = function(name) { chunkLoader.load(name); };");
+        return engine;
+    }
+
+    private List<String> callAll(ScriptEngine engine) throws ScriptException {
+        List<String> results = new ArrayList<>();
+        for (String function : new String[] { "main", "main", "describe", "describe" }) {
+            results.add((String) engine.eval("$rt_ustr(" + function + "())"));
+        }
+        return results;
+    }
+
+    static class Output {
+        String code;
+        List<TeaVMChunk> chunks;
+        Map<String, String> chunkCode = new LinkedHashMap<>();
+    }
+
+    public static class ChunkLoader {
+        private ScriptEngine engine;
+        private Map<String, String> chunkCode;
+        List<String> loadedChunks = new ArrayList<>();
+
+        ChunkLoader(ScriptEngine engine, Map<String, String> chunkCode) {
+            this.engine = engine;
+            this.chunkCode = chunkCode;
+        }
+
+        public void load(String name) throws ScriptException {
+            if (!loadedChunks.contains(name)) {
+                loadedChunks.add(name);
+                engine.eval(chunkCode.get(name));
+            }
+        }
+    }
+
+    static class Feature {
+        private static int counter = 13;
+
+        public static String main() {
+            StringBuilder sb = new StringBuilder("main");
+            for (int i = 0; i < 3; ++i) {
+                sb.append(' ').append(render());
+            }
+            return sb.toString();
+        }
+
+        @SplitPoint
+        static String render() {
+            return new FeatureWriter(counter++).write();
+        }
+    }
+
+    static class FeatureWriter {
+        private static final char MARK = mark();
+        private int value;
+
+        FeatureWriter(int value) {
+            this.value = value;
+        }
+
+        private static char mark() {
+            return '*';
+        }
+
+        String write() {
+            StringBuilder sb = new StringBuilder().append(value).append(':');
+            for (int i = 5; i < value; ++i) {
+                sb.append(MARK);
+            }
+            return sb.toString();
+        }
+    }
+
+    static class Exported {
+        @SplitPoint
+        public static String describe() {
+            return new ExportedHelper().describe(new ArrayList<>());
+        }
+    }
+
+    static class ExportedHelper {
+        String describe(List<Object> items) {
+            items.add(Integer.valueOf(42));
+            items.add("exported");
+            return items.toString();
+        }
+    }
+}
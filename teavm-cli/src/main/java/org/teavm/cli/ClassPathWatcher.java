@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Watches directories and jar files of class path. Directories are watched with all their subdirectories,
+ * jar files are watched through directories that contain them. Changes are collected in batches: a batch
+ * ends when nothing changes for {@link #DEBOUNCE_MILLIS}, so that a compiler that writes many class files
+ * causes a single rebuild.</p>
+ *
+ * <p>When a directory of class path, or a directory that contains a jar file, is removed, for example, by
+ * <code>mvn clean</code>, the batch reports that changes are unknown. The directory is checked every
+ * {@link #MISSING_CHECK_MILLIS} and watched again once it exists, which also gives a batch of unknown
+ * changes.</p>
+ *
+ * @author Alexey Andreev
+ */
+class ClassPathWatcher implements Closeable {
+    static final long DEBOUNCE_MILLIS = 300;
+    static final long MISSING_CHECK_MILLIS = 1000;
+    private WatchService watchService;
+    private Map<WatchKey, Path> keyDirectories = new HashMap<>();
+    private Map<Path, Path> directoryRoots = new HashMap<>();
+    private Set<Path> roots = new HashSet<>();
+    private Set<Path> jarFiles = new HashSet<>();
+    private Set<Path> jarDirectories = new HashSet<>();
+    private Set<Path> missingDirectories = new LinkedHashSet<>();
+    private Set<String> changedClasses;
+    private boolean changed;
+    private boolean changesUnknown;
+
+    ClassPathWatcher(String[] classPath) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String entry : classPath) {
+            Path path = new File(entry).getAbsoluteFile().toPath();
+            if (Files.isDirectory(path) || !Files.exists(path) && !isArchive(path)) {
+                roots.add(path);
+                watch(path);
+            } else if (path.getParent() != null) {
+                jarFiles.add(path);
+                if (jarDirectories.add(path.getParent())) {
+                    watch(path.getParent());
+                }
+            }
+        }
+    }
+
+    private static boolean isArchive(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    /**
+     * <p>Starts watching a directory of class path or a directory that contains jar files, if the directory
+     * exists, otherwise remembers it as missing.</p>
+     *
+     * @return whether the directory exists.
+     */
+    private boolean watch(Path directory) throws IOException {
+        if (roots.contains(directory)) {
+            registerTree(directory, directory, null);
+        } else {
+            register(directory, null);
+        }
+        if (keyDirectories.containsValue(directory)) {
+            missingDirectories.remove(directory);
+            return true;
+        } else {
+            missingDirectories.add(directory);
+            return false;
+        }
+    }
+
+    private void registerTree(Path directory, Path root, Set<String> addedClasses) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                return register(dir, root) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (addedClasses != null) {
+                    String className = getClassName(root, file);
+                    if (className != null) {
+                        addedClasses.add(className);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                // The file was removed while the tree was walked, its removal is reported by the parent
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+
+    private boolean register(Path directory, Path root) throws IOException {
+        WatchKey key;
+        try {
+            key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return false;
+        }
+        keyDirectories.put(key, directory);
+        if (root != null) {
+            directoryRoots.put(directory, root);
+        }
+        return true;
+    }
+
+    /**
+     * <p>Waits for the next batch of changes. Changes of files near jar files, which are not on class path,
+     * are ignored.</p>
+     *
+     * @return names of classes whose class files changed, or <code>null</code>, if changed classes are not known,
+     * for example, because a jar file changed or a directory was removed. Changes of other files on class path
+     * give an empty set.
+     */
+    Set<String> waitForChanges() throws InterruptedException, IOException {
+        changedClasses = new LinkedHashSet<>();
+        changed = false;
+        changesUnknown = false;
+        while (!changed) {
+            WatchKey key = missingDirectories.isEmpty() ? watchService.take()
+                    : watchService.poll(MISSING_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            boolean reappeared = watchReappearedDirectories();
+            while (key != null || reappeared) {
+                if (key != null) {
+                    processEvents(key);
+                }
+                reappeared = false;
+                key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return changesUnknown ? null : changedClasses;
+    }
+
+    private boolean watchReappearedDirectories() throws IOException {
+        boolean reappeared = false;
+        for (Path directory : new ArrayList<>(missingDirectories)) {
+            if (Files.isDirectory(directory) && watch(directory)) {
+                reappeared = true;
+                changed = true;
+                changesUnknown = true;
+            }
+        }
+        return reappeared;
+    }
+
+    private void processEvents(WatchKey key) throws IOException {
+        Path directory = keyDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so any class may have changed
+                changed = true;
+                changesUnknown = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (jarFiles.contains(path)) {
+                changed = true;
+                changesUnknown = true;
+            }
+            Path root = directoryRoots.get(directory);
+            if (root == null) {
+                continue;
+            }
+            changed = true;
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerTree(path, root, changedClasses);
+            } else {
+                String className = getClassName(root, path);
+                if (className != null) {
+                    changedClasses.add(className);
+                }
+            }
+        }
+        if (!key.reset()) {
+            // The directory was removed or moved away, and class files it contained may have gone without events
+            keyDirectories.remove(key);
+            Path root = directoryRoots.remove(directory);
+            if (root != null || jarDirectories.contains(directory)) {
+                changed = true;
+                changesUnknown = true;
+            }
+            if (roots.contains(directory) || jarDirectories.contains(directory)) {
+                missingDirectories.add(directory);
+            }
+        }
+    }
+
+    private static String getClassName(Path root, Path file) {
+        String name = root.relativize(file).toString();
+        if (!name.endsWith(".class")) {
+            return null;
+        }
+        return name.substring(0, name.length() - ".class".length()).replace(File.separatorChar, '.');
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
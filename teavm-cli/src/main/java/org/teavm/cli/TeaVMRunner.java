@@ -19,10 +19,16 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Set;
 import org.apache.commons.cli.*;
+import org.teavm.tooling.CacheStorageType;
 import org.teavm.tooling.RuntimeCopyOperation;
 import org.teavm.tooling.TeaVMTool;
+import org.teavm.tooling.TeaVMToolCache;
 import org.teavm.tooling.TeaVMToolException;
+import org.teavm.tooling.daemon.TeaVMDaemon;
+import org.teavm.tooling.daemon.TeaVMDaemonClient;
 import org.teavm.vm.TeaVMPhase;
 import org.teavm.vm.TeaVMProgressFeedback;
 import org.teavm.vm.TeaVMProgressListener;
@@ -36,6 +42,7 @@ public final class TeaVMRunner {
     private static long phaseStartTime;
     private static TeaVMPhase currentPhase;
     private static String[] classPath;
+    private static int daemonPort;
 
     private TeaVMRunner() {
     }
@@ -91,16 +98,101 @@ public final class TeaVMRunner {
                 .withDescription("Incremental build cache directory")
                 .withLongOpt("cachedir")
                 .create('c'));
+        options.addOption(OptionBuilder
+                .withArgName("directory|pack")
+                .hasArg()
+                .withDescription("how to store incremental build cache. Possible values are: directory|pack")
+                .withLongOpt("cachestorage")
+                .create());
+        options.addOption(OptionBuilder
+                .withArgName("megabytes")
+                .hasArg()
+                .withDescription("maximum size of incremental build cache, least recently used entries are "
+                        + "removed when cache grows larger")
+                .withLongOpt("cachemaxsize")
+                .create());
+        options.addOption(OptionBuilder
+                .withDescription("remove entries that were not used by this build from incremental build cache")
+                .withLongOpt("cachegc")
+                .create());
         options.addOption(OptionBuilder
                 .withDescription("Wait for command after compilation, in order to enable hot recompilation")
                 .withLongOpt("wait")
                 .create('w'));
+        options.addOption(OptionBuilder
+                .withDescription("watch directories and jar files of classpath and rebuild JavaScript each time "
+                        + "they change")
+                .withLongOpt("watch")
+                .create());
         options.addOption(OptionBuilder
                 .withArgName("classpath")
                 .hasArgs()
                 .withDescription("Additional classpath that will be reloaded by TeaVM each time in wait mode")
                 .withLongOpt("classpath")
                 .create('p'));
+        options.addOption(OptionBuilder
+                .withArgName("number")
+                .hasArg()
+                .withDescription("how many threads should TeaVM run (0 means number of available processors)")
+                .withLongOpt("threads")
+                .create("t"));
+        options.addOption(OptionBuilder
+                .withArgName("file")
+                .hasArg()
+                .withDescription("write metrics of the build (time and memory of each phase, time of plugins, "
+                        + "cache hits) to the file as JSON")
+                .withLongOpt("metrics")
+                .create());
+        options.addOption(OptionBuilder
+                .withArgName("file")
+                .hasArg()
+                .withDescription("write sizes of generated code by classes, packages, methods and plugins, "
+                        + "and why classes are reachable, to the file as HTML if its name ends with .html, "
+                        + "otherwise as JSON")
+                .withLongOpt("sizereport")
+                .create());
+        options.addOption(OptionBuilder
+                .withDescription("write string constants as a single string literal, which loads faster "
+                        + "when there are many constants")
+                .withLongOpt("packstrings")
+                .create());
+        options.addOption(OptionBuilder
+                .withDescription("parse bodies of methods only when they are needed, which makes build faster "
+                        + "when application uses small part of its class path. Unreachable methods are not "
+                        + "checked by plugins. Has no effect on incremental build")
+                .withLongOpt("lazyparsing")
+                .create());
+        options.addOption(OptionBuilder
+                .withArgName("file")
+                .hasArg()
+                .withDescription("JSON size report of another build, that the size report is compared to")
+                .withLongOpt("sizebaseline")
+                .create());
+        options.addOption(OptionBuilder
+                .withDescription("split code into chunks that are loaded on demand at methods annotated by "
+                        + "@SplitPoint")
+                .withLongOpt("split")
+                .create());
+        options.addOption(OptionBuilder
+                .withArgName("method")
+                .hasArg()
+                .withDescription("method that is a split point, e.g. org.example.Editor.open(Ljava/lang/String;)V. "
+                        + "May be specified several times, implies --split")
+                .withLongOpt("splitpoint")
+                .create());
+        options.addOption(OptionBuilder
+                .withDescription("run as a daemon that builds JavaScript on requests of other TeaVM processes, "
+                        + "keeping parsed classes and other data in memory between builds")
+                .withLongOpt("daemon")
+                .create());
+        options.addOption(OptionBuilder
+                .withArgName("port")
+                .hasArg()
+                .withDescription("port of the daemon (" + TeaVMDaemon.DEFAULT_PORT + " by default). Without "
+                        + "--daemon, causes TeaVM to ask the daemon to build JavaScript instead of building it "
+                        + "in this process")
+                .withLongOpt("daemonport")
+                .create());
 
         if (args.length == 0) {
             printUsage(options);
@@ -115,6 +207,20 @@ public final class TeaVMRunner {
             return;
         }
 
+        if (commandLine.hasOption("daemonport")) {
+            try {
+                daemonPort = Integer.parseInt(commandLine.getOptionValue("daemonport"));
+            } catch (NumberFormatException e) {
+                System.err.println("Wrong parameter for --daemonport option specified");
+                printUsage(options);
+                return;
+            }
+        }
+        if (commandLine.hasOption("daemon")) {
+            runDaemon();
+            return;
+        }
+
         TeaVMTool tool = new TeaVMTool();
         tool.setBytecodeLogging(commandLine.hasOption("logbytecode"));
         if (commandLine.hasOption("d")) {
@@ -162,10 +268,78 @@ public final class TeaVMRunner {
         } else {
             tool.setCacheDirectory(new File(tool.getTargetDirectory(), "teavm-cache"));
         }
+        if (commandLine.hasOption("cachestorage")) {
+            switch (commandLine.getOptionValue("cachestorage")) {
+                case "directory":
+                    tool.setCacheStorageType(CacheStorageType.DIRECTORY);
+                    break;
+                case "pack":
+                    tool.setCacheStorageType(CacheStorageType.PACK);
+                    break;
+                default:
+                    System.err.println("Wrong parameter for --cachestorage option specified");
+                    printUsage(options);
+                    return;
+            }
+        }
+        if (commandLine.hasOption("cachemaxsize")) {
+            try {
+                tool.setCacheMaxSize(Integer.parseInt(commandLine.getOptionValue("cachemaxsize")));
+            } catch (NumberFormatException e) {
+                System.err.println("Wrong parameter for --cachemaxsize option specified");
+                printUsage(options);
+                return;
+            }
+        }
+        if (commandLine.hasOption("cachegc")) {
+            tool.setCacheGarbageCollecting(true);
+        }
         if (commandLine.hasOption('p')) {
             classPath = commandLine.getOptionValues('p');
         }
+        if (commandLine.hasOption("t")) {
+            try {
+                tool.setNumThreads(Integer.parseInt(commandLine.getOptionValue("t")));
+            } catch (NumberFormatException e) {
+                System.err.println("Wrong parameter for -t option specified");
+                printUsage(options);
+                return;
+            }
+        }
+        if (commandLine.hasOption("metrics")) {
+            tool.setMetricsFile(new File(commandLine.getOptionValue("metrics")));
+        }
+        if (commandLine.hasOption("packstrings")) {
+            tool.setStringPoolPacked(true);
+        }
+        if (commandLine.hasOption("lazyparsing")) {
+            tool.setLazyParsing(true);
+        }
+        if (commandLine.hasOption("sizereport")) {
+            tool.setSizeReportFile(new File(commandLine.getOptionValue("sizereport")));
+        }
+        if (commandLine.hasOption("sizebaseline")) {
+            if (!commandLine.hasOption("sizereport")) {
+                System.err.println("--sizebaseline option requires --sizereport option");
+                printUsage(options);
+                return;
+            }
+            tool.setSizeReportBaseline(new File(commandLine.getOptionValue("sizebaseline")));
+        }
+        if (commandLine.hasOption("split")) {
+            tool.setCodeSplitting(true);
+        }
+        if (commandLine.hasOption("splitpoint")) {
+            tool.setCodeSplitting(true);
+            tool.getSplitPoints().addAll(Arrays.asList(commandLine.getOptionValues("splitpoint")));
+        }
         boolean interactive = commandLine.hasOption('w');
+        boolean watching = commandLine.hasOption("watch");
+        if (watching && (classPath == null || classPath.length == 0)) {
+            System.err.println("--watch option requires --classpath option");
+            printUsage(options);
+            return;
+        }
         args = commandLine.getArgs();
         if (args.length > 1) {
             System.err.println("Unexpected arguments");
@@ -178,7 +352,10 @@ public final class TeaVMRunner {
         tool.getProperties().putAll(System.getProperties());
         tool.setProgressListener(progressListener);
 
-        if (interactive) {
+        if (watching) {
+            watch(tool);
+        } else if (interactive) {
+            tool.setCache(new TeaVMToolCache());
             boolean quit = false;
             BufferedReader reader;
             try {
@@ -210,19 +387,64 @@ public final class TeaVMRunner {
                 }
             } while (!quit);
         } else {
+            boolean succeeded = false;
             try {
-                build(tool);
+                succeeded = build(tool);
             } catch (Exception e) {
                 e.printStackTrace(System.err);
-                System.exit(-2);
             }
-            if (!tool.getProblemProvider().getSevereProblems().isEmpty()) {
+            if (!succeeded) {
                 System.exit(-2);
             }
         }
     }
 
-    private static void build(TeaVMTool tool) throws TeaVMToolException {
+    private static void watch(TeaVMTool tool) {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        cache.setChangesReported(true);
+        tool.setCache(cache);
+        try (ClassPathWatcher watcher = new ClassPathWatcher(classPath)) {
+            while (true) {
+                try {
+                    build(tool);
+                } catch (Exception e) {
+                    e.printStackTrace(System.err);
+                }
+                System.out.println("Waiting for changes of classpath");
+                Set<String> changedClasses = watcher.waitForChanges();
+                if (changedClasses == null) {
+                    System.out.println("Classpath changed, rebuilding");
+                    cache.classPathChanged();
+                } else {
+                    System.out.println(changedClasses.size() + " classes changed, rebuilding");
+                    cache.classesChanged(changedClasses);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            System.exit(-2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void runDaemon() {
+        int port = daemonPort != 0 ? daemonPort : TeaVMDaemon.DEFAULT_PORT;
+        try (TeaVMDaemon daemon = new TeaVMDaemon(port, TeaVMRunner.class.getClassLoader())) {
+            daemon.setLog(new ConsoleTeaVMToolLog());
+            System.out.println("TeaVM daemon is listening on port " + daemon.getPort());
+            System.out.println("Clients are authenticated with token from " + daemon.getTokenFile());
+            daemon.run();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            System.exit(-2);
+        }
+    }
+
+    private static boolean build(TeaVMTool tool) throws TeaVMToolException, IOException {
+        if (daemonPort != 0) {
+            return buildInDaemon(tool);
+        }
         resetClassLoader(tool);
         currentPhase = null;
         startTime = System.currentTimeMillis();
@@ -230,6 +452,21 @@ public final class TeaVMRunner {
         tool.generate();
         reportPhaseComplete();
         System.out.println("Build complete for " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+        return tool.getProblemProvider().getSevereProblems().isEmpty();
+    }
+
+    private static boolean buildInDaemon(TeaVMTool tool) throws IOException {
+        TeaVMDaemonClient client = new TeaVMDaemonClient(daemonPort);
+        if (classPath != null) {
+            for (String entry : classPath) {
+                client.getClassPath().add(new File(entry));
+            }
+        }
+        startTime = System.currentTimeMillis();
+        boolean succeeded = client.build(tool);
+        System.out.println("Build " + (succeeded ? "complete" : "failed") + " for "
+                + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+        return succeeded;
     }
 
     private static void resetClassLoader(TeaVMTool tool) {
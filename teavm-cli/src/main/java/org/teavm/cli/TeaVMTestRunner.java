@@ -69,6 +69,11 @@ public final class TeaVMTestRunner {
                 .withDescription("Incremental build")
                 .withLongOpt("incremental")
                 .create('i'));
+        options.addOption(OptionBuilder
+                .withDescription("parse bodies of methods only when they are needed. Unreachable methods are "
+                        + "not checked by plugins")
+                .withLongOpt("lazyparsing")
+                .create());
 
         if (args.length == 0) {
             printUsage(options);
@@ -104,6 +109,9 @@ public final class TeaVMTestRunner {
         if (commandLine.hasOption('i')) {
             tool.setIncremental(true);
         }
+        if (commandLine.hasOption("lazyparsing")) {
+            tool.setLazyParsing(true);
+        }
 
         args = commandLine.getArgs();
         if (args.length == 0) {
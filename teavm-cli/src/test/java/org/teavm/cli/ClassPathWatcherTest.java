@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cli;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ClassPathWatcherTest {
+    private File directory;
+    private File classes;
+    private ClassPathWatcher watcher;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("teavm-watch").toFile();
+        classes = new File(directory, "classes");
+        assertThat(classes.mkdir(), is(true));
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void changesWithinDebounceIntervalGoToSingleBatch() throws Exception {
+        watcher = new ClassPathWatcher(new String[] { classes.getPath() });
+        Thread writer = new Thread(() -> {
+            try {
+                write("A.class");
+                Thread.sleep(ClassPathWatcher.DEBOUNCE_MILLIS / 3);
+                write("foo/B.class");
+                Thread.sleep(ClassPathWatcher.DEBOUNCE_MILLIS / 3);
+                write("C.class");
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        Set<String> changes = watcher.waitForChanges();
+        writer.join();
+        assertThat(changes, is(set("A", "foo.B", "C")));
+
+        write("foo/B.class");
+        write("resource.txt");
+        assertThat(watcher.waitForChanges(), is(set("foo.B")));
+    }
+
+    @Test(timeout = 10000)
+    public void removedDirectoryWatchedAgain() throws Exception {
+        write("A.class");
+        watcher = new ClassPathWatcher(new String[] { classes.getPath() });
+        delete(classes);
+        assertThat(watcher.waitForChanges(), is(nullValue()));
+
+        write("A.class");
+        assertThat(watcher.waitForChanges(), is(nullValue()));
+
+        write("A.class");
+        write("foo/B.class");
+        assertThat(watcher.waitForChanges(), is(set("A", "foo.B")));
+    }
+
+    @Test(timeout = 10000)
+    public void missingDirectoryWatchedWhenCreated() throws Exception {
+        delete(classes);
+        watcher = new ClassPathWatcher(new String[] { classes.getPath() });
+        write("A.class");
+        assertThat(watcher.waitForChanges(), is(nullValue()));
+
+        write("A.class");
+        assertThat(watcher.waitForChanges(), is(set("A")));
+    }
+
+    @Test(timeout = 10000)
+    public void changedJarGivesUnknownChanges() throws Exception {
+        File jar = new File(directory, "lib.jar");
+        Files.write(jar.toPath(), new byte[] { 1 });
+        watcher = new ClassPathWatcher(new String[] { classes.getPath(), jar.getPath() });
+        Files.write(jar.toPath(), new byte[] { 2 });
+        assertThat(watcher.waitForChanges(), is(nullValue()));
+    }
+
+    private void write(String name) throws IOException {
+        File file = new File(classes, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[] { 0 });
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
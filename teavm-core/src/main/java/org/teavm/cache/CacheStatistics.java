@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Counts lookups of a cache that found an up-to-date entry (hits) and lookups that did not (misses).
+ * The class is thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class CacheStatistics {
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public void record(boolean hit) {
+        if (hit) {
+            hit();
+        } else {
+            miss();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return share of lookups that were hits, or <code>0</code> if the cache was never looked up.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>Place where disk caches keep their entries. Entries are identified by keys that look like relative
+ * file paths with an extension that starts with <code>.teavm-</code>, for example
+ * <code>java/lang/Object.teavm-cls</code>.</p>
+ *
+ * <p>Storage remembers which entries were read or written since it was created. This allows to remove entries
+ * the build no longer needs, and to evict least recently used entries when the storage grows too large.
+ * Methods that remove entries should be called after {@link #flush()}.</p>
+ *
+ * @author Alexey Andreev
+ */
+public interface CacheStorage {
+    /**
+     * <p>Opens an entry for reading. May be called from several threads at once.</p>
+     *
+     * @return stream of entry's content or <code>null</code> if there is no such entry.
+     */
+    InputStream read(String key) throws IOException;
+
+    /**
+     * <p>Opens an entry for writing. The entry replaces the existing one when the returned stream is closed,
+     * but it is only guaranteed to persist after {@link #flush()}.</p>
+     */
+    OutputStream write(String key) throws IOException;
+
+    void flush() throws IOException;
+
+    /**
+     * <p>Removes entries that were neither read nor written since this storage was created.</p>
+     */
+    void removeUnused() throws IOException;
+
+    /**
+     * <p>Removes least recently used entries until the remaining ones take no more than the given number
+     * of bytes.</p>
+     */
+    void trim(long maxSize) throws IOException;
+
+    void clear() throws IOException;
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.*;
+import java.util.*;
+import org.teavm.parsing.ClassHashProvider;
+
+/**
+ * <p>Writes and checks hashes of classes that a cache entry was produced from. An entry stays valid as long as
+ * none of these classes changed their contents, whatever happened to their modification dates.</p>
+ *
+ * @author Alexey Andreev
+ */
+final class ClassDependencyIO {
+    private ClassDependencyIO() {
+    }
+
+    public static void writeDependencies(DataOutput output, Collection<String> classNames,
+            ClassHashProvider hashProvider) throws IOException {
+        output.writeShort(classNames.size());
+        for (String className : classNames) {
+            output.writeUTF(className);
+            writeHash(output, hashProvider.getClassHash(className));
+        }
+    }
+
+    public static boolean dependenciesChanged(DataInput input, ClassHashProvider hashProvider)
+            throws IOException {
+        int depCount = input.readShort();
+        for (int i = 0; i < depCount; ++i) {
+            String depClass = input.readUTF();
+            if (hashChanged(input, hashProvider.getClassHash(depClass))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void writeHash(DataOutput output, byte[] hash) throws IOException {
+        if (hash == null) {
+            output.writeByte(0);
+            return;
+        }
+        output.writeByte(hash.length);
+        output.write(hash);
+    }
+
+    /**
+     * <p>Reads hash written by {@link #writeHash(DataOutput, byte[])} and compares it to the actual one.
+     * Classes without hash are considered always changed.</p>
+     */
+    public static boolean hashChanged(DataInput input, byte[] actualHash) throws IOException {
+        byte[] hash = new byte[input.readUnsignedByte()];
+        input.readFully(hash);
+        return actualHash == null || !Arrays.equals(hash, actualHash);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Stores every cache entry in a separate file of the given directory. Last modification date of a file
+ * tells when the entry was used last time, {@link #flush()} updates it for all entries read since the storage
+ * was created, see {@link #setUsageRecorded(boolean)}.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class DirectoryCacheStorage implements CacheStorage {
+    private File directory;
+    private Set<String> usedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> readKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private boolean usageRecorded = true;
+
+    public DirectoryCacheStorage(File directory) {
+        this.directory = directory;
+    }
+
+    public boolean isUsageRecorded() {
+        return usageRecorded;
+    }
+
+    /**
+     * <p>Specifies whether {@link #flush()} updates last modification dates of entries that were read, so that
+     * {@link #trim(long)} removes least recently used entries rather than least recently written ones. It takes
+     * a file system call per entry, so it's not worth it when the storage is never trimmed. Enabled by
+     * default.</p>
+     */
+    public void setUsageRecorded(boolean usageRecorded) {
+        this.usageRecorded = usageRecorded;
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            return null;
+        }
+        usedKeys.add(key);
+        if (usageRecorded) {
+            readKeys.add(key);
+        }
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public OutputStream write(String key) throws IOException {
+        File file = new File(directory, key);
+        file.getParentFile().mkdirs();
+        usedKeys.add(key);
+        // Writing updates modification date anyway
+        readKeys.remove(key);
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    @Override
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (String key : readKeys) {
+            new File(directory, key).setLastModified(now);
+        }
+        readKeys.clear();
+    }
+
+    @Override
+    public void removeUnused() {
+        for (Map.Entry<String, File> entry : findEntries().entrySet()) {
+            if (!usedKeys.contains(entry.getKey())) {
+                entry.getValue().delete();
+            }
+        }
+        removeEmptyDirectories(directory);
+    }
+
+    @Override
+    public void trim(long maxSize) {
+        List<File> files = new ArrayList<>(findEntries().values());
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        final Map<File, Long> dates = new HashMap<>();
+        for (File file : files) {
+            dates.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(dates.get(o1), dates.get(o2));
+            }
+        });
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+        removeEmptyDirectories(directory);
+    }
+
+    @Override
+    public void clear() {
+        for (File file : findEntries().values()) {
+            file.delete();
+        }
+        removeEmptyDirectories(directory);
+    }
+
+    private Map<String, File> findEntries() {
+        Map<String, File> entries = new HashMap<>();
+        findEntries(directory, "", entries);
+        return entries;
+    }
+
+    private void findEntries(File dir, String prefix, Map<String, File> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findEntries(file, prefix + file.getName() + "/", entries);
+            } else if (file.getName().contains(".teavm-")) {
+                entries.put(prefix + file.getName(), file);
+            }
+        }
+    }
+
+    private void removeEmptyDirectories(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                removeEmptyDirectories(file);
+                String[] remaining = file.list();
+                if (remaining != null && remaining.length == 0) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
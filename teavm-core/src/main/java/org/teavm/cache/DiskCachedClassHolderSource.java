@@ -18,7 +18,7 @@ package org.teavm.cache;
 import java.io.*;
 import java.util.*;
 import org.teavm.model.*;
-import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
 
 /**
  *
@@ -27,44 +27,56 @@ import org.teavm.parsing.ClassDateProvider;
 public class DiskCachedClassHolderSource implements ClassHolderSource {
     private static AccessLevel[] accessLevels = AccessLevel.values();
     private static ElementModifier[] elementModifiers = ElementModifier.values();
-    private File directory;
+    private CacheStorage storage;
     private SymbolTable symbolTable;
     private ClassHolderSource innerSource;
-    private ClassDateProvider classDateProvider;
+    private ClassHashProvider classHashProvider;
     private Map<String, Item> cache = new HashMap<>();
     private Set<String> newClasses = new HashSet<>();
     private ProgramIO programIO;
+    private CacheStatistics statistics = new CacheStatistics();
 
     public DiskCachedClassHolderSource(File directory, SymbolTable symbolTable, SymbolTable fileTable,
-            ClassHolderSource innerSource, ClassDateProvider classDateProvider) {
-        this.directory = directory;
+            ClassHolderSource innerSource, ClassHashProvider classHashProvider) {
+        this(new DirectoryCacheStorage(directory), symbolTable, fileTable, innerSource, classHashProvider);
+    }
+
+    public DiskCachedClassHolderSource(CacheStorage storage, SymbolTable symbolTable, SymbolTable fileTable,
+            ClassHolderSource innerSource, ClassHashProvider classHashProvider) {
+        this.storage = storage;
         this.symbolTable = symbolTable;
         this.innerSource = innerSource;
-        this.classDateProvider = classDateProvider;
+        this.classHashProvider = classHashProvider;
         programIO = new ProgramIO(symbolTable, fileTable);
     }
 
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public ClassHolder get(String name) {
         Item item = cache.get(name);
         if (item == null) {
             item = new Item();
             cache.put(name, item);
-            File classFile = new File(directory, name.replace('.', '/') + ".teavm-cls");
-            if (classFile.exists()) {
-                Date classDate = classDateProvider.getModificationDate(name);
-                if (classDate != null && classDate.before(new Date(classFile.lastModified()))) {
-                    try (InputStream input = new BufferedInputStream(new FileInputStream(classFile))) {
-                        item.cls = readClass(input, name);
-                    } catch (IOException e) {
-                        // We could not access cache file, so let's parse class file
-                        item.cls = null;
-                    }
+            try (InputStream input = storage.read(getClassKey(name))) {
+                if (input != null && !ClassDependencyIO.hashChanged(new DataInputStream(input),
+                        classHashProvider.getClassHash(name))) {
+                    item.cls = readClass(input, name);
                 }
+            } catch (IOException e) {
+                // We could not access cache file, so let's parse class file
+                item.cls = null;
             }
-            if (item.cls == null) {
+            if (item.cls != null) {
+                statistics.hit();
+            } else {
                 item.cls = innerSource.get(name);
                 newClasses.add(name);
+                if (item.cls != null) {
+                    statistics.miss();
+                }
             }
         }
         return item.cls;
@@ -78,15 +90,19 @@ public class DiskCachedClassHolderSource implements ClassHolderSource {
         for (String className : newClasses) {
             Item item = cache.get(className);
             if (item.cls != null) {
-                File classFile = new File(directory, className.replace('.', '/') + ".teavm-cls");
-                classFile.getParentFile().mkdirs();
-                try (OutputStream output = new BufferedOutputStream(new FileOutputStream(classFile))) {
+                try (OutputStream output = storage.write(getClassKey(className))) {
+                    ClassDependencyIO.writeHash(new DataOutputStream(output),
+                            classHashProvider.getClassHash(className));
                     writeClass(output, item.cls);
                 }
             }
         }
     }
 
+    private static String getClassKey(String className) {
+        return className.replace('.', '/') + ".teavm-cls";
+    }
+
     private void writeClass(OutputStream stream, ClassHolder cls) throws IOException {
         DataOutput output = new DataOutputStream(stream);
         output.writeByte(cls.getLevel().ordinal());
@@ -199,6 +215,15 @@ public class DiskCachedClassHolderSource implements ClassHolderSource {
         output.writeByte(method.getLevel().ordinal());
         output.writeInt(packModifiers(method.getModifiers()));
         writeAnnotations(output, method.getAnnotations());
+        for (AnnotationContainer parameterAnnotations : method.getParameterAnnotations()) {
+            writeAnnotations(output, parameterAnnotations);
+        }
+        if (method.getAnnotationDefault() != null) {
+            output.writeBoolean(true);
+            writeAnnotationValue(output, method.getAnnotationDefault());
+        } else {
+            output.writeBoolean(false);
+        }
         if (method.getProgram() != null) {
             output.writeBoolean(true);
             programIO.write(method.getProgram(), output);
@@ -213,6 +238,12 @@ public class DiskCachedClassHolderSource implements ClassHolderSource {
         method.setLevel(accessLevels[input.readByte()]);
         method.getModifiers().addAll(unpackModifiers(input.readInt()));
         readAnnotations(input, method.getAnnotations());
+        for (int i = 0; i < method.parameterCount(); ++i) {
+            readAnnotations(input, method.parameterAnnotation(i));
+        }
+        if (input.readBoolean()) {
+            method.setAnnotationDefault(readAnnotationValue(input));
+        }
         boolean hasProgram = input.readBoolean();
         if (hasProgram) {
             method.setProgram(programIO.read(input));
@@ -286,7 +317,7 @@ public class DiskCachedClassHolderSource implements ClassHolderSource {
                 output.writeInt(symbolTable.lookup(value.getEnumValue().getFieldName()));
                 break;
             case AnnotationValue.FLOAT:
-                output.writeDouble(value.getFloat());
+                output.writeFloat(value.getFloat());
                 break;
             case AnnotationValue.INT:
                 output.writeInt(value.getInt());
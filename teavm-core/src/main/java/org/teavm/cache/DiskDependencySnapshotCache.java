@@ -0,0 +1,369 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.teavm.dependency.DependencySnapshot;
+import org.teavm.dependency.DependencySnapshotCache;
+import org.teavm.model.*;
+import org.teavm.parsing.ClassDateProvider;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class DiskDependencySnapshotCache implements DependencySnapshotCache {
+    private static final String SNAPSHOT_KEY = "dependencies.teavm-dep";
+    private static final int VERSION = 3;
+    private CacheStorage storage;
+    private SymbolTable symbolTable;
+    private SymbolTable fileTable;
+    private ClassReaderSource classSource;
+    private ClassDateProvider classDateProvider;
+    private long startDate = System.currentTimeMillis();
+    private DependencySnapshot newSnapshot;
+    private Set<String> changedClasses = new LinkedHashSet<>();
+
+    public DiskDependencySnapshotCache(File directory, SymbolTable symbolTable, SymbolTable fileTable,
+            ClassReaderSource classSource, ClassDateProvider classDateProvider) {
+        this(new DirectoryCacheStorage(directory), symbolTable, fileTable, classSource, classDateProvider);
+    }
+
+    public DiskDependencySnapshotCache(CacheStorage storage, SymbolTable symbolTable, SymbolTable fileTable,
+            ClassReaderSource classSource, ClassDateProvider classDateProvider) {
+        this.storage = storage;
+        this.symbolTable = symbolTable;
+        this.fileTable = fileTable;
+        this.classSource = classSource;
+        this.classDateProvider = classDateProvider;
+    }
+
+    /**
+     * <p>Gets classes that changed since the last requested snapshot was taken. Methods that depend on them
+     * are analyzed again, or the whole snapshot is not reused if some of them were removed.</p>
+     */
+    public Set<String> getChangedClasses() {
+        return changedClasses;
+    }
+
+    @Override
+    public DependencySnapshot get(String configuration) {
+        changedClasses.clear();
+        DependencySnapshot snapshot;
+        Date date;
+        try (InputStream stream = storage.read(SNAPSHOT_KEY)) {
+            if (stream == null) {
+                return null;
+            }
+            DataInput input = new DataInputStream(stream);
+            if (input.readInt() != VERSION) {
+                return null;
+            }
+            date = new Date(input.readLong());
+            if (!readString(input).equals(configuration)) {
+                return null;
+            }
+            snapshot = read(input, configuration);
+        } catch (IOException e) {
+            // we could not read snapshot, so dependencies must be analyzed from scratch
+            return null;
+        }
+        changedClasses.addAll(snapshot.findChangedClasses(classSource, classDateProvider, date));
+        for (String className : changedClasses) {
+            if (classSource.get(className) == null) {
+                // Recorded types may contain the removed class anywhere, so they can't be trusted
+                return null;
+            }
+        }
+        if (!changedClasses.isEmpty()) {
+            snapshot.invalidate(changedClasses, classSource);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void store(DependencySnapshot snapshot) {
+        newSnapshot = snapshot;
+    }
+
+    public void flush() throws IOException {
+        if (newSnapshot == null) {
+            return;
+        }
+        try (OutputStream stream = storage.write(SNAPSHOT_KEY)) {
+            DataOutput output = new DataOutputStream(stream);
+            output.writeInt(VERSION);
+            output.writeLong(startDate);
+            writeString(output, newSnapshot.getConfiguration());
+            write(output, newSnapshot);
+        }
+    }
+
+    private void write(DataOutput output, DependencySnapshot snapshot) throws IOException {
+        output.writeInt(snapshot.getMethodActions().size());
+        for (Map.Entry<MethodReference, List<DependencySnapshot.Action>> entry
+                : snapshot.getMethodActions().entrySet()) {
+            output.writeInt(symbolTable.lookup(entry.getKey().toString()));
+            output.writeInt(entry.getValue().size());
+            for (DependencySnapshot.Action action : entry.getValue()) {
+                writeAction(output, action);
+            }
+        }
+
+        output.writeInt(snapshot.getMethods().size());
+        for (Map.Entry<MethodReference, DependencySnapshot.MethodTypes> entry : snapshot.getMethods().entrySet()) {
+            output.writeInt(symbolTable.lookup(entry.getKey().toString()));
+            DependencySnapshot.MethodTypes methodTypes = entry.getValue();
+            output.writeInt(methodTypes.getVariableValues().length);
+            for (int value : methodTypes.getVariableValues()) {
+                output.writeInt(value);
+            }
+            output.writeInt(methodTypes.getValues().length);
+            for (DependencySnapshot.ValueTypes value : methodTypes.getValues()) {
+                writeValue(output, value);
+            }
+            writeValue(output, methodTypes.getResult());
+            writeValue(output, methodTypes.getThrown());
+        }
+
+        output.writeInt(snapshot.getFields().size());
+        for (Map.Entry<FieldReference, DependencySnapshot.ValueTypes> entry : snapshot.getFields().entrySet()) {
+            writeField(output, entry.getKey());
+            writeValue(output, entry.getValue());
+        }
+
+        output.writeInt(snapshot.getReplayableMethods().size());
+        for (MethodReference method : snapshot.getReplayableMethods()) {
+            output.writeInt(symbolTable.lookup(method.toString()));
+        }
+
+        output.writeInt(snapshot.getClassFingerprints().size());
+        for (Map.Entry<String, byte[]> entry : snapshot.getClassFingerprints().entrySet()) {
+            output.writeInt(symbolTable.lookup(entry.getKey()));
+            output.writeByte(entry.getValue().length);
+            output.write(entry.getValue());
+            byte[] structure = snapshot.getClassStructures().get(entry.getKey());
+            output.writeByte(structure.length);
+            output.write(structure);
+            Map<MethodDescriptor, byte[]> bodies = snapshot.getMethodFingerprints().get(entry.getKey());
+            output.writeShort(bodies.size());
+            for (Map.Entry<MethodDescriptor, byte[]> body : bodies.entrySet()) {
+                output.writeInt(symbolTable.lookup(body.getKey().toString()));
+                output.writeByte(body.getValue().length);
+                output.write(body.getValue());
+            }
+        }
+    }
+
+    private DependencySnapshot read(DataInput input, String configuration) throws IOException {
+        DependencySnapshot snapshot = new DependencySnapshot(configuration);
+        int actionMethodCount = input.readInt();
+        for (int i = 0; i < actionMethodCount; ++i) {
+            MethodReference method = MethodReference.parse(symbolTable.at(input.readInt()));
+            int actionCount = input.readInt();
+            List<DependencySnapshot.Action> actions = new ArrayList<>(actionCount);
+            for (int j = 0; j < actionCount; ++j) {
+                actions.add(readAction(input));
+            }
+            snapshot.getMethodActions().put(method, actions);
+        }
+
+        int methodCount = input.readInt();
+        for (int i = 0; i < methodCount; ++i) {
+            MethodReference method = MethodReference.parse(symbolTable.at(input.readInt()));
+            int[] variableValues = new int[input.readInt()];
+            for (int j = 0; j < variableValues.length; ++j) {
+                variableValues[j] = input.readInt();
+            }
+            DependencySnapshot.ValueTypes[] values = new DependencySnapshot.ValueTypes[input.readInt()];
+            for (int j = 0; j < values.length; ++j) {
+                values[j] = readValue(input);
+            }
+            DependencySnapshot.ValueTypes result = readValue(input);
+            DependencySnapshot.ValueTypes thrown = readValue(input);
+            snapshot.getMethods().put(method, new DependencySnapshot.MethodTypes(variableValues, values, result,
+                    thrown));
+        }
+
+        int fieldCount = input.readInt();
+        for (int i = 0; i < fieldCount; ++i) {
+            FieldReference field = readField(input);
+            snapshot.getFields().put(field, readValue(input));
+        }
+
+        int replayableCount = input.readInt();
+        for (int i = 0; i < replayableCount; ++i) {
+            snapshot.getReplayableMethods().add(MethodReference.parse(symbolTable.at(input.readInt())));
+        }
+
+        int classCount = input.readInt();
+        for (int i = 0; i < classCount; ++i) {
+            String className = symbolTable.at(input.readInt());
+            byte[] fingerprint = new byte[input.readByte()];
+            input.readFully(fingerprint);
+            snapshot.getClassFingerprints().put(className, fingerprint);
+            byte[] structure = new byte[input.readByte()];
+            input.readFully(structure);
+            snapshot.getClassStructures().put(className, structure);
+            int bodyCount = input.readUnsignedShort();
+            Map<MethodDescriptor, byte[]> bodies = new LinkedHashMap<>();
+            for (int j = 0; j < bodyCount; ++j) {
+                MethodDescriptor method = MethodDescriptor.parse(symbolTable.at(input.readInt()));
+                byte[] body = new byte[input.readByte()];
+                input.readFully(body);
+                bodies.put(method, body);
+            }
+            snapshot.getMethodFingerprints().put(className, bodies);
+        }
+        return snapshot;
+    }
+
+    private void writeAction(DataOutput output, DependencySnapshot.Action action) throws IOException {
+        output.writeByte(action.getKind());
+        switch (action.getKind()) {
+            case DependencySnapshot.LINK_CLASS:
+            case DependencySnapshot.INIT_CLASS:
+                output.writeInt(symbolTable.lookup(action.getClassName()));
+                break;
+            case DependencySnapshot.LINK_METHOD:
+            case DependencySnapshot.USE_METHOD:
+                output.writeInt(symbolTable.lookup(action.getMethod().toString()));
+                break;
+            case DependencySnapshot.LINK_FIELD:
+                writeField(output, action.getField());
+                break;
+        }
+        if (action.getKind() != DependencySnapshot.USE_METHOD) {
+            writeLocation(output, action.getLocation());
+        }
+    }
+
+    private DependencySnapshot.Action readAction(DataInput input) throws IOException {
+        byte kind = input.readByte();
+        switch (kind) {
+            case DependencySnapshot.LINK_CLASS: {
+                String className = symbolTable.at(input.readInt());
+                return DependencySnapshot.Action.linkClass(className, readLocation(input));
+            }
+            case DependencySnapshot.LINK_METHOD: {
+                MethodReference method = MethodReference.parse(symbolTable.at(input.readInt()));
+                return DependencySnapshot.Action.linkMethod(method, readLocation(input));
+            }
+            case DependencySnapshot.USE_METHOD:
+                return DependencySnapshot.Action.useMethod(MethodReference.parse(symbolTable.at(input.readInt())));
+            case DependencySnapshot.LINK_FIELD: {
+                FieldReference field = readField(input);
+                return DependencySnapshot.Action.linkField(field, readLocation(input));
+            }
+            case DependencySnapshot.INIT_CLASS: {
+                String className = symbolTable.at(input.readInt());
+                return DependencySnapshot.Action.initClass(className, readLocation(input));
+            }
+            default:
+                throw new IOException("Unknown action: " + kind);
+        }
+    }
+
+    private void writeField(DataOutput output, FieldReference field) throws IOException {
+        output.writeInt(symbolTable.lookup(field.getClassName()));
+        output.writeInt(symbolTable.lookup(field.getFieldName()));
+    }
+
+    private FieldReference readField(DataInput input) throws IOException {
+        String className = symbolTable.at(input.readInt());
+        String fieldName = symbolTable.at(input.readInt());
+        return new FieldReference(className, fieldName);
+    }
+
+    private void writeLocation(DataOutput output, CallLocation location) throws IOException {
+        if (location == null) {
+            output.writeByte(0);
+            return;
+        }
+        InstructionLocation sourceLocation = location.getSourceLocation();
+        if (location.getMethod() == null) {
+            output.writeByte(1);
+        } else if (sourceLocation == null) {
+            output.writeByte(2);
+            output.writeInt(symbolTable.lookup(location.getMethod().toString()));
+        } else {
+            output.writeByte(3);
+            output.writeInt(symbolTable.lookup(location.getMethod().toString()));
+            output.writeInt(sourceLocation.getFileName() != null
+                    ? fileTable.lookup(sourceLocation.getFileName()) : -1);
+            output.writeInt(sourceLocation.getLine());
+        }
+    }
+
+    private CallLocation readLocation(DataInput input) throws IOException {
+        byte kind = input.readByte();
+        switch (kind) {
+            case 0:
+                return null;
+            case 1:
+                return new CallLocation(null);
+            case 2:
+                return new CallLocation(MethodReference.parse(symbolTable.at(input.readInt())));
+            case 3: {
+                MethodReference method = MethodReference.parse(symbolTable.at(input.readInt()));
+                int file = input.readInt();
+                int line = input.readInt();
+                return new CallLocation(method, new InstructionLocation(file >= 0 ? fileTable.at(file) : null,
+                        line));
+            }
+            default:
+                throw new IOException("Unknown location kind: " + kind);
+        }
+    }
+
+    private void writeValue(DataOutput output, DependencySnapshot.ValueTypes value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(value.getTypes().length);
+        for (String type : value.getTypes()) {
+            output.writeInt(symbolTable.lookup(type));
+        }
+        writeValue(output, value.getArrayItem());
+    }
+
+    private DependencySnapshot.ValueTypes readValue(DataInput input) throws IOException {
+        int typeCount = input.readInt();
+        if (typeCount < 0) {
+            return null;
+        }
+        String[] types = new String[typeCount];
+        for (int i = 0; i < typeCount; ++i) {
+            types[i] = symbolTable.at(input.readInt());
+        }
+        return new DependencySnapshot.ValueTypes(types, readValue(input));
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -17,26 +17,41 @@ package org.teavm.cache;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.teavm.model.*;
 import org.teavm.model.instructions.*;
-import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
 
 /**
  *
  * @author Alexey Andreev
  */
 public class DiskProgramCache implements ProgramCache {
-    private File directory;
+    private CacheStorage storage;
     private ProgramIO programIO;
-    private Map<MethodReference, Item> cache = new HashMap<>();
-    private Set<MethodReference> newMethods = new HashSet<>();
-    private ClassDateProvider classDateProvider;
+    private Map<MethodReference, Item> cache = new ConcurrentHashMap<>();
+    private Set<MethodReference> newMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private ClassHashProvider classHashProvider;
+    private CacheStatistics statistics = new CacheStatistics();
 
     public DiskProgramCache(File directory, SymbolTable symbolTable, SymbolTable fileTable,
-            ClassDateProvider classDateProvider) {
-        this.directory = directory;
+            ClassHashProvider classHashProvider) {
+        this(new DirectoryCacheStorage(directory), symbolTable, fileTable, classHashProvider);
+    }
+
+    public DiskProgramCache(CacheStorage storage, SymbolTable symbolTable, SymbolTable fileTable,
+            ClassHashProvider classHashProvider) {
+        this.storage = storage;
         programIO = new ProgramIO(symbolTable, fileTable);
-        this.classDateProvider = classDateProvider;
+        this.classHashProvider = classHashProvider;
+    }
+
+    /**
+     * <p>Counts methods that were looked up in the cache. Each method is counted once, when it is looked up
+     * for the first time.</p>
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
     }
 
     @Override
@@ -44,27 +59,21 @@ public class DiskProgramCache implements ProgramCache {
         Item item = cache.get(method);
         if (item == null) {
             item = new Item();
-            cache.put(method, item);
-            File file = getMethodFile(method);
-            if (file.exists()) {
-                try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            try (InputStream stream = storage.read(getMethodKey(method))) {
+                if (stream != null) {
                     DataInput input = new DataInputStream(stream);
-                    int depCount = input.readShort();
-                    boolean dependenciesChanged = false;
-                    for (int i = 0; i < depCount; ++i) {
-                        String depClass = input.readUTF();
-                        Date depDate = classDateProvider.getModificationDate(depClass);
-                        if (depDate == null || depDate.after(new Date(file.lastModified()))) {
-                            dependenciesChanged = true;
-                            break;
-                        }
-                    }
-                    if (!dependenciesChanged) {
+                    if (!ClassDependencyIO.dependenciesChanged(input, classHashProvider)) {
                         item.program = programIO.read(stream);
                     }
-                } catch (IOException e) {
-                    // we could not read program, just leave it empty
                 }
+            } catch (IOException e) {
+                // we could not read program, just leave it empty
+            }
+            Item existingItem = cache.putIfAbsent(method, item);
+            if (existingItem != null) {
+                item = existingItem;
+            } else {
+                statistics.record(item.program != null);
             }
         }
         return item.program;
@@ -80,7 +89,6 @@ public class DiskProgramCache implements ProgramCache {
 
     public void flush() throws IOException {
         for (MethodReference method : newMethods) {
-            File file = getMethodFile(method);
             ProgramDependencyAnalyzer analyzer = new ProgramDependencyAnalyzer();
             analyzer.dependencies.add(method.getClassName());
             Program program = cache.get(method).program;
@@ -90,21 +98,17 @@ public class DiskProgramCache implements ProgramCache {
                     insn.acceptVisitor(analyzer);
                 }
             }
-            file.getParentFile().mkdirs();
-            try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file))) {
+            try (OutputStream stream = storage.write(getMethodKey(method))) {
                 DataOutput output = new DataOutputStream(stream);
-                output.writeShort(analyzer.dependencies.size());
-                for (String dep : analyzer.dependencies) {
-                    output.writeUTF(dep);
-                }
+                ClassDependencyIO.writeDependencies(output, analyzer.dependencies, classHashProvider);
                 programIO.write(program, stream);
             }
         }
     }
 
-    private File getMethodFile(MethodReference method) {
-        File dir = new File(directory, method.getClassName().replace('.', '/'));
-        return new File(dir, FileNameEncoder.encodeFileName(method.getDescriptor().toString()) + ".teavm-opt");
+    private static String getMethodKey(MethodReference method) {
+        return method.getClassName().replace('.', '/') + "/"
+                + FileNameEncoder.encodeFileName(method.getDescriptor().toString()) + ".teavm-opt";
     }
 
     static class Item {
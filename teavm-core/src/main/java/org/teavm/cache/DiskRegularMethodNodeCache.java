@@ -17,29 +17,47 @@ package org.teavm.cache;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.teavm.javascript.MethodNodeCache;
 import org.teavm.javascript.ast.*;
 import org.teavm.model.MethodReference;
-import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
 
 /**
  *
  * @author Alexey Andreev
  */
 public class DiskRegularMethodNodeCache implements MethodNodeCache {
-    private File directory;
+    private CacheStorage storage;
+    private SymbolTable symbolTable;
+    private SymbolTable fileTable;
     private AstIO astIO;
-    private ClassDateProvider classDateProvider;
-    private Map<MethodReference, Item> cache = new HashMap<>();
-    private Map<MethodReference, AsyncItem> asyncCache = new HashMap<>();
-    private Set<MethodReference> newMethods = new HashSet<>();
-    private Set<MethodReference> newAsyncMethods = new HashSet<>();
+    private ClassHashProvider classHashProvider;
+    private CacheStatistics statistics = new CacheStatistics();
+    private Map<MethodReference, Item> cache = new ConcurrentHashMap<>();
+    private Map<MethodReference, AsyncItem> asyncCache = new ConcurrentHashMap<>();
+    private Set<MethodReference> newMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private Set<MethodReference> newAsyncMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     public DiskRegularMethodNodeCache(File directory, SymbolTable symbolTable, SymbolTable fileTable,
-            ClassDateProvider classDateProvider) {
-        this.directory = directory;
+            ClassHashProvider classHashProvider) {
+        this(new DirectoryCacheStorage(directory), symbolTable, fileTable, classHashProvider);
+    }
+
+    public DiskRegularMethodNodeCache(CacheStorage storage, SymbolTable symbolTable, SymbolTable fileTable,
+            ClassHashProvider classHashProvider) {
+        this.storage = storage;
+        this.symbolTable = symbolTable;
+        this.fileTable = fileTable;
         astIO = new AstIO(symbolTable, fileTable);
-        this.classDateProvider = classDateProvider;
+        this.classHashProvider = classHashProvider;
+    }
+
+    /**
+     * <p>Counts lookups of both regular and async nodes, once per method and kind of node.</p>
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
     }
 
     @Override
@@ -47,27 +65,22 @@ public class DiskRegularMethodNodeCache implements MethodNodeCache {
         Item item = cache.get(methodReference);
         if (item == null) {
             item = new Item();
-            cache.put(methodReference, item);
-            File file = getMethodFile(methodReference, false);
-            if (file.exists()) {
-                try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            try (InputStream stream = storage.read(getMethodKey(methodReference, false))) {
+                if (stream != null) {
                     DataInput input = new DataInputStream(stream);
-                    int depCount = input.readShort();
-                    boolean dependenciesChanged = false;
-                    for (int i = 0; i < depCount; ++i) {
-                        String depClass = input.readUTF();
-                        Date depDate = classDateProvider.getModificationDate(depClass);
-                        if (depDate == null || depDate.after(new Date(file.lastModified()))) {
-                            dependenciesChanged = true;
-                            break;
-                        }
-                    }
-                    if (!dependenciesChanged) {
-                        item.node = astIO.read(input, methodReference);
+                    if (!ClassDependencyIO.dependenciesChanged(input, classHashProvider)) {
+                        // AstIO remembers statements while reading, so it can't be shared between threads
+                        item.node = new AstIO(symbolTable, fileTable).read(input, methodReference);
                     }
-                } catch (IOException e) {
-                    // we could not read program, just leave it empty
                 }
+            } catch (IOException e) {
+                // we could not read program, just leave it empty
+            }
+            Item existingItem = cache.putIfAbsent(methodReference, item);
+            if (existingItem != null) {
+                item = existingItem;
+            } else {
+                statistics.record(item.node != null);
             }
         }
         return item.node;
@@ -86,27 +99,22 @@ public class DiskRegularMethodNodeCache implements MethodNodeCache {
         AsyncItem item = asyncCache.get(methodReference);
         if (item == null) {
             item = new AsyncItem();
-            asyncCache.put(methodReference, item);
-            File file = getMethodFile(methodReference, true);
-            if (file.exists()) {
-                try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            try (InputStream stream = storage.read(getMethodKey(methodReference, true))) {
+                if (stream != null) {
                     DataInput input = new DataInputStream(stream);
-                    int depCount = input.readShort();
-                    boolean dependenciesChanged = false;
-                    for (int i = 0; i < depCount; ++i) {
-                        String depClass = input.readUTF();
-                        Date depDate = classDateProvider.getModificationDate(depClass);
-                        if (depDate == null || depDate.after(new Date(file.lastModified()))) {
-                            dependenciesChanged = true;
-                            break;
-                        }
-                    }
-                    if (!dependenciesChanged) {
-                        item.node = astIO.readAsync(input, methodReference);
+                    if (!ClassDependencyIO.dependenciesChanged(input, classHashProvider)) {
+                        // AstIO remembers statements while reading, so it can't be shared between threads
+                        item.node = new AstIO(symbolTable, fileTable).readAsync(input, methodReference);
                     }
-                } catch (IOException e) {
-                    // we could not read program, just leave it empty
                 }
+            } catch (IOException e) {
+                // we could not read program, just leave it empty
+            }
+            AsyncItem existingItem = asyncCache.putIfAbsent(methodReference, item);
+            if (existingItem != null) {
+                item = existingItem;
+            } else {
+                statistics.record(item.node != null);
             }
         }
         return item.node;
@@ -122,41 +130,33 @@ public class DiskRegularMethodNodeCache implements MethodNodeCache {
 
     public void flush() throws IOException {
         for (MethodReference method : newMethods) {
-            File file = getMethodFile(method, true);
             AstDependencyAnalyzer analyzer = new AstDependencyAnalyzer();
             RegularMethodNode node = cache.get(method).node;
             node.getBody().acceptVisitor(analyzer);
             analyzer.dependencies.add(method.getClassName());
-            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
-                output.writeShort(analyzer.dependencies.size());
-                for (String dependency : analyzer.dependencies) {
-                    output.writeUTF(dependency);
-                }
+            try (DataOutputStream output = new DataOutputStream(storage.write(getMethodKey(method, false)))) {
+                ClassDependencyIO.writeDependencies(output, analyzer.dependencies, classHashProvider);
                 astIO.write(output, node);
             }
         }
         for (MethodReference method : newAsyncMethods) {
-            File file = getMethodFile(method, true);
             AstDependencyAnalyzer analyzer = new AstDependencyAnalyzer();
             AsyncMethodNode node = asyncCache.get(method).node;
             for (AsyncMethodPart part : node.getBody()) {
                 part.getStatement().acceptVisitor(analyzer);
             }
             analyzer.dependencies.add(method.getClassName());
-            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
-                output.writeShort(analyzer.dependencies.size());
-                for (String dependency : analyzer.dependencies) {
-                    output.writeUTF(dependency);
-                }
+            try (DataOutputStream output = new DataOutputStream(storage.write(getMethodKey(method, true)))) {
+                ClassDependencyIO.writeDependencies(output, analyzer.dependencies, classHashProvider);
                 astIO.writeAsync(output, node);
             }
         }
     }
 
-    private File getMethodFile(MethodReference method, boolean async) {
-        File dir = new File(directory, method.getClassName().replace('.', '/'));
-        return new File(dir, FileNameEncoder.encodeFileName(method.getDescriptor().toString()) + ".teavm-ast"
-                + (async ? "-async" : ""));
+    private static String getMethodKey(MethodReference method, boolean async) {
+        return method.getClassName().replace('.', '/') + "/"
+                + FileNameEncoder.encodeFileName(method.getDescriptor().toString()) + ".teavm-ast"
+                + (async ? "-async" : "");
     }
 
     static class AstDependencyAnalyzer implements StatementVisitor, ExprVisitor {
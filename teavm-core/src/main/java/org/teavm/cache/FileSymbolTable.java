@@ -16,79 +16,317 @@
 package org.teavm.cache;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * <p>Symbol table that is stored in a file. The file starts with a header, followed by chunks, one chunk
+ * per {@link #flush()} that added symbols. Each chunk contains number of symbols, size of symbol data,
+ * end offsets of symbols within data and UTF-8 encoded symbols themselves.</p>
+ *
+ * <p>The file is read into memory by {@link #update()}, symbols are decoded when they are requested for the
+ * first time. Looking up a symbol by its value decodes the whole table. The file is not memory mapped, since
+ * a mapping would prevent {@link #flush()} from truncating or replacing the file on some platforms, and mappings
+ * would pile up in processes that run several builds in a row. Files of the previous format, where each
+ * symbol was stored as a sequence of UTF-16 chars, are read as well and rewritten by the next
+ * {@link #flush()}.</p>
  *
  * @author Alexey Andreev
  */
 public class FileSymbolTable implements SymbolTable {
+    private static final int MAGIC = 0x54565359;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
     private File file;
+    private ByteBuffer buffer;
+    private List<Chunk> chunks = new ArrayList<>();
     private List<String> symbols = new ArrayList<>();
-    private Map<String, Integer> symbolMap = new HashMap<>();
+    private Map<String, Integer> symbolMap;
     private int firstUnstoredIndex;
+    private long storedSize;
+    private boolean rewriteNeeded;
+    private BitSet usedSymbols = new BitSet();
+    private boolean synced;
+    private long syncedLength;
+    private long syncedModified;
 
     public FileSymbolTable(File file) {
         this.file = file;
     }
 
-    public void update() throws IOException {
-        symbols.clear();
-        symbolMap.clear();
-        firstUnstoredIndex = 0;
-        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
-            while (true) {
-                int length = input.read();
-                if (length == -1) {
+    public synchronized void update() throws IOException {
+        reset();
+        ByteBuffer contents;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Symbol table is too large: " + file);
+            }
+            contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) {
                     break;
                 }
-                length = ((length & 0xFF) << 8) | (input.read() & 0xFF);
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < length; ++i) {
-                    sb.append(input.readChar());
-                }
-                String symbol = sb.toString();
-                symbolMap.put(symbol, symbols.size());
-                symbols.add(symbol);
-                firstUnstoredIndex = symbols.size();
             }
+            contents.flip();
         }
+        if (contents.remaining() < HEADER_SIZE || contents.getInt(0) != MAGIC) {
+            readLegacy(contents);
+            return;
+        }
+        if (contents.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version of symbol table " + file);
+        }
+        buffer = contents;
+        int position = HEADER_SIZE;
+        while (position + 8 <= buffer.limit()) {
+            int count = buffer.getInt(position);
+            int dataSize = buffer.getInt(position + 4);
+            int dataPosition = position + 8 + count * 4;
+            if (count < 0 || dataSize < 0 || dataPosition < 0 || dataPosition + dataSize > buffer.limit()) {
+                // The last chunk was not written completely, the next flush overwrites it
+                break;
+            }
+            chunks.add(new Chunk(symbols.size(), position + 8, dataPosition));
+            for (int i = 0; i < count; ++i) {
+                symbols.add(null);
+            }
+            position = dataPosition + dataSize;
+        }
+        firstUnstoredIndex = symbols.size();
+        storedSize = position;
+        markSynced();
+    }
+
+    /**
+     * <p>Same as {@link #update()}, but when neither the table was changed since the last update or flush, nor
+     * the file was changed by somebody else, the table only forgets which symbols were used, and keeps symbols
+     * that are already decoded. This helps processes that run several builds in a row.</p>
+     */
+    public synchronized void refresh() throws IOException {
+        if (synced && !rewriteNeeded && firstUnstoredIndex == symbols.size() && file.length() == syncedLength
+                && file.lastModified() == syncedModified) {
+            usedSymbols.clear();
+            return;
+        }
+        update();
+    }
+
+    private void markSynced() {
+        synced = true;
+        syncedLength = file.length();
+        syncedModified = file.lastModified();
     }
 
-    public void flush() throws IOException {
+    private void reset() {
+        buffer = null;
+        chunks.clear();
+        symbols.clear();
+        symbolMap = null;
+        firstUnstoredIndex = 0;
+        storedSize = 0;
+        rewriteNeeded = false;
+        usedSymbols.clear();
+        synced = false;
+    }
+
+    private void readLegacy(ByteBuffer contents) {
+        while (contents.remaining() >= 2) {
+            int length = contents.getShort() & 0xFFFF;
+            if (contents.remaining() < length * 2) {
+                break;
+            }
+            char[] chars = new char[length];
+            contents.asCharBuffer().get(chars);
+            contents.position(contents.position() + length * 2);
+            symbols.add(new String(chars));
+        }
+        rewriteNeeded = true;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (rewriteNeeded) {
+            rewrite();
+            return;
+        }
         if (firstUnstoredIndex >= symbols.size()) {
             return;
         }
-        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file, true)))) {
-            while (firstUnstoredIndex < symbols.size()) {
-                String symbol = symbols.get(firstUnstoredIndex);
-                output.writeByte((symbol.length() >> 8) & 0xFF);
-                output.writeByte(symbol.length() & 0xFF);
-                for (int i = 0; i < symbol.length(); ++i) {
-                    output.writeChar(symbol.charAt(i));
-                }
-                firstUnstoredIndex++;
+        file.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (storedSize == 0) {
+                storedSize = writeFully(channel, createHeader(), 0);
+            }
+            if (channel.size() > storedSize) {
+                channel.truncate(storedSize);
             }
+            storedSize += writeFully(channel, createChunk(firstUnstoredIndex), storedSize);
+        }
+        firstUnstoredIndex = symbols.size();
+        markSynced();
+    }
+
+    private void rewrite() throws IOException {
+        decodeAll();
+        File tempFile = new File(file.getPath() + ".tmp");
+        file.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            storedSize = writeFully(channel, createHeader(), 0);
+            storedSize += writeFully(channel, createChunk(0), storedSize);
+        }
+        buffer = null;
+        chunks.clear();
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        firstUnstoredIndex = symbols.size();
+        rewriteNeeded = false;
+        markSynced();
+    }
+
+    private static ByteBuffer createHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer createChunk(int start) {
+        int count = symbols.size() - start;
+        byte[][] encodedSymbols = new byte[count][];
+        int dataSize = 0;
+        for (int i = 0; i < count; ++i) {
+            encodedSymbols[i] = symbols.get(start + i).getBytes(StandardCharsets.UTF_8);
+            dataSize += encodedSymbols[i].length;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(8 + count * 4 + dataSize);
+        chunk.putInt(count);
+        chunk.putInt(dataSize);
+        int offset = 0;
+        for (byte[] encodedSymbol : encodedSymbols) {
+            offset += encodedSymbol.length;
+            chunk.putInt(offset);
+        }
+        for (byte[] encodedSymbol : encodedSymbols) {
+            chunk.put(encodedSymbol);
+        }
+        chunk.flip();
+        return chunk;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        int size = data.remaining();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
         }
+        return size;
+    }
+
+    /**
+     * <p>Removes all symbols, both from memory and from the file.</p>
+     */
+    public synchronized void clear() throws IOException {
+        reset();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    public synchronized int size() {
+        return symbols.size();
+    }
+
+    /**
+     * <p>Gets number of distinct symbols that were looked up or requested by index since the table was
+     * loaded.</p>
+     */
+    public synchronized int getUsedSymbolCount() {
+        return usedSymbols.cardinality();
     }
 
     @Override
-    public String at(int index) {
-        return symbols.get(index);
+    public synchronized String at(int index) {
+        usedSymbols.set(index);
+        String symbol = symbols.get(index);
+        if (symbol == null) {
+            symbol = decode(index);
+            symbols.set(index, symbol);
+        }
+        return symbol;
     }
 
     @Override
-    public int lookup(String symbol) {
+    public synchronized int lookup(String symbol) {
+        if (symbolMap == null) {
+            decodeAll();
+            symbolMap = new HashMap<>();
+            for (int i = 0; i < symbols.size(); ++i) {
+                symbolMap.put(symbols.get(i), i);
+            }
+        }
         Integer index = symbolMap.get(symbol);
         if (index == null) {
             index = symbols.size();
             symbolMap.put(symbol, index);
             symbols.add(symbol);
         }
+        usedSymbols.set(index);
         return index;
     }
+
+    private void decodeAll() {
+        for (int i = 0; i < symbols.size(); ++i) {
+            if (symbols.get(i) == null) {
+                symbols.set(i, decode(i));
+            }
+        }
+    }
+
+    private String decode(int index) {
+        Chunk chunk = findChunk(index);
+        int localIndex = index - chunk.firstIndex;
+        int start = localIndex > 0 ? buffer.getInt(chunk.offsetsPosition + (localIndex - 1) * 4) : 0;
+        int end = buffer.getInt(chunk.offsetsPosition + localIndex * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer data = buffer.duplicate();
+        data.position(chunk.dataPosition + start);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Chunk findChunk(int index) {
+        int lower = 0;
+        int upper = chunks.size() - 1;
+        while (lower < upper) {
+            int mid = (lower + upper + 1) / 2;
+            if (chunks.get(mid).firstIndex <= index) {
+                lower = mid;
+            } else {
+                upper = mid - 1;
+            }
+        }
+        return chunks.get(lower);
+    }
+
+    private static class Chunk {
+        int firstIndex;
+        int offsetsPosition;
+        int dataPosition;
+
+        Chunk(int firstIndex, int offsetsPosition, int dataPosition) {
+            this.firstIndex = firstIndex;
+            this.offsetsPosition = offsetsPosition;
+            this.dataPosition = dataPosition;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassHolderSource;
+import org.teavm.parsing.ClassDateProvider;
+
+/**
+ * <p>Keeps parsed classes in memory between builds that run in the same process. Each build gets its own
+ * source by {@link #createSource(ClassHolderSource, ClassDateProvider)}. A class is taken from memory when
+ * the date provider of the build reports the same modification date as it reported when the class was parsed,
+ * i.e. when neither the class file nor the jar file that contains it changed. Otherwise the class is requested
+ * from the inner source of the build and replaces the previous one.</p>
+ *
+ * <p>Classes that come from the cache are shared by all builds, so nobody should modify them, which is
+ * already true for classes that {@link org.teavm.dependency.DependencyChecker} reads. The class is
+ * thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class InMemoryClassHolderCache {
+    private ConcurrentMap<String, Item> items = new ConcurrentHashMap<>();
+
+    public ClassHolderSource createSource(ClassHolderSource innerSource, ClassDateProvider classDateProvider) {
+        return createSource(innerSource, classDateProvider, new CacheStatistics());
+    }
+
+    /**
+     * @param statistics counts classes that the source takes from the cache and classes that it gets from
+     * the inner source, each class is counted once.
+     */
+    public ClassHolderSource createSource(ClassHolderSource innerSource, ClassDateProvider classDateProvider,
+            CacheStatistics statistics) {
+        return new Source(innerSource, classDateProvider, statistics);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public void clear() {
+        items.clear();
+    }
+
+    private class Source implements ClassHolderSource {
+        private ClassHolderSource innerSource;
+        private ClassDateProvider classDateProvider;
+        private ConcurrentMap<String, Item> checkedItems = new ConcurrentHashMap<>();
+        private CacheStatistics statistics;
+
+        Source(ClassHolderSource innerSource, ClassDateProvider classDateProvider, CacheStatistics statistics) {
+            this.innerSource = innerSource;
+            this.classDateProvider = classDateProvider;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public ClassHolder get(String name) {
+            Item item = checkedItems.get(name);
+            if (item == null) {
+                item = check(name);
+                Item existing = checkedItems.putIfAbsent(name, item);
+                if (existing != null) {
+                    item = existing;
+                } else {
+                    statistics.record(item.cached);
+                }
+            }
+            return item.cls;
+        }
+
+        private Item check(String name) {
+            Date date = classDateProvider.getModificationDate(name);
+            Item item = items.get(name);
+            if (item != null && date != null && date.equals(item.date)) {
+                return new Item(item.cls, item.date, true);
+            }
+            item = new Item(innerSource.get(name), date, false);
+            if (date != null && item.cls != null) {
+                items.put(name, item);
+            } else {
+                // Nothing to compare with next time
+                items.remove(name);
+            }
+            return item;
+        }
+    }
+
+    private static class Item {
+        final ClassHolder cls;
+        final Date date;
+        final boolean cached;
+
+        Item(ClassHolder cls, Date date, boolean cached) {
+            this.cls = cls;
+            this.date = date;
+            this.cached = cached;
+        }
+    }
+}
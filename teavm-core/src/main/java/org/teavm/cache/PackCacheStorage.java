@@ -0,0 +1,479 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <p>Stores all cache entries in a single pack file, so that file systems where lots of small files are slow
+ * to create and to probe are not stressed. Entries written since the last {@link #flush()} are kept in memory
+ * and then appended to the pack in one sequential write. Entries are read from the pack into memory, an index
+ * file maps keys to positions in the pack. The pack is not memory mapped, since a mapping would prevent
+ * {@link #flush()} from truncating or replacing the pack on some platforms, would crash the process when
+ * a mapped part of the pack is truncated, and mappings would pile up in processes that run several builds
+ * in a row.</p>
+ *
+ * <p>Each record of the pack contains its key, so the index can be rebuilt when it is lost or does not match
+ * the pack. When replaced entries take more space than live ones, the pack is rewritten from scratch.
+ * The index also keeps the date each entry was used last time, which is lost when the index is rebuilt.</p>
+ *
+ * <p>{@link #flush()} also releases the pack file, it is opened again on the next read.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class PackCacheStorage implements CacheStorage {
+    private static final int PACK_MAGIC = 0x5456504B;
+    private static final int INDEX_MAGIC = 0x54564958;
+    private static final int VERSION = 1;
+    private static final int INDEX_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final long MIN_COMPACTION_SIZE = 1 << 20;
+    private File packFile;
+    private File indexFile;
+    private boolean opened;
+    private FileChannel channel;
+    private long packSize;
+    private long liveSize;
+    private Map<String, Entry> entries = new HashMap<>();
+    private Map<String, byte[]> pendingEntries = new LinkedHashMap<>();
+    private Set<String> usedKeys = new HashSet<>();
+    private boolean usageChanged;
+
+    public PackCacheStorage(File directory) {
+        packFile = new File(directory, "cache.teavm-pack");
+        indexFile = new File(directory, "cache.teavm-idx");
+    }
+
+    @Override
+    public synchronized InputStream read(String key) throws IOException {
+        byte[] pendingData = pendingEntries.get(key);
+        if (pendingData != null) {
+            return new ByteArrayInputStream(pendingData);
+        }
+        open();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        use(key);
+        return new ByteBufferInputStream(readData(entry));
+    }
+
+    @Override
+    public OutputStream write(final String key) {
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    put(key, toByteArray());
+                }
+            }
+        };
+    }
+
+    private synchronized void put(String key, byte[] data) {
+        pendingEntries.put(key, data);
+        use(key);
+    }
+
+    private void use(String key) {
+        if (usedKeys.add(key)) {
+            usageChanged = true;
+        }
+    }
+
+    /**
+     * <p>Gets number of bytes the pack file takes, including replaced entries.</p>
+     */
+    public synchronized long getPackSize() throws IOException {
+        open();
+        return packSize;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        try {
+            if (pendingEntries.isEmpty() && !usageChanged) {
+                return;
+            }
+            open();
+            update(false);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void removeUnused() throws IOException {
+        try {
+            open();
+            boolean removed = false;
+            for (Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<String, Entry> entry = iter.next();
+                if (!usedKeys.contains(entry.getKey())) {
+                    liveSize -= entry.getValue().recordSize();
+                    iter.remove();
+                    removed = true;
+                }
+            }
+            if (removed) {
+                update(false);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void trim(long maxSize) throws IOException {
+        try {
+            open();
+            if (packSize <= maxSize) {
+                return;
+            }
+            List<Map.Entry<String, Entry>> sortedEntries = new ArrayList<>(entries.entrySet());
+            Collections.sort(sortedEntries, new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                    return Long.compare(o1.getValue().lastUsed, o2.getValue().lastUsed);
+                }
+            });
+            for (Map.Entry<String, Entry> entry : sortedEntries) {
+                if (HEADER_SIZE + liveSize <= maxSize) {
+                    break;
+                }
+                liveSize -= entry.getValue().recordSize();
+                entries.remove(entry.getKey());
+            }
+            update(true);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        close();
+        pendingEntries.clear();
+        usedKeys.clear();
+        usageChanged = false;
+        packFile.delete();
+        indexFile.delete();
+    }
+
+    private void update(boolean forceCompaction) throws IOException {
+        long newLiveSize = liveSize;
+        long newPackSize = Math.max(packSize, HEADER_SIZE);
+        for (Map.Entry<String, byte[]> pending : pendingEntries.entrySet()) {
+            Entry existing = entries.get(pending.getKey());
+            if (existing != null) {
+                newLiveSize -= existing.recordSize();
+            }
+            long recordSize = recordSize(pending.getKey(), pending.getValue().length);
+            newLiveSize += recordSize;
+            newPackSize += recordSize;
+        }
+        if (forceCompaction || newPackSize > MIN_COMPACTION_SIZE
+                && newPackSize - HEADER_SIZE - newLiveSize > newLiveSize) {
+            compact();
+        } else if (!pendingEntries.isEmpty()) {
+            append();
+        }
+        pendingEntries.clear();
+        long now = System.currentTimeMillis();
+        for (String key : usedKeys) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.lastUsed = now;
+            }
+        }
+        usageChanged = false;
+        writeIndex();
+    }
+
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        entries.clear();
+        packSize = 0;
+        liveSize = 0;
+        if (!packFile.exists()) {
+            return;
+        }
+        channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != PACK_MAGIC || header.getInt() != VERSION) {
+            // Pack was written by another version, it will be overwritten by the next flush
+            return;
+        }
+        packSize = size;
+        if (!readIndex()) {
+            rebuildIndex();
+        }
+    }
+
+    private void close() throws IOException {
+        opened = false;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private boolean readIndex() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)))) {
+            if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION
+                    || input.readLong() != packSize) {
+                return false;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = input.readUTF();
+                long offset = input.readLong();
+                int length = input.readInt();
+                Entry entry = new Entry(offset, length, utf8Length(key));
+                entry.lastUsed = input.readLong();
+                addEntry(key, entry);
+            }
+            return true;
+        } catch (IOException e) {
+            entries.clear();
+            liveSize = 0;
+            return false;
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        long position = HEADER_SIZE;
+        while (position + 4 <= packSize) {
+            int keyLength = read(position, 4).getInt();
+            if (keyLength < 0 || position + 8 + keyLength > packSize) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            read(position + 4, keyLength).get(keyBytes);
+            int length = read(position + 4 + keyLength, 4).getInt();
+            long offset = position + 8 + keyLength;
+            if (length < 0 || offset + length > packSize) {
+                break;
+            }
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                liveSize -= existing.recordSize();
+            }
+            addEntry(key, new Entry(offset, length, keyLength));
+            position = offset + length;
+        }
+        // Last record might be incomplete, the next append overwrites it
+        packSize = position;
+    }
+
+    private void addEntry(String key, Entry entry) {
+        entries.put(key, entry);
+        liveSize += entry.recordSize();
+    }
+
+    private void append() throws IOException {
+        packFile.getParentFile().mkdirs();
+        try (FileChannel output = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (output.size() != packSize) {
+                output.truncate(packSize);
+            }
+            output.position(packSize);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(output), 65536));
+            if (packSize == 0) {
+                writeHeader(data);
+                packSize = HEADER_SIZE;
+            }
+            for (Map.Entry<String, byte[]> pending : pendingEntries.entrySet()) {
+                Entry existing = entries.get(pending.getKey());
+                if (existing != null) {
+                    liveSize -= existing.recordSize();
+                }
+                addEntry(pending.getKey(), writeRecord(data, pending.getKey(), ByteBuffer.wrap(pending.getValue())));
+            }
+            data.flush();
+        }
+    }
+
+    private void compact() throws IOException {
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.addAll(pendingEntries.keySet());
+        keys = new ArrayList<>(new TreeSet<>(keys));
+        Map<String, Entry> oldEntries = entries;
+        entries = new HashMap<>();
+        liveSize = 0;
+        File tempFile = new File(packFile.getPath() + ".tmp");
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), 65536))) {
+            writeHeader(data);
+            packSize = HEADER_SIZE;
+            for (String key : keys) {
+                byte[] pendingData = pendingEntries.get(key);
+                Entry oldEntry = oldEntries.get(key);
+                ByteBuffer content = pendingData != null ? ByteBuffer.wrap(pendingData) : readData(oldEntry);
+                Entry entry = writeRecord(data, key, content);
+                if (oldEntry != null) {
+                    entry.lastUsed = oldEntry.lastUsed;
+                }
+                addEntry(key, entry);
+            }
+        }
+        close();
+        Files.move(tempFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(PACK_MAGIC);
+        output.writeInt(VERSION);
+    }
+
+    private Entry writeRecord(DataOutputStream output, String key, ByteBuffer content) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = content.remaining();
+        output.writeInt(keyBytes.length);
+        output.write(keyBytes);
+        output.writeInt(length);
+        WritableByteChannel target = Channels.newChannel(output);
+        while (content.hasRemaining()) {
+            target.write(content);
+        }
+        Entry entry = new Entry(packSize + 8 + keyBytes.length, length, keyBytes.length);
+        packSize += entry.recordSize();
+        return entry;
+    }
+
+    private void writeIndex() throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)))) {
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(INDEX_VERSION);
+            output.writeLong(packSize);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue().offset);
+                output.writeInt(entry.getValue().length);
+                output.writeLong(entry.getValue().lastUsed);
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private ByteBuffer readData(Entry entry) throws IOException {
+        return read(entry.offset, entry.length);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long recordSize(String key, int length) {
+        return 8 + utf8Length(key) + length;
+    }
+
+    private static int utf8Length(String key) {
+        return key.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static class Entry {
+        long offset;
+        int length;
+        int keyLength;
+        long lastUsed;
+
+        Entry(long offset, int length, int keyLength) {
+            this.offset = offset;
+            this.length = length;
+            this.keyLength = keyLength;
+        }
+
+        long recordSize() {
+            return 8 + keyLength + length;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -473,6 +473,7 @@ public class ProgramIO {
                 }
                 output.writeInt(symbolTable.lookup(insn.getField().getClassName()));
                 output.writeInt(symbolTable.lookup(insn.getField().getFieldName()));
+                output.writeInt(insn.getFieldType() != null ? symbolTable.lookup(insn.getFieldType().toString()) : -1);
                 output.writeShort(insn.getValue().getIndex());
             } catch (IOException e) {
                 throw new IOExceptionWrapper(e);
@@ -567,7 +568,7 @@ public class ProgramIO {
             try {
                 output.writeByte(41);
                 output.writeShort(insn.getReceiver() != null ? insn.getReceiver().getIndex() : -1);
-                output.writeShort(insn.getInstance().getIndex());
+                output.writeShort(insn.getInstance() != null ? insn.getInstance().getIndex() : -1);
                 output.writeInt(symbolTable.lookup(insn.getMethod().toString()));
                 for (int i = 0; i < insn.getArguments().size(); ++i) {
                     output.writeShort(insn.getArguments().get(i).getIndex());
@@ -675,8 +676,8 @@ public class ProgramIO {
                     output.writeInt(symbolTable.lookup(handle.getValueType().toString()));
                     break;
                 default:
-                    output.writeInt(symbolTable.lookup(new MethodDescriptor(handle.getName(),
-                            handle.signature()).toString()));
+                    output.writeInt(symbolTable.lookup(handle.getName()));
+                    output.writeInt(symbolTable.lookup(ValueType.methodTypeToString(handle.signature())));
                     break;
             }
         }
@@ -915,6 +916,8 @@ public class ProgramIO {
                 String className = symbolTable.at(input.readInt());
                 String fieldName = symbolTable.at(input.readInt());
                 insn.setField(new FieldReference(className, fieldName));
+                int fieldType = input.readInt();
+                insn.setFieldType(fieldType >= 0 ? ValueType.parse(symbolTable.at(fieldType)) : null);
                 insn.setValue(program.variableAt(input.readShort()));
                 return insn;
             }
@@ -923,6 +926,8 @@ public class ProgramIO {
                 String className = symbolTable.at(input.readInt());
                 String fieldName = symbolTable.at(input.readInt());
                 insn.setField(new FieldReference(className, fieldName));
+                int fieldType = input.readInt();
+                insn.setFieldType(fieldType >= 0 ? ValueType.parse(symbolTable.at(fieldType)) : null);
                 insn.setValue(program.variableAt(input.readShort()));
                 return insn;
             }
@@ -966,7 +971,7 @@ public class ProgramIO {
                 insn.setReceiver(receiverIndex >= 0 ? program.variableAt(receiverIndex) : null);
                 String className = symbolTable.at(input.readInt());
                 MethodDescriptor methodDesc = MethodDescriptor.parse(symbolTable.at(input.readInt()));
-                insn.setMethod(new MethodReference(className, methodDesc));
+                insn.setMethod(ReferenceCache.getCached(new MethodReference(className, methodDesc)));
                 int paramCount = insn.getMethod().getDescriptor().parameterCount();
                 for (int i = 0; i < paramCount; ++i) {
                     insn.getArguments().add(program.variableAt(input.readShort()));
@@ -981,7 +986,7 @@ public class ProgramIO {
                 insn.setInstance(program.variableAt(input.readShort()));
                 String className = symbolTable.at(input.readInt());
                 MethodDescriptor methodDesc = MethodDescriptor.parse(symbolTable.at(input.readInt()));
-                insn.setMethod(new MethodReference(className, methodDesc));
+                insn.setMethod(ReferenceCache.getCached(new MethodReference(className, methodDesc)));
                 int paramCount = insn.getMethod().getDescriptor().parameterCount();
                 for (int i = 0; i < paramCount; ++i) {
                     insn.getArguments().add(program.variableAt(input.readShort()));
@@ -996,7 +1001,7 @@ public class ProgramIO {
                 insn.setInstance(program.variableAt(input.readShort()));
                 String className = symbolTable.at(input.readInt());
                 MethodDescriptor methodDesc = MethodDescriptor.parse(symbolTable.at(input.readInt()));
-                insn.setMethod(new MethodReference(className, methodDesc));
+                insn.setMethod(ReferenceCache.getCached(new MethodReference(className, methodDesc)));
                 int paramCount = insn.getMethod().getDescriptor().parameterCount();
                 for (int i = 0; i < paramCount; ++i) {
                     insn.getArguments().add(program.variableAt(input.readShort()));
@@ -1048,7 +1053,8 @@ public class ProgramIO {
                 InvokeDynamicInstruction insn = new InvokeDynamicInstruction();
                 short receiver = input.readShort();
                 insn.setReceiver(receiver >= 0 ? program.variableAt(receiver) : null);
-                insn.setInstance(program.variableAt(input.readShort()));
+                short instance = input.readShort();
+                insn.setInstance(instance >= 0 ? program.variableAt(instance) : null);
                 insn.setMethod(MethodDescriptor.parse(symbolTable.at(input.readInt())));
                 int argsCount = insn.getMethod().parameterCount();
                 for (int i = 0; i < argsCount; ++i) {
@@ -36,17 +36,17 @@ public class DefaultFieldAccessSite implements FieldAccessSite {
 
     @Override
     public InstructionLocation getLocation() {
-        return null;
+        return location;
     }
 
     @Override
     public CallGraphNode getCallee() {
-        return null;
+        return callee;
     }
 
     @Override
     public FieldReference getField() {
-        return null;
+        return field;
     }
 
     @Override
@@ -0,0 +1,326 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.codegen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.teavm.model.FieldReference;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Relocatable piece of generated source code, that can be produced independently of other pieces, for example,
+ * in another thread, and then written into a {@link SourceWriter} at some position. The fragment records calls
+ * to its writer, see {@link #getWriter()}, and repeats them on the target writer, so indentation, line wrapping
+ * and locations are computed relative to the position where the fragment is written.</p>
+ *
+ * <p>Some values, like names of classes and methods, can't be computed before the fragment is written,
+ * as they depend on values computed for preceding code. The writer of the fragment uses naming strategy that
+ * doesn't compute names, but records requests to the naming strategy given to the fragment and returns
+ * placeholders. Other kinds of values may be deferred with {@link #defer(Supplier)}. Requests are performed when
+ * the fragment is written, in the same order they were made, and placeholders are replaced by results. Therefore,
+ * writing fragments one after another gives exactly the same code as rendering them directly into the target
+ * writer.</p>
+ *
+ * <p>Placeholders are delimited by {@link SourceWriter#RESERVED_CHAR}, which generated code never contains as is,
+ * so the fragment writer accepts the character only as a part of a placeholder returned by the fragment.</p>
+ *
+ * <p>Fragment may be filled in any thread, but it should be written to the target in the thread that owns
+ * the naming strategy and deferred values.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class SourceFragment {
+    private static final char PLACEHOLDER_BOUND = SourceWriter.RESERVED_CHAR;
+    private NamingStrategy targetNaming;
+    private List<Object> operations = new ArrayList<>();
+    private StringBuilder text = new StringBuilder();
+    private List<Supplier<String>> requests = new ArrayList<>();
+    private String[] values;
+    private FragmentWriter writer;
+
+    private enum Operation {
+        NEW_LINE,
+        SOFT_NEW_LINE,
+        WS,
+        TOKEN_BOUNDARY,
+        INDENT,
+        OUTDENT,
+        LINE_FEED
+    }
+
+    private static class Request {
+        final int index;
+
+        Request(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * <p>Action that is performed when the fragment is written, see {@link SourceFragment#addAction(Action)}.</p>
+     */
+    public interface Action {
+        void run(SourceWriter writer) throws IOException;
+    }
+
+    public SourceFragment(NamingStrategy targetNaming) {
+        this.targetNaming = targetNaming;
+        writer = new FragmentWriter(new DeferredNaming());
+    }
+
+    public SourceWriter getWriter() {
+        return writer;
+    }
+
+    public NamingStrategy getTargetNaming() {
+        return targetNaming;
+    }
+
+    /**
+     * <p>Specifies naming strategy that computes names when the fragment is written. As the fragment keeps
+     * requests, not names, it may be written again into another code, for example, produced by the next build,
+     * with the naming strategy of that code.</p>
+     */
+    public void setTargetNaming(NamingStrategy targetNaming) {
+        this.targetNaming = targetNaming;
+    }
+
+    /**
+     * <p>Defers computation of a value until the fragment is written.</p>
+     *
+     * @return placeholder that may be written to the fragment instead of the value, or passed to
+     * {@link #resolve(String)} by actions.
+     */
+    public String defer(Supplier<String> value) {
+        flushText();
+        int index = requests.size();
+        requests.add(value);
+        operations.add(new Request(index));
+        return PLACEHOLDER_BOUND + String.valueOf(index) + PLACEHOLDER_BOUND;
+    }
+
+    /**
+     * <p>Adds an action that is performed when the fragment is written, after the code written to the fragment
+     * so far.</p>
+     */
+    public void addAction(Action action) {
+        flushText();
+        operations.add(action);
+    }
+
+    /**
+     * <p>Replaces placeholders in the given string with values. May be called only by actions, as values are
+     * available only while the fragment is written.</p>
+     */
+    public String resolve(String str) {
+        if (str == null || str.indexOf(PLACEHOLDER_BOUND) < 0) {
+            return str;
+        }
+        StringBuilder sb = new StringBuilder();
+        int last = 0;
+        while (true) {
+            int start = str.indexOf(PLACEHOLDER_BOUND, last);
+            if (start < 0) {
+                break;
+            }
+            int end = str.indexOf(PLACEHOLDER_BOUND, start + 1);
+            sb.append(str, last, start).append(values[Integer.parseInt(str.substring(start + 1, end))]);
+            last = end + 1;
+        }
+        return sb.append(str, last, str.length()).toString();
+    }
+
+    public void writeTo(SourceWriter target) throws IOException {
+        flushText();
+        values = new String[requests.size()];
+        for (Object operation : operations) {
+            if (operation instanceof String) {
+                target.append(resolve((String) operation));
+            } else if (operation instanceof Request) {
+                int index = ((Request) operation).index;
+                values[index] = requests.get(index).get();
+            } else if (operation instanceof Action) {
+                ((Action) operation).run(target);
+            } else {
+                switch ((Operation) operation) {
+                    case NEW_LINE:
+                        target.newLine();
+                        break;
+                    case SOFT_NEW_LINE:
+                        target.softNewLine();
+                        break;
+                    case WS:
+                        target.ws();
+                        break;
+                    case TOKEN_BOUNDARY:
+                        target.tokenBoundary();
+                        break;
+                    case INDENT:
+                        target.indent();
+                        break;
+                    case OUTDENT:
+                        target.outdent();
+                        break;
+                    case LINE_FEED:
+                        target.append('\n');
+                        break;
+                }
+            }
+        }
+        values = null;
+    }
+
+    private void flushText() {
+        if (text.length() > 0) {
+            operations.add(text.toString());
+            text.setLength(0);
+        }
+    }
+
+    private void add(Operation operation) {
+        flushText();
+        operations.add(operation);
+    }
+
+    private class FragmentWriter extends SourceWriter {
+        FragmentWriter(NamingStrategy naming) {
+            super(naming, null, 0);
+        }
+
+        @Override
+        public SourceWriter append(char value) throws IOException {
+            if (value == '\n') {
+                add(Operation.LINE_FEED);
+            } else if (value == PLACEHOLDER_BOUND) {
+                throw reservedCharacter();
+            } else {
+                text.append(value);
+            }
+            return this;
+        }
+
+        @Override
+        public SourceWriter append(CharSequence csq, int start, int end) throws IOException {
+            checkPlaceholders(csq, start, end);
+            text.append(csq, start, end);
+            return this;
+        }
+
+        private void checkPlaceholders(CharSequence csq, int start, int end) {
+            int i = start;
+            while (i < end) {
+                if (csq.charAt(i++) != PLACEHOLDER_BOUND) {
+                    continue;
+                }
+                int digitStart = i;
+                while (i < end && csq.charAt(i) >= '0' && csq.charAt(i) <= '9') {
+                    ++i;
+                }
+                if (i == digitStart || i == end || i - digitStart > 9 || csq.charAt(i) != PLACEHOLDER_BOUND
+                        || Integer.parseInt(csq.subSequence(digitStart, i).toString()) >= requests.size()) {
+                    throw reservedCharacter();
+                }
+                ++i;
+            }
+        }
+
+        @Override
+        public SourceWriter newLine() throws IOException {
+            add(Operation.NEW_LINE);
+            return this;
+        }
+
+        @Override
+        public SourceWriter ws() throws IOException {
+            add(Operation.WS);
+            return this;
+        }
+
+        @Override
+        public SourceWriter tokenBoundary() throws IOException {
+            add(Operation.TOKEN_BOUNDARY);
+            return this;
+        }
+
+        @Override
+        public SourceWriter softNewLine() throws IOException {
+            add(Operation.SOFT_NEW_LINE);
+            return this;
+        }
+
+        @Override
+        public SourceWriter indent() {
+            add(Operation.INDENT);
+            return this;
+        }
+
+        @Override
+        public SourceWriter outdent() {
+            add(Operation.OUTDENT);
+            return this;
+        }
+
+        @Override
+        public int getColumn() {
+            throw new UnsupportedOperationException("Position in fragment is not known until it is written");
+        }
+
+        @Override
+        public int getLine() {
+            throw new UnsupportedOperationException("Position in fragment is not known until it is written");
+        }
+
+        @Override
+        public int getOffset() {
+            throw new UnsupportedOperationException("Position in fragment is not known until it is written");
+        }
+    }
+
+    private class DeferredNaming implements NamingStrategy {
+        @Override
+        public String getNameFor(String cls) {
+            return defer(() -> targetNaming.getNameFor(cls));
+        }
+
+        @Override
+        public String getNameFor(MethodDescriptor method) {
+            return defer(() -> targetNaming.getNameFor(method));
+        }
+
+        @Override
+        public String getNameForInit(MethodReference method) {
+            return defer(() -> targetNaming.getNameForInit(method));
+        }
+
+        @Override
+        public String getFullNameFor(MethodReference method) {
+            return defer(() -> targetNaming.getFullNameFor(method));
+        }
+
+        @Override
+        public String getNameFor(FieldReference field) {
+            return defer(() -> targetNaming.getNameFor(field));
+        }
+
+        @Override
+        public String getNameForFunction(String name) {
+            return defer(() -> targetNaming.getNameForFunction(name));
+        }
+    }
+}
@@ -26,6 +26,12 @@ import org.teavm.model.ValueType;
  * @author Alexey Andreev
  */
 public class SourceWriter implements Appendable, LocationProvider {
+    /**
+     * <p>Character that can't be written as is, since {@link SourceFragment} uses it to mark placeholders.
+     * String literals should escape it, which {@link org.teavm.javascript.Renderer#escapeString(String)}
+     * does.</p>
+     */
+    static final char RESERVED_CHAR = '\uFFFF';
     private Appendable innerWriter;
     private int indentSize;
     private NamingStrategy naming;
@@ -34,6 +40,7 @@ public class SourceWriter implements Appendable, LocationProvider {
     private int lineWidth;
     private int column;
     private int line;
+    private int offset;
 
     SourceWriter(NamingStrategy naming, Appendable innerWriter, int lineWidth) {
         this.naming = naming;
@@ -60,8 +67,12 @@ public class SourceWriter implements Appendable, LocationProvider {
 
     @Override
     public SourceWriter append(char value) throws IOException {
+        if (value == RESERVED_CHAR) {
+            throw reservedCharacter();
+        }
         appendIndent();
         innerWriter.append(value);
+        ++offset;
         if (value == '\n') {
             newLine();
         } else {
@@ -80,22 +91,31 @@ public class SourceWriter implements Appendable, LocationProvider {
     public SourceWriter append(CharSequence csq, int start, int end) throws IOException {
         int last = start;
         for (int i = start; i < end; ++i) {
-            if (csq.charAt(i) == '\n') {
+            char c = csq.charAt(i);
+            if (c == '\n') {
                 appendSingleLine(csq, last, i);
                 newLine();
                 last = i + 1;
+            } else if (c == RESERVED_CHAR) {
+                throw reservedCharacter();
             }
         }
         appendSingleLine(csq, last, end);
         return this;
     }
 
+    static IllegalArgumentException reservedCharacter() {
+        return new IllegalArgumentException("Character U+FFFF can't be written to source code as is, "
+                + "it should be escaped");
+    }
+
     private void appendSingleLine(CharSequence csq, int start, int end) throws IOException {
         if (start == end) {
             return;
         }
         appendIndent();
         column += end - start;
+        offset += end - start;
         innerWriter.append(csq, start, end);
     }
 
@@ -149,6 +169,7 @@ public class SourceWriter implements Appendable, LocationProvider {
             for (int i = 0; i < indentSize; ++i) {
                 innerWriter.append("    ");
                 column += 4;
+                offset += 4;
             }
             lineStart = false;
         }
@@ -156,6 +177,7 @@ public class SourceWriter implements Appendable, LocationProvider {
 
     public SourceWriter newLine() throws IOException {
         innerWriter.append('\n');
+        ++offset;
         column = 0;
         ++line;
         lineStart = true;
@@ -169,6 +191,7 @@ public class SourceWriter implements Appendable, LocationProvider {
             if (!minified) {
                 innerWriter.append(' ');
                 column++;
+                ++offset;
             }
         }
         return this;
@@ -184,6 +207,7 @@ public class SourceWriter implements Appendable, LocationProvider {
     public SourceWriter softNewLine() throws IOException {
         if (!minified) {
             innerWriter.append('\n');
+            ++offset;
             column = 0;
             ++line;
             lineStart = true;
@@ -214,4 +238,11 @@ public class SourceWriter implements Appendable, LocationProvider {
     public int getLine() {
         return line;
     }
+
+    /**
+     * <p>Gets number of characters written so far.</p>
+     */
+    public int getOffset() {
+        return offset;
+    }
 }
@@ -23,7 +23,7 @@ import java.util.*;
  */
 public class MutableGraphNode {
     int tag;
-    Map<MutableGraphNode, MutableGraphEdge> edges = new HashMap<>();
+    Map<MutableGraphNode, MutableGraphEdge> edges = new LinkedHashMap<>();
 
     public MutableGraphNode(int tag) {
         this.tag = tag;
@@ -347,7 +347,7 @@ public class DebugInformationBuilder implements DebugInformationEmitter {
     }
 
     static class ClassMetadata {
-        int parentIndex;
+        int parentIndex = -1;
         Map<Integer, Integer> fieldMap = new HashMap<>();
     }
 }
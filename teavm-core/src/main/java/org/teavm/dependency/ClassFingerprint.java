@@ -0,0 +1,590 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import org.teavm.model.AnnotationContainerReader;
+import org.teavm.model.AnnotationReader;
+import org.teavm.model.AnnotationValue;
+import org.teavm.model.BasicBlockReader;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ElementReader;
+import org.teavm.model.FieldReader;
+import org.teavm.model.FieldReference;
+import org.teavm.model.IncomingReader;
+import org.teavm.model.InstructionLocation;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHandle;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.model.PhiReader;
+import org.teavm.model.ProgramReader;
+import org.teavm.model.RuntimeConstant;
+import org.teavm.model.TryCatchBlockReader;
+import org.teavm.model.ValueType;
+import org.teavm.model.VariableReader;
+import org.teavm.model.instructions.ArrayElementType;
+import org.teavm.model.instructions.BinaryBranchingCondition;
+import org.teavm.model.instructions.BinaryOperation;
+import org.teavm.model.instructions.BranchingCondition;
+import org.teavm.model.instructions.CastIntegerDirection;
+import org.teavm.model.instructions.InstructionReader;
+import org.teavm.model.instructions.IntegerSubtype;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.NumericOperandType;
+import org.teavm.model.instructions.SwitchTableEntryReader;
+
+/**
+ * <p>Computes a digest of the parts of a class that dependency analysis can observe. Unlike a digest of class file
+ * bytes, it does not change when a class is merely recompiled, reordered or when debug tables other than line
+ * numbers change. Method bodies take part completely, since dependency plugins are free to inspect them.</p>
+ *
+ * <p>A structure digest, see {@link #computeStructure(ClassReader)}, leaves method bodies out. When only the full
+ * digest of a class changes, only bodies of its methods were edited.</p>
+ *
+ * @author Alexey Andreev
+ */
+final class ClassFingerprint {
+    private DataOutputStream output;
+    private boolean withPrograms;
+
+    private ClassFingerprint(DataOutputStream output, boolean withPrograms) {
+        this.output = output;
+        this.withPrograms = withPrograms;
+    }
+
+    public static byte[] compute(ClassReader cls) {
+        return compute(cls, true);
+    }
+
+    public static byte[] computeStructure(ClassReader cls) {
+        return compute(cls, false);
+    }
+
+    private static byte[] compute(ClassReader cls, boolean withPrograms) {
+        return compute(fingerprint -> fingerprint.writeClass(cls), withPrograms);
+    }
+
+    /**
+     * <p>Computes a digest of the body of a method, so that methods whose bodies were edited can be told apart
+     * from the rest of methods of a changed class.</p>
+     */
+    public static byte[] computeBody(MethodReader method) {
+        return compute(fingerprint -> {
+            ProgramReader program = method.getProgram();
+            fingerprint.output.writeBoolean(program != null);
+            if (program != null) {
+                fingerprint.writeProgram(program);
+            }
+        }, true);
+    }
+
+    private static byte[] compute(Content content, boolean withPrograms) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+        DataOutputStream output = new DataOutputStream(new DigestOutputStream(sink, digest));
+        try {
+            content.write(new ClassFingerprint(output, withPrograms));
+            output.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return digest.digest();
+    }
+
+    private interface Content {
+        void write(ClassFingerprint fingerprint) throws IOException;
+    }
+
+    private void writeClass(ClassReader cls) throws IOException {
+        writeElement(cls);
+        writeString(cls.getParent());
+        writeString(cls.getOwnerName());
+        List<String> interfaces = new ArrayList<>(cls.getInterfaces());
+        interfaces.sort(Comparator.naturalOrder());
+        output.writeShort(interfaces.size());
+        for (String iface : interfaces) {
+            output.writeUTF(iface);
+        }
+
+        List<FieldReader> fields = new ArrayList<>(cls.getFields());
+        fields.sort(Comparator.comparing(FieldReader::getName));
+        output.writeShort(fields.size());
+        for (FieldReader field : fields) {
+            writeElement(field);
+            output.writeUTF(field.getType().toString());
+            Object initialValue = field.getInitialValue();
+            writeString(initialValue != null ? initialValue.getClass().getName() : null);
+        }
+
+        List<MethodReader> methods = new ArrayList<>(cls.getMethods());
+        methods.sort(Comparator.comparing(method -> method.getDescriptor().toString()));
+        output.writeShort(methods.size());
+        for (MethodReader method : methods) {
+            writeElement(method);
+            output.writeUTF(method.getDescriptor().toString());
+            for (AnnotationContainerReader annotations : method.getParameterAnnotations()) {
+                writeAnnotations(annotations);
+            }
+            AnnotationValue annotationDefault = method.getAnnotationDefault();
+            output.writeBoolean(annotationDefault != null);
+            if (annotationDefault != null) {
+                writeAnnotationValue(annotationDefault);
+            }
+            ProgramReader program = method.readProgram();
+            output.writeBoolean(program != null);
+            if (program != null && withPrograms) {
+                writeProgram(program);
+            }
+        }
+    }
+
+    private void writeElement(ElementReader element) throws IOException {
+        output.writeUTF(element.getName());
+        output.writeByte(element.getLevel().ordinal());
+        output.writeUTF(element.readModifiers().toString());
+        writeAnnotations(element.getAnnotations());
+    }
+
+    private void writeAnnotations(AnnotationContainerReader annotations) throws IOException {
+        List<AnnotationReader> list = new ArrayList<>();
+        for (AnnotationReader annotation : annotations.all()) {
+            list.add(annotation);
+        }
+        list.sort(Comparator.comparing(AnnotationReader::getType));
+        output.writeShort(list.size());
+        for (AnnotationReader annotation : list) {
+            writeAnnotation(annotation);
+        }
+    }
+
+    private void writeAnnotation(AnnotationReader annotation) throws IOException {
+        output.writeUTF(annotation.getType());
+        List<String> fields = new ArrayList<>();
+        for (String field : annotation.getAvailableFields()) {
+            fields.add(field);
+        }
+        fields.sort(Comparator.naturalOrder());
+        output.writeShort(fields.size());
+        for (String field : fields) {
+            output.writeUTF(field);
+            writeAnnotationValue(annotation.getValue(field));
+        }
+    }
+
+    private void writeAnnotationValue(AnnotationValue value) throws IOException {
+        output.writeByte(value.getType());
+        switch (value.getType()) {
+            case AnnotationValue.ANNOTATION:
+                writeAnnotation(value.getAnnotation());
+                break;
+            case AnnotationValue.BOOLEAN:
+                output.writeBoolean(value.getBoolean());
+                break;
+            case AnnotationValue.BYTE:
+                output.writeByte(value.getByte());
+                break;
+            case AnnotationValue.CLASS:
+                output.writeUTF(value.getJavaClass().toString());
+                break;
+            case AnnotationValue.DOUBLE:
+                output.writeDouble(value.getDouble());
+                break;
+            case AnnotationValue.ENUM:
+                output.writeUTF(value.getEnumValue().toString());
+                break;
+            case AnnotationValue.FLOAT:
+                output.writeFloat(value.getFloat());
+                break;
+            case AnnotationValue.INT:
+                output.writeInt(value.getInt());
+                break;
+            case AnnotationValue.LIST:
+                output.writeShort(value.getList().size());
+                for (AnnotationValue item : value.getList()) {
+                    writeAnnotationValue(item);
+                }
+                break;
+            case AnnotationValue.LONG:
+                output.writeLong(value.getLong());
+                break;
+            case AnnotationValue.SHORT:
+                output.writeShort(value.getShort());
+                break;
+            case AnnotationValue.STRING:
+                output.writeUTF(value.getString());
+                break;
+        }
+    }
+
+    private void writeProgram(ProgramReader program) throws IOException {
+        output.writeInt(program.variableCount());
+        output.writeInt(program.basicBlockCount());
+        InstructionWriter instructionWriter = new InstructionWriter();
+        for (int i = 0; i < program.basicBlockCount(); ++i) {
+            BasicBlockReader block = program.basicBlockAt(i);
+            output.writeShort(block.readPhis().size());
+            for (PhiReader phi : block.readPhis()) {
+                writeVariable(phi.getReceiver());
+                output.writeShort(phi.readIncomings().size());
+                for (IncomingReader incoming : phi.readIncomings()) {
+                    writeVariable(incoming.getValue());
+                    output.writeInt(incoming.getSource().getIndex());
+                }
+            }
+            output.writeShort(block.readTryCatchBlocks().size());
+            for (TryCatchBlockReader tryCatch : block.readTryCatchBlocks()) {
+                writeString(tryCatch.getExceptionType());
+                writeVariable(tryCatch.getExceptionVariable());
+                output.writeInt(tryCatch.getHandler().getIndex());
+            }
+            output.writeInt(block.instructionCount());
+            instructionWriter.lastLocation = null;
+            block.readAllInstructions(instructionWriter);
+            if (instructionWriter.error != null) {
+                throw instructionWriter.error;
+            }
+        }
+    }
+
+    private void writeVariable(VariableReader variable) throws IOException {
+        output.writeInt(variable != null ? variable.getIndex() : -1);
+    }
+
+    private void writeString(String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private void writeMethodHandle(MethodHandle handle) throws IOException {
+        output.writeByte(handle.getKind().ordinal());
+        output.writeUTF(handle.getClassName());
+        output.writeUTF(handle.getName());
+        output.writeUTF(ValueType.methodTypeToString(handle.signature()));
+    }
+
+    private class InstructionWriter implements InstructionReader {
+        IOException error;
+        InstructionLocation lastLocation;
+
+        private void write(String kind, VariableReader... variables) {
+            try {
+                output.writeUTF(kind);
+                for (VariableReader variable : variables) {
+                    writeVariable(variable);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        private void write(String kind, String value, VariableReader... variables) {
+            write(kind, variables);
+            try {
+                writeString(value);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        @Override
+        public void location(InstructionLocation location) {
+            // Cache keeps only complete locations, so incomplete ones must not make a difference
+            if (location != null && (location.getFileName() == null || location.getLine() < 0)) {
+                location = null;
+            }
+            if (Objects.equals(location, lastLocation)) {
+                return;
+            }
+            lastLocation = location;
+            try {
+                output.writeByte(0);
+                writeString(location != null ? location.getFileName() : null);
+                output.writeInt(location != null ? location.getLine() : -1);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        @Override
+        public void nop() {
+        }
+
+        @Override
+        public void classConstant(VariableReader receiver, ValueType cst) {
+            write("class", cst.toString(), receiver);
+        }
+
+        @Override
+        public void nullConstant(VariableReader receiver) {
+            write("null", receiver);
+        }
+
+        @Override
+        public void integerConstant(VariableReader receiver, int cst) {
+            write("int", String.valueOf(cst), receiver);
+        }
+
+        @Override
+        public void longConstant(VariableReader receiver, long cst) {
+            write("long", String.valueOf(cst), receiver);
+        }
+
+        @Override
+        public void floatConstant(VariableReader receiver, float cst) {
+            write("float", String.valueOf(Float.floatToRawIntBits(cst)), receiver);
+        }
+
+        @Override
+        public void doubleConstant(VariableReader receiver, double cst) {
+            write("double", String.valueOf(Double.doubleToRawLongBits(cst)), receiver);
+        }
+
+        @Override
+        public void stringConstant(VariableReader receiver, String cst) {
+            write("string", cst, receiver);
+        }
+
+        @Override
+        public void binary(BinaryOperation op, VariableReader receiver, VariableReader first, VariableReader second,
+                NumericOperandType type) {
+            write("binary", op.name() + " " + type.name(), receiver, first, second);
+        }
+
+        @Override
+        public void negate(VariableReader receiver, VariableReader operand, NumericOperandType type) {
+            write("negate", type.name(), receiver, operand);
+        }
+
+        @Override
+        public void assign(VariableReader receiver, VariableReader assignee) {
+            write("assign", receiver, assignee);
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, ValueType targetType) {
+            write("cast", targetType.toString(), receiver, value);
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, NumericOperandType sourceType,
+                NumericOperandType targetType) {
+            write("castNumber", sourceType.name() + " " + targetType.name(), receiver, value);
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, IntegerSubtype type,
+                CastIntegerDirection targetType) {
+            write("castInteger", type.name() + " " + targetType.name(), receiver, value);
+        }
+
+        @Override
+        public void jumpIf(BranchingCondition cond, VariableReader operand, BasicBlockReader consequent,
+                BasicBlockReader alternative) {
+            write("jumpIf", cond.name(), operand);
+            writeTargets(consequent, alternative);
+        }
+
+        @Override
+        public void jumpIf(BinaryBranchingCondition cond, VariableReader first, VariableReader second,
+                BasicBlockReader consequent, BasicBlockReader alternative) {
+            write("jumpIfBinary", cond.name(), first, second);
+            writeTargets(consequent, alternative);
+        }
+
+        @Override
+        public void jump(BasicBlockReader target) {
+            write("jump");
+            writeTargets(target);
+        }
+
+        @Override
+        public void choose(VariableReader condition, List<? extends SwitchTableEntryReader> table,
+                BasicBlockReader defaultTarget) {
+            write("choose", condition);
+            for (SwitchTableEntryReader entry : table) {
+                write("case", String.valueOf(entry.getCondition()));
+                writeTargets(entry.getTarget());
+            }
+            writeTargets(defaultTarget);
+        }
+
+        private void writeTargets(BasicBlockReader... targets) {
+            try {
+                for (BasicBlockReader target : targets) {
+                    output.writeInt(target.getIndex());
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        @Override
+        public void exit(VariableReader valueToReturn) {
+            write("exit", valueToReturn);
+        }
+
+        @Override
+        public void raise(VariableReader exception) {
+            write("raise", exception);
+        }
+
+        @Override
+        public void createArray(VariableReader receiver, ValueType itemType, VariableReader size) {
+            write("newArray", itemType.toString(), receiver, size);
+        }
+
+        @Override
+        public void createArray(VariableReader receiver, ValueType itemType,
+                List<? extends VariableReader> dimensions) {
+            write("newMultiArray", itemType.toString(), receiver);
+            for (VariableReader dimension : dimensions) {
+                write("dimension", dimension);
+            }
+        }
+
+        @Override
+        public void create(VariableReader receiver, String type) {
+            write("new", type, receiver);
+        }
+
+        @Override
+        public void getField(VariableReader receiver, VariableReader instance, FieldReference field,
+                ValueType fieldType) {
+            write("getField", field + ":" + fieldType, receiver, instance);
+        }
+
+        @Override
+        public void putField(VariableReader instance, FieldReference field, VariableReader value,
+                ValueType fieldType) {
+            write("putField", field + ":" + fieldType, instance, value);
+        }
+
+        @Override
+        public void arrayLength(VariableReader receiver, VariableReader array) {
+            write("arrayLength", receiver, array);
+        }
+
+        @Override
+        public void cloneArray(VariableReader receiver, VariableReader array) {
+            write("cloneArray", receiver, array);
+        }
+
+        @Override
+        public void unwrapArray(VariableReader receiver, VariableReader array, ArrayElementType elementType) {
+            write("unwrapArray", elementType.name(), receiver, array);
+        }
+
+        @Override
+        public void getElement(VariableReader receiver, VariableReader array, VariableReader index) {
+            write("getElement", receiver, array, index);
+        }
+
+        @Override
+        public void putElement(VariableReader array, VariableReader index, VariableReader value) {
+            write("putElement", array, index, value);
+        }
+
+        @Override
+        public void invoke(VariableReader receiver, VariableReader instance, MethodReference method,
+                List<? extends VariableReader> arguments, InvocationType type) {
+            write("invoke", type.name() + " " + method, receiver, instance);
+            for (VariableReader argument : arguments) {
+                write("argument", argument);
+            }
+        }
+
+        @Override
+        public void invokeDynamic(VariableReader receiver, VariableReader instance, MethodDescriptor method,
+                List<? extends VariableReader> arguments, MethodHandle bootstrapMethod,
+                List<RuntimeConstant> bootstrapArguments) {
+            write("invokeDynamic", method.toString(), receiver, instance);
+            for (VariableReader argument : arguments) {
+                write("argument", argument);
+            }
+            try {
+                writeMethodHandle(bootstrapMethod);
+                output.writeShort(bootstrapArguments.size());
+                for (RuntimeConstant argument : bootstrapArguments) {
+                    output.writeByte(argument.getKind());
+                    switch (argument.getKind()) {
+                        case RuntimeConstant.TYPE:
+                            output.writeUTF(argument.getValueType().toString());
+                            break;
+                        case RuntimeConstant.METHOD:
+                            output.writeUTF(ValueType.methodTypeToString(argument.getMethodType()));
+                            break;
+                        case RuntimeConstant.METHOD_HANDLE:
+                            writeMethodHandle(argument.getMethodHandle());
+                            break;
+                        case RuntimeConstant.STRING:
+                            output.writeUTF(argument.getString());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        @Override
+        public void isInstance(VariableReader receiver, VariableReader value, ValueType type) {
+            write("isInstance", type.toString(), receiver, value);
+        }
+
+        @Override
+        public void initClass(String className) {
+            write("initClass", className);
+        }
+
+        @Override
+        public void nullCheck(VariableReader receiver, VariableReader value) {
+            write("nullCheck", receiver, value);
+        }
+
+        @Override
+        public void monitorEnter(VariableReader objectRef) {
+            write("monitorEnter", objectRef);
+        }
+
+        @Override
+        public void monitorExit(VariableReader objectRef) {
+            write("monitorExit", objectRef);
+        }
+    }
+}
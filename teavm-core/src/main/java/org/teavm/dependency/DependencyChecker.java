@@ -17,14 +17,27 @@ package org.teavm.dependency;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.teavm.callgraph.CallGraph;
 import org.teavm.callgraph.DefaultCallGraph;
 import org.teavm.callgraph.DefaultCallGraphNode;
@@ -74,8 +87,28 @@ public class DependencyChecker implements DependencyInfo {
     DefaultCallGraph callGraph = new DefaultCallGraph();
     private DependencyAgent agent;
     List<DependencyNode> nodes = new ArrayList<>();
-    List<BitSet> typeBitSets = new ArrayList<>();
+    DependencyTypeSet.Table typeSets = new DependencyTypeSet.Table();
     Map<MethodReference, BootstrapMethodSubstitutor> bootstrapMethodSubstitutors = new HashMap<>();
+    private int numThreads = 1;
+    private boolean concurrent;
+    private ForkJoinPool propagationPool;
+    private List<PropagationTask> pendingPropagations = new ArrayList<>();
+    private Queue<DeferredTask> deferredTasks = new ConcurrentLinkedQueue<>();
+    private AtomicInteger runningPropagations = new AtomicInteger();
+    private AtomicReference<Throwable> propagationError = new AtomicReference<>();
+    int cycleSearches;
+    int collapsedCycles;
+    int mergedNodes;
+    private boolean snapshotRecording;
+    private List<DependencySnapshot.Action> rootActions = new ArrayList<>();
+    private Map<MethodReference, List<DependencySnapshot.Action>> methodActions = new LinkedHashMap<>();
+    private MethodReference analyzedMethod;
+    Set<MethodReference> methodsWithInvokeDynamic = new HashSet<>();
+    private DependencySnapshot replayedSnapshot;
+    private Set<MethodReference> replayableMethods = new HashSet<>();
+    private Set<MethodReference> replayedMethods = new LinkedHashSet<>();
+    private Map<DependencyNode, ReplayWatch> replayWatches;
+    private List<PendingReplay> pendingReplays = new ArrayList<>();
 
     public DependencyChecker(ClassReaderSource classSource, ClassLoader classLoader, ServiceRepository services,
             Diagnostics diagnostics) {
@@ -121,12 +154,44 @@ public class DependencyChecker implements DependencyInfo {
         return interrupted;
     }
 
-    public DependencyType getType(String name) {
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * <p>Specifies how many threads propagate types between dependency nodes. When more than one thread is
+     * given, node-to-node transitions run concurrently, while dependency listeners, plugins, consumers and
+     * method analysis are still run one by one in the calling thread, in an order that does not depend
+     * on how threads were scheduled.</p>
+     *
+     * @param numThreads number of threads. {@code 1} means that everything happens in the calling thread,
+     * {@code 0} means that as many threads are used as there are available processors.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("Number of threads must not be negative: " + numThreads);
+        }
+        this.numThreads = numThreads;
+        concurrent = (numThreads != 0 ? numThreads : Runtime.getRuntime().availableProcessors()) > 1;
+    }
+
+    public boolean isSnapshotRecording() {
+        return snapshotRecording;
+    }
+
+    /**
+     * <p>Specifies whether the checker should remember what it links, so that
+     * {@link #createSnapshot(String)} can be called after dependencies are processed.</p>
+     */
+    public void setSnapshotRecording(boolean snapshotRecording) {
+        this.snapshotRecording = snapshotRecording;
+    }
+
+    public synchronized DependencyType getType(String name) {
         DependencyType type = typeMap.get(name);
         if (type == null) {
             type = new DependencyType(this, name, types.size());
             types.add(type);
-            typeBitSets.add(new BitSet(nodes.size()));
             typeMap.put(name, type);
         }
         return type;
@@ -154,6 +219,9 @@ public class DependencyChecker implements DependencyInfo {
 
     public void submitClass(ClassHolder cls) {
         classSource.submit(ModelUtils.copyClass(cls));
+        if (!pendingReplays.isEmpty()) {
+            schedulePendingReplays(cls.getName());
+        }
     }
 
     public void addDependencyListener(DependencyListener listener) {
@@ -179,11 +247,35 @@ public class DependencyChecker implements DependencyInfo {
         }
     }
 
-    void schedulePropagation(DependencyConsumer consumer, DependencyType type) {
-        tasks.add(() -> consumer.consume(type));
+    void schedulePropagation(DependencyNode node, int follower, DependencyConsumer consumer, DependencyType type) {
+        if (!concurrent) {
+            tasks.add(() -> consumer.consume(type));
+        } else if (consumer instanceof DependencyNodeToNodeTransition) {
+            schedulePropagation(new PropagationTask(() -> consumer.consume(type)));
+        } else if (isPropagationThread()) {
+            deferredTasks.add(new DeferredTask(node.index, follower, type.index, () -> consumer.consume(type)));
+        } else {
+            tasks.add(() -> consumer.consume(type));
+        }
     }
 
-    void schedulePropagation(DependencyConsumer consumer, DependencyType[] types) {
+    void schedulePropagation(DependencyNode node, int follower, DependencyConsumer consumer,
+            DependencyType[] types) {
+        if (consumer instanceof DependencyNodeToNodeTransition) {
+            DependencyNodeToNodeTransition transition = (DependencyNodeToNodeTransition) consumer;
+            if (concurrent) {
+                schedulePropagation(new PropagationTask(() -> transition.consume(types)));
+            } else {
+                tasks.add(() -> transition.consume(types));
+            }
+            return;
+        }
+        if (concurrent && isPropagationThread()) {
+            for (DependencyType type : types) {
+                schedulePropagation(node, follower, consumer, type);
+            }
+            return;
+        }
         tasks.add(() -> {
             for (DependencyType type : types) {
                 consumer.consume(type);
@@ -191,6 +283,45 @@ public class DependencyChecker implements DependencyInfo {
         });
     }
 
+    private void schedulePropagation(PropagationTask task) {
+        runningPropagations.incrementAndGet();
+        if (isPropagationThread()) {
+            task.fork();
+        } else {
+            pendingPropagations.add(task);
+        }
+    }
+
+    void connectArrayItems(DependencyNodeToNodeTransition transition, DependencyType type) {
+        DependencyNode source = transition.source;
+        DependencyNode destination = transition.destination;
+        if (concurrent && isPropagationThread()) {
+            // Creating nodes and connecting them changes the graph, so it is postponed until propagation ends
+            deferredTasks.add(new DeferredTask(source.index, -1 - destination.index, type.index,
+                    () -> connectArrayItems(source, destination)));
+        } else {
+            connectArrayItems(source, destination);
+        }
+    }
+
+    void scheduleArrayItemsConnection(DependencyNode node) {
+        if (concurrent && isPropagationThread()) {
+            deferredTasks.add(new DeferredTask(node.index, Integer.MIN_VALUE, 0, () -> node.connectMemberArrayItems()));
+        } else {
+            node.connectMemberArrayItems();
+        }
+    }
+
+    private void connectArrayItems(DependencyNode source, DependencyNode destination) {
+        source.getArrayItem().connect(destination.getArrayItem());
+        destination.getArrayItem().connect(source.getArrayItem());
+    }
+
+    private boolean isPropagationThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == propagationPool;
+    }
+
     private Set<String> classesAddedByRoot = new HashSet<>();
 
     public ClassDependency linkClass(final String className, final CallLocation callLocation) {
@@ -204,6 +335,9 @@ public class DependencyChecker implements DependencyInfo {
         } else {
             added = classesAddedByRoot.add(className);
         }
+        if (added) {
+            recordAction(DependencySnapshot.Action.linkClass(className, callLocation));
+        }
         if (!dep.isMissing() && added) {
             tasks.add(() -> {
                 for (DependencyListener listener : listeners) {
@@ -250,6 +384,7 @@ public class DependencyChecker implements DependencyInfo {
         if (methodRef == null) {
             throw new IllegalArgumentException();
         }
+        MethodReference requestedRef = methodRef;
         MethodReader methodReader = methodReaderCache.map(methodRef);
         if (methodReader != null) {
             methodRef = methodReader.getReference();
@@ -262,6 +397,9 @@ public class DependencyChecker implements DependencyInfo {
         } else {
             added = methodsAddedByRoot.add(methodRef);
         }
+        if (added) {
+            recordAction(DependencySnapshot.Action.linkMethod(requestedRef, callLocation));
+        }
         MethodDependency graph = methodCache.map(methodRef);
         if (!graph.isMissing() && added) {
             for (DependencyListener listener : listeners) {
@@ -275,6 +413,7 @@ public class DependencyChecker implements DependencyInfo {
     void initClass(ClassDependency cls, final CallLocation callLocation) {
         ClassReader reader = cls.getClassReader();
         final MethodReader method = reader.getMethod(new MethodDescriptor("<clinit>", void.class));
+        recordAction(DependencySnapshot.Action.initClass(reader.getName(), callLocation));
         if (method != null) {
             tasks.add(() -> linkMethod(method.getReference(), callLocation).use());
         }
@@ -305,6 +444,9 @@ public class DependencyChecker implements DependencyInfo {
         }
         final MethodDependency dep = new MethodDependency(this, parameterNodes, paramCount, resultNode, thrown,
                 method, methodRef);
+        if (replayedSnapshot != null && method != null) {
+            replayMethodTypes(dep);
+        }
         if (method != null) {
             tasks.add(() -> {
                 CallLocation caller = new CallLocation(dep.getMethod().getReference());
@@ -314,11 +456,40 @@ public class DependencyChecker implements DependencyInfo {
         return dep;
     }
 
+    void recordAction(DependencySnapshot.Action action) {
+        if (!snapshotRecording) {
+            return;
+        }
+        if (analyzedMethod != null) {
+            methodActions.computeIfAbsent(analyzedMethod, key -> new ArrayList<>()).add(action);
+        } else {
+            rootActions.add(action);
+        }
+    }
+
+    /**
+     * <p>Runs an action on behalf of analysis of the given method, so that everything the action links
+     * is replayed together with the method.</p>
+     */
+    void analyze(MethodReference method, Runnable action) {
+        MethodReference previousMethod = analyzedMethod;
+        analyzedMethod = method;
+        try {
+            action.run();
+        } finally {
+            analyzedMethod = previousMethod;
+        }
+    }
+
     void scheduleMethodAnalysis(final MethodDependency dep) {
-        tasks.add(() -> {
-            DependencyGraphBuilder graphBuilder = new DependencyGraphBuilder(DependencyChecker.this);
-            graphBuilder.buildGraph(dep);
-        });
+        tasks.add(() -> analyze(dep.getReference(), () -> {
+            if (replayableMethods.contains(dep.getReference())) {
+                replayMethod(dep);
+            } else {
+                DependencyGraphBuilder graphBuilder = new DependencyGraphBuilder(DependencyChecker.this);
+                graphBuilder.buildGraph(dep);
+            }
+        }));
     }
 
     @Override
@@ -326,6 +497,23 @@ public class DependencyChecker implements DependencyInfo {
         return methodCache.getCachedPreimages();
     }
 
+    /**
+     * <p>Gets methods that were linked not by other methods, but by the host, e.g. entry points, or by plugins
+     * and by the dependency checker itself, which do not specify a location. The call graph has no callers
+     * for them.</p>
+     */
+    public Collection<MethodReference> getRootMethods() {
+        return Collections.unmodifiableSet(methodsAddedByRoot);
+    }
+
+    /**
+     * <p>Gets methods that were replayed from a snapshot instead of being analyzed, see
+     * {@link #replay(DependencySnapshot)}.</p>
+     */
+    public Collection<MethodReference> getReplayedMethods() {
+        return Collections.unmodifiableSet(replayedMethods);
+    }
+
     @Override
     public Collection<FieldReference> getAchievableFields() {
         return fieldCache.getCachedPreimages();
@@ -345,6 +533,9 @@ public class DependencyChecker implements DependencyInfo {
         } else {
             added = fieldsAddedByRoot.add(fieldRef);
         }
+        if (added) {
+            recordAction(DependencySnapshot.Action.linkField(fieldRef, location));
+        }
         FieldDependency dep = fieldCache.map(fieldRef);
         if (!dep.isMissing()) {
             tasks.add(() -> linkClass(fieldRef.getClassName(), location).initClass(location));
@@ -373,6 +564,9 @@ public class DependencyChecker implements DependencyInfo {
             node.setTag(fieldRef.getClassName() + "#" + fieldRef.getFieldName());
         }
         FieldDependency dep = new FieldDependency(node, field, fieldRef);
+        if (replayedSnapshot != null && field != null) {
+            replayValue(node, replayedSnapshot.getFields().get(fieldRef));
+        }
         if (!dep.isMissing()) {
             tasks.add(() -> linkClass(fieldRef.getClassName(), null).initClass(null));
         }
@@ -421,19 +615,571 @@ public class DependencyChecker implements DependencyInfo {
         return method != null ? methodCache.getKnown(method.getReference()) : null;
     }
 
+    /**
+     * <p>Describes the current state of the checker, i.e. everything linked so far, types propagated to nodes
+     * and listeners and transformers added. Analysis started from states with equal descriptions on the same
+     * classes produces the same results, so the description identifies a configuration of
+     * {@link DependencySnapshot}.</p>
+     */
+    public String describeConfiguration() {
+        StringBuilder sb = new StringBuilder();
+        for (DependencySnapshot.Action action : rootActions) {
+            sb.append(action.getKind()).append(' ').append(action.getClassName()).append(' ')
+                    .append(action.getMethod()).append(' ').append(action.getField()).append(' ')
+                    .append(action.getLocation() != null ? action.getLocation().getMethod() : null).append('\n');
+        }
+        for (DependencyNode node : nodes) {
+            String[] nodeTypes = node.getTypes();
+            if (nodeTypes.length > 0) {
+                sb.append(node.index).append(':').append(String.join(",", nodeTypes)).append('\n');
+            }
+        }
+        for (DependencyListener listener : listeners) {
+            sb.append("listener ").append(getStableClassName(listener)).append('\n');
+        }
+        for (ClassHolderTransformer transformer : classSource.getTransformers()) {
+            sb.append("transformer ").append(getStableClassName(transformer)).append('\n');
+        }
+        List<MethodReference> substitutedMethods = new ArrayList<>(bootstrapMethodSubstitutors.keySet());
+        substitutedMethods.sort(Comparator.comparing(MethodReference::toString));
+        for (MethodReference method : substitutedMethods) {
+            sb.append("bootstrap ").append(method).append(' ')
+                    .append(getStableClassName(bootstrapMethodSubstitutors.get(method))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String getStableClassName(Object object) {
+        String name = object.getClass().getName();
+        int lambdaIndex = name.indexOf("$$Lambda$");
+        return lambdaIndex >= 0 ? name.substring(0, lambdaIndex) : name;
+    }
+
+    /**
+     * <p>Takes a snapshot of dependency analysis, which must be recorded (see
+     * {@link #setSnapshotRecording(boolean)}) and finished without errors.</p>
+     *
+     * @param configuration string that identifies entry points, plugins and properties of this analysis.
+     */
+    public DependencySnapshot createSnapshot(String configuration) {
+        if (!snapshotRecording) {
+            throw new IllegalStateException("Dependency analysis was not recorded");
+        }
+        DependencySnapshot snapshot = new DependencySnapshot(configuration);
+        snapshot.getMethodActions().putAll(methodActions);
+
+        List<MethodReference> methods = new ArrayList<>(methodCache.getCachedPreimages());
+        methods.sort(Comparator.comparing(MethodReference::toString));
+        for (MethodReference methodRef : methods) {
+            MethodDependency dep = methodCache.getKnown(methodRef);
+            if (dep == null || dep.isMissing() || !dep.getReference().equals(methodRef)) {
+                continue;
+            }
+            Map<DependencyNode, Integer> valueIndexes = new IdentityHashMap<>();
+            List<DependencySnapshot.ValueTypes> values = new ArrayList<>();
+            int[] variableValues = new int[dep.getVariableCount()];
+            for (int i = 0; i < variableValues.length; ++i) {
+                DependencyNode node = dep.getVariable(i);
+                if (node == null) {
+                    variableValues[i] = -1;
+                    continue;
+                }
+                Integer index = valueIndexes.get(node);
+                if (index == null) {
+                    index = values.size();
+                    valueIndexes.put(node, index);
+                    values.add(snapshotValue(node));
+                }
+                variableValues[i] = index;
+            }
+            snapshot.getMethods().put(methodRef, new DependencySnapshot.MethodTypes(variableValues,
+                    values.toArray(new DependencySnapshot.ValueTypes[values.size()]),
+                    dep.getResult() != null ? snapshotValue(dep.getResult()) : null, snapshotValue(dep.getThrown())));
+            if (dep.isUsed() && !methodsWithInvokeDynamic.contains(methodRef)) {
+                snapshot.getReplayableMethods().add(methodRef);
+            }
+        }
+
+        List<FieldReference> fields = new ArrayList<>(fieldCache.getCachedPreimages());
+        fields.sort(Comparator.comparing(FieldReference::toString));
+        for (FieldReference fieldRef : fields) {
+            FieldDependency dep = fieldCache.getKnown(fieldRef);
+            if (dep != null && !dep.isMissing() && dep.getReference().equals(fieldRef)) {
+                snapshot.getFields().put(fieldRef, snapshotValue(dep.getValue()));
+            }
+        }
+
+        for (String className : classSource.getRequestedClasses()) {
+            if (replayedSnapshot != null && replayedSnapshot.getClassFingerprints().containsKey(className)
+                    && !replayedSnapshot.getInvalidatedClasses().contains(className)) {
+                // Replayed snapshot was only accepted because the class has not changed
+                snapshot.copyClassFingerprint(className, replayedSnapshot);
+            } else {
+                snapshot.addClassFingerprint(className, classSource.getInnerSource().get(className));
+            }
+        }
+        return snapshot;
+    }
+
+    private DependencySnapshot.ValueTypes snapshotValue(DependencyNode node) {
+        DependencySnapshot.ValueTypes arrayItem = node.hasArrayType() ? snapshotValue(node.getArrayItem()) : null;
+        String[] types = node.getTypes();
+        if (types.length == 0 && arrayItem == null) {
+            return null;
+        }
+        return new DependencySnapshot.ValueTypes(types, arrayItem);
+    }
+
+    /**
+     * <p>Reproduces dependency analysis from a snapshot that was taken with the same configuration from the same
+     * classes. Must be called before {@link #processDependencies()}.</p>
+     *
+     * <p>Nodes of methods and fields receive recorded types as soon as they are created. Replayable methods
+     * are not analyzed when they are used, instead everything they linked is linked again. So listeners and
+     * plugins still observe the same events, while dependency graphs of methods are not built. Types of classes
+     * that plugins generate during analysis, as well as actions on these classes, are postponed until
+     * the classes are submitted.</p>
+     *
+     * <p>When the snapshot was invalidated (see {@link DependencySnapshot#invalidate(Set, ClassReaderSource)}),
+     * replayed methods may receive types that were not recorded, from methods that are analyzed again. Such
+     * types can reach a method through its parameters, results and exceptions of methods it linked, fields it
+     * linked and items of arrays it shares with them. A replayed method that receives a type that was not
+     * recorded is analyzed again, and so are the methods it passes new types to. Types that may not be reached
+     * anymore are not recorded in an invalidated snapshot, so the result is the same as the result of analysis
+     * from scratch.</p>
+     */
+    public void replay(DependencySnapshot snapshot) {
+        replayedSnapshot = snapshot;
+        replayableMethods.addAll(snapshot.getReplayableMethods());
+        if (!snapshot.getInvalidatedClasses().isEmpty()) {
+            replayWatches = new HashMap<>();
+        }
+        for (MethodReference methodRef : methodCache.getCachedPreimages()) {
+            MethodDependency dep = methodCache.getKnown(methodRef);
+            if (dep != null && !dep.isMissing() && dep.getReference().equals(methodRef)) {
+                replayMethodTypes(dep);
+            }
+        }
+        for (FieldReference fieldRef : fieldCache.getCachedPreimages()) {
+            FieldDependency dep = fieldCache.getKnown(fieldRef);
+            if (dep != null && !dep.isMissing() && dep.getReference().equals(fieldRef)) {
+                replayValue(dep.getValue(), snapshot.getFields().get(fieldRef));
+            }
+        }
+    }
+
+    private void replayMethodTypes(MethodDependency dep) {
+        DependencySnapshot.MethodTypes methodTypes = replayedSnapshot.getMethods().get(dep.getReference());
+        if (methodTypes == null) {
+            return;
+        }
+        int[] variableValues = methodTypes.getVariableValues();
+        for (int i = 0; i < dep.getParameterCount() && i < variableValues.length; ++i) {
+            if (variableValues[i] >= 0) {
+                replayValue(dep.getVariable(i), methodTypes.getValues()[variableValues[i]]);
+            }
+        }
+        if (dep.getResult() != null) {
+            replayValue(dep.getResult(), methodTypes.getResult());
+        }
+        replayValue(dep.getThrown(), methodTypes.getThrown());
+    }
+
+    private void replayMethod(MethodDependency dep) {
+        replayedMethods.add(dep.getReference());
+        DependencySnapshot.MethodTypes methodTypes = replayedSnapshot.getMethods().get(dep.getReference());
+        if (replayWatches != null) {
+            for (int i = 0; i < dep.getParameterCount(); ++i) {
+                watchReplayedInput(dep, dep.getVariable(i), getParameterTypes(methodTypes, i), false);
+            }
+            if (dep.getResult() != null) {
+                watchReplayedInput(dep, dep.getResult(), methodTypes != null ? methodTypes.getResult() : null,
+                        true);
+            }
+        }
+
+        for (DependencySnapshot.Action action : replayedSnapshot.getMethodActions(dep.getReference())) {
+            replayAction(action);
+        }
+
+        if (methodTypes == null) {
+            return;
+        }
+        int[] variableValues = methodTypes.getVariableValues();
+        DependencyNode[] parameters = dep.getVariables();
+        DependencyNode[] valueNodes = new DependencyNode[methodTypes.getValues().length];
+        DependencyNode[] variables = new DependencyNode[variableValues.length];
+        for (int i = 0; i < variables.length; ++i) {
+            int value = variableValues[i];
+            if (value < 0) {
+                continue;
+            }
+            if (valueNodes[value] == null) {
+                if (i < parameters.length) {
+                    valueNodes[value] = parameters[i];
+                } else {
+                    valueNodes[value] = createNode();
+                    replayValue(valueNodes[value], methodTypes.getValues()[value]);
+                }
+            }
+            variables[i] = valueNodes[value];
+        }
+        dep.setVariables(variables);
+    }
+
+    private void replayAction(DependencySnapshot.Action action) {
+        String className = action.getTargetClassName();
+        if (classSource.get(className) == null) {
+            MethodReference owner = analyzedMethod;
+            pendingReplays.add(new PendingReplay(className, () -> analyze(owner, () -> performAction(action))));
+        } else {
+            performAction(action);
+        }
+    }
+
+    private void performAction(DependencySnapshot.Action action) {
+        switch (action.getKind()) {
+            case DependencySnapshot.LINK_CLASS:
+                linkClass(action.getClassName(), action.getLocation());
+                break;
+            case DependencySnapshot.LINK_METHOD: {
+                MethodDependency method = linkMethod(action.getMethod(), action.getLocation());
+                if (replayWatches != null && !method.isMissing()) {
+                    watchLinkedMethod(method);
+                }
+                break;
+            }
+            case DependencySnapshot.USE_METHOD:
+                methodCache.map(action.getMethod()).use();
+                break;
+            case DependencySnapshot.LINK_FIELD: {
+                FieldDependency field = linkField(action.getField(), action.getLocation());
+                if (replayWatches != null && !field.isMissing()) {
+                    watchReplayedInput(methodCache.getKnown(analyzedMethod), field.getValue(),
+                            replayedSnapshot.getFields().get(field.getReference()), false);
+                }
+                break;
+            }
+            case DependencySnapshot.INIT_CLASS:
+                classCache.map(action.getClassName()).initClass(action.getLocation());
+                break;
+        }
+    }
+
+    private static DependencySnapshot.ValueTypes getParameterTypes(DependencySnapshot.MethodTypes methodTypes,
+            int index) {
+        if (methodTypes == null || index >= methodTypes.getVariableValues().length) {
+            return null;
+        }
+        int value = methodTypes.getVariableValues()[index];
+        return value >= 0 ? methodTypes.getValues()[value] : null;
+    }
+
+    private void watchLinkedMethod(MethodDependency method) {
+        MethodDependency owner = methodCache.getKnown(analyzedMethod);
+        DependencySnapshot.MethodTypes methodTypes = replayedSnapshot.getMethods().get(method.getReference());
+        for (int i = 0; i < method.getParameterCount(); ++i) {
+            watchReplayedInput(owner, method.getVariable(i), getParameterTypes(methodTypes, i), true);
+        }
+        if (method.getResult() != null) {
+            watchReplayedInput(owner, method.getResult(), methodTypes != null ? methodTypes.getResult() : null,
+                    false);
+        }
+        watchReplayedInput(owner, method.getThrown(), methodTypes != null ? methodTypes.getThrown() : null, false);
+    }
+
+    /**
+     * <p>Makes the given replayed method to be analyzed again when the node receives a type that was not
+     * recorded.</p>
+     *
+     * @param itemsOnly whether only items of arrays held by the node should be watched, since types of the node
+     * itself don't flow to the method.
+     */
+    private void watchReplayedInput(MethodDependency method, DependencyNode node,
+            DependencySnapshot.ValueTypes recordedTypes, boolean itemsOnly) {
+        if (method == null || !replayedMethods.contains(method.getReference())) {
+            return;
+        }
+        for (int degree = 0; degree <= 2 && node != null; ++degree) {
+            if (!itemsOnly || degree > 0) {
+                ReplayWatch watch = replayWatches.get(node);
+                if (watch == null) {
+                    watch = new ReplayWatch(recordedTypes);
+                    replayWatches.put(node, watch);
+                    node.addConsumer(watch);
+                }
+                watch.addMethod(method);
+            }
+            if (recordedTypes == null || !hasArrayType(recordedTypes)) {
+                // No arrays were shared through the node, a new array type will reach the node itself first
+                break;
+            }
+            node = node.getArrayItem();
+            recordedTypes = recordedTypes.getArrayItem();
+        }
+    }
+
+    private static boolean hasArrayType(DependencySnapshot.ValueTypes value) {
+        for (String type : value.getTypes()) {
+            if (type.startsWith("[")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void analyzeReplayedMethodAgain(MethodDependency dep) {
+        if (!replayedMethods.remove(dep.getReference())) {
+            return;
+        }
+        replayableMethods.remove(dep.getReference());
+        // Variables created by replay are not connected to anything, so the graph is built from parameters
+        dep.setVariables(Arrays.copyOf(dep.getVariables(), dep.getParameterCount()));
+        tasks.add(() -> analyze(dep.getReference(), () -> new DependencyGraphBuilder(this).buildGraph(dep)));
+    }
+
+    /**
+     * <p>Collects replayed methods that receive types from a node, until the node receives a type that was not
+     * recorded. After that the methods are analyzed again.</p>
+     */
+    private class ReplayWatch implements DependencyConsumer {
+        private Set<String> recordedTypes = new HashSet<>();
+        private List<MethodDependency> methods = new ArrayList<>();
+
+        ReplayWatch(DependencySnapshot.ValueTypes recordedTypes) {
+            if (recordedTypes != null) {
+                this.recordedTypes.addAll(Arrays.asList(recordedTypes.getTypes()));
+            }
+        }
+
+        void addMethod(MethodDependency method) {
+            if (methods != null) {
+                methods.add(method);
+            } else {
+                analyzeReplayedMethodAgain(method);
+            }
+        }
+
+        @Override
+        public void consume(DependencyType type) {
+            if (methods == null || recordedTypes.contains(type.getName())) {
+                return;
+            }
+            List<MethodDependency> methodsToAnalyze = methods;
+            methods = null;
+            for (MethodDependency method : methodsToAnalyze) {
+                analyzeReplayedMethodAgain(method);
+            }
+        }
+    }
+
+    private void replayValue(DependencyNode node, DependencySnapshot.ValueTypes value) {
+        if (value == null) {
+            return;
+        }
+        List<DependencyType> availableTypes = new ArrayList<>();
+        for (String typeName : value.getTypes()) {
+            String className = getTypeClassName(typeName);
+            if (className != null && classSource.get(className) == null) {
+                pendingReplays.add(new PendingReplay(className, () -> node.propagate(getType(typeName))));
+            } else {
+                availableTypes.add(getType(typeName));
+            }
+        }
+        if (!availableTypes.isEmpty()) {
+            node.propagate(availableTypes.toArray(new DependencyType[availableTypes.size()]));
+        }
+        if (value.getArrayItem() != null) {
+            replayValue(node.getArrayItem(), value.getArrayItem());
+        }
+    }
+
+    private static String getTypeClassName(String typeName) {
+        int dimensions = 0;
+        while (dimensions < typeName.length() && typeName.charAt(dimensions) == '[') {
+            ++dimensions;
+        }
+        if (dimensions == 0) {
+            return typeName;
+        }
+        if (typeName.charAt(dimensions) != 'L') {
+            return null;
+        }
+        return typeName.substring(dimensions + 1, typeName.length() - 1).replace('/', '.');
+    }
+
+    private void schedulePendingReplays(String className) {
+        for (Iterator<PendingReplay> iter = pendingReplays.iterator(); iter.hasNext();) {
+            PendingReplay pending = iter.next();
+            if (className == null || pending.className.equals(className)) {
+                tasks.add(pending.action);
+                iter.remove();
+            }
+        }
+    }
+
+    private static class PendingReplay {
+        String className;
+        Runnable action;
+
+        PendingReplay(String className, Runnable action) {
+            this.className = className;
+            this.action = action;
+        }
+    }
+
     public void processDependencies() {
         interrupted = false;
+        try {
+            while (runTasks()) {
+                if (!pendingPropagations.isEmpty()) {
+                    if (!propagateConcurrently()) {
+                        interrupted = true;
+                        break;
+                    }
+                } else if (!pendingReplays.isEmpty()) {
+                    // Remaining classes were not generated, so actions on them report missing items
+                    schedulePendingReplays(null);
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            if (propagationPool != null) {
+                // Tasks that are already running don't stop, and they must not change the graph after return.
+                // Tasks that the pool dropped are lost, so an interrupted analysis can't be resumed.
+                propagationPool.shutdownNow();
+                awaitTermination(propagationPool);
+                propagationPool = null;
+                pendingPropagations.clear();
+                deferredTasks.clear();
+                propagationError.set(null);
+                runningPropagations.set(0);
+            }
+        }
+        if (shouldLog) {
+            System.out.println("Dependency nodes: " + nodes.size() + " created, " + mergedNodes + " merged in "
+                    + collapsedCycles + " cycles found by " + cycleSearches + " searches");
+        }
+    }
+
+    private static void awaitTermination(ForkJoinPool pool) {
+        boolean interrupted = false;
+        boolean terminated = false;
+        while (!terminated) {
+            try {
+                terminated = pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean runTasks() {
         int index = 0;
         while (!tasks.isEmpty()) {
             tasks.poll().run();
             if (++index == 100) {
                 if (interruptor != null && !interruptor.shouldContinue()) {
                     interrupted = true;
-                    break;
+                    return false;
                 }
                 index = 0;
             }
         }
+        return true;
+    }
+
+    private boolean propagateConcurrently() {
+        if (propagationPool == null) {
+            propagationPool = new ForkJoinPool(numThreads != 0 ? numThreads
+                    : Runtime.getRuntime().availableProcessors());
+        }
+        List<PropagationTask> propagations = pendingPropagations;
+        pendingPropagations = new ArrayList<>();
+        for (PropagationTask propagation : propagations) {
+            propagationPool.execute(propagation);
+        }
+        synchronized (runningPropagations) {
+            while (runningPropagations.get() > 0) {
+                try {
+                    runningPropagations.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        Throwable error = propagationError.getAndSet(null);
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+
+        List<DeferredTask> deferred = new ArrayList<>(deferredTasks);
+        deferredTasks.clear();
+        Collections.sort(deferred);
+        for (DeferredTask task : deferred) {
+            tasks.add(task.action);
+        }
+        return true;
+    }
+
+    private class PropagationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private Runnable action;
+
+        PropagationTask(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                action.run();
+            } catch (Throwable e) {
+                propagationError.compareAndSet(null, e);
+            } finally {
+                if (runningPropagations.decrementAndGet() == 0) {
+                    synchronized (runningPropagations) {
+                        runningPropagations.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class DeferredTask implements Comparable<DeferredTask> {
+        int node;
+        int follower;
+        int type;
+        Runnable action;
+
+        DeferredTask(int node, int follower, int type, Runnable action) {
+            this.node = node;
+            this.follower = follower;
+            this.type = type;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(DeferredTask o) {
+            int result = Integer.compare(node, o.node);
+            if (result == 0) {
+                result = Integer.compare(follower, o.follower);
+            }
+            if (result == 0) {
+                result = Integer.compare(type, o.type);
+            }
+            return result;
+        }
     }
 
     public <T> T getService(Class<T> type) {
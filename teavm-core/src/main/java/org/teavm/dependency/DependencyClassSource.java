@@ -18,15 +18,20 @@ package org.teavm.dependency;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import org.teavm.diagnostics.Diagnostics;
+import org.teavm.model.ClassHierarchy;
 import org.teavm.model.ClassHolder;
 import org.teavm.model.ClassHolderSource;
 import org.teavm.model.ClassHolderTransformer;
 import org.teavm.model.ClassReader;
 import org.teavm.model.ClassReaderSource;
 import org.teavm.model.MethodHolder;
+import org.teavm.model.ValueType;
 import org.teavm.model.util.ModelUtils;
 import org.teavm.optimization.UnreachableBasicBlockEliminator;
 
@@ -40,14 +45,42 @@ class DependencyClassSource implements ClassHolderSource {
     private Map<String, ClassHolder> generatedClasses = new HashMap<>();
     private List<ClassHolderTransformer> transformers = new ArrayList<>();
     private Map<String, ClassHolder> cache = new HashMap<>();
+    private ClassReaderSource rawInnerSource;
+    private Set<String> requestedClasses = new LinkedHashSet<>();
+    private volatile ClassHierarchy hierarchy = new ClassHierarchy(this);
 
     public DependencyClassSource(ClassReaderSource innerSource, Diagnostics diagnostics) {
-        this.innerSource = innerSource;
+        this.rawInnerSource = innerSource;
+        this.innerSource = this::getFromInnerSource;
         this.diagnostics = diagnostics;
     }
 
+    private ClassReader getFromInnerSource(String name) {
+        synchronized (requestedClasses) {
+            requestedClasses.add(name);
+        }
+        // Transformations of lazy programs may read the inner source from any thread
+        synchronized (this) {
+            return rawInnerSource.get(name);
+        }
+    }
+
+    public ClassReaderSource getInnerSource() {
+        return rawInnerSource;
+    }
+
+    /**
+     * <p>Gets names of all classes that were requested from the inner source, either by dependency analysis
+     * or by class transformers.</p>
+     */
+    public List<String> getRequestedClasses() {
+        synchronized (requestedClasses) {
+            return new ArrayList<>(requestedClasses);
+        }
+    }
+
     @Override
-    public ClassHolder get(String name) {
+    public synchronized ClassHolder get(String name) {
         return cache.computeIfAbsent(name, n -> findAndTransformClass(n));
     }
 
@@ -62,6 +95,17 @@ class DependencyClassSource implements ClassHolderSource {
             }
         }
         cache.remove(cls.getName());
+        hierarchy = new ClassHierarchy(this);
+    }
+
+    @Override
+    public Optional<Boolean> isSuperType(String superType, String subType) {
+        return hierarchy.isSuperType(superType, subType);
+    }
+
+    @Override
+    public Optional<Boolean> isSuperType(ValueType superType, ValueType subType) {
+        return hierarchy.isSuperType(superType, subType);
     }
 
     private ClassHolder findAndTransformClass(String name) {
@@ -87,6 +131,10 @@ class DependencyClassSource implements ClassHolderSource {
         return generatedClasses.values();
     }
 
+    public List<ClassHolderTransformer> getTransformers() {
+        return transformers;
+    }
+
     public void addTransformer(ClassHolderTransformer transformer) {
         transformers.add(transformer);
     }
@@ -26,6 +26,7 @@ import org.teavm.model.BasicBlockReader;
 import org.teavm.model.CallLocation;
 import org.teavm.model.ClassReader;
 import org.teavm.model.ClassReaderSource;
+import org.teavm.model.CompactProgram;
 import org.teavm.model.ElementModifier;
 import org.teavm.model.FieldReference;
 import org.teavm.model.Incoming;
@@ -40,6 +41,7 @@ import org.teavm.model.MethodReference;
 import org.teavm.model.Phi;
 import org.teavm.model.PhiReader;
 import org.teavm.model.Program;
+import org.teavm.model.ProgramReader;
 import org.teavm.model.RuntimeConstant;
 import org.teavm.model.TryCatchBlockReader;
 import org.teavm.model.ValueType;
@@ -68,7 +70,7 @@ class DependencyGraphBuilder {
     private DependencyChecker dependencyChecker;
     private DependencyNode[] nodes;
     private DependencyNode resultNode;
-    private Program program;
+    private ProgramReader program;
     private DefaultCallGraphNode caller;
     private InstructionLocation currentLocation;
     private ExceptionConsumer currentExceptionConsumer;
@@ -80,13 +82,18 @@ class DependencyGraphBuilder {
     public void buildGraph(MethodDependency dep) {
         caller = dependencyChecker.callGraph.getNode(dep.getReference());
         MethodHolder method = dep.method;
-        if (method.getProgram() == null || method.getProgram().basicBlockCount() == 0) {
+        program = method.readProgram();
+        if (program == null || program.basicBlockCount() == 0) {
             return;
         }
-        program = method.getProgram();
         resultNode = dep.getResult();
 
-        processInvokeDynamic(dep);
+        if (!(program instanceof CompactProgram) || ((CompactProgram) program).isInvokeDynamicUsed()) {
+            // Invokedynamic instructions are replaced, so compact program has to be converted
+            Program mutableProgram = method.getProgram();
+            processInvokeDynamic(dep, mutableProgram);
+            program = mutableProgram;
+        }
 
         DataFlowGraphBuilder dfgBuilder = new DataFlowGraphBuilder();
         boolean[] significantParams = new boolean[dep.getParameterCount()];
@@ -121,7 +128,7 @@ class DependencyGraphBuilder {
                 nodeClasses[i].setTag(dep.getMethod().getReference() + ":" + i);
             }
         }
-        nodes = new DependencyNode[dep.getMethod().getProgram().variableCount()];
+        nodes = new DependencyNode[program.variableCount()];
         for (int i = 0; i < nodes.length; ++i) {
             int mappedNode = nodeMapping[i];
             nodes[i] = mappedNode >= 0 ? nodeClasses[mappedNode] : null;
@@ -183,10 +190,7 @@ class DependencyGraphBuilder {
         }
     }
 
-    private void processInvokeDynamic(MethodDependency methodDep) {
-        if (program == null) {
-            return;
-        }
+    private void processInvokeDynamic(MethodDependency methodDep, Program program) {
         ProgramEmitter pe = ProgramEmitter.create(program, dependencyChecker.getClassSource());
         for (int i = 0; i < program.basicBlockCount(); ++i) {
             BasicBlock block = program.basicBlockAt(i);
@@ -196,6 +200,7 @@ class DependencyGraphBuilder {
                     continue;
                 }
                 InvokeDynamicInstruction indy = (InvokeDynamicInstruction) insn;
+                dependencyChecker.methodsWithInvokeDynamic.add(methodDep.getReference());
                 MethodReference bootstrapMethod = new MethodReference(indy.getBootstrapMethod().getClassName(),
                         indy.getBootstrapMethod().getName(), indy.getBootstrapMethod().signature());
                 BootstrapMethodSubstitutor substitutor = dependencyChecker.bootstrapMethodSubstitutors
@@ -327,6 +332,10 @@ class DependencyGraphBuilder {
 
         @Override
         public void consume(DependencyType type) {
+            checker.analyze(caller.getMethod(), () -> consumeType(type));
+        }
+
+        private void consumeType(DependencyType type) {
             String className = type.getName();
             if (DependencyChecker.shouldLog) {
                 System.out.println("Virtual call of " + methodDesc + " detected on " + node.getTag() + ". "
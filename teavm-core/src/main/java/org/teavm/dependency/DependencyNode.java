@@ -15,21 +15,34 @@
  */
 package org.teavm.dependency;
 
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * <p>A node of the dependency graph which accumulates types that variables, fields, method results, etc
+ * may hold. Nodes connected by unfiltered edges into a cycle always hold the same types, so they
+ * are merged together: one of them becomes representative and keeps types of all of them, while
+ * followers and transitions stay with the nodes they were added to.</p>
  *
  * @author Alexey Andreev
  */
 public class DependencyNode implements ValueDependencyInfo {
+    private static final int CYCLE_SEARCH_LIMIT = 256;
     private DependencyChecker dependencyChecker;
     private List<DependencyConsumer> followers;
-    private int[] smallTypes;
-    private BitSet types;
+    private DependencyTypeSet typeSet = DependencyTypeSet.EMPTY;
     private List<DependencyNodeToNodeTransition> transitions;
     private volatile String tag;
     private DependencyNode arrayItemNode;
     private int degree;
+    private DependencyNode representative = this;
+    private List<DependencyNode> members;
+    private boolean arrayItemsConnected;
     int index;
 
     DependencyNode(DependencyChecker dependencyChecker, int index) {
@@ -42,35 +55,41 @@ public class DependencyNode implements ValueDependencyInfo {
         this.degree = degree;
     }
 
-    private boolean addType(DependencyType type) {
-        if (types == null) {
-            if (smallTypes == null) {
-                smallTypes = new int[] { type.index };
-                return true;
-            }
+    private synchronized boolean addType(DependencyType type) {
+        DependencyTypeSet newTypeSet = dependencyChecker.typeSets.add(typeSet, type.index);
+        if (newTypeSet == typeSet) {
+            return false;
         }
-        if (smallTypes != null) {
-            for (int i = 0; i < smallTypes.length; ++i) {
-                if (smallTypes[i] == type.index) {
-                    return false;
-                }
+        typeSet = newTypeSet;
+        return true;
+    }
+
+    private synchronized DependencyType[] addTypes(DependencyType[] types) {
+        int[] indexes = new int[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            indexes[i] = types[i].index;
+        }
+        DependencyTypeSet oldTypeSet = typeSet;
+        typeSet = dependencyChecker.typeSets.addAll(oldTypeSet, indexes);
+        if (typeSet == oldTypeSet) {
+            return null;
+        }
+        DependencyType[] addedTypes = new DependencyType[typeSet.size() - oldTypeSet.size()];
+        int count = 0;
+        for (DependencyType type : types) {
+            if (!oldTypeSet.contains(type.index) && !contains(addedTypes, count, type)) {
+                addedTypes[count++] = type;
             }
-            if (smallTypes.length == 5) {
-                types = new BitSet();
-                for (int existingType : smallTypes) {
-                    types.set(existingType);
-                }
-                smallTypes = null;
-            } else {
-                smallTypes = Arrays.copyOf(smallTypes, smallTypes.length + 1);
-                smallTypes[smallTypes.length - 1] = type.index;
+        }
+        return addedTypes;
+    }
+
+    private static boolean contains(DependencyType[] types, int count, DependencyType type) {
+        for (int i = 0; i < count; ++i) {
+            if (types[i] == type) {
                 return true;
             }
         }
-        if (!types.get(type.index)) {
-            types.set(type.index);
-            return true;
-        }
         return false;
     }
 
@@ -81,46 +100,77 @@ public class DependencyNode implements ValueDependencyInfo {
         if (degree > 2) {
             return;
         }
-        if (addType(type)) {
+        DependencyNode node = representative;
+        if (node.addType(type)) {
             if (DependencyChecker.shouldLog) {
                 System.out.println(tag + " -> " + type.getName());
             }
-            if (followers != null) {
-                for (DependencyConsumer consumer : followers.toArray(new DependencyConsumer[followers.size()])) {
-                    dependencyChecker.schedulePropagation(consumer, type);
-                }
-            }
+            node.scheduleFollowers(node.getMembers(), new DependencyType[] { type });
+            node.arrayTypesAdded(new DependencyType[] { type });
         }
     }
 
     public void propagate(DependencyType[] newTypes) {
-        DependencyType[] types = new DependencyType[newTypes.length];
-        int j = 0;
-        for (int i = 0; i < newTypes.length; ++i) {
-            DependencyType type = newTypes[i];
+        for (DependencyType type : newTypes) {
             if (type.getDependencyChecker() != dependencyChecker) {
                 throw new IllegalArgumentException("The given type does not belong to the same dependency checker");
             }
-            if (addType(type)) {
-                types[j++] = type;
-            }
         }
-        if (j == 0) {
+        if (degree > 2) {
+            return;
+        }
+        DependencyNode node = representative;
+        DependencyType[] types = node.addTypes(newTypes);
+        if (types == null) {
             return;
         }
         if (DependencyChecker.shouldLog) {
-            for (int i = 0; i < j; ++i) {
-                System.out.println(tag + " -> " + types[i].getName());
+            for (DependencyType type : types) {
+                System.out.println(tag + " -> " + type.getName());
             }
         }
-        if (followers != null) {
-            types = Arrays.copyOf(types, j);
-            for (DependencyConsumer consumer : followers.toArray(new DependencyConsumer[followers.size()])) {
-                dependencyChecker.schedulePropagation(consumer, types);
+        node.scheduleFollowers(node.getMembers(), types);
+        node.arrayTypesAdded(types);
+    }
+
+    private List<DependencyNode> getMembers() {
+        return members != null ? members : Collections.singletonList(this);
+    }
+
+    private void scheduleFollowers(List<DependencyNode> nodes, DependencyType[] types) {
+        for (DependencyNode node : nodes) {
+            if (node.followers == null) {
+                continue;
+            }
+            DependencyConsumer[] consumers = node.followers.toArray(new DependencyConsumer[node.followers.size()]);
+            for (int i = 0; i < consumers.length; ++i) {
+                DependencyConsumer consumer = consumers[i];
+                if (consumer instanceof DependencyNodeToNodeTransition
+                        && ((DependencyNodeToNodeTransition) consumer).destination.representative == this) {
+                    continue;
+                }
+                if (types.length == 1) {
+                    dependencyChecker.schedulePropagation(node, i, consumer, types[0]);
+                } else {
+                    dependencyChecker.schedulePropagation(node, i, consumer, types);
+                }
             }
         }
     }
 
+    private void arrayTypesAdded(DependencyType[] types) {
+        if (members == null || !hasArrayType(types)) {
+            return;
+        }
+        synchronized (this) {
+            if (arrayItemsConnected) {
+                return;
+            }
+            arrayItemsConnected = true;
+        }
+        dependencyChecker.scheduleArrayItemsConnection(this);
+    }
+
     public void addConsumer(DependencyConsumer consumer) {
         if (followers == null) {
             followers = new ArrayList<>();
@@ -129,21 +179,25 @@ public class DependencyNode implements ValueDependencyInfo {
             return;
         }
         followers.add(consumer);
-        if (this.types != null) {
-            List<DependencyType> types = new ArrayList<>();
-            for (int index = this.types.nextSetBit(0); index >= 0; index = this.types.nextSetBit(index + 1)) {
-                types.add(dependencyChecker.types.get(index));
-            }
-            dependencyChecker.schedulePropagation(consumer, types.toArray(new DependencyType[types.size()]));
-        } else if (this.smallTypes != null) {
-            DependencyType[] types = new DependencyType[smallTypes.length];
-            for (int i = 0; i < types.length; ++i) {
-                types[i] = dependencyChecker.types.get(smallTypes[i]);
-            }
-            dependencyChecker.schedulePropagation(consumer, types);
+        DependencyType[] types = representative.getTypeArray();
+        if (types.length > 0) {
+            dependencyChecker.schedulePropagation(this, followers.size() - 1, consumer, types);
         }
     }
 
+    private DependencyType[] getTypeArray() {
+        int[] indexes = getTypeSet().toArray();
+        DependencyType[] types = new DependencyType[indexes.length];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = dependencyChecker.types.get(indexes[i]);
+        }
+        return types;
+    }
+
+    synchronized DependencyTypeSet getTypeSet() {
+        return typeSet;
+    }
+
     public void connect(DependencyNode node, DependencyTypeFilter filter) {
         if (this == node) {
             return;
@@ -167,13 +221,155 @@ public class DependencyNode implements ValueDependencyInfo {
         if (DependencyChecker.shouldLog) {
             System.out.println("Connecting " + tag + " to " + node.tag);
         }
+        if (representative == node.representative) {
+            return;
+        }
         addConsumer(transition);
+        if (filter == null) {
+            representative.collapseCycle(node.representative);
+        }
     }
 
     public void connect(DependencyNode node) {
         connect(node, null);
     }
 
+    private void collapseCycle(DependencyNode target) {
+        if (degree != target.degree || degree > 2) {
+            return;
+        }
+        dependencyChecker.cycleSearches++;
+        Map<DependencyNode, DependencyNode> parents = new HashMap<>();
+        Deque<DependencyNode> stack = new ArrayDeque<>();
+        parents.put(target, null);
+        stack.push(target);
+        int budget = CYCLE_SEARCH_LIMIT;
+        while (!stack.isEmpty()) {
+            DependencyNode current = stack.pop();
+            for (DependencyNode member : current.getMembers()) {
+                if (member.transitions == null) {
+                    continue;
+                }
+                for (DependencyNodeToNodeTransition transition : member.transitions) {
+                    if (transition.filter != null) {
+                        continue;
+                    }
+                    if (--budget == 0) {
+                        return;
+                    }
+                    DependencyNode next = transition.destination.representative;
+                    if (next == current || next.degree != degree || parents.containsKey(next)) {
+                        continue;
+                    }
+                    if (next == this) {
+                        DependencyNode node = this;
+                        for (DependencyNode cycleNode = current; cycleNode != null;
+                                cycleNode = parents.get(cycleNode)) {
+                            node = merge(node, cycleNode);
+                        }
+                        dependencyChecker.collapsedCycles++;
+                        return;
+                    }
+                    parents.put(next, current);
+                    stack.push(next);
+                }
+            }
+        }
+    }
+
+    private static DependencyNode merge(DependencyNode first, DependencyNode second) {
+        first = first.representative;
+        second = second.representative;
+        if (first == second) {
+            return first;
+        }
+        DependencyNode node = first;
+        DependencyNode absorbed = second;
+        int firstSize = first.members != null ? first.members.size() : 1;
+        int secondSize = second.members != null ? second.members.size() : 1;
+        if (secondSize > firstSize || secondSize == firstSize && second.index < first.index) {
+            node = second;
+            absorbed = first;
+        }
+        DependencyChecker checker = node.dependencyChecker;
+        if (DependencyChecker.shouldLog) {
+            System.out.println("Merging " + absorbed.tag + " into " + node.tag);
+        }
+
+        DependencyType[] nodeTypes = node.getTypeArray();
+        DependencyType[] absorbedTypes = absorbed.getTypeArray();
+        DependencyType[] newNodeTypes = node.addTypes(absorbedTypes);
+        List<DependencyType> newAbsorbedTypes = new ArrayList<>();
+        for (DependencyType type : nodeTypes) {
+            if (!absorbed.hasTypeInSet(type)) {
+                newAbsorbedTypes.add(type);
+            }
+        }
+        absorbed.typeSet = DependencyTypeSet.EMPTY;
+
+        List<DependencyNode> nodeMembers = node.getMembers();
+        List<DependencyNode> absorbedMembers = absorbed.getMembers();
+        if (newNodeTypes != null) {
+            node.scheduleFollowers(nodeMembers, newNodeTypes);
+        }
+
+        boolean nodeArrayItemsConnected = node.arrayItemsConnected;
+        if (node.members == null) {
+            node.members = new ArrayList<>();
+            node.members.add(node);
+        }
+        for (DependencyNode member : absorbedMembers) {
+            member.representative = node;
+        }
+        node.members.addAll(absorbedMembers);
+        absorbed.members = null;
+        checker.mergedNodes += absorbedMembers.size();
+
+        if (!newAbsorbedTypes.isEmpty()) {
+            node.scheduleFollowers(absorbedMembers,
+                    newAbsorbedTypes.toArray(new DependencyType[newAbsorbedTypes.size()]));
+        }
+
+        if (hasArrayType(nodeTypes) || hasArrayType(absorbedTypes)) {
+            node.arrayItemsConnected = true;
+            if (nodeArrayItemsConnected) {
+                node.connectArrayItems(absorbedMembers);
+            } else {
+                node.connectArrayItems(node.members);
+            }
+        }
+        return node;
+    }
+
+    private static boolean hasArrayType(DependencyType[] types) {
+        for (DependencyType type : types) {
+            if (type.getName().startsWith("[")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void connectMemberArrayItems() {
+        DependencyNode node = representative;
+        if (node.members != null) {
+            node.connectArrayItems(node.members);
+        }
+    }
+
+    private void connectArrayItems(List<DependencyNode> nodes) {
+        // Types flowing along an edge that carries arrays connect array items of both ends of the edge.
+        // Edges inside merged nodes don't carry types anymore, so array items of members get connected instead.
+        DependencyNode first = members.get(0).getArrayItem();
+        for (DependencyNode node : nodes.toArray(new DependencyNode[nodes.size()])) {
+            DependencyNode item = node.getArrayItem();
+            if (item != first) {
+                first.connect(item);
+                item.connect(first);
+            }
+        }
+    }
+
     @Override
     public DependencyNode getArrayItem() {
         if (arrayItemNode == null) {
@@ -183,25 +379,30 @@ public class DependencyNode implements ValueDependencyInfo {
                 arrayItemNode.tag = tag + "[";
             }
             arrayItemNode.addConsumer(type -> propagate(type));
+            DependencyNode node = representative;
+            if (node.arrayItemsConnected && node.members.get(0) != this) {
+                DependencyNode first = node.members.get(0).getArrayItem();
+                first.connect(arrayItemNode);
+                arrayItemNode.connect(first);
+            }
         }
         return arrayItemNode;
     }
 
     @Override
     public boolean hasArrayType() {
-        return arrayItemNode != null && (arrayItemNode.types != null || arrayItemNode.smallTypes != null);
+        if (arrayItemNode == null) {
+            return false;
+        }
+        return !arrayItemNode.representative.getTypeSet().isEmpty();
     }
 
     public boolean hasType(DependencyType type) {
-        if (smallTypes != null) {
-            for (int i = 0; i < smallTypes.length; ++i) {
-                if (smallTypes[i] == type.index) {
-                    return true;
-                }
-            }
-            return false;
-        }
-        return types != null && type.getDependencyChecker() == dependencyChecker && types.get(type.index);
+        return representative.hasTypeInSet(type);
+    }
+
+    private boolean hasTypeInSet(DependencyType type) {
+        return type.getDependencyChecker() == dependencyChecker && getTypeSet().contains(type.index);
     }
 
     @Override
@@ -211,21 +412,12 @@ public class DependencyNode implements ValueDependencyInfo {
 
     @Override
     public String[] getTypes() {
-        if (smallTypes != null) {
-            String[] result = new String[smallTypes.length];
-            for (int i = 0; i < result.length; ++i) {
-                result[i] = dependencyChecker.types.get(smallTypes[i]).getName();
-            }
-            return result;
-        }
-        if (types == null) {
-            return new String[0];
-        }
-        List<String> result = new ArrayList<>();
-        for (int index = types.nextSetBit(0); index >= 0; index = types.nextSetBit(index + 1)) {
-            result.add(dependencyChecker.types.get(index).getName());
+        DependencyType[] types = representative.getTypeArray();
+        String[] result = new String[types.length];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = types[i].getName();
         }
-        return result.toArray(new String[result.size()]);
+        return result;
     }
 
     public String getTag() {
@@ -15,6 +15,8 @@
  */
 package org.teavm.dependency;
 
+import java.util.Arrays;
+
 /**
  *
  * @author Alexey Andreev
@@ -22,7 +24,7 @@ package org.teavm.dependency;
 class DependencyNodeToNodeTransition implements DependencyConsumer {
     DependencyNode source;
     DependencyNode destination;
-    private DependencyTypeFilter filter;
+    DependencyTypeFilter filter;
 
     public DependencyNodeToNodeTransition(DependencyNode source, DependencyNode destination,
             DependencyTypeFilter filter) {
@@ -37,11 +39,27 @@ class DependencyNodeToNodeTransition implements DependencyConsumer {
             return;
         }
         if (type.getName().startsWith("[")) {
-            source.getArrayItem().connect(destination.getArrayItem());
-            destination.getArrayItem().connect(source.getArrayItem());
+            type.getDependencyChecker().connectArrayItems(this, type);
         }
         if (!destination.hasType(type)) {
             destination.propagate(type);
         }
     }
+
+    public void consume(DependencyType[] types) {
+        DependencyType[] passedTypes = new DependencyType[types.length];
+        int count = 0;
+        for (DependencyType type : types) {
+            if (filter != null && !filter.match(type)) {
+                continue;
+            }
+            if (type.getName().startsWith("[")) {
+                type.getDependencyChecker().connectArrayItems(this, type);
+            }
+            passedTypes[count++] = type;
+        }
+        if (count > 0) {
+            destination.propagate(count == types.length ? passedTypes : Arrays.copyOf(passedTypes, count));
+        }
+    }
 }
@@ -0,0 +1,499 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.model.CallLocation;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.FieldReference;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.parsing.ClassDateProvider;
+
+/**
+ * <p>Result of dependency analysis that can be stored between builds and replayed by
+ * {@link DependencyChecker#replay(DependencySnapshot)}. For every analyzed method a snapshot keeps classes,
+ * methods and fields the method linked, in the order they were linked, and types that reached its parameters,
+ * result and variables. It also keeps types of fields.</p>
+ *
+ * <p>A snapshot can only be reused when the set of entry points has not changed. Classes analysis has looked at
+ * may change, {@link #findChangedClasses(ClassReaderSource, ClassDateProvider, Date)} finds them and
+ * {@link #invalidate(Set, ClassReaderSource)} excludes methods that depend on them from replay.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class DependencySnapshot {
+    public static final int LINK_CLASS = 0;
+    public static final int LINK_METHOD = 1;
+    public static final int USE_METHOD = 2;
+    public static final int LINK_FIELD = 3;
+    public static final int INIT_CLASS = 4;
+    private static final byte[] MISSING_CLASS = new byte[0];
+    private String configuration;
+    private Map<MethodReference, List<Action>> methodActions = new LinkedHashMap<>();
+    private Map<MethodReference, MethodTypes> methods = new LinkedHashMap<>();
+    private Map<FieldReference, ValueTypes> fields = new LinkedHashMap<>();
+    private Set<MethodReference> replayableMethods = new LinkedHashSet<>();
+    private Map<String, byte[]> classFingerprints = new LinkedHashMap<>();
+    private Map<String, byte[]> classStructures = new LinkedHashMap<>();
+    private Map<String, Map<MethodDescriptor, byte[]>> methodFingerprints = new LinkedHashMap<>();
+    private Set<String> invalidatedClasses = new LinkedHashSet<>();
+
+    public DependencySnapshot(String configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * <p>Gets a string that identifies everything dependency analysis was started with, i.e. entry points,
+     * plugins and properties.</p>
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * <p>Gets actions performed while analyzing methods, either by building method's dependency graph
+     * or by linking targets of method's virtual calls.</p>
+     */
+    public Map<MethodReference, List<Action>> getMethodActions() {
+        return methodActions;
+    }
+
+    public List<Action> getMethodActions(MethodReference method) {
+        List<Action> actions = methodActions.get(method);
+        return actions != null ? actions : Collections.emptyList();
+    }
+
+    public Map<MethodReference, MethodTypes> getMethods() {
+        return methods;
+    }
+
+    public Map<FieldReference, ValueTypes> getFields() {
+        return fields;
+    }
+
+    /**
+     * <p>Gets methods whose dependency graphs need not be built again during replay.</p>
+     */
+    public Set<MethodReference> getReplayableMethods() {
+        return replayableMethods;
+    }
+
+    /**
+     * <p>Gets fingerprints of all classes dependency analysis requested, including missing ones,
+     * which have empty fingerprints.</p>
+     */
+    public Map<String, byte[]> getClassFingerprints() {
+        return classFingerprints;
+    }
+
+    /**
+     * <p>Gets fingerprints of the same classes as {@link #getClassFingerprints()} does, but without bodies
+     * of methods.</p>
+     */
+    public Map<String, byte[]> getClassStructures() {
+        return classStructures;
+    }
+
+    /**
+     * <p>Gets fingerprints of bodies of methods of the same classes as {@link #getClassFingerprints()} does.</p>
+     */
+    public Map<String, Map<MethodDescriptor, byte[]>> getMethodFingerprints() {
+        return methodFingerprints;
+    }
+
+    void addClassFingerprint(String className, ClassReader cls) {
+        classFingerprints.put(className, cls != null ? ClassFingerprint.compute(cls) : MISSING_CLASS);
+        classStructures.put(className, cls != null ? ClassFingerprint.computeStructure(cls) : MISSING_CLASS);
+        Map<MethodDescriptor, byte[]> bodies = new LinkedHashMap<>();
+        if (cls != null) {
+            for (MethodReader method : cls.getMethods()) {
+                bodies.put(method.getDescriptor(), ClassFingerprint.computeBody(method));
+            }
+        }
+        methodFingerprints.put(className, bodies);
+    }
+
+    void copyClassFingerprint(String className, DependencySnapshot snapshot) {
+        classFingerprints.put(className, snapshot.classFingerprints.get(className));
+        classStructures.put(className, snapshot.classStructures.get(className));
+        methodFingerprints.put(className, snapshot.methodFingerprints.get(className));
+    }
+
+    /**
+     * <p>Gets classes passed to {@link #invalidate(Set, ClassReaderSource)}.</p>
+     */
+    public Set<String> getInvalidatedClasses() {
+        return invalidatedClasses;
+    }
+
+    /**
+     * <p>Finds classes that differ from the ones this snapshot was taken from. Only classes modified after
+     * the given date are compared, the rest are considered unchanged.</p>
+     *
+     * @param classSource source of classes as they are now.
+     * @param dateProvider provides modification dates of classes.
+     * @param date date when this snapshot was taken.
+     * @return names of changed classes, empty set when snapshot can be replayed.
+     */
+    public Set<String> findChangedClasses(ClassReaderSource classSource, ClassDateProvider dateProvider,
+            Date date) {
+        Set<String> changedClasses = new LinkedHashSet<>();
+        for (Map.Entry<String, byte[]> entry : classFingerprints.entrySet()) {
+            String className = entry.getKey();
+            byte[] fingerprint = entry.getValue();
+            if (fingerprint.length == 0) {
+                if (classSource.get(className) != null) {
+                    changedClasses.add(className);
+                }
+                continue;
+            }
+            Date classDate = dateProvider.getModificationDate(className);
+            if (classDate != null && !classDate.after(date)) {
+                continue;
+            }
+            ClassReader cls = classSource.get(className);
+            if (cls == null || !Arrays.equals(fingerprint, ClassFingerprint.compute(cls))) {
+                changedClasses.add(className);
+            }
+        }
+        return changedClasses;
+    }
+
+    /**
+     * <p>Excludes methods that depend on the given classes from replay, so that they are analyzed again. These are
+     * methods of the classes whose bodies were edited. When not only bodies of methods of a class changed, but its
+     * structure, e.g. its hierarchy or set of methods, all methods of the class are analyzed again, and so are
+     * methods that linked something of the class or received instances of the class, since calls in these methods
+     * may now resolve differently.</p>
+     *
+     * <p>Types recorded for these methods may come from code that does not exist anymore, and so may types of
+     * everything they passed values to. So recorded types are forgotten for methods and fields these methods
+     * linked, for methods that linked them when values could flow back through results, exceptions
+     * or arrays, and so on transitively. Such methods are analyzed again as well. This way only the types
+     * that can still be produced are propagated, and replay reaches the same result as analysis from
+     * scratch.</p>
+     *
+     * <p>Methods that are still replayed may receive types from methods that are analyzed again, this is
+     * handled by {@link DependencyChecker#replay(DependencySnapshot)}.</p>
+     *
+     * @param classes classes that changed, see {@link #findChangedClasses(ClassReaderSource, ClassDateProvider,
+     * Date)}.
+     * @param classSource source of classes as they are now.
+     */
+    public void invalidate(Set<String> classes, ClassReaderSource classSource) {
+        invalidatedClasses.addAll(classes);
+        Set<String> restructuredClasses = new HashSet<>();
+        for (String className : classes) {
+            ClassReader cls = classSource.get(className);
+            byte[] structure = classStructures.get(className);
+            if (cls == null || structure == null || structure.length == 0
+                    || !Arrays.equals(structure, ClassFingerprint.computeStructure(cls))) {
+                restructuredClasses.add(className);
+            }
+        }
+
+        Set<MethodReference> invalidMethods = new LinkedHashSet<>(methods.keySet());
+        invalidMethods.addAll(replayableMethods);
+        invalidMethods.removeIf(method -> !isEdited(method, classes, restructuredClasses, classSource)
+                && !dependsOn(method, restructuredClasses));
+        Set<FieldReference> invalidFields = new HashSet<>();
+        Map<MethodReference, Set<MethodReference>> callers = new HashMap<>();
+        Map<FieldReference, Set<MethodReference>> fieldUsers = new HashMap<>();
+        for (Map.Entry<MethodReference, List<Action>> entry : methodActions.entrySet()) {
+            for (Action action : entry.getValue()) {
+                switch (action.getKind()) {
+                    case LINK_METHOD:
+                    case USE_METHOD:
+                        callers.computeIfAbsent(action.getMethod(), key -> new HashSet<>()).add(entry.getKey());
+                        break;
+                    case LINK_FIELD:
+                        fieldUsers.computeIfAbsent(action.getField(), key -> new HashSet<>()).add(entry.getKey());
+                        break;
+                }
+            }
+        }
+        findAffectedItems(invalidMethods, invalidFields, callers, fieldUsers);
+
+        replayableMethods.removeAll(invalidMethods);
+        // Replayed methods don't pass values to anything, they rely on recorded types of what they linked
+        for (MethodReference method : invalidMethods) {
+            replayableMethods.removeAll(callers.getOrDefault(method, Collections.emptySet()));
+        }
+        for (FieldReference field : invalidFields) {
+            replayableMethods.removeAll(fieldUsers.getOrDefault(field, Collections.emptySet()));
+        }
+        methods.keySet().removeAll(invalidMethods);
+        fields.keySet().removeAll(invalidFields);
+    }
+
+    private void findAffectedItems(Set<MethodReference> affectedMethods, Set<FieldReference> affectedFields,
+            Map<MethodReference, Set<MethodReference>> callers, Map<FieldReference, Set<MethodReference>> fieldUsers) {
+        Deque<MethodReference> queue = new ArrayDeque<>(affectedMethods);
+        while (!queue.isEmpty()) {
+            MethodReference method = queue.remove();
+            for (Action action : getMethodActions(method)) {
+                switch (action.getKind()) {
+                    case LINK_METHOD:
+                    case USE_METHOD:
+                        if (affectedMethods.add(action.getMethod())) {
+                            queue.add(action.getMethod());
+                        }
+                        break;
+                    case LINK_FIELD:
+                        // Can't tell whether the method reads or writes the field, so both directions are assumed
+                        if (fields.get(action.getField()) != null && affectedFields.add(action.getField())) {
+                            for (MethodReference user : fieldUsers.getOrDefault(action.getField(),
+                                    Collections.emptySet())) {
+                                if (affectedMethods.add(user)) {
+                                    queue.add(user);
+                                }
+                            }
+                        }
+                        break;
+                }
+            }
+            if (passesValuesBack(method)) {
+                for (MethodReference caller : callers.getOrDefault(method, Collections.emptySet())) {
+                    if (affectedMethods.add(caller)) {
+                        queue.add(caller);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean passesValuesBack(MethodReference method) {
+        MethodTypes methodTypes = methods.get(method);
+        if (methodTypes == null) {
+            return false;
+        }
+        if (methodTypes.getResult() != null || methodTypes.getThrown() != null) {
+            return true;
+        }
+        // Items of arrays passed as arguments can be written by the method
+        int[] variableValues = methodTypes.getVariableValues();
+        int parameterCount = method.parameterCount() + 1;
+        for (int i = 0; i < parameterCount && i < variableValues.length; ++i) {
+            if (variableValues[i] >= 0 && methodTypes.getValues()[variableValues[i]] != null
+                    && hasArrayType(methodTypes.getValues()[variableValues[i]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasArrayType(ValueTypes value) {
+        for (String type : value.getTypes()) {
+            if (type.startsWith("[")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isEdited(MethodReference method, Set<String> classes, Set<String> restructuredClasses,
+            ClassReaderSource classSource) {
+        String className = method.getClassName();
+        if (!classes.contains(className)) {
+            return false;
+        }
+        if (restructuredClasses.contains(className)) {
+            return true;
+        }
+        Map<MethodDescriptor, byte[]> bodies = methodFingerprints.get(className);
+        byte[] body = bodies != null ? bodies.get(method.getDescriptor()) : null;
+        MethodReader methodReader = classSource.get(className).getMethod(method.getDescriptor());
+        return body == null || methodReader == null || !Arrays.equals(body, ClassFingerprint.computeBody(methodReader));
+    }
+
+    private boolean dependsOn(MethodReference method, Set<String> classes) {
+        if (classes.isEmpty()) {
+            return false;
+        }
+        for (Action action : getMethodActions(method)) {
+            if (classes.contains(action.getTargetClassName())) {
+                return true;
+            }
+        }
+        MethodTypes methodTypes = methods.get(method);
+        if (methodTypes != null) {
+            for (ValueTypes value : methodTypes.getValues()) {
+                if (containsClass(value, classes)) {
+                    return true;
+                }
+            }
+            if (containsClass(methodTypes.getResult(), classes) || containsClass(methodTypes.getThrown(), classes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsClass(ValueTypes value, Set<String> classes) {
+        for (; value != null; value = value.getArrayItem()) {
+            for (String type : value.getTypes()) {
+                if (classes.contains(type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Single linking event that happened during dependency analysis.</p>
+     */
+    public static class Action {
+        private int kind;
+        private String className;
+        private MethodReference method;
+        private FieldReference field;
+        private CallLocation location;
+
+        private Action(int kind, String className, MethodReference method, FieldReference field,
+                CallLocation location) {
+            this.kind = kind;
+            this.className = className;
+            this.method = method;
+            this.field = field;
+            this.location = location;
+        }
+
+        public static Action linkClass(String className, CallLocation location) {
+            return new Action(LINK_CLASS, className, null, null, location);
+        }
+
+        public static Action linkMethod(MethodReference method, CallLocation location) {
+            return new Action(LINK_METHOD, null, method, null, location);
+        }
+
+        public static Action useMethod(MethodReference method) {
+            return new Action(USE_METHOD, null, method, null, null);
+        }
+
+        public static Action linkField(FieldReference field, CallLocation location) {
+            return new Action(LINK_FIELD, null, null, field, location);
+        }
+
+        public static Action initClass(String className, CallLocation location) {
+            return new Action(INIT_CLASS, className, null, null, location);
+        }
+
+        /**
+         * <p>Gets name of the class which must exist before this action can be performed.</p>
+         */
+        public String getTargetClassName() {
+            switch (kind) {
+                case LINK_METHOD:
+                case USE_METHOD:
+                    return method.getClassName();
+                case LINK_FIELD:
+                    return field.getClassName();
+                default:
+                    return className;
+            }
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public MethodReference getMethod() {
+            return method;
+        }
+
+        public FieldReference getField() {
+            return field;
+        }
+
+        public CallLocation getLocation() {
+            return location;
+        }
+    }
+
+    /**
+     * <p>Types that reached a single dependency node and the items of arrays held by this node.</p>
+     */
+    public static class ValueTypes {
+        private String[] types;
+        private ValueTypes arrayItem;
+
+        public ValueTypes(String[] types, ValueTypes arrayItem) {
+            this.types = types;
+            this.arrayItem = arrayItem;
+        }
+
+        public String[] getTypes() {
+            return types;
+        }
+
+        public ValueTypes getArrayItem() {
+            return arrayItem;
+        }
+    }
+
+    /**
+     * <p>Types that reached a method. Variables that share a dependency node are mapped to the same value,
+     * first {@code parameterCount} values being the ones of the method's parameters.</p>
+     */
+    public static class MethodTypes {
+        private int[] variableValues;
+        private ValueTypes[] values;
+        private ValueTypes result;
+        private ValueTypes thrown;
+
+        public MethodTypes(int[] variableValues, ValueTypes[] values, ValueTypes result, ValueTypes thrown) {
+            this.variableValues = variableValues;
+            this.values = values;
+            this.result = result;
+            this.thrown = thrown;
+        }
+
+        public int[] getVariableValues() {
+            return variableValues;
+        }
+
+        public ValueTypes[] getValues() {
+            return values;
+        }
+
+        public ValueTypes getResult() {
+            return result;
+        }
+
+        public ValueTypes getThrown() {
+            return thrown;
+        }
+    }
+}
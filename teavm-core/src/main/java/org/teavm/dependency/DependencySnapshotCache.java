@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public interface DependencySnapshotCache {
+    /**
+     * <p>Gets a snapshot taken with the given configuration that is still valid for the current classes.
+     * When some classes changed since the snapshot was taken, the cache may
+     * {@link DependencySnapshot#invalidate(java.util.Set, org.teavm.model.ClassReaderSource) invalidate}
+     * methods affected by them instead of discarding the whole snapshot.</p>
+     *
+     * @return snapshot or {@code null} if there is no snapshot or it can't be reused.
+     */
+    DependencySnapshot get(String configuration);
+
+    void store(DependencySnapshot snapshot);
+}
@@ -16,6 +16,8 @@
 package org.teavm.dependency;
 
 /**
+ * <p>Decides which types can pass through a connection between two dependency nodes. When dependency checker
+ * runs in several threads, filters are called concurrently, so they should not rely on any mutable state.</p>
  *
  * @author Alexey Andreev
  */
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>Immutable set of type indexes. Many dependency nodes hold exactly the same types, so sets are
+ * canonicalized by {@link Table} and shared between nodes. Adding types to a set produces another
+ * canonical set.</p>
+ *
+ * @author Alexey Andreev
+ */
+final class DependencyTypeSet {
+    private static final int SMALL_SIZE_LIMIT = 16;
+    static final DependencyTypeSet EMPTY = new DependencyTypeSet(new int[0], null, 0);
+    private final int[] smallTypes;
+    private final long[] bits;
+    private final int size;
+    private final int hash;
+    private volatile Successor successor;
+
+    private DependencyTypeSet(int[] smallTypes, long[] bits, int size) {
+        this.smallTypes = smallTypes;
+        this.bits = bits;
+        this.size = size;
+        this.hash = smallTypes != null ? Arrays.hashCode(smallTypes) : Arrays.hashCode(bits);
+    }
+
+    private static class Successor {
+        final int type;
+        final DependencyTypeSet set;
+
+        Successor(int type, DependencyTypeSet set) {
+            this.type = type;
+            this.set = set;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int type) {
+        if (smallTypes != null) {
+            return Arrays.binarySearch(smallTypes, type) >= 0;
+        }
+        int word = type >>> 6;
+        return word < bits.length && (bits[word] & (1L << type)) != 0;
+    }
+
+    public int[] toArray() {
+        if (smallTypes != null) {
+            return smallTypes.clone();
+        }
+        int[] result = new int[size];
+        int j = 0;
+        for (int i = 0; i < bits.length; ++i) {
+            long word = bits[i];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                result[j++] = (i << 6) + bit;
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    private long[] toBits(int length) {
+        if (bits != null) {
+            return Arrays.copyOf(bits, Math.max(length, bits.length));
+        }
+        long[] result = new long[length];
+        for (int type : smallTypes) {
+            result[type >>> 6] |= 1L << type;
+        }
+        return result;
+    }
+
+    private int wordCount() {
+        if (bits != null) {
+            return bits.length;
+        }
+        return size > 0 ? (smallTypes[size - 1] >>> 6) + 1 : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DependencyTypeSet)) {
+            return false;
+        }
+        DependencyTypeSet other = (DependencyTypeSet) obj;
+        return hash == other.hash && size == other.size && Arrays.equals(smallTypes, other.smallTypes)
+                && Arrays.equals(bits, other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * <p>Keeps canonical instances of type sets. Sets that are no longer used by any node are forgotten.</p>
+     */
+    static class Table {
+        private Map<DependencyTypeSet, WeakReference<DependencyTypeSet>> sets = new WeakHashMap<>();
+
+        public DependencyTypeSet add(DependencyTypeSet set, int type) {
+            Successor successor = set.successor;
+            if (successor != null && successor.type == type) {
+                return successor.set;
+            }
+            if (set.contains(type)) {
+                return set;
+            }
+            DependencyTypeSet result;
+            if (set.size < SMALL_SIZE_LIMIT) {
+                int[] types = set.smallTypes;
+                int[] newTypes = new int[types.length + 1];
+                int position = -Arrays.binarySearch(types, type) - 1;
+                System.arraycopy(types, 0, newTypes, 0, position);
+                newTypes[position] = type;
+                System.arraycopy(types, position, newTypes, position + 1, types.length - position);
+                result = new DependencyTypeSet(newTypes, null, newTypes.length);
+            } else {
+                long[] bits = set.toBits(Math.max(set.wordCount(), (type >>> 6) + 1));
+                bits[type >>> 6] |= 1L << type;
+                result = new DependencyTypeSet(null, bits, set.size + 1);
+            }
+            result = intern(result);
+            set.successor = new Successor(type, result);
+            return result;
+        }
+
+        public DependencyTypeSet addAll(DependencyTypeSet set, int[] types) {
+            if (types.length == 0) {
+                return set;
+            }
+            if (types.length == 1) {
+                return add(set, types[0]);
+            }
+            int[] newTypes = new int[types.length];
+            int count = 0;
+            for (int type : types) {
+                if (!set.contains(type)) {
+                    newTypes[count++] = type;
+                }
+            }
+            if (count == 0) {
+                return set;
+            }
+            Arrays.sort(newTypes, 0, count);
+            int distinctCount = 1;
+            for (int i = 1; i < count; ++i) {
+                if (newTypes[i] != newTypes[distinctCount - 1]) {
+                    newTypes[distinctCount++] = newTypes[i];
+                }
+            }
+            count = distinctCount;
+            if (set.size + count <= SMALL_SIZE_LIMIT) {
+                int[] existingTypes = set.smallTypes;
+                int[] merged = new int[existingTypes.length + count];
+                int i = 0;
+                int j = 0;
+                int k = 0;
+                while (i < existingTypes.length || j < count) {
+                    int next;
+                    if (j == count || i < existingTypes.length && existingTypes[i] < newTypes[j]) {
+                        next = existingTypes[i++];
+                    } else {
+                        next = newTypes[j++];
+                    }
+                    merged[k++] = next;
+                }
+                return intern(new DependencyTypeSet(merged, null, merged.length));
+            }
+            long[] bits = set.toBits(Math.max(set.wordCount(), (newTypes[count - 1] >>> 6) + 1));
+            for (int i = 0; i < count; ++i) {
+                bits[newTypes[i] >>> 6] |= 1L << newTypes[i];
+            }
+            return intern(new DependencyTypeSet(null, bits, set.size + count));
+        }
+
+        private synchronized DependencyTypeSet intern(DependencyTypeSet set) {
+            WeakReference<DependencyTypeSet> ref = sets.get(set);
+            DependencyTypeSet existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            sets.put(set, new WeakReference<>(set));
+            return set;
+        }
+    }
+}
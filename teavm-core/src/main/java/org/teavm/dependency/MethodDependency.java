@@ -120,6 +120,7 @@ public class MethodDependency implements MethodDependencyInfo {
     public void use() {
         if (!used) {
             used = true;
+            dependencyChecker.recordAction(DependencySnapshot.Action.useMethod(reference));
             if (!isMissing()) {
                 dependencyChecker.scheduleMethodAnalysis(this);
             }
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.teavm.cache.CacheStatistics;
+
+/**
+ * <p>Keeps code of classes rendered by {@link Renderer} between builds that run in the same process, so that
+ * a class whose AST did not change is not rendered again. Code is kept as {@link org.teavm.codegen.SourceFragment}s,
+ * which compute names and indexes of strings when they are written, so a fragment gives right code even when
+ * names of other classes change. Class metadata and string pool are rendered by each build.</p>
+ *
+ * <p>Code of a class depends not only on its AST, but also on some facts about classes it refers to, for example,
+ * whether they have static initializers. The cache remembers these facts for each class, and the class is rendered
+ * again when they change. When options of renderer or the set of asynchronous methods change, all classes are
+ * rendered again. Fragments of classes that a build did not render are dropped.</p>
+ *
+ * <p>Builds that share the cache may run one after another, but not concurrently.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class ClassFragmentCache {
+    private byte[] environment;
+    private Map<String, Entry> previousEntries = Collections.emptyMap();
+    private Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private CacheStatistics statistics = new CacheStatistics();
+
+    static class Entry {
+        final byte[] fingerprint;
+        final Map<String, String> classFacts;
+        final Renderer declaration;
+        final Renderer body;
+
+        Entry(byte[] fingerprint, Map<String, String> classFacts, Renderer declaration, Renderer body) {
+            this.fingerprint = fingerprint;
+            this.classFacts = classFacts;
+            this.declaration = declaration;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @return statistics of the last build.
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    void startBuild(byte[] environment) {
+        previousEntries = Arrays.equals(environment, this.environment) ? entries : Collections.emptyMap();
+        entries = new ConcurrentHashMap<>();
+        statistics = new CacheStatistics();
+        this.environment = environment;
+    }
+
+    /**
+     * @param classFacts gives current facts about classes, see {@link RenderingFingerprint#describeClass}.
+     */
+    Entry get(String className, byte[] fingerprint, Function<String, String> classFacts) {
+        Entry entry = previousEntries.get(className);
+        if (entry != null && Arrays.equals(entry.fingerprint, fingerprint) && factsMatch(entry, classFacts)) {
+            entries.put(className, entry);
+            statistics.hit();
+            return entry;
+        }
+        statistics.miss();
+        return null;
+    }
+
+    private static boolean factsMatch(Entry entry, Function<String, String> classFacts) {
+        for (Map.Entry<String, String> fact : entry.classFacts.entrySet()) {
+            if (!fact.getValue().equals(classFacts.apply(fact.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void store(String className, Entry entry) {
+        entries.put(className, entry);
+    }
+
+    public void clear() {
+        environment = null;
+        previousEntries = Collections.emptyMap();
+        entries = new ConcurrentHashMap<>();
+    }
+}
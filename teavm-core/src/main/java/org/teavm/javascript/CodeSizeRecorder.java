@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * <p>Collects sizes of code that {@link Renderer} writes, see {@link Renderer#setSizeRecorder(CodeSizeRecorder)}.
+ * Renderer marks regions of the output, like code of a class or code written by a generator, and the recorder
+ * sums sizes of regions of each kind by their names. Regions may be nested, the size of a region includes sizes
+ * of nested regions. Sizes are measured in characters.</p>
+ *
+ * <p>The recorder is not thread-safe. Renderer reports regions in the thread that writes code.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class CodeSizeRecorder {
+    private Map<Kind, Map<String, Long>> sizes = new EnumMap<>(Kind.class);
+    private Map<String, Map<String, Long>> methodSizes = new HashMap<>();
+    private Map<Kind, Long> topLevelSizes = new EnumMap<>(Kind.class);
+    private Deque<Region> regions = new ArrayDeque<>();
+    private Function<Object, String> pluginNaming = plugin -> plugin.getClass().getName();
+
+    public enum Kind {
+        /**
+         * <p>Code of a class, named by the class. Includes code of its methods.</p>
+         */
+        CLASS,
+
+        /**
+         * <p>Function of a method, named by the descriptor of the method. Sizes of methods are summed per
+         * enclosing class, see {@link CodeSizeRecorder#getMethodSizes(String)}.</p>
+         */
+        METHOD,
+
+        /**
+         * <p>Code written by a generator, named by the class of the generator.</p>
+         */
+        GENERATOR,
+
+        /**
+         * <p>Code written by an injector, named by the class of the injector.</p>
+         */
+        INJECTOR,
+
+        /**
+         * <p>Runtime functions, named by what wrote them: either the renderer or a renderer listener.</p>
+         */
+        RUNTIME,
+
+        /**
+         * <p>String constants, named by the output they are written to.</p>
+         */
+        STRING_POOL,
+
+        /**
+         * <p>Class metadata, named by the output it is written to.</p>
+         */
+        METADATA
+    }
+
+    private static class Region {
+        final Kind kind;
+        final String name;
+        final int start;
+        final String className;
+
+        Region(Kind kind, String name, int start, String className) {
+            this.kind = kind;
+            this.name = name;
+            this.start = start;
+            this.className = className;
+        }
+    }
+
+    public String getPluginName(Object plugin) {
+        return pluginNaming.apply(plugin);
+    }
+
+    /**
+     * <p>Specifies how to name generators and injectors, for example, when they are wrapped by other objects.
+     * By default, a plugin is named by its class.</p>
+     */
+    public void setPluginNaming(Function<Object, String> pluginNaming) {
+        this.pluginNaming = pluginNaming;
+    }
+
+    /**
+     * <p>Starts a region at the given offset of the current output.</p>
+     */
+    public void enter(Kind kind, String name, int offset) {
+        String className = kind == Kind.CLASS ? name : !regions.isEmpty() ? regions.peek().className : null;
+        regions.push(new Region(kind, name, offset, className));
+    }
+
+    /**
+     * <p>Ends the last started region at the given offset of the current output.</p>
+     */
+    public void exit(int offset) {
+        Region region = regions.pop();
+        long size = offset - region.start;
+        if (region.kind == Kind.METHOD) {
+            if (region.className != null) {
+                methodSizes.computeIfAbsent(region.className, key -> new HashMap<>())
+                        .merge(region.name, size, Long::sum);
+            }
+        } else {
+            sizes.computeIfAbsent(region.kind, key -> new HashMap<>()).merge(region.name, size, Long::sum);
+        }
+        if (regions.isEmpty()) {
+            topLevelSizes.merge(region.kind, size, Long::sum);
+        }
+    }
+
+    /**
+     * @return sizes of regions of the given kind by their names. Sizes of methods are available through
+     * {@link #getMethodSizes(String)}.
+     */
+    public Map<String, Long> getSizes(Kind kind) {
+        Map<String, Long> result = sizes.get(kind);
+        return result != null ? Collections.unmodifiableMap(result) : Collections.emptyMap();
+    }
+
+    /**
+     * @return sizes of functions of methods of the given class by descriptors of methods.
+     */
+    public Map<String, Long> getMethodSizes(String className) {
+        Map<String, Long> result = methodSizes.get(className);
+        return result != null ? Collections.unmodifiableMap(result) : Collections.emptyMap();
+    }
+
+    /**
+     * @return total size of regions of the given kind that are not nested into other regions.
+     */
+    public long getTopLevelSize(Kind kind) {
+        return topLevelSizes.getOrDefault(kind, 0L);
+    }
+}
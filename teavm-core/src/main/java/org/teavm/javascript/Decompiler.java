@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import org.teavm.cache.NoCache;
 import org.teavm.common.Graph;
 import org.teavm.common.GraphIndexer;
@@ -90,6 +91,7 @@ public class Decompiler {
     private Map<MethodReference, Generator> generators = new HashMap<>();
     private Set<MethodReference> methodsToPass = new HashSet<>();
     private MethodNodeCache regularMethodCache;
+    private UnaryOperator<Generator> generatorWrapper = UnaryOperator.identity();
     private Set<MethodReference> asyncMethods;
     private Set<MethodReference> splitMethods = new HashSet<>();
     private List<TryCatchBookmark> tryCatchBookmarks = new ArrayList<>();
@@ -113,6 +115,19 @@ public class Decompiler {
         this.regularMethodCache = regularMethodCache;
     }
 
+    public UnaryOperator<Generator> getGeneratorWrapper() {
+        return generatorWrapper;
+    }
+
+    /**
+     * <p>Specifies function that is applied to each generator instantiated by {@link GeneratedBy} annotation,
+     * for example, to measure it. Generators that are added by {@link #addGenerator(MethodReference, Generator)}
+     * are used as is.</p>
+     */
+    public void setGeneratorWrapper(UnaryOperator<Generator> generatorWrapper) {
+        this.generatorWrapper = generatorWrapper;
+    }
+
     public int getGraphSize() {
         return this.graph.size();
     }
@@ -231,7 +246,7 @@ public class Decompiler {
             String generatorClassName = ((ValueType.Object) annotValue).getClassName();
             try {
                 Class<?> generatorClass = Class.forName(generatorClassName, true, classLoader);
-                generator = (Generator) generatorClass.newInstance();
+                generator = generatorWrapper.apply((Generator) generatorClass.newInstance());
             } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
                 throw new DecompilationException("Error instantiating generator " + generatorClassName
                         + " for native method " + method.getOwnerName() + "." + method.getDescriptor());
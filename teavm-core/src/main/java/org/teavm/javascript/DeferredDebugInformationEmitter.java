@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript;
+
+import org.teavm.codegen.LocationProvider;
+import org.teavm.codegen.SourceFragment;
+import org.teavm.debugging.information.DebugInformationEmitter;
+import org.teavm.debugging.information.DeferredCallSite;
+import org.teavm.debugging.information.SourceLocation;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Debug information emitter that records events into a {@link SourceFragment}, so that they reach the target
+ * emitter when the fragment is written, and the target emitter sees locations in the final code.</p>
+ *
+ * @author Alexey Andreev
+ */
+class DeferredDebugInformationEmitter implements DebugInformationEmitter {
+    private SourceFragment fragment;
+    private DebugInformationEmitter target;
+
+    DeferredDebugInformationEmitter(SourceFragment fragment, DebugInformationEmitter target) {
+        this.fragment = fragment;
+        this.target = target;
+    }
+
+    void setTarget(DebugInformationEmitter target) {
+        this.target = target;
+    }
+
+    @Override
+    public void setLocationProvider(LocationProvider locationProvider) {
+    }
+
+    @Override
+    public void emitLocation(String fileName, int line) {
+        fragment.addAction(writer -> target.emitLocation(fileName, line));
+    }
+
+    @Override
+    public void emitStatementStart() {
+        fragment.addAction(writer -> target.emitStatementStart());
+    }
+
+    @Override
+    public void emitMethod(MethodDescriptor method) {
+        fragment.addAction(writer -> target.emitMethod(method));
+    }
+
+    @Override
+    public void emitClass(String className) {
+        fragment.addAction(writer -> target.emitClass(className));
+    }
+
+    @Override
+    public void emitVariable(String[] sourceNames, String generatedName) {
+        fragment.addAction(writer -> target.emitVariable(sourceNames, fragment.resolve(generatedName)));
+    }
+
+    @Override
+    public DeferredCallSite emitCallSite() {
+        CallSite callSite = new CallSite();
+        fragment.addAction(writer -> callSite.realCallSite = target.emitCallSite());
+        return callSite;
+    }
+
+    @Override
+    public void addClass(String className, String parentName) {
+        fragment.addAction(writer -> target.addClass(className, parentName));
+    }
+
+    @Override
+    public void addField(String fieldName, String jsName) {
+        fragment.addAction(writer -> target.addField(fieldName, fragment.resolve(jsName)));
+    }
+
+    @Override
+    public void addSuccessors(SourceLocation location, SourceLocation[] successors) {
+        fragment.addAction(writer -> target.addSuccessors(location, successors));
+    }
+
+    private class CallSite implements DeferredCallSite {
+        DeferredCallSite realCallSite;
+
+        @Override
+        public void setVirtualMethod(MethodReference method) {
+            fragment.addAction(writer -> realCallSite.setVirtualMethod(method));
+        }
+
+        @Override
+        public void setStaticMethod(MethodReference method) {
+            fragment.addAction(writer -> realCallSite.setStaticMethod(method));
+        }
+
+        @Override
+        public void clean() {
+            fragment.addAction(writer -> realCallSite.clean());
+        }
+    }
+}
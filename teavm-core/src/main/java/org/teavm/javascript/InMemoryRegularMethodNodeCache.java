@@ -15,8 +15,8 @@
  */
 package org.teavm.javascript;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.teavm.javascript.ast.AsyncMethodNode;
 import org.teavm.javascript.ast.RegularMethodNode;
 import org.teavm.model.MethodReference;
@@ -26,8 +26,8 @@ import org.teavm.model.MethodReference;
  * @author Alexey Andreev
  */
 public class InMemoryRegularMethodNodeCache implements MethodNodeCache {
-    private Map<MethodReference, RegularMethodNode> cache = new HashMap<>();
-    private Map<MethodReference, AsyncMethodNode> asyncCache = new HashMap<>();
+    private Map<MethodReference, RegularMethodNode> cache = new ConcurrentHashMap<>();
+    private Map<MethodReference, AsyncMethodNode> asyncCache = new ConcurrentHashMap<>();
 
     @Override
     public RegularMethodNode get(MethodReference methodReference) {
@@ -19,9 +19,16 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import org.teavm.codegen.NamingException;
 import org.teavm.codegen.NamingOrderer;
 import org.teavm.codegen.NamingStrategy;
+import org.teavm.codegen.SourceFragment;
 import org.teavm.codegen.SourceWriter;
 import org.teavm.common.ServiceRepository;
 import org.teavm.debugging.information.DebugInformationEmitter;
@@ -29,6 +36,7 @@ import org.teavm.debugging.information.DeferredCallSite;
 import org.teavm.debugging.information.DummyDebugInformationEmitter;
 import org.teavm.diagnostics.Diagnostics;
 import org.teavm.javascript.ast.*;
+import org.teavm.javascript.spi.Generator;
 import org.teavm.javascript.spi.GeneratorContext;
 import org.teavm.javascript.spi.InjectedBy;
 import org.teavm.javascript.spi.Injector;
@@ -47,9 +55,13 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
     private ListableClassHolderSource classSource;
     private ClassLoader classLoader;
     private boolean minifying;
-    private Map<MethodReference, InjectorHolder> injectorMap = new HashMap<>();
+    private ConcurrentMap<MethodReference, InjectorHolder> injectorMap = new ConcurrentHashMap<>();
+    private UnaryOperator<Injector> injectorWrapper = UnaryOperator.identity();
+    private Map<MethodReference, String> addedInjectors = new HashMap<>();
     private Map<String, Integer> stringPoolMap = new HashMap<>();
     private List<String> stringPool = new ArrayList<>();
+    private BitSet usedStrings = new BitSet();
+    private int sharedStringCount = -1;
     private Properties properties = new Properties();
     private ServiceRepository services;
     private DebugInformationEmitter debugEmitter = new DummyDebugInformationEmitter();
@@ -69,6 +81,18 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
     private List<String> cachedVariableNames = new ArrayList<>();
     private boolean end;
     private int currentPart;
+    private int numThreads = 1;
+    private Renderer parent;
+    private SourceFragment fragment;
+    private Map<MethodReference, String> splitPoints = Collections.emptyMap();
+    private String currentChunk;
+    private ClassFragmentCache fragmentCache;
+    private boolean fragmentCacheStarted;
+    private ConcurrentMap<String, String> classFacts = new ConcurrentHashMap<>();
+    private ClassNode fragmentClass;
+    private Set<String> consultedClasses;
+    private CodeSizeRecorder sizeRecorder;
+    private boolean stringPoolPacked;
 
     private static class OperatorPrecedence {
         Priority priority;
@@ -92,8 +116,32 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         }
     }
 
+    /**
+     * <p>Specifies injector of the given method, that overrides injector specified by {@link InjectedBy}
+     * annotation. Injector is wrapped by {@link #setInjectorWrapper(UnaryOperator)}, so the wrapper must be
+     * specified first.</p>
+     */
     public void addInjector(MethodReference method, Injector injector) {
-        injectorMap.put(method, new InjectorHolder(injector));
+        injectorMap.put(method, new InjectorHolder(injectorWrapper.apply(injector)));
+        addedInjectors.put(method, getStableClassName(injector));
+    }
+
+    private static String getStableClassName(Object object) {
+        String name = object.getClass().getName();
+        int lambdaIndex = name.indexOf("$$Lambda$");
+        return lambdaIndex >= 0 ? name.substring(0, lambdaIndex) : name;
+    }
+
+    public UnaryOperator<Injector> getInjectorWrapper() {
+        return injectorWrapper;
+    }
+
+    /**
+     * <p>Specifies function that is applied to each injector, either instantiated by {@link InjectedBy} annotation
+     * or added by {@link #addInjector(MethodReference, Injector)}.</p>
+     */
+    public void setInjectorWrapper(UnaryOperator<Injector> injectorWrapper) {
+        this.injectorWrapper = injectorWrapper;
     }
 
     public Renderer(SourceWriter writer, ListableClassHolderSource classSource, ClassLoader classLoader,
@@ -109,6 +157,47 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         this.diagnostics = diagnostics;
     }
 
+    /**
+     * <p>Creates renderer that renders a part of code of the parent renderer into a fragment. Values that depend
+     * on preceding code, i.e. names, indexes in string pool and code of native methods, are computed by
+     * the parent renderer when the fragment is written.</p>
+     */
+    private Renderer(Renderer parent, SourceFragment fragment, ClassNode fragmentClass) {
+        this.fragment = fragment;
+        writer = fragment.getWriter();
+        naming = writer.getNaming();
+        debugEmitter = parent.debugEmitter instanceof DummyDebugInformationEmitter ? parent.debugEmitter
+                : new DeferredDebugInformationEmitter(fragment, parent.debugEmitter);
+        attach(parent, fragmentClass);
+    }
+
+    /**
+     * <p>Makes the fragment of this renderer refer to the given parent renderer, that is going to write it,
+     * and to the given AST, that gives native methods. Fragments taken from {@link ClassFragmentCache}
+     * are attached to renderers of the current build before they are written.</p>
+     */
+    private void attach(Renderer parent, ClassNode fragmentClass) {
+        this.parent = parent;
+        this.fragmentClass = fragmentClass;
+        fragment.setTargetNaming(parent.naming);
+        if (debugEmitter instanceof DeferredDebugInformationEmitter) {
+            ((DeferredDebugInformationEmitter) debugEmitter).setTarget(parent.debugEmitter);
+        }
+        classSource = parent.classSource;
+        classLoader = parent.classLoader;
+        services = parent.services;
+        asyncMethods = parent.asyncMethods;
+        asyncFamilyMethods = parent.asyncFamilyMethods;
+        diagnostics = parent.diagnostics;
+        minifying = parent.minifying;
+        properties = parent.properties;
+        injectorMap = parent.injectorMap;
+        injectorWrapper = parent.injectorWrapper;
+        splitPoints = parent.splitPoints;
+        currentChunk = parent.currentChunk;
+        sizeRecorder = parent.sizeRecorder;
+    }
+
     @Override
     public SourceWriter getWriter() {
         return writer;
@@ -128,6 +217,19 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         this.minifying = minifying;
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * <p>Specifies how many threads render classes. Each class is rendered into its own {@link SourceFragment},
+     * and fragments are written in order of classes, so the code is the same for any number of threads.
+     * Default is <code>1</code>, i.e. classes are rendered directly in the calling thread.</p>
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     @Override
     public ListableClassHolderSource getClassSource() {
         return classSource;
@@ -143,6 +245,71 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         return new Properties(properties);
     }
 
+    public Map<MethodReference, String> getSplitPoints() {
+        return splitPoints;
+    }
+
+    /**
+     * <p>Specifies methods whose bodies are rendered into chunks that are loaded on demand. Wherever else
+     * a body of such method is rendered, a stub is rendered instead, that loads the chunk and calls the method.
+     * </p>
+     *
+     * @param splitPoints maps methods to names of their chunks.
+     */
+    public void setSplitPoints(Map<MethodReference, String> splitPoints) {
+        this.splitPoints = splitPoints;
+    }
+
+    /**
+     * <p>Directs further output to the given chunk. Bodies of split points of the chunk are rendered as is,
+     * see {@link #setSplitPoints(Map)}. Names, as well as indexes of strings, are shared with code rendered
+     * before, so chunks are rendered by the same renderer.</p>
+     */
+    public void startChunk(String chunkName, SourceWriter writer) {
+        this.currentChunk = chunkName;
+        this.writer = writer;
+    }
+
+    public ClassFragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * <p>Specifies cache that keeps code of classes between builds. Classes that were rendered by a previous build
+     * and did not change are not rendered again, but taken from the cache. Each build should use
+     * a new renderer.</p>
+     */
+    public void setFragmentCache(ClassFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+        fragmentCacheStarted = false;
+    }
+
+    public CodeSizeRecorder getSizeRecorder() {
+        return sizeRecorder;
+    }
+
+    /**
+     * <p>Specifies where to report sizes of rendered code. Code that is written directly to the writer
+     * of the renderer, for example, by renderer listeners, is not reported.</p>
+     */
+    public void setSizeRecorder(CodeSizeRecorder sizeRecorder) {
+        this.sizeRecorder = sizeRecorder;
+    }
+
+    public boolean isStringPoolPacked() {
+        return stringPoolPacked;
+    }
+
+    /**
+     * <p>Specifies whether string constants of the main output are written as a single string literal with
+     * a table of lengths, instead of a literal per constant. It makes code a bit smaller and faster to parse
+     * when there are many constants. In both cases constants become Java strings only when they are first
+     * accessed.</p>
+     */
+    public void setStringPoolPacked(boolean stringPoolPacked) {
+        this.stringPoolPacked = stringPoolPacked;
+    }
+
     public DebugInformationEmitter getDebugEmitter() {
         return debugEmitter;
     }
@@ -156,25 +323,66 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         this.properties.putAll(properties);
     }
 
+    /**
+     * <p>Renders string constants. The first call renders all strings used so far. Each next call, that is
+     * made for a chunk, renders strings that the chunk uses and the first call did not render, so that
+     * chunks don't depend on each other whatever order they are loaded in. See also
+     * {@link #setStringPoolPacked(boolean)}.</p>
+     */
     public void renderStringPool() throws RenderingException {
-        if (stringPool.isEmpty()) {
-            return;
-        }
+        enterRegion(CodeSizeRecorder.Kind.STRING_POOL, getOutputName());
         try {
-            writer.append("$rt_stringPool([");
-            for (int i = 0; i < stringPool.size(); ++i) {
-                if (i > 0) {
-                    writer.append(',').ws();
+            if (sharedStringCount < 0) {
+                sharedStringCount = stringPool.size();
+                if (stringPoolPacked && !stringPool.isEmpty()) {
+                    renderPackedStringPool();
+                } else if (!stringPool.isEmpty()) {
+                    writer.append("$rt_stringPool([");
+                    for (int i = 0; i < stringPool.size(); ++i) {
+                        if (i > 0) {
+                            writer.append(',').ws();
+                        }
+                        writer.append('"').append(escapeString(stringPool.get(i))).append('"');
+                    }
+                    writer.append("]);").newLine();
+                }
+            } else if (usedStrings.nextSetBit(sharedStringCount) >= 0) {
+                writer.append("$rt_stringPoolAppend([");
+                boolean first = true;
+                for (int i = usedStrings.nextSetBit(sharedStringCount); i >= 0; i = usedStrings.nextSetBit(i + 1)) {
+                    if (!first) {
+                        writer.append(',').ws();
+                    }
+                    first = false;
+                    writer.append(i).append(',').ws();
+                    writer.append('"').append(escapeString(stringPool.get(i))).append('"');
                 }
-                writer.append('"').append(escapeString(stringPool.get(i))).append('"');
+                writer.append("]);").newLine();
             }
-            writer.append("]);").newLine();
         } catch (IOException e) {
             throw new RenderingException("IO error", e);
         }
+        exitRegion();
+        usedStrings.clear();
+    }
+
+    private void renderPackedStringPool() throws IOException {
+        writer.append("$rt_stringPoolPacked(\"");
+        for (String str : stringPool) {
+            writer.append(escapeString(str));
+        }
+        writer.append("\",").ws().append("[");
+        for (int i = 0; i < stringPool.size(); ++i) {
+            if (i > 0) {
+                writer.append(',').tokenBoundary();
+            }
+            writer.append(stringPool.get(i).length());
+        }
+        writer.append("]);").newLine();
     }
 
     public void renderRuntime() throws RenderingException {
+        enterRegion(CodeSizeRecorder.Kind.RUNTIME, Renderer.class.getName());
         try {
             renderRuntimeCls();
             renderRuntimeString();
@@ -188,6 +396,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         } catch (IOException e) {
             throw new RenderingException("IO error", e);
         }
+        exitRegion();
     }
 
     private void renderRuntimeCls() throws IOException {
@@ -289,23 +498,133 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         }
 
         if (minifying) {
+            enterRegion(CodeSizeRecorder.Kind.RUNTIME, Renderer.class.getName());
             try {
                 renderRuntimeAliases();
             } catch (IOException e) {
                 throw new RenderingException(e);
             }
+            exitRegion();
         }
-        for (ClassNode cls : classes) {
-            renderDeclaration(cls);
-        }
-        for (ClassNode cls : classes) {
-            renderMethodBodies(cls);
+        if (fragmentCache != null) {
+            renderCached(classes);
+        } else if (numThreads > 1) {
+            renderConcurrently(classes);
+        } else {
+            for (ClassNode cls : classes) {
+                renderDeclaration(cls);
+            }
+            for (ClassNode cls : classes) {
+                renderMethodBodies(cls);
+            }
         }
         renderClassMetadata(classes);
     }
 
+    private void renderConcurrently(List<ClassNode> classes) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<ForkJoinTask<SourceFragment>> declarations = new ArrayList<>();
+            for (ClassNode cls : classes) {
+                declarations.add(pool.submit(() -> renderFragment(cls, renderer -> renderer.renderDeclaration(cls))));
+            }
+            List<ForkJoinTask<SourceFragment>> bodies = new ArrayList<>();
+            for (ClassNode cls : classes) {
+                bodies.add(pool.submit(() -> renderFragment(cls, renderer -> renderer.renderMethodBodies(cls))));
+            }
+            writeFragments(classes, declarations);
+            writeFragments(classes, bodies);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void renderCached(List<ClassNode> classes) {
+        if (!fragmentCacheStarted) {
+            fragmentCache.startBuild(RenderingFingerprint.computeEnvironment(asyncMethods, asyncFamilyMethods,
+                    splitPoints, addedInjectors, minifying, properties, sizeRecorder != null));
+            fragmentCacheStarted = true;
+        }
+        List<ClassFragmentCache.Entry> entries = new ArrayList<>();
+        if (numThreads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                List<ForkJoinTask<ClassFragmentCache.Entry>> tasks = new ArrayList<>();
+                for (ClassNode cls : classes) {
+                    tasks.add(pool.submit(() -> getCachedFragments(cls)));
+                }
+                for (ForkJoinTask<ClassFragmentCache.Entry> task : tasks) {
+                    entries.add(task.join());
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            for (ClassNode cls : classes) {
+                entries.add(getCachedFragments(cls));
+            }
+        }
+        for (int i = 0; i < classes.size(); ++i) {
+            entries.get(i).declaration.attach(this, classes.get(i));
+            writeFragment(classes.get(i), entries.get(i).declaration.fragment);
+        }
+        for (int i = 0; i < classes.size(); ++i) {
+            entries.get(i).body.attach(this, classes.get(i));
+            writeFragment(classes.get(i), entries.get(i).body.fragment);
+        }
+    }
+
+    private ClassFragmentCache.Entry getCachedFragments(ClassNode cls) {
+        byte[] fingerprint = RenderingFingerprint.compute(cls, currentChunk,
+                !(debugEmitter instanceof DummyDebugInformationEmitter));
+        ClassFragmentCache.Entry entry = fragmentCache.get(cls.getName(), fingerprint, this::getClassFacts);
+        if (entry == null) {
+            Set<String> consulted = new HashSet<>();
+            Renderer declaration = new Renderer(this, new SourceFragment(naming), cls);
+            declaration.consultedClasses = consulted;
+            declaration.renderDeclaration(cls);
+            declaration.consultedClasses = null;
+            Renderer body = new Renderer(this, new SourceFragment(naming), cls);
+            body.consultedClasses = consulted;
+            body.renderMethodBodies(cls);
+            body.consultedClasses = null;
+            Map<String, String> facts = new HashMap<>();
+            for (String className : consulted) {
+                facts.put(className, getClassFacts(className));
+            }
+            entry = new ClassFragmentCache.Entry(fingerprint, facts, declaration, body);
+            fragmentCache.store(cls.getName(), entry);
+        }
+        return entry;
+    }
+
+    private SourceFragment renderFragment(ClassNode cls, Consumer<Renderer> action) {
+        SourceFragment fragment = new SourceFragment(naming);
+        action.accept(new Renderer(this, fragment, cls));
+        return fragment;
+    }
+
+    private void writeFragments(List<ClassNode> classes, List<ForkJoinTask<SourceFragment>> tasks) {
+        for (int i = 0; i < tasks.size(); ++i) {
+            SourceFragment fragment = tasks.get(i).join();
+            tasks.set(i, null);
+            writeFragment(classes.get(i), fragment);
+        }
+    }
+
+    private void writeFragment(ClassNode cls, SourceFragment fragment) {
+        try {
+            fragment.writeTo(writer);
+        } catch (NamingException e) {
+            throw new RenderingException("Error rendering class " + cls.getName() + ". See a cause for details", e);
+        } catch (IOException e) {
+            throw new RenderingException("IO error occured", e);
+        }
+    }
+
     private void renderDeclaration(ClassNode cls) throws RenderingException {
         debugEmitter.addClass(cls.getName(), cls.getParentName());
+        enterRegion(CodeSizeRecorder.Kind.CLASS, cls.getName());
         try {
             writer.append("function ").appendClass(cls.getName()).append("()").ws().append("{")
                     .indent().softNewLine();
@@ -353,13 +672,15 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         } catch (IOException e) {
             throw new RenderingException("IO error occured", e);
         }
+        exitRegion();
     }
 
     private void renderMethodBodies(ClassNode cls) throws RenderingException {
         debugEmitter.emitClass(cls.getName());
+        enterRegion(CodeSizeRecorder.Kind.CLASS, cls.getName());
         try {
             List<MethodNode> nonInitMethods = new ArrayList<>();
-            MethodHolder clinit = classSource.get(cls.getName()).getMethod(
+            MethodHolder clinit = consultClass(cls.getName()).getMethod(
                     new MethodDescriptor("<clinit>", ValueType.VOID));
             List<MethodNode> clinitMethods = new ArrayList<>();
             for (MethodNode method : cls.getMethods()) {
@@ -405,10 +726,12 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         } catch (IOException e) {
             throw new RenderingException("IO error occured", e);
         }
+        exitRegion();
         debugEmitter.emitClass(null);
     }
 
     private void renderClassMetadata(List<ClassNode> classes) {
+        enterRegion(CodeSizeRecorder.Kind.METADATA, getOutputName());
         try {
             writer.append("$rt_metadata([");
             boolean first = true;
@@ -481,6 +804,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         } catch (IOException e) {
             throw new RenderingException("IO error occured", e);
         }
+        exitRegion();
     }
 
     private static Object getDefaultValue(ValueType type) {
@@ -574,7 +898,51 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         writer.append(");").ws().append("}");
     }
 
+    /**
+     * <p>Renders a split point apart from its class, i.e. either its body into its chunk, or a stub
+     * into any other output. See {@link #setSplitPoints(Map)}.</p>
+     */
+    public void renderSplitPoint(MethodNode method) throws RenderingException {
+        debugEmitter.emitClass(method.getReference().getClassName());
+        enterRegion(CodeSizeRecorder.Kind.CLASS, method.getReference().getClassName());
+        try {
+            renderBody(method, false);
+        } catch (NamingException e) {
+            throw new RenderingException("Error rendering split point " + method.getReference()
+                    + ". See a cause for details", e);
+        } catch (IOException e) {
+            throw new RenderingException("IO error occured", e);
+        }
+        exitRegion();
+        debugEmitter.emitClass(null);
+    }
+
+    private void renderChunkLoader(MethodReference ref, String chunk, boolean inner) throws IOException {
+        String name = naming.getFullNameFor(ref);
+        if (inner) {
+            writer.append(name).ws().append("=").ws().append("function()");
+        } else {
+            writer.append("function ").append(name).append("()");
+        }
+        writer.ws().append("{").softNewLine().indent();
+        writer.append("$rt_loadChunk(\"").append(escapeString(chunk)).append("\");").softNewLine();
+        writer.append("return ").append(name).append(".apply(this,").ws().append("arguments);").softNewLine();
+        writer.outdent().append("}");
+        if (inner) {
+            writer.append(';');
+        }
+        writer.newLine();
+    }
+
     public void renderBody(MethodNode method, boolean inner) throws IOException {
+        enterRegion(CodeSizeRecorder.Kind.METHOD, method.getReference().getDescriptor().toString());
+        String chunk = splitPoints.get(method.getReference());
+        if (chunk != null && !chunk.equals(currentChunk)) {
+            // Loaded chunk declares the actual function with the same name, so the stub calls it by name
+            renderChunkLoader(method.getReference(), chunk, inner);
+            exitRegion();
+            return;
+        }
         debugNames.clear();
         cachedVariableNames.clear();
         debugNames.addAll(method.getParameterDebugNames());
@@ -605,6 +973,53 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         }
         writer.newLine();
         debugEmitter.emitMethod(null);
+        exitRegion();
+    }
+
+    /**
+     * <p>Starts a region of code for {@link CodeSizeRecorder}. Offsets are not known until a fragment is
+     * written, so renderers of fragments report regions through their parents.</p>
+     */
+    private void enterRegion(CodeSizeRecorder.Kind kind, String name) {
+        if (sizeRecorder == null) {
+            return;
+        }
+        if (parent != null) {
+            fragment.addAction(target -> parent.enterRegion(kind, name));
+        } else {
+            sizeRecorder.enter(kind, name, writer.getOffset());
+        }
+    }
+
+    private void exitRegion() {
+        if (sizeRecorder == null) {
+            return;
+        }
+        if (parent != null) {
+            fragment.addAction(target -> parent.exitRegion());
+        } else {
+            sizeRecorder.exit(writer.getOffset());
+        }
+    }
+
+    private String getOutputName() {
+        return currentChunk != null ? currentChunk : "main";
+    }
+
+    private NativeMethodNode getNativeMethod(MethodReference method) {
+        for (MethodNode methodNode : fragmentClass.getMethods()) {
+            if (methodNode.getReference().equals(method)) {
+                return (NativeMethodNode) methodNode;
+            }
+        }
+        throw new IllegalStateException("Native method " + method + " not found in " + fragmentClass.getName());
+    }
+
+    private void renderNativeBody(NativeMethodNode methodNode) {
+        debugNames.clear();
+        cachedVariableNames.clear();
+        debugNames.addAll(methodNode.getParameterDebugNames());
+        methodNode.acceptVisitor(new MethodBodyRenderer());
     }
 
     private class MethodBodyRenderer implements MethodNodeVisitor, GeneratorContext {
@@ -612,10 +1027,22 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
 
         @Override
         public void visit(NativeMethodNode methodNode) {
+            if (parent != null) {
+                // Generators may keep state, so they are called by the parent renderer in order of methods.
+                // A fragment may be written by a later build, which has its own generators.
+                MethodReference method = methodNode.getReference();
+                fragment.addAction(target -> parent.renderNativeBody(getNativeMethod(method)));
+                return;
+            }
             try {
                 this.async = methodNode.isAsync();
                 Renderer.this.async = methodNode.isAsync();
-                methodNode.getGenerator().generate(this, writer, methodNode.getReference());
+                Generator generator = methodNode.getGenerator();
+                if (sizeRecorder != null) {
+                    enterRegion(CodeSizeRecorder.Kind.GENERATOR, sizeRecorder.getPluginName(generator));
+                }
+                generator.generate(this, writer, methodNode.getReference());
+                exitRegion();
             } catch (IOException e) {
                 throw new RenderingException("IO error occured", e);
             }
@@ -1149,7 +1576,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
 
     @Override
     public void visit(InitClassStatement statement) {
-        ClassReader cls = classSource.get(statement.getClassName());
+        ClassReader cls = consultClass(statement.getClassName());
         if (cls == null) {
             return;
         }
@@ -1543,6 +1970,20 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
         }
     }
 
+    private String getStringIndex(String string) {
+        if (parent != null) {
+            return fragment.defer(() -> parent.getStringIndex(string));
+        }
+        Integer index = stringPoolMap.get(string);
+        if (index == null) {
+            index = stringPool.size();
+            stringPool.add(string);
+            stringPoolMap.put(string, index);
+        }
+        usedStrings.set(index);
+        return String.valueOf(index);
+    }
+
     public String constantToString(Object cst) {
         if (cst == null) {
             return "null";
@@ -1551,14 +1992,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
             ValueType type = (ValueType) cst;
             return naming.getNameForFunction("$rt_cls") + "(" + typeToClsString(naming, type) + ")";
         } else if (cst instanceof String) {
-            String string = (String) cst;
-            Integer index = stringPoolMap.get(string);
-            if (index == null) {
-                index = stringPool.size();
-                stringPool.add(string);
-                stringPoolMap.put(string, index);
-            }
-            return "$rt_s(" + index + ")";
+            return "$rt_s(" + getStringIndex((String) cst) + ")";
         } else if (cst instanceof Long) {
             long value = (Long) cst;
             if (value == 0) {
@@ -1654,7 +2088,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
                     if (c < ' ') {
                         sb.append("\\u00").append(Character.forDigit(c / 16, 16))
                                 .append(Character.forDigit(c % 16, 16));
-                    } else if (Character.isLowSurrogate(c) || Character.isHighSurrogate(c)) {
+                    } else if (Character.isLowSurrogate(c) || Character.isHighSurrogate(c) || c == '\uFFFF') {
                         sb.append("\\u")
                                 .append(Character.forDigit(c / 0x1000, 0x10))
                                 .append(Character.forDigit((c / 0x100) % 0x10, 0x10))
@@ -1732,7 +2166,11 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
             }
             Injector injector = getInjector(expr.getMethod());
             if (injector != null) {
+                if (sizeRecorder != null) {
+                    enterRegion(CodeSizeRecorder.Kind.INJECTOR, sizeRecorder.getPluginName(injector));
+                }
                 injector.generate(new InjectorContextImpl(expr.getArguments()), expr.getMethod());
+                exitRegion();
             } else {
                 if (expr.getType() == InvocationType.DYNAMIC) {
                     expr.getArguments().get(0).acceptVisitor(this);
@@ -1982,7 +2420,7 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
             }
             if (expr.getType() instanceof ValueType.Object) {
                 String clsName = ((ValueType.Object) expr.getType()).getClassName();
-                ClassHolder cls = classSource.get(clsName);
+                ClassHolder cls = consultClass(clsName);
                 if (cls != null && !cls.getModifiers().contains(ElementModifier.INTERFACE)) {
                     enterPriority(Priority.COMPARISON, Associativity.LEFT, true);
                     expr.getExpr().acceptVisitor(this);
@@ -2139,30 +2577,48 @@ public class Renderer implements ExprVisitor, StatementVisitor, RenderingContext
 
 
     private Injector getInjector(MethodReference ref) {
-        InjectorHolder holder = injectorMap.get(ref);
-        if (holder == null) {
-            holder = new InjectorHolder(null);
-            ClassHolder cls = classSource.get(ref.getClassName());
-            if (cls != null) {
-                MethodHolder method = cls.getMethod(ref.getDescriptor());
-                if (method != null) {
-                    AnnotationHolder injectedByAnnot = method.getAnnotations().get(InjectedBy.class.getName());
-                    if (injectedByAnnot != null) {
-                        ValueType type = injectedByAnnot.getValues().get("value").getJavaClass();
-                        holder = new InjectorHolder(instantiateInjector(((ValueType.Object) type).getClassName()));
-                    }
+        if (consultedClasses != null) {
+            consultedClasses.add(ref.getClassName());
+        }
+        return injectorMap.computeIfAbsent(ref, this::createInjectorHolder).injector;
+    }
+
+    /**
+     * <p>Gets class that code of another class depends on. When the code is put to {@link ClassFragmentCache},
+     * the cache remembers facts about the class, so that the code is rendered again when they change.</p>
+     */
+    private ClassHolder consultClass(String className) {
+        if (consultedClasses != null) {
+            consultedClasses.add(className);
+        }
+        return classSource.get(className);
+    }
+
+    private String getClassFacts(String className) {
+        return classFacts.computeIfAbsent(className,
+                name -> RenderingFingerprint.describeClass(classSource.get(name)));
+    }
+
+    private InjectorHolder createInjectorHolder(MethodReference ref) {
+        ClassHolder cls = classSource.get(ref.getClassName());
+        if (cls != null) {
+            MethodHolder method = cls.getMethod(ref.getDescriptor());
+            if (method != null) {
+                AnnotationHolder injectedByAnnot = method.getAnnotations().get(InjectedBy.class.getName());
+                if (injectedByAnnot != null) {
+                    ValueType type = injectedByAnnot.getValues().get("value").getJavaClass();
+                    return new InjectorHolder(instantiateInjector(((ValueType.Object) type).getClassName()));
                 }
             }
-            injectorMap.put(ref, holder);
         }
-        return holder.injector;
+        return new InjectorHolder(null);
     }
 
     private Injector instantiateInjector(String type) {
         try {
             Class<? extends Injector> cls = Class.forName(type, true, classLoader).asSubclass(Injector.class);
             Constructor<? extends Injector> cons = cls.getConstructor();
-            return cons.newInstance();
+            return injectorWrapper.apply(cons.newInstance());
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Illegal injector: " + type, e);
         } catch (NoSuchMethodException e) {
@@ -0,0 +1,246 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.teavm.cache.AstIO;
+import org.teavm.cache.SymbolTable;
+import org.teavm.javascript.ast.AsyncMethodNode;
+import org.teavm.javascript.ast.ClassNode;
+import org.teavm.javascript.ast.FieldNode;
+import org.teavm.javascript.ast.MethodNode;
+import org.teavm.javascript.ast.NativeMethodNode;
+import org.teavm.javascript.ast.NodeModifier;
+import org.teavm.javascript.ast.RegularMethodNode;
+import org.teavm.javascript.spi.InjectedBy;
+import org.teavm.model.AnnotationReader;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+
+/**
+ * <p>Computes digests of inputs of {@link Renderer}, that tell whether code rendered by a previous build may be
+ * reused, see {@link ClassFragmentCache}. The digest of a class covers its AST completely, including locations.
+ * The digest of environment covers options of renderer and sets of methods that affect code of all classes,
+ * including methods that plugins specified injectors for.</p>
+ *
+ * @author Alexey Andreev
+ */
+final class RenderingFingerprint {
+    private static final MethodDescriptor CLINIT = new MethodDescriptor("<clinit>", ValueType.VOID);
+    private DataOutputStream output;
+
+    private RenderingFingerprint(DataOutputStream output) {
+        this.output = output;
+    }
+
+    public static byte[] compute(ClassNode cls, String chunk, boolean debugInformation) {
+        return digest(fingerprint -> {
+            fingerprint.writeString(chunk);
+            fingerprint.output.writeBoolean(debugInformation);
+            fingerprint.writeClass(cls);
+        });
+    }
+
+    public static byte[] computeEnvironment(Set<MethodReference> asyncMethods, Set<MethodReference> asyncFamilyMethods,
+            Map<MethodReference, String> splitPoints, Map<MethodReference, String> injectors, boolean minifying,
+            Properties properties, boolean sizeRecording) {
+        return digest(fingerprint -> {
+            fingerprint.output.writeBoolean(minifying);
+            // Fragments report regions of code to size recorder only when they are rendered with the recorder
+            fingerprint.output.writeBoolean(sizeRecording);
+            List<String> propertyNames = new ArrayList<>(properties.stringPropertyNames());
+            Collections.sort(propertyNames);
+            fingerprint.output.writeInt(propertyNames.size());
+            for (String name : propertyNames) {
+                fingerprint.output.writeUTF(name);
+                fingerprint.output.writeUTF(properties.getProperty(name));
+            }
+            fingerprint.writeMethods(asyncMethods);
+            fingerprint.writeMethods(asyncFamilyMethods);
+            fingerprint.writeMethods(splitPoints.keySet());
+            for (String chunk : splitPoints.values()) {
+                fingerprint.output.writeUTF(chunk);
+            }
+            // Callers of these methods either inline output of injectors or call methods, like with InjectedBy
+            List<String> injectedMethods = new ArrayList<>();
+            for (Map.Entry<MethodReference, String> entry : injectors.entrySet()) {
+                injectedMethods.add(entry.getKey() + "=" + entry.getValue());
+            }
+            fingerprint.writeStrings(injectedMethods);
+        });
+    }
+
+    private interface Content {
+        void write(RenderingFingerprint fingerprint) throws IOException;
+    }
+
+    private static byte[] digest(Content content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+        DataOutputStream output = new DataOutputStream(new DigestOutputStream(sink, digest));
+        try {
+            content.write(new RenderingFingerprint(output));
+            output.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return digest.digest();
+    }
+
+    private void writeClass(ClassNode cls) throws IOException {
+        output.writeUTF(cls.getName());
+        writeString(cls.getParentName());
+        writeModifiers(cls.getModifiers());
+        output.writeShort(cls.getInterfaces().size());
+        for (String iface : cls.getInterfaces()) {
+            output.writeUTF(iface);
+        }
+        output.writeShort(cls.getFields().size());
+        for (FieldNode field : cls.getFields()) {
+            output.writeUTF(field.getName());
+            writeModifiers(field.getModifiers());
+            output.writeUTF(field.getType().toString());
+            Object initialValue = field.getInitialValue();
+            writeString(initialValue != null ? initialValue.getClass().getName() : null);
+            if (initialValue != null) {
+                String text = initialValue.toString();
+                output.writeInt(text.length());
+                output.writeChars(text);
+            }
+        }
+
+        // Symbols are local to the class, so that digest does not depend on other classes
+        AstIO astIO = new AstIO(new LocalSymbolTable(), new LocalSymbolTable());
+        output.writeShort(cls.getMethods().size());
+        for (MethodNode method : cls.getMethods()) {
+            output.writeUTF(method.getReference().toString());
+            if (method instanceof RegularMethodNode) {
+                output.writeByte(0);
+                astIO.write(output, (RegularMethodNode) method);
+            } else if (method instanceof AsyncMethodNode) {
+                output.writeByte(1);
+                astIO.writeAsync(output, (AsyncMethodNode) method);
+            } else {
+                NativeMethodNode nativeMethod = (NativeMethodNode) method;
+                output.writeByte(2);
+                writeModifiers(method.getModifiers());
+                output.writeBoolean(nativeMethod.isAsync());
+                output.writeUTF(nativeMethod.getGenerator().getClass().getName());
+                output.writeShort(method.getParameterDebugNames().size());
+                for (Set<String> debugNames : method.getParameterDebugNames()) {
+                    writeStrings(debugNames != null ? debugNames : Collections.emptySet());
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Describes facts about a class that code of other classes depends on: whether the class exists, whether it
+     * is an interface, whether it has a static initializer and which methods have injectors.</p>
+     */
+    public static String describeClass(ClassReader cls) {
+        if (cls == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(cls.hasModifier(ElementModifier.INTERFACE) ? 'I' : 'C');
+        sb.append(cls.getMethod(CLINIT) != null ? '+' : '-');
+        for (MethodReader method : cls.getMethods()) {
+            AnnotationReader injectedBy = method.getAnnotations().get(InjectedBy.class.getName());
+            if (injectedBy != null) {
+                sb.append(' ').append(method.getDescriptor()).append('=')
+                        .append(injectedBy.getValue("value").getJavaClass());
+            }
+        }
+        return sb.toString();
+    }
+
+    private void writeMethods(Collection<MethodReference> methods) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (MethodReference method : methods) {
+            names.add(method.toString());
+        }
+        writeStrings(names);
+    }
+
+    private void writeStrings(Collection<String> strings) throws IOException {
+        List<String> sorted = new ArrayList<>(strings);
+        Collections.sort(sorted);
+        output.writeInt(sorted.size());
+        for (String string : sorted) {
+            output.writeUTF(string);
+        }
+    }
+
+    private void writeModifiers(Set<NodeModifier> modifiers) throws IOException {
+        int packed = 0;
+        for (NodeModifier modifier : modifiers) {
+            packed |= 1 << modifier.ordinal();
+        }
+        output.writeInt(packed);
+    }
+
+    private void writeString(String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static class LocalSymbolTable implements SymbolTable {
+        private List<String> symbols = new ArrayList<>();
+        private Map<String, Integer> indexes = new HashMap<>();
+
+        @Override
+        public String at(int index) {
+            return symbols.get(index);
+        }
+
+        @Override
+        public int lookup(String symbol) {
+            return indexes.computeIfAbsent(symbol, s -> {
+                symbols.add(s);
+                return symbols.size() - 1;
+            });
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript.spi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a method that starts code which is loaded on demand. When code splitting is enabled, the method
+ * and classes that are used only by the method go to a separate chunk, which is loaded on the first call
+ * of the method. Methods that can't be annotated may be specified as split points in build settings.</p>
+ *
+ * <p>Since the caller of the method can't suspend, the chunk is loaded synchronously: a page loads it with
+ * synchronous <code>XMLHttpRequest</code>, a worker loads it with <code>importScripts</code>. In other
+ * environments, like Node.js, the call fails unless <code>$rt_loadChunk</code> is replaced by a function that
+ * evaluates the chunk in the global scope.</p>
+ *
+ * @author Alexey Andreev
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SplitPoint {
+}
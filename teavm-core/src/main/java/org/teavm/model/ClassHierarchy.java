@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Answers subtype queries about classes of a {@link ClassReaderSource} in constant time. Hierarchy of
+ * each class is computed when the class is queried for the first time and then reused, so classes must not
+ * change their parents and interfaces after that.</p>
+ *
+ * <p>For every class the index keeps the chain of its superclasses, starting from the root, so that a class
+ * is a subclass of another one when the latter is found in the chain at its own depth. Types that
+ * are inherited through interfaces are numbered, and every class keeps a bit set of such types.
+ * Since classes are discovered while the build goes, numbers are given on demand.</p>
+ *
+ * <p>Missing classes are treated the same way as by {@link ClassReaderSource#isSuperType(String, String)}:
+ * they are supertypes of classes that mention them, but their own ancestors are unknown. Missing
+ * classes are not remembered, so a class that appears later is seen by subsequent queries.
+ * The index is thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class ClassHierarchy {
+    private static final Optional<Boolean> TRUE = Optional.of(true);
+    private static final Optional<Boolean> FALSE = Optional.of(false);
+    private ClassReaderSource classSource;
+    private ConcurrentMap<String, ClassInfo> classes = new ConcurrentHashMap<>();
+    private ConcurrentMap<String, Integer> inheritedTypeIds = new ConcurrentHashMap<>();
+    private AtomicInteger inheritedTypeCount = new AtomicInteger();
+
+    public ClassHierarchy(ClassReaderSource classSource) {
+        this.classSource = classSource;
+    }
+
+    public ClassReaderSource getClassSource() {
+        return classSource;
+    }
+
+    /**
+     * <p>Same as {@link ClassReaderSource#isSuperType(String, String)}.</p>
+     */
+    public Optional<Boolean> isSuperType(String superType, String subType) {
+        if (superType.equals(subType)) {
+            return TRUE;
+        }
+        ClassInfo subTypeInfo = getInfo(subType);
+        if (subTypeInfo == null) {
+            return Optional.empty();
+        }
+        return isSuperType(superType, subTypeInfo) ? TRUE : FALSE;
+    }
+
+    /**
+     * <p>Tells whether one class is a supertype of another.</p>
+     *
+     * @param ifMissing what to return when <code>subType</code> is missing.
+     */
+    public boolean isSuperType(String superType, String subType, boolean ifMissing) {
+        if (superType.equals(subType)) {
+            return true;
+        }
+        ClassInfo subTypeInfo = getInfo(subType);
+        return subTypeInfo != null ? isSuperType(superType, subTypeInfo) : ifMissing;
+    }
+
+    /**
+     * <p>Same as {@link ClassReaderSource#isSuperType(ValueType, ValueType)}.</p>
+     */
+    public Optional<Boolean> isSuperType(ValueType superType, ValueType subType) {
+        if (superType.equals(subType)) {
+            return TRUE;
+        }
+        if (superType instanceof ValueType.Primitive || subType instanceof ValueType.Primitive) {
+            return FALSE;
+        }
+        if (superType.isObject("java.lang.Object")) {
+            return TRUE;
+        }
+        if (superType instanceof ValueType.Object && subType instanceof ValueType.Object) {
+            return isSuperType(((ValueType.Object) superType).getClassName(),
+                    ((ValueType.Object) subType).getClassName());
+        } else if (superType instanceof ValueType.Array && subType instanceof ValueType.Array) {
+            return isSuperType(((ValueType.Array) superType).getItemType(), ((ValueType.Array) subType).getItemType());
+        } else {
+            return FALSE;
+        }
+    }
+
+    private boolean isSuperType(String superType, ClassInfo subTypeInfo) {
+        String[] superclasses = subTypeInfo.superclasses;
+        ClassInfo superTypeInfo = classes.get(superType);
+        if (superTypeInfo != null) {
+            int depth = superTypeInfo.superclasses.length - 1;
+            if (depth < superclasses.length && superclasses[depth].equals(superType)) {
+                return true;
+            }
+        } else {
+            // Supertype was not queried yet or it is missing. Don't request it from class source, since
+            // the answer can be found without it
+            for (String superclass : superclasses) {
+                if (superclass.equals(superType)) {
+                    return true;
+                }
+            }
+        }
+        Integer id = inheritedTypeIds.get(superType);
+        return id != null && subTypeInfo.inheritedTypes.get(id);
+    }
+
+    private ClassInfo getInfo(String className) {
+        ClassInfo info = classes.get(className);
+        if (info != null) {
+            return info;
+        }
+        ClassReader cls = classSource.get(className);
+        if (cls == null) {
+            return null;
+        }
+
+        String parent = cls.getParent();
+        String[] superclasses;
+        BitSet inheritedTypes;
+        ClassInfo parentInfo = parent != null && !parent.equals(className) ? getInfo(parent) : null;
+        if (parentInfo != null) {
+            superclasses = Arrays.copyOf(parentInfo.superclasses, parentInfo.superclasses.length + 1);
+            inheritedTypes = (BitSet) parentInfo.inheritedTypes.clone();
+        } else if (parent != null && !parent.equals(className)) {
+            superclasses = new String[] { parent, className };
+            inheritedTypes = new BitSet();
+        } else {
+            superclasses = new String[1];
+            inheritedTypes = new BitSet();
+        }
+        superclasses[superclasses.length - 1] = className;
+
+        for (String iface : cls.getInterfaces()) {
+            inheritedTypes.set(getInheritedTypeId(iface));
+            ClassInfo ifaceInfo = getInfo(iface);
+            if (ifaceInfo != null) {
+                inheritedTypes.or(ifaceInfo.inheritedTypes);
+                for (String ifaceSuperclass : ifaceInfo.superclasses) {
+                    inheritedTypes.set(getInheritedTypeId(ifaceSuperclass));
+                }
+            }
+        }
+
+        info = new ClassInfo(superclasses, inheritedTypes);
+        ClassInfo existing = classes.putIfAbsent(className, info);
+        return existing != null ? existing : info;
+    }
+
+    private int getInheritedTypeId(String className) {
+        return inheritedTypeIds.computeIfAbsent(className, name -> inheritedTypeCount.getAndIncrement());
+    }
+
+    private static class ClassInfo {
+        final String[] superclasses;
+        final BitSet inheritedTypes;
+
+        ClassInfo(String[] superclasses, BitSet inheritedTypes) {
+            this.superclasses = superclasses;
+            this.inheritedTypes = inheritedTypes;
+        }
+    }
+}
@@ -0,0 +1,957 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.teavm.model.instructions.*;
+import org.teavm.model.util.ProgramUtils;
+
+/**
+ * <p>Immutable program that is encoded into arrays of integers instead of a graph of instructions, variables
+ * and basic blocks. Each instruction is stored as its location, opcode and operands, where variables and
+ * basic blocks are represented by their indexes, and other values, like types and method references, by
+ * indexes in the table of constants. Readers of variables, basic blocks and phis are created when they are
+ * requested.</p>
+ *
+ * <p>Compact programs take several times less memory than {@link Program}, so they are used to keep
+ * programs that are only read, and are converted by {@link #toProgram()} when a program is about to change.
+ * Since compact programs never change, they can be shared between copies of a method.</p>
+ *
+ * <p>A compact program can also be created by {@link #lazy(Supplier)} before the program itself is known,
+ * in this case the program is produced and encoded when it is read for the first time.</p>
+ *
+ * @author Alexey Andreev
+ */
+public final class CompactProgram implements ProgramReader {
+    private static final int NOP = 0;
+    private static final int CLASS_CONSTANT = 1;
+    private static final int NULL_CONSTANT = 2;
+    private static final int INTEGER_CONSTANT = 3;
+    private static final int LONG_CONSTANT = 4;
+    private static final int FLOAT_CONSTANT = 5;
+    private static final int DOUBLE_CONSTANT = 6;
+    private static final int STRING_CONSTANT = 7;
+    private static final int BINARY = 8;
+    private static final int NEGATE = 9;
+    private static final int ASSIGN = 10;
+    private static final int CAST = 11;
+    private static final int CAST_NUMBER = 12;
+    private static final int CAST_INTEGER = 13;
+    private static final int JUMP_IF = 14;
+    private static final int BINARY_JUMP_IF = 15;
+    private static final int JUMP = 16;
+    private static final int CHOOSE = 17;
+    private static final int EXIT = 18;
+    private static final int RAISE = 19;
+    private static final int CREATE_ARRAY = 20;
+    private static final int CREATE_MULTI_ARRAY = 21;
+    private static final int CREATE = 22;
+    private static final int GET_FIELD = 23;
+    private static final int PUT_FIELD = 24;
+    private static final int ARRAY_LENGTH = 25;
+    private static final int CLONE_ARRAY = 26;
+    private static final int UNWRAP_ARRAY = 27;
+    private static final int GET_ELEMENT = 28;
+    private static final int PUT_ELEMENT = 29;
+    private static final int INVOKE = 30;
+    private static final int INVOKE_DYNAMIC = 31;
+    private static final int IS_INSTANCE = 32;
+    private static final int INIT_CLASS = 33;
+    private static final int NULL_CHECK = 34;
+    private static final int MONITOR_ENTER = 35;
+    private static final int MONITOR_EXIT = 36;
+    private static final BinaryOperation[] binaryOperations = BinaryOperation.values();
+    private static final NumericOperandType[] numericOperandTypes = NumericOperandType.values();
+    private static final IntegerSubtype[] integerSubtypes = IntegerSubtype.values();
+    private static final CastIntegerDirection[] castIntegerDirections = CastIntegerDirection.values();
+    private static final BranchingCondition[] branchingConditions = BranchingCondition.values();
+    private static final BinaryBranchingCondition[] binaryBranchingConditions = BinaryBranchingCondition.values();
+    private static final ArrayElementType[] arrayElementTypes = ArrayElementType.values();
+    private static final InvocationType[] invocationTypes = InvocationType.values();
+    private MethodReference methodReference;
+    private Block[] blocks;
+    private int[] registers;
+    private String[][] debugNames;
+    private Object[] constants;
+    private boolean invokeDynamicUsed;
+    private volatile Supplier<Program> supplier;
+
+    private CompactProgram() {
+    }
+
+    /**
+     * <p>Encodes the given program. If the program is compact already, returns it as is.</p>
+     */
+    public static CompactProgram create(ProgramReader program) {
+        if (program instanceof CompactProgram) {
+            return (CompactProgram) program;
+        }
+        CompactProgram result = new CompactProgram();
+        result.encode(program);
+        return result;
+    }
+
+    /**
+     * <p>Creates program that calls the given supplier when the program is read or converted for the first
+     * time. The supplier may be called from any thread, and it may be called more than once when several
+     * threads read the program simultaneously, so it should return equal programs each time.</p>
+     */
+    public static CompactProgram lazy(Supplier<Program> supplier) {
+        CompactProgram result = new CompactProgram();
+        result.supplier = supplier;
+        return result;
+    }
+
+    /**
+     * <p>Creates lazy program that is this program changed by the given transformation. The transformation
+     * gets mutable copy of this program and runs only when the resulting program is read for the first
+     * time.</p>
+     */
+    public CompactProgram transform(Consumer<Program> transformation) {
+        return lazy(() -> {
+            Program program = toProgram();
+            transformation.accept(program);
+            return program;
+        });
+    }
+
+    /**
+     * <p>Tells whether the program is encoded already, i.e. it is not lazy or it was read once.</p>
+     */
+    public boolean isResolved() {
+        return supplier == null;
+    }
+
+    private void resolve() {
+        Supplier<Program> currentSupplier = supplier;
+        if (currentSupplier != null) {
+            resolve(currentSupplier.get());
+        }
+    }
+
+    private void resolve(Program program) {
+        synchronized (this) {
+            if (supplier != null) {
+                encode(program);
+                supplier = null;
+            }
+        }
+    }
+
+    private void encode(ProgramReader program) {
+        methodReference = program.getMethodReference();
+
+        int variableCount = program.variableCount();
+        registers = new int[variableCount];
+        debugNames = new String[variableCount][];
+        for (int i = 0; i < variableCount; ++i) {
+            VariableReader var = program.variableAt(i);
+            registers[i] = var.getRegister();
+            Set<String> names = var.readDebugNames();
+            if (!names.isEmpty()) {
+                debugNames[i] = names.toArray(new String[names.size()]);
+            }
+        }
+
+        Encoder encoder = new Encoder();
+        blocks = new Block[program.basicBlockCount()];
+        for (int i = 0; i < blocks.length; ++i) {
+            blocks[i] = encoder.encode(this, program.basicBlockAt(i));
+        }
+        constants = encoder.constants.toArray();
+        invokeDynamicUsed = encoder.invokeDynamicUsed;
+    }
+
+    /**
+     * <p>Creates mutable copy of this program. If the program is lazy and was not read yet, returns the program
+     * produced by the supplier.</p>
+     */
+    public Program toProgram() {
+        Supplier<Program> currentSupplier = supplier;
+        if (currentSupplier != null) {
+            Program program = currentSupplier.get();
+            resolve(program);
+            return program;
+        }
+        return ProgramUtils.copy(this);
+    }
+
+    /**
+     * <p>Tells whether the program contains <code>invokedynamic</code> instructions, without reading
+     * them.</p>
+     */
+    public boolean isInvokeDynamicUsed() {
+        resolve();
+        return invokeDynamicUsed;
+    }
+
+    @Override
+    public int basicBlockCount() {
+        resolve();
+        return blocks.length;
+    }
+
+    @Override
+    public BasicBlockReader basicBlockAt(int index) {
+        resolve();
+        return blocks[index];
+    }
+
+    @Override
+    public int variableCount() {
+        resolve();
+        return registers.length;
+    }
+
+    @Override
+    public VariableReader variableAt(int index) {
+        resolve();
+        return index >= 0 ? new CompactVariable(index) : null;
+    }
+
+    @Override
+    public MethodReference getMethodReference() {
+        resolve();
+        return methodReference;
+    }
+
+    private static class Encoder implements InstructionReader {
+        IntBuffer code = new IntBuffer();
+        IntBuffer offsets = new IntBuffer();
+        List<Object> constants = new ArrayList<>();
+        Map<Object, Integer> constantIndexes = new HashMap<>();
+        int location;
+        boolean invokeDynamicUsed;
+
+        Block encode(CompactProgram program, BasicBlockReader block) {
+            code.size = 0;
+            offsets.size = 0;
+            location = -1;
+            block.readAllInstructions(this);
+
+            IntBuffer phis = new IntBuffer();
+            for (PhiReader phi : block.readPhis()) {
+                phis.add(phi.getReceiver().getIndex());
+                List<? extends IncomingReader> incomings = phi.readIncomings();
+                phis.add(incomings.size());
+                for (IncomingReader incoming : incomings) {
+                    phis.add(incoming.getSource().getIndex());
+                    phis.add(incoming.getValue().getIndex());
+                }
+            }
+
+            List<? extends TryCatchBlockReader> tryCatchBlocks = block.readTryCatchBlocks();
+            String[] exceptionTypes = new String[tryCatchBlocks.size()];
+            int[] tryCatchData = new int[tryCatchBlocks.size() * 2];
+            for (int i = 0; i < exceptionTypes.length; ++i) {
+                TryCatchBlockReader tryCatch = tryCatchBlocks.get(i);
+                exceptionTypes[i] = tryCatch.getExceptionType();
+                tryCatchData[i * 2] = tryCatch.getHandler().getIndex();
+                tryCatchData[i * 2 + 1] = var(tryCatch.getExceptionVariable());
+            }
+
+            return program.new Block(block.getIndex(), code.toArray(), offsets.toArray(), phis.toArray(),
+                    exceptionTypes, tryCatchData);
+        }
+
+        private void start(int opcode) {
+            offsets.add(code.size);
+            code.add(location);
+            code.add(opcode);
+        }
+
+        private static int var(VariableReader var) {
+            return var != null ? var.getIndex() : -1;
+        }
+
+        private void vars(List<? extends VariableReader> vars) {
+            code.add(vars.size());
+            for (VariableReader var : vars) {
+                code.add(var(var));
+            }
+        }
+
+        private int constant(Object value) {
+            if (value == null) {
+                return -1;
+            }
+            return constantIndexes.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+
+        private void add(int... values) {
+            for (int value : values) {
+                code.add(value);
+            }
+        }
+
+        @Override
+        public void location(InstructionLocation location) {
+            this.location = constant(location);
+        }
+
+        @Override
+        public void nop() {
+            start(NOP);
+        }
+
+        @Override
+        public void classConstant(VariableReader receiver, ValueType cst) {
+            start(CLASS_CONSTANT);
+            add(var(receiver), constant(cst));
+        }
+
+        @Override
+        public void nullConstant(VariableReader receiver) {
+            start(NULL_CONSTANT);
+            add(var(receiver));
+        }
+
+        @Override
+        public void integerConstant(VariableReader receiver, int cst) {
+            start(INTEGER_CONSTANT);
+            add(var(receiver), cst);
+        }
+
+        @Override
+        public void longConstant(VariableReader receiver, long cst) {
+            start(LONG_CONSTANT);
+            add(var(receiver), (int) (cst >>> 32), (int) cst);
+        }
+
+        @Override
+        public void floatConstant(VariableReader receiver, float cst) {
+            start(FLOAT_CONSTANT);
+            add(var(receiver), Float.floatToRawIntBits(cst));
+        }
+
+        @Override
+        public void doubleConstant(VariableReader receiver, double cst) {
+            start(DOUBLE_CONSTANT);
+            long bits = Double.doubleToRawLongBits(cst);
+            add(var(receiver), (int) (bits >>> 32), (int) bits);
+        }
+
+        @Override
+        public void stringConstant(VariableReader receiver, String cst) {
+            start(STRING_CONSTANT);
+            add(var(receiver), constant(cst));
+        }
+
+        @Override
+        public void binary(BinaryOperation op, VariableReader receiver, VariableReader first, VariableReader second,
+                NumericOperandType type) {
+            start(BINARY);
+            add(op.ordinal(), var(receiver), var(first), var(second), type.ordinal());
+        }
+
+        @Override
+        public void negate(VariableReader receiver, VariableReader operand, NumericOperandType type) {
+            start(NEGATE);
+            add(var(receiver), var(operand), type.ordinal());
+        }
+
+        @Override
+        public void assign(VariableReader receiver, VariableReader assignee) {
+            start(ASSIGN);
+            add(var(receiver), var(assignee));
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, ValueType targetType) {
+            start(CAST);
+            add(var(receiver), var(value), constant(targetType));
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, NumericOperandType sourceType,
+                NumericOperandType targetType) {
+            start(CAST_NUMBER);
+            add(var(receiver), var(value), sourceType.ordinal(), targetType.ordinal());
+        }
+
+        @Override
+        public void cast(VariableReader receiver, VariableReader value, IntegerSubtype type,
+                CastIntegerDirection targetType) {
+            start(CAST_INTEGER);
+            add(var(receiver), var(value), type.ordinal(), targetType.ordinal());
+        }
+
+        @Override
+        public void jumpIf(BranchingCondition cond, VariableReader operand, BasicBlockReader consequent,
+                BasicBlockReader alternative) {
+            start(JUMP_IF);
+            add(cond.ordinal(), var(operand), consequent.getIndex(), alternative.getIndex());
+        }
+
+        @Override
+        public void jumpIf(BinaryBranchingCondition cond, VariableReader first, VariableReader second,
+                BasicBlockReader consequent, BasicBlockReader alternative) {
+            start(BINARY_JUMP_IF);
+            add(cond.ordinal(), var(first), var(second), consequent.getIndex(), alternative.getIndex());
+        }
+
+        @Override
+        public void jump(BasicBlockReader target) {
+            start(JUMP);
+            add(target.getIndex());
+        }
+
+        @Override
+        public void choose(VariableReader condition, List<? extends SwitchTableEntryReader> table,
+                BasicBlockReader defaultTarget) {
+            start(CHOOSE);
+            add(var(condition), defaultTarget.getIndex(), table.size());
+            for (SwitchTableEntryReader entry : table) {
+                add(entry.getCondition(), entry.getTarget().getIndex());
+            }
+        }
+
+        @Override
+        public void exit(VariableReader valueToReturn) {
+            start(EXIT);
+            add(var(valueToReturn));
+        }
+
+        @Override
+        public void raise(VariableReader exception) {
+            start(RAISE);
+            add(var(exception));
+        }
+
+        @Override
+        public void createArray(VariableReader receiver, ValueType itemType, VariableReader size) {
+            start(CREATE_ARRAY);
+            add(var(receiver), constant(itemType), var(size));
+        }
+
+        @Override
+        public void createArray(VariableReader receiver, ValueType itemType,
+                List<? extends VariableReader> dimensions) {
+            start(CREATE_MULTI_ARRAY);
+            add(var(receiver), constant(itemType));
+            vars(dimensions);
+        }
+
+        @Override
+        public void create(VariableReader receiver, String type) {
+            start(CREATE);
+            add(var(receiver), constant(type));
+        }
+
+        @Override
+        public void getField(VariableReader receiver, VariableReader instance, FieldReference field,
+                ValueType fieldType) {
+            start(GET_FIELD);
+            add(var(receiver), var(instance), constant(field), constant(fieldType));
+        }
+
+        @Override
+        public void putField(VariableReader instance, FieldReference field, VariableReader value,
+                ValueType fieldType) {
+            start(PUT_FIELD);
+            add(var(instance), constant(field), var(value), constant(fieldType));
+        }
+
+        @Override
+        public void arrayLength(VariableReader receiver, VariableReader array) {
+            start(ARRAY_LENGTH);
+            add(var(receiver), var(array));
+        }
+
+        @Override
+        public void cloneArray(VariableReader receiver, VariableReader array) {
+            start(CLONE_ARRAY);
+            add(var(receiver), var(array));
+        }
+
+        @Override
+        public void unwrapArray(VariableReader receiver, VariableReader array, ArrayElementType elementType) {
+            start(UNWRAP_ARRAY);
+            add(var(receiver), var(array), elementType.ordinal());
+        }
+
+        @Override
+        public void getElement(VariableReader receiver, VariableReader array, VariableReader index) {
+            start(GET_ELEMENT);
+            add(var(receiver), var(array), var(index));
+        }
+
+        @Override
+        public void putElement(VariableReader array, VariableReader index, VariableReader value) {
+            start(PUT_ELEMENT);
+            add(var(array), var(index), var(value));
+        }
+
+        @Override
+        public void invoke(VariableReader receiver, VariableReader instance, MethodReference method,
+                List<? extends VariableReader> arguments, InvocationType type) {
+            start(INVOKE);
+            add(var(receiver), var(instance), constant(method), type.ordinal());
+            vars(arguments);
+        }
+
+        @Override
+        public void invokeDynamic(VariableReader receiver, VariableReader instance, MethodDescriptor method,
+                List<? extends VariableReader> arguments, MethodHandle bootstrapMethod,
+                List<RuntimeConstant> bootstrapArguments) {
+            invokeDynamicUsed = true;
+            start(INVOKE_DYNAMIC);
+            int bootstrapArgumentsIndex = constants.size();
+            constants.add(Collections.unmodifiableList(new ArrayList<>(bootstrapArguments)));
+            add(var(receiver), var(instance), constant(method), constant(bootstrapMethod), bootstrapArgumentsIndex);
+            vars(arguments);
+        }
+
+        @Override
+        public void isInstance(VariableReader receiver, VariableReader value, ValueType type) {
+            start(IS_INSTANCE);
+            add(var(receiver), var(value), constant(type));
+        }
+
+        @Override
+        public void initClass(String className) {
+            start(INIT_CLASS);
+            add(constant(className));
+        }
+
+        @Override
+        public void nullCheck(VariableReader receiver, VariableReader value) {
+            start(NULL_CHECK);
+            add(var(receiver), var(value));
+        }
+
+        @Override
+        public void monitorEnter(VariableReader objectRef) {
+            start(MONITOR_ENTER);
+            add(var(objectRef));
+        }
+
+        @Override
+        public void monitorExit(VariableReader objectRef) {
+            start(MONITOR_EXIT);
+            add(var(objectRef));
+        }
+    }
+
+    private static class IntBuffer {
+        int[] data = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private class Block implements BasicBlockReader {
+        private int index;
+        private int[] code;
+        private int[] offsets;
+        private int[] phis;
+        private String[] exceptionTypes;
+        private int[] tryCatchData;
+
+        Block(int index, int[] code, int[] offsets, int[] phis, String[] exceptionTypes, int[] tryCatchData) {
+            this.index = index;
+            this.code = code;
+            this.offsets = offsets;
+            this.phis = phis;
+            this.exceptionTypes = exceptionTypes;
+            this.tryCatchData = tryCatchData;
+        }
+
+        @Override
+        public ProgramReader getProgram() {
+            return CompactProgram.this;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public List<? extends PhiReader> readPhis() {
+            List<CompactPhi> result = new ArrayList<>();
+            int position = 0;
+            while (position < phis.length) {
+                CompactPhi phi = new CompactPhi(this, position);
+                result.add(phi);
+                position += 2 + phi.incomingCount() * 2;
+            }
+            return result;
+        }
+
+        @Override
+        public int instructionCount() {
+            return offsets.length;
+        }
+
+        @Override
+        public void readInstruction(int index, InstructionReader reader) {
+            int position = offsets[index];
+            reader.location((InstructionLocation) constant(code[position]));
+            read(position + 1, reader);
+        }
+
+        @Override
+        public void readAllInstructions(InstructionReader reader) {
+            int location = -1;
+            for (int offset : offsets) {
+                if (code[offset] != location) {
+                    location = code[offset];
+                    reader.location((InstructionLocation) constant(location));
+                }
+                read(offset + 1, reader);
+            }
+        }
+
+        private void read(int position, InstructionReader reader) {
+            int[] code = this.code;
+            switch (code[position++]) {
+                case NOP:
+                    reader.nop();
+                    break;
+                case CLASS_CONSTANT:
+                    reader.classConstant(variableAt(code[position]), (ValueType) constant(code[position + 1]));
+                    break;
+                case NULL_CONSTANT:
+                    reader.nullConstant(variableAt(code[position]));
+                    break;
+                case INTEGER_CONSTANT:
+                    reader.integerConstant(variableAt(code[position]), code[position + 1]);
+                    break;
+                case LONG_CONSTANT:
+                    reader.longConstant(variableAt(code[position]), toLong(code[position + 1], code[position + 2]));
+                    break;
+                case FLOAT_CONSTANT:
+                    reader.floatConstant(variableAt(code[position]), Float.intBitsToFloat(code[position + 1]));
+                    break;
+                case DOUBLE_CONSTANT:
+                    reader.doubleConstant(variableAt(code[position]),
+                            Double.longBitsToDouble(toLong(code[position + 1], code[position + 2])));
+                    break;
+                case STRING_CONSTANT:
+                    reader.stringConstant(variableAt(code[position]), (String) constant(code[position + 1]));
+                    break;
+                case BINARY:
+                    reader.binary(binaryOperations[code[position]], variableAt(code[position + 1]),
+                            variableAt(code[position + 2]), variableAt(code[position + 3]),
+                            numericOperandTypes[code[position + 4]]);
+                    break;
+                case NEGATE:
+                    reader.negate(variableAt(code[position]), variableAt(code[position + 1]),
+                            numericOperandTypes[code[position + 2]]);
+                    break;
+                case ASSIGN:
+                    reader.assign(variableAt(code[position]), variableAt(code[position + 1]));
+                    break;
+                case CAST:
+                    reader.cast(variableAt(code[position]), variableAt(code[position + 1]),
+                            (ValueType) constant(code[position + 2]));
+                    break;
+                case CAST_NUMBER:
+                    reader.cast(variableAt(code[position]), variableAt(code[position + 1]),
+                            numericOperandTypes[code[position + 2]], numericOperandTypes[code[position + 3]]);
+                    break;
+                case CAST_INTEGER:
+                    reader.cast(variableAt(code[position]), variableAt(code[position + 1]),
+                            integerSubtypes[code[position + 2]], castIntegerDirections[code[position + 3]]);
+                    break;
+                case JUMP_IF:
+                    reader.jumpIf(branchingConditions[code[position]], variableAt(code[position + 1]),
+                            blocks[code[position + 2]], blocks[code[position + 3]]);
+                    break;
+                case BINARY_JUMP_IF:
+                    reader.jumpIf(binaryBranchingConditions[code[position]], variableAt(code[position + 1]),
+                            variableAt(code[position + 2]), blocks[code[position + 3]], blocks[code[position + 4]]);
+                    break;
+                case JUMP:
+                    reader.jump(blocks[code[position]]);
+                    break;
+                case CHOOSE: {
+                    List<SwitchTableEntryReader> table = new ArrayList<>();
+                    int entryCount = code[position + 2];
+                    for (int i = 0; i < entryCount; ++i) {
+                        table.add(new CompactSwitchEntry(code[position + 3 + i * 2],
+                                blocks[code[position + 4 + i * 2]]));
+                    }
+                    reader.choose(variableAt(code[position]), table, blocks[code[position + 1]]);
+                    break;
+                }
+                case EXIT:
+                    reader.exit(variableAt(code[position]));
+                    break;
+                case RAISE:
+                    reader.raise(variableAt(code[position]));
+                    break;
+                case CREATE_ARRAY:
+                    reader.createArray(variableAt(code[position]), (ValueType) constant(code[position + 1]),
+                            variableAt(code[position + 2]));
+                    break;
+                case CREATE_MULTI_ARRAY:
+                    reader.createArray(variableAt(code[position]), (ValueType) constant(code[position + 1]),
+                            variables(position + 2));
+                    break;
+                case CREATE:
+                    reader.create(variableAt(code[position]), (String) constant(code[position + 1]));
+                    break;
+                case GET_FIELD:
+                    reader.getField(variableAt(code[position]), variableAt(code[position + 1]),
+                            (FieldReference) constant(code[position + 2]), (ValueType) constant(code[position + 3]));
+                    break;
+                case PUT_FIELD:
+                    reader.putField(variableAt(code[position]), (FieldReference) constant(code[position + 1]),
+                            variableAt(code[position + 2]), (ValueType) constant(code[position + 3]));
+                    break;
+                case ARRAY_LENGTH:
+                    reader.arrayLength(variableAt(code[position]), variableAt(code[position + 1]));
+                    break;
+                case CLONE_ARRAY:
+                    reader.cloneArray(variableAt(code[position]), variableAt(code[position + 1]));
+                    break;
+                case UNWRAP_ARRAY:
+                    reader.unwrapArray(variableAt(code[position]), variableAt(code[position + 1]),
+                            arrayElementTypes[code[position + 2]]);
+                    break;
+                case GET_ELEMENT:
+                    reader.getElement(variableAt(code[position]), variableAt(code[position + 1]),
+                            variableAt(code[position + 2]));
+                    break;
+                case PUT_ELEMENT:
+                    reader.putElement(variableAt(code[position]), variableAt(code[position + 1]),
+                            variableAt(code[position + 2]));
+                    break;
+                case INVOKE:
+                    reader.invoke(variableAt(code[position]), variableAt(code[position + 1]),
+                            (MethodReference) constant(code[position + 2]), variables(position + 4),
+                            invocationTypes[code[position + 3]]);
+                    break;
+                case INVOKE_DYNAMIC: {
+                    @SuppressWarnings("unchecked")
+                    List<RuntimeConstant> bootstrapArguments = (List<RuntimeConstant>) constant(code[position + 4]);
+                    reader.invokeDynamic(variableAt(code[position]), variableAt(code[position + 1]),
+                            (MethodDescriptor) constant(code[position + 2]), variables(position + 5),
+                            (MethodHandle) constant(code[position + 3]), bootstrapArguments);
+                    break;
+                }
+                case IS_INSTANCE:
+                    reader.isInstance(variableAt(code[position]), variableAt(code[position + 1]),
+                            (ValueType) constant(code[position + 2]));
+                    break;
+                case INIT_CLASS:
+                    reader.initClass((String) constant(code[position]));
+                    break;
+                case NULL_CHECK:
+                    reader.nullCheck(variableAt(code[position]), variableAt(code[position + 1]));
+                    break;
+                case MONITOR_ENTER:
+                    reader.monitorEnter(variableAt(code[position]));
+                    break;
+                case MONITOR_EXIT:
+                    reader.monitorExit(variableAt(code[position]));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode: " + code[position - 1]);
+            }
+        }
+
+        private List<VariableReader> variables(final int position) {
+            return new AbstractList<VariableReader>() {
+                @Override
+                public VariableReader get(int index) {
+                    return variableAt(code[position + 1 + index]);
+                }
+
+                @Override
+                public int size() {
+                    return code[position];
+                }
+            };
+        }
+
+        @Override
+        public List<? extends TryCatchBlockReader> readTryCatchBlocks() {
+            List<CompactTryCatchBlock> result = new ArrayList<>();
+            for (int i = 0; i < exceptionTypes.length; ++i) {
+                result.add(new CompactTryCatchBlock(this, i));
+            }
+            return result;
+        }
+    }
+
+    private Object constant(int index) {
+        return index >= 0 ? constants[index] : null;
+    }
+
+    private static long toLong(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private class CompactVariable implements VariableReader {
+        private int index;
+
+        CompactVariable(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public ProgramReader getProgram() {
+            return CompactProgram.this;
+        }
+
+        @Override
+        public Set<String> readDebugNames() {
+            String[] names = debugNames[index];
+            return names != null ? Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names)))
+                    : Collections.emptySet();
+        }
+
+        @Override
+        public int getRegister() {
+            return registers[index];
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CompactVariable)) {
+                return false;
+            }
+            CompactVariable other = (CompactVariable) obj;
+            return getProgram() == other.getProgram() && index == other.index;
+        }
+    }
+
+    private class CompactPhi implements PhiReader {
+        private Block block;
+        private int position;
+
+        CompactPhi(Block block, int position) {
+            this.block = block;
+            this.position = position;
+        }
+
+        int incomingCount() {
+            return block.phis[position + 1];
+        }
+
+        @Override
+        public BasicBlockReader getBasicBlock() {
+            return block;
+        }
+
+        @Override
+        public VariableReader getReceiver() {
+            return variableAt(block.phis[position]);
+        }
+
+        @Override
+        public List<? extends IncomingReader> readIncomings() {
+            List<IncomingReader> result = new ArrayList<>();
+            for (int i = 0; i < incomingCount(); ++i) {
+                int incomingPosition = position + 2 + i * 2;
+                result.add(new IncomingReader() {
+                    @Override
+                    public VariableReader getValue() {
+                        return variableAt(block.phis[incomingPosition + 1]);
+                    }
+
+                    @Override
+                    public BasicBlockReader getSource() {
+                        return blocks[block.phis[incomingPosition]];
+                    }
+
+                    @Override
+                    public PhiReader getPhi() {
+                        return CompactPhi.this;
+                    }
+                });
+            }
+            return result;
+        }
+    }
+
+    private class CompactTryCatchBlock implements TryCatchBlockReader {
+        private Block block;
+        private int index;
+
+        CompactTryCatchBlock(Block block, int index) {
+            this.block = block;
+            this.index = index;
+        }
+
+        @Override
+        public BasicBlockReader getProtectedBlock() {
+            return block;
+        }
+
+        @Override
+        public BasicBlockReader getHandler() {
+            return blocks[block.tryCatchData[index * 2]];
+        }
+
+        @Override
+        public String getExceptionType() {
+            return block.exceptionTypes[index];
+        }
+
+        @Override
+        public VariableReader getExceptionVariable() {
+            return variableAt(block.tryCatchData[index * 2 + 1]);
+        }
+    }
+
+    private static class CompactSwitchEntry implements SwitchTableEntryReader {
+        private int condition;
+        private BasicBlockReader target;
+
+        CompactSwitchEntry(int condition, BasicBlockReader target) {
+            this.condition = condition;
+            this.target = target;
+        }
+
+        @Override
+        public int getCondition() {
+            return condition;
+        }
+
+        @Override
+        public BasicBlockReader getTarget() {
+            return target;
+        }
+    }
+}
@@ -17,23 +17,22 @@ package org.teavm.model;
 
 import java.util.HashMap;
 import java.util.Map;
-import org.teavm.model.util.ProgramUtils;
 
 /**
  *
  * @author Alexey Andreev
  */
 public class InMemoryProgramCache implements ProgramCache {
-    private Map<MethodReference, Program> cache = new HashMap<>();
+    private Map<MethodReference, CompactProgram> cache = new HashMap<>();
 
     @Override
     public Program get(MethodReference method) {
-        Program program = cache.get(method);
-        return program != null ? ProgramUtils.copy(program) : null;
+        CompactProgram program = cache.get(method);
+        return program != null ? program.toProgram() : null;
     }
 
     @Override
     public void store(MethodReference method, Program program) {
-        cache.put(method, ProgramUtils.copy(program));
+        cache.put(method, CompactProgram.create(program));
     }
 }
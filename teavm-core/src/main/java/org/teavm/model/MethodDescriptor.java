@@ -23,7 +23,7 @@ import java.util.Arrays;
  */
 public class MethodDescriptor {
     private String name;
-    private ValueType[] signature;
+    ValueType[] signature;
     private volatile String reprCache;
 
     public MethodDescriptor(String name, ValueType... signature) {
@@ -96,12 +96,16 @@ public class MethodDescriptor {
     }
 
     public static MethodDescriptor parse(String text) {
+        MethodDescriptor cached = ReferenceCache.findDescriptor(text);
+        if (cached != null) {
+            return cached;
+        }
         int parenIndex = text.indexOf('(');
         if (parenIndex < 0) {
             throw new IllegalArgumentException("Wrong method descriptor: " + text);
         }
-        return new MethodDescriptor(text.substring(0, parenIndex),
-                parseSignature(text.substring(parenIndex)));
+        return ReferenceCache.getCached(new MethodDescriptor(text.substring(0, parenIndex),
+                parseSignature(text.substring(parenIndex))));
     }
 
     public static ValueType[] parseSignature(String text) {
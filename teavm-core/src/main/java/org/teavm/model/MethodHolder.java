@@ -15,6 +15,8 @@
  */
 package org.teavm.model;
 
+import java.util.function.Consumer;
+
 /**
  *
  * @author Alexey Andreev
@@ -23,6 +25,7 @@ public class MethodHolder extends MemberHolder implements MethodReader {
     private MethodDescriptor descriptor;
     private ClassHolder owner;
     private Program program;
+    private CompactProgram compactProgram;
     private AnnotationValue annotationDefault;
     private AnnotationContainer[] parameterAnnotations;
 
@@ -97,12 +100,25 @@ public class MethodHolder extends MemberHolder implements MethodReader {
         return owner != null ? new MethodReference(owner.getName(), descriptor) : null;
     }
 
+    /**
+     * <p>Gets program of the method. If the method holds a compact program, converts it into mutable
+     * form first.</p>
+     */
     @Override
     public Program getProgram() {
+        if (program == null && compactProgram != null) {
+            setProgram(compactProgram.toProgram());
+        }
         return program;
     }
 
+    @Override
+    public ProgramReader readProgram() {
+        return program != null ? program : compactProgram;
+    }
+
     public void setProgram(Program program) {
+        compactProgram = null;
         if (this.program != null) {
             this.program.setMethod(null);
         }
@@ -112,6 +128,28 @@ public class MethodHolder extends MemberHolder implements MethodReader {
         }
     }
 
+    /**
+     * <p>Replaces program of the method by the given compact program, which is converted into mutable
+     * form by {@link #getProgram()} only when somebody requests it.</p>
+     */
+    public void setCompactProgram(CompactProgram compactProgram) {
+        setProgram(null);
+        this.compactProgram = compactProgram;
+    }
+
+    /**
+     * <p>Changes program of the method by the given transformation. If the method holds a lazy program that
+     * nobody has read yet, the transformation is deferred until the program is read, see
+     * {@link CompactProgram#transform(Consumer)}. Deferred transformations may run in any thread.</p>
+     */
+    public void transformProgram(Consumer<Program> transformation) {
+        if (program == null && compactProgram != null && !compactProgram.isResolved()) {
+            compactProgram = compactProgram.transform(transformation);
+        } else if (getProgram() != null) {
+            transformation.accept(program);
+        }
+    }
+
     @Override
     public AnnotationValue getAnnotationDefault() {
         return annotationDefault;
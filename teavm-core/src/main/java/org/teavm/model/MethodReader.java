@@ -40,5 +40,11 @@ public interface MethodReader extends MemberReader {
 
     ProgramReader getProgram();
 
+    /**
+     * <p>Gets program of the method for reading. Unlike {@link #getProgram()}, never makes method holders
+     * convert their compact programs into mutable form.</p>
+     */
+    ProgramReader readProgram();
+
     AnnotationValue getAnnotationDefault();
 }
@@ -39,7 +39,7 @@ public class MethodReference {
         this.className = className;
         this.descriptor = descriptor;
         this.name = descriptor.getName();
-        this.signature = descriptor.getSignature();
+        this.signature = descriptor.signature;
     }
 
     /**
@@ -134,15 +134,20 @@ public class MethodReference {
     @Override
     public String toString() {
         if (reprCache == null) {
-            reprCache = className + "." + name + signatureToString();
+            reprCache = className + "." + getDescriptor().toString();
         }
         return reprCache;
     }
 
     public static MethodReference parse(String string) {
+        MethodReference cached = ReferenceCache.findMethod(string);
+        if (cached != null) {
+            return cached;
+        }
         int index = string.lastIndexOf('.');
         String className = string.substring(0, index);
-        return new MethodReference(className, MethodDescriptor.parse(string.substring(index + 1)));
+        return ReferenceCache.getCached(new MethodReference(className,
+                MethodDescriptor.parse(string.substring(index + 1))));
     }
 
     public String signatureToString() {
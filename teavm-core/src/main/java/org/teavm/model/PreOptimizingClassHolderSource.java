@@ -41,11 +41,20 @@ public class PreOptimizingClassHolderSource implements ClassHolderSource {
                 return null;
             }
             for (MethodHolder method : cls.getMethods()) {
-                new GlobalValueNumbering().optimize(method, method.getProgram());
-                new UnusedVariableElimination().optimize(method, method.getProgram());
+                if (method.readProgram() != null) {
+                    // Lazy programs are optimized when somebody reads them
+                    method.transformProgram(program -> optimize(method, program));
+                    // Cached classes are only copied by consumers, so keep their programs in compact form
+                    method.setCompactProgram(CompactProgram.create(method.readProgram()));
+                }
             }
             cache.put(name, cls);
         }
         return cls;
     }
+
+    private static void optimize(MethodReader method, Program program) {
+        new GlobalValueNumbering().optimize(method, program);
+        new UnusedVariableElimination().optimize(method, program);
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>Hands out canonical instances of value types, method descriptors and method references, so that equal
+ * references that were parsed in different places share memory, and comparing them usually ends at identity
+ * check. {@link ValueType#parse(String)}, {@link MethodDescriptor#parse(String)},
+ * {@link MethodDescriptor#parseSignature(String)} and {@link MethodReference#parse(String)} return canonical
+ * instances as well.</p>
+ *
+ * <p>Canonical instances are kept in weak tables keyed by their string representations, so an instance
+ * is dropped from the table as soon as nobody else refers to it. All methods are thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public final class ReferenceCache {
+    private static final Table<ValueType> valueTypes = new Table<>();
+    private static final Table<MethodDescriptor> descriptors = new Table<>();
+    private static final Table<MethodReference> methods = new Table<>();
+
+    private ReferenceCache() {
+    }
+
+    public static ValueType getCached(ValueType type) {
+        if (!(type instanceof ValueType.Object) && !(type instanceof ValueType.Array)) {
+            return type;
+        }
+        ValueType cached = valueTypes.get(type.toString());
+        if (cached != null) {
+            return cached;
+        }
+        if (type instanceof ValueType.Array) {
+            ValueType itemType = ((ValueType.Array) type).getItemType();
+            ValueType cachedItemType = getCached(itemType);
+            if (cachedItemType != itemType) {
+                type = new ValueType.Array(cachedItemType);
+            }
+        }
+        return valueTypes.putIfAbsent(type);
+    }
+
+    public static MethodDescriptor getCached(MethodDescriptor descriptor) {
+        MethodDescriptor cached = descriptors.get(descriptor.toString());
+        if (cached != null) {
+            return cached;
+        }
+        ValueType[] signature = descriptor.signature;
+        ValueType[] cachedSignature = null;
+        for (int i = 0; i < signature.length; ++i) {
+            ValueType cachedType = getCached(signature[i]);
+            if (cachedType != signature[i]) {
+                if (cachedSignature == null) {
+                    cachedSignature = signature.clone();
+                }
+                cachedSignature[i] = cachedType;
+            }
+        }
+        if (cachedSignature != null) {
+            descriptor = new MethodDescriptor(descriptor.getName(), cachedSignature);
+        }
+        return descriptors.putIfAbsent(descriptor);
+    }
+
+    public static MethodReference getCached(MethodReference method) {
+        MethodReference cached = methods.get(method.toString());
+        if (cached != null) {
+            return cached;
+        }
+        MethodDescriptor descriptor = method.getDescriptor();
+        MethodDescriptor cachedDescriptor = getCached(descriptor);
+        if (cachedDescriptor != descriptor) {
+            method = new MethodReference(method.getClassName(), cachedDescriptor);
+        }
+        return methods.putIfAbsent(method);
+    }
+
+    static ValueType findValueType(String descriptor) {
+        return valueTypes.get(descriptor);
+    }
+
+    static MethodDescriptor findDescriptor(String descriptor) {
+        return descriptors.get(descriptor);
+    }
+
+    static MethodReference findMethod(String descriptor) {
+        return methods.get(descriptor);
+    }
+
+    private static class Table<T> {
+        // Keys are string representations cached by values themselves, so an entry lives as long as its value
+        private Map<String, WeakReference<T>> entries = new WeakHashMap<>();
+
+        synchronized T get(String key) {
+            WeakReference<T> ref = entries.get(key);
+            return ref != null ? ref.get() : null;
+        }
+
+        synchronized T putIfAbsent(T value) {
+            String key = value.toString();
+            T existing = get(key);
+            if (existing != null) {
+                return existing;
+            }
+            // Replace the key too, since the old one is not referenced by the new value
+            entries.remove(key);
+            entries.put(key, new WeakReference<>(value));
+            return value;
+        }
+    }
+}
@@ -236,6 +236,14 @@ public abstract class ValueType {
     }
 
     public static ValueType parse(String string) {
+        if (string.length() == 1) {
+            return parseImpl(string);
+        }
+        ValueType cached = ReferenceCache.findValueType(string);
+        return cached != null ? cached : ReferenceCache.getCached(parseUncached(string));
+    }
+
+    private static ValueType parseUncached(String string) {
         int arrayDegree = 0;
         int left = 0;
         while (string.charAt(left) == '[') {
@@ -33,7 +33,7 @@ class InterferenceGraphBuilder {
         DefinitionExtractor defExtractor = new DefinitionExtractor();
         InstructionTransitionExtractor succExtractor = new InstructionTransitionExtractor();
         List<List<Incoming>> outgoings = getOutgoings(program);
-        Set<MutableGraphNode> live = new HashSet<>(128);
+        Set<MutableGraphNode> live = new LinkedHashSet<>(128);
         for (int i = 0; i < program.basicBlockCount(); ++i) {
             BasicBlock block = program.basicBlockAt(i);
             block.getLastInstruction().acceptVisitor(succExtractor);
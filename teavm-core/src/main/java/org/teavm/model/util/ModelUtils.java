@@ -48,8 +48,8 @@ public final class ModelUtils {
         MethodHolder copy = new MethodHolder(method.getDescriptor());
         copy.setLevel(method.getLevel());
         copy.getModifiers().addAll(method.readModifiers());
-        if (method.getProgram() != null) {
-            copy.setProgram(ProgramUtils.copy(method.getProgram()));
+        if (method.readProgram() != null) {
+            copy.setCompactProgram(CompactProgram.create(method.readProgram()));
         }
         copyAnnotations(method.getAnnotations(), copy.getAnnotations());
         if (method.getAnnotationDefault() != null) {
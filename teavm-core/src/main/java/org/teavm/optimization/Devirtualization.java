@@ -31,10 +31,12 @@ import org.teavm.model.instructions.InvokeInstruction;
 public class Devirtualization {
     private DependencyInfo dependency;
     private ClassReaderSource classSource;
+    private ClassHierarchy hierarchy;
 
     public Devirtualization(DependencyInfo dependency, ClassReaderSource classSource) {
         this.dependency = dependency;
         this.classSource = classSource;
+        hierarchy = new ClassHierarchy(classSource);
     }
 
     public void apply(MethodHolder method) {
@@ -71,7 +73,7 @@ public class Devirtualization {
                 className = "java.lang.Object";
             }
             ClassReader cls = classSource.get(className);
-            if (cls == null || !classSource.isSuperType(ref.getClassName(), cls.getName()).orElse(false)) {
+            if (cls == null || !hierarchy.isSuperType(ref.getClassName(), cls.getName(), false)) {
                 continue;
             }
             MethodDependencyInfo methodDep = dependency.getMethodImplementation(new MethodReference(
@@ -26,7 +26,7 @@ import org.teavm.model.instructions.*;
 public class UnusedVariableElimination implements MethodOptimization {
     @Override
     public void optimize(MethodReader method, Program program) {
-        if (method.getProgram() == null) {
+        if (program == null) {
             return;
         }
         Graph graph = VariableUsageGraphBuilder.build(program);
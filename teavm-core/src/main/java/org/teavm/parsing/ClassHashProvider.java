@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.parsing;
+
+/**
+ * <p>Provides hashes of class files, so that caches can tell whether a class has changed regardless of
+ * modification dates of files it was read from.</p>
+ *
+ * @author Alexey Andreev
+ */
+public interface ClassHashProvider {
+    /**
+     * <p>Gets hash of the given class's bytecode.</p>
+     *
+     * @param className name of the class.
+     * @return SHA-1 digest of the class file or <code>null</code> if the class file was not found.
+     */
+    byte[] getClassHash(String className);
+}
@@ -84,9 +84,13 @@ public class ClassRefsRenamer implements InstructionVisitor {
         MethodHolder renamedMethod = new MethodHolder(methodName, signature);
         renamedMethod.getModifiers().addAll(method.getModifiers());
         renamedMethod.setLevel(method.getLevel());
-        renamedMethod.setProgram(method.getProgram());
         rename(method.getAnnotations(), renamedMethod.getAnnotations());
-        rename(renamedMethod.getProgram());
+        if (method.readProgram() instanceof CompactProgram) {
+            renamedMethod.setCompactProgram((CompactProgram) method.readProgram());
+        } else {
+            renamedMethod.setProgram(method.getProgram());
+        }
+        renamedMethod.transformProgram(this::rename);
         return renamedMethod;
     }
 
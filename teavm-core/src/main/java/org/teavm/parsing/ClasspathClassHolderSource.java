@@ -1,5 +1,5 @@
 /*
- *  Copyright 2013 Alexey Andreev.
+ *  Copyright 2014 Alexey Andreev.
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -15,39 +15,285 @@
  */
 package org.teavm.parsing;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.objectweb.asm.ClassReader;
 import org.teavm.model.ClassHolder;
 import org.teavm.model.ClassHolderSource;
+import org.teavm.model.CompactProgram;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.ProgramReader;
+import org.teavm.resource.ClasspathIndex;
 import org.teavm.resource.ClasspathResourceReader;
-import org.teavm.resource.MapperClassHolderSource;
 import org.teavm.resource.ResourceClassHolderMapper;
 
 /**
+ * <p>Class source that parses classes found by a class loader. Parsed classes are cached, the source
+ * is thread-safe.</p>
+ *
+ * <p>When more than one thread is specified by {@link #setNumThreads(int)}, the source prefetches classes
+ * in background. Once a class is requested, all classes mentioned by constant pool of its class file,
+ * including its superclass and interfaces, are scheduled for parsing, so that they are likely parsed by
+ * the time they are requested. A request for a class that is scheduled but not started yet parses it in the
+ * calling thread, a request for a class that is being parsed waits for it.</p>
+ *
+ * <p>When {@link #setLazy(boolean) lazy}, the source parses only headers of methods, and bodies of methods are
+ * converted into programs when their programs are requested for the first time. Transformations of lazy
+ * programs, see {@link org.teavm.model.MethodHolder#transformProgram(java.util.function.Consumer)}, are
+ * deferred until then too, so they run in the thread that reads the program, and they don't run at all for
+ * methods that nobody reads.</p>
  *
  * @author Alexey Andreev
  */
-public class ClasspathClassHolderSource implements ClassHolderSource, ClassDateProvider {
-    private MapperClassHolderSource innerClassSource;
+public class ClasspathClassHolderSource implements ClassHolderSource, ClassDateProvider, ClassHashProvider {
+    private static final int CONSTANT_CLASS = 7;
+    private ResourceClassHolderMapper rawMapper;
     private ClasspathResourceMapper classPathMapper;
+    private ConcurrentMap<String, ParseTask> tasks = new ConcurrentHashMap<>();
+    private ThreadLocal<List<String>> referencedClasses = new ThreadLocal<>();
+    private int numThreads = 1;
+    private volatile ForkJoinPool prefetchPool;
 
     public ClasspathClassHolderSource(ClassLoader classLoader) {
-        ClasspathResourceReader reader = new ClasspathResourceReader(classLoader);
-        ResourceClassHolderMapper rawMapper = new ResourceClassHolderMapper(reader);
-        classPathMapper = new ClasspathResourceMapper(classLoader, rawMapper);
-        innerClassSource = new MapperClassHolderSource(classPathMapper);
+        ClasspathIndex index = new ClasspathIndex(classLoader);
+        ClasspathResourceReader reader = new ClasspathResourceReader(index);
+        rawMapper = new ResourceClassHolderMapper(reader) {
+            @Override
+            protected void classFileRead(String name, ClassReader classFile) {
+                collectReferences(classFile);
+            }
+        };
+        classPathMapper = new ClasspathResourceMapper(index, rawMapper);
     }
 
     public ClasspathClassHolderSource() {
         this(ClasspathClassHolderSource.class.getClassLoader());
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * <p>Specifies how many threads parse classes in background.</p>
+     *
+     * @param numThreads number of threads. {@code 1} means that classes are parsed in the calling thread
+     * when they are requested, {@code 0} means that as many threads are used as there are available
+     * processors.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("Number of threads must not be negative: " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    public boolean isLazy() {
+        return rawMapper.isLazy();
+    }
+
+    /**
+     * <p>Specifies whether bodies of methods are parsed only when somebody reads them. Should be set before
+     * the first class is requested.</p>
+     */
+    public void setLazy(boolean lazy) {
+        rawMapper.setLazy(lazy);
+    }
+
     @Override
     public ClassHolder get(String name) {
-        return innerClassSource.get(name);
+        ParseTask task = getTask(name);
+        // Does nothing when another thread has started parsing already
+        task.run();
+        ParsedClass parsedClass = task.getResult();
+        if (task.prefetched.compareAndSet(false, true)) {
+            prefetch(parsedClass.references);
+            parsedClass.references = null;
+        }
+        return parsedClass.cls;
+    }
+
+    private ParseTask getTask(String name) {
+        ParseTask task = tasks.get(name);
+        if (task == null) {
+            task = new ParseTask(name);
+            ParseTask existing = tasks.putIfAbsent(name, task);
+            if (existing != null) {
+                task = existing;
+            }
+        }
+        return task;
+    }
+
+    private ParsedClass parse(String name) {
+        List<String> references = new ArrayList<>();
+        referencedClasses.set(references);
+        try {
+            return new ParsedClass(classPathMapper.map(name), references);
+        } finally {
+            referencedClasses.remove();
+        }
+    }
+
+    private void collectReferences(ClassReader classFile) {
+        List<String> references = referencedClasses.get();
+        if (references == null || getThreadCount() <= 1) {
+            return;
+        }
+        char[] buffer = new char[classFile.getMaxStringLength()];
+        for (int i = 1; i < classFile.getItemCount(); ++i) {
+            int offset = classFile.getItem(i);
+            if (offset <= 0 || classFile.readByte(offset - 1) != CONSTANT_CLASS) {
+                continue;
+            }
+            String className = classFile.readUTF8(offset, buffer);
+            if (className.startsWith("[")) {
+                int index = className.lastIndexOf('[') + 1;
+                if (className.charAt(index) != 'L') {
+                    continue;
+                }
+                className = className.substring(index + 1, className.length() - 1);
+            }
+            references.add(classPathMapper.renameClass(className.replace('/', '.')));
+        }
+    }
+
+    private void prefetch(List<String> classNames) {
+        if (classNames.isEmpty()) {
+            return;
+        }
+        ForkJoinPool pool = getPrefetchPool();
+        for (String className : classNames) {
+            ParseTask task = tasks.get(className);
+            if (task == null) {
+                task = new ParseTask(className);
+                if (tasks.putIfAbsent(className, task) == null) {
+                    pool.execute(task);
+                }
+            }
+        }
+    }
+
+    private ForkJoinPool getPrefetchPool() {
+        if (prefetchPool == null) {
+            synchronized (this) {
+                if (prefetchPool == null) {
+                    prefetchPool = new ForkJoinPool(getThreadCount());
+                }
+            }
+        }
+        return prefetchPool;
+    }
+
+    private int getThreadCount() {
+        return numThreads != 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * <p>Gets number of classes parsed so far, including classes that were prefetched, but never
+     * requested.</p>
+     */
+    public int getParsedClassCount() {
+        int count = 0;
+        for (ParseTask task : tasks.values()) {
+            if (task.isDone() && task.getResult().cls != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>Gets number of methods whose bodies were parsed so far. In {@link #setLazy(boolean) lazy} mode,
+     * these are methods whose programs were requested.</p>
+     */
+    public int getParsedMethodCount() {
+        int count = 0;
+        for (ParseTask task : tasks.values()) {
+            if (task.isDone()) {
+                ParsedClass parsedClass = task.getResult();
+                count += parsedClass.parsedMethodCount;
+                for (CompactProgram program : parsedClass.lazyPrograms) {
+                    if (program.isResolved()) {
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
     }
 
     @Override
     public Date getModificationDate(String className) {
         return classPathMapper.getModificationDate(className);
     }
+
+    @Override
+    public byte[] getClassHash(String className) {
+        return classPathMapper.getClassHash(className);
+    }
+
+    private static class ParsedClass {
+        final ClassHolder cls;
+        List<String> references;
+        int parsedMethodCount;
+        List<CompactProgram> lazyPrograms = new ArrayList<>();
+
+        ParsedClass(ClassHolder cls, List<String> references) {
+            this.cls = cls;
+            this.references = !references.isEmpty() ? references : Collections.emptyList();
+            if (cls != null) {
+                // Remember lazy programs, since transformations replace them in the class
+                for (MethodHolder method : cls.getMethods()) {
+                    ProgramReader program = method.readProgram();
+                    if (program instanceof CompactProgram && !((CompactProgram) program).isResolved()) {
+                        lazyPrograms.add((CompactProgram) program);
+                    } else if (program != null) {
+                        ++parsedMethodCount;
+                    }
+                }
+            }
+        }
+    }
+
+    private class ParseTask extends FutureTask<ParsedClass> {
+        final AtomicBoolean prefetched = new AtomicBoolean();
+
+        ParseTask(String name) {
+            super(() -> parse(name));
+        }
+
+        ParsedClass getResult() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
 }
@@ -15,28 +15,31 @@
  */
 package org.teavm.parsing;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import org.teavm.common.CachedMapper;
+import java.util.concurrent.ConcurrentHashMap;
 import org.teavm.common.Mapper;
 import org.teavm.model.ClassHolder;
+import org.teavm.resource.ClasspathIndex;
 
 /**
  *
  * @author Alexey Andreev
  */
-public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, ClassDateProvider {
+public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, ClassDateProvider, ClassHashProvider {
     private static final String PACKAGE_PREFIX = "packagePrefix.";
     private static final String CLASS_PREFIX = "classPrefix.";
     private Mapper<String, ClassHolder> innerMapper;
     private List<Transformation> transformations = new ArrayList<>();
     private ClassRefsRenamer renamer;
-    private ClassLoader classLoader;
-    private Map<String, ModificationDate> modificationDates = new HashMap<>();
+    private ClasspathIndex index;
+    private Map<String, ModificationDate> modificationDates = new ConcurrentHashMap<>();
+    private Map<String, ClassHash> classHashes = new ConcurrentHashMap<>();
+    private Map<String, String> renamedClasses = new ConcurrentHashMap<>();
 
     private static class Transformation {
         String packageName;
@@ -46,7 +49,12 @@ public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, Cla
     }
 
     public ClasspathResourceMapper(ClassLoader classLoader, Mapper<String, ClassHolder> innerMapper) {
+        this(new ClasspathIndex(classLoader), innerMapper);
+    }
+
+    public ClasspathResourceMapper(ClasspathIndex index, Mapper<String, ClassHolder> innerMapper) {
         this.innerMapper = innerMapper;
+        ClassLoader classLoader = index.getClassLoader();
         try {
             Enumeration<URL> resources = classLoader.getResources("META-INF/teavm.properties");
             Map<String, Transformation> transformationMap = new HashMap<>();
@@ -62,8 +70,8 @@ public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, Cla
         } catch (IOException e) {
             throw new RuntimeException("Error reading resources", e);
         }
-        renamer = new ClassRefsRenamer(new CachedMapper<>(classNameMapper));
-        this.classLoader = classLoader;
+        renamer = new ClassRefsRenamer(name -> renamedClasses.computeIfAbsent(name, this::renameClass));
+        this.index = index;
     }
 
     private void loadProperties(Properties properties, Map<String, Transformation> cache) {
@@ -110,7 +118,7 @@ public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, Cla
         return innerMapper.map(name);
     }
 
-    private String renameClass(String name) {
+    String renameClass(String name) {
         for (Transformation transformation : transformations) {
             if (name.startsWith(transformation.fullPrefix)) {
                 int index = name.lastIndexOf('.');
@@ -125,20 +133,29 @@ public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, Cla
         return name;
     }
 
-    private Mapper<String, String> classNameMapper = preimage -> renameClass(preimage);
-
     @Override
     public Date getModificationDate(String className) {
         ModificationDate mdate = modificationDates.get(className);
         if (mdate == null) {
             mdate = new ModificationDate();
-            modificationDates.put(className, mdate);
             mdate.date = calculateModificationDate(className);
+            modificationDates.put(className, mdate);
         }
         return mdate.date;
     }
 
     private Date calculateModificationDate(String className) {
+        for (String fullName : getClassFileNames(className)) {
+            Date date = getOriginalModificationDate(fullName);
+            if (date != null) {
+                return date;
+            }
+        }
+        return null;
+    }
+
+    private List<String> getClassFileNames(String className) {
+        List<String> fileNames = new ArrayList<>();
         int dotIndex = className.lastIndexOf('.');
         String packageName;
         String simpleName;
@@ -151,40 +168,69 @@ public class ClasspathResourceMapper implements Mapper<String, ClassHolder>, Cla
         }
         for (Transformation transformation : transformations) {
             if (packageName.startsWith(transformation.packageName)) {
-                String fullName = transformation.packagePrefix + packageName + transformation.classPrefix + simpleName;
-                Date date = getOriginalModificationDate(fullName);
-                if (date != null) {
-                    return date;
-                }
+                fileNames.add(transformation.packagePrefix + packageName + transformation.classPrefix + simpleName);
             }
         }
-        return getOriginalModificationDate(className);
+        fileNames.add(className);
+        return fileNames;
     }
 
     private Date getOriginalModificationDate(String className) {
-        URL url = classLoader.getResource(className.replace('.', '/') + ".class");
-        if (url == null) {
-            return null;
+        return index.getModificationDate(className.replace('.', '/') + ".class");
+    }
+
+    @Override
+    public byte[] getClassHash(String className) {
+        ClassHash hash = classHashes.get(className);
+        if (hash == null) {
+            hash = new ClassHash();
+            hash.hash = calculateClassHash(className);
+            classHashes.put(className, hash);
         }
-        if (url.getProtocol().equals("file")) {
-            try {
-                File file = new File(url.toURI());
-                return file.exists() ? new Date(file.lastModified()) : null;
-            } catch (URISyntaxException e) {
-                // If URI is invalid, we just report that class should be reparsed
+        return hash.hash;
+    }
+
+    private byte[] calculateClassHash(String className) {
+        for (String fullName : getClassFileNames(className)) {
+            byte[] hash = getOriginalClassHash(fullName);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        return null;
+    }
+
+    private byte[] getOriginalClassHash(String className) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try (InputStream input = index.openResource(className.replace('.', '/') + ".class")) {
+            if (input == null) {
                 return null;
             }
-        } else if (url.getProtocol().equals("jar") && url.getPath().startsWith("file:")) {
-            int exclIndex = url.getPath().indexOf('!');
-            String jarFileName = exclIndex >= 0 ? url.getPath().substring(0, exclIndex) : url.getPath();
-            File file = new File(jarFileName.substring("file:".length()));
-            return file.exists() ? new Date(file.lastModified()) : null;
-        } else {
+            byte[] buffer = new byte[4096];
+            while (true) {
+                int bytesRead = input.read(buffer);
+                if (bytesRead < 0) {
+                    break;
+                }
+                digest.update(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            // If class file can't be read, we just report that class should be reparsed
             return null;
         }
+        return digest.digest();
     }
 
     static class ModificationDate {
         Date date;
     }
+
+    static class ClassHash {
+        byte[] hash;
+    }
 }
@@ -15,26 +15,32 @@
  */
 package org.teavm.parsing;
 
+import java.io.IOException;
 import java.io.InputStream;
+import org.teavm.resource.ClasspathIndex;
 
 /**
  *
  * @author Alexey Andreev
  */
 public class ClasspathResourceProvider implements ResourceProvider {
-    private ClassLoader classLoader;
+    private ClasspathIndex index;
 
     public ClasspathResourceProvider(ClassLoader classLoader) {
-        this.classLoader = classLoader;
+        index = new ClasspathIndex(classLoader);
     }
 
     @Override
     public boolean hasResource(String name) {
-        return classLoader.getResource(name) != null;
+        return index.hasResource(name);
     }
 
     @Override
     public InputStream openResource(String name) {
-        return classLoader.getResourceAsStream(name);
+        try {
+            return index.openResource(name);
+        } catch (IOException e) {
+            return null;
+        }
     }
 }
@@ -15,10 +15,10 @@
  */
 package org.teavm.parsing;
 
-import java.io.*;
-import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.zip.ZipEntry;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import org.teavm.resource.IndexedJarFile;
 
 /**
  *
@@ -26,6 +26,7 @@ import java.util.zip.ZipEntry;
  */
 public class JarFileResourceProvider implements ResourceProvider {
     private File file;
+    private volatile IndexedJarFile jar;
 
     public JarFileResourceProvider(File file) {
         if (file == null) {
@@ -40,10 +41,8 @@ public class JarFileResourceProvider implements ResourceProvider {
 
     @Override
     public boolean hasResource(String name) {
-        try (JarFile jar = new JarFile(file)) {
-            return jar.getEntry(name) != null;
-        } catch (FileNotFoundException ex) {
-            throw new IllegalStateException("The underlying file does not exist", ex);
+        try {
+            return getJar().hasEntry(name);
         } catch (IOException ex) {
             throw new IllegalStateException("Error reading jar file", ex);
         }
@@ -52,24 +51,30 @@ public class JarFileResourceProvider implements ResourceProvider {
     @Override
     public InputStream openResource(String name) {
         try {
-            JarInputStream input = new JarInputStream(new FileInputStream(file));
-            while (true) {
-                ZipEntry entry = input.getNextEntry();
-                if (entry == null) {
-                    input.close();
-                    throw new IllegalArgumentException("Resource not found: " + name);
-                }
-                if (entry.getName().equals(name)) {
-                    return input;
-                }
-                if (name.startsWith("/") && entry.getName().equals(name.substring(1))) {
-                    return input;
-                }
+            InputStream input = getJar().open(name);
+            if (input == null && name.startsWith("/")) {
+                input = getJar().open(name.substring(1));
+            }
+            if (input == null) {
+                throw new IllegalArgumentException("Resource not found: " + name);
             }
-        } catch (FileNotFoundException e) {
-            throw new IllegalStateException("The underlying file does not exist");
+            return input;
         } catch (IOException e) {
-            throw new IllegalStateException("Error reading jar file");
+            throw new IllegalStateException("Error reading jar file", e);
+        }
+    }
+
+    private IndexedJarFile getJar() throws IOException {
+        if (jar == null) {
+            synchronized (this) {
+                if (jar == null) {
+                    if (!file.exists()) {
+                        throw new IllegalStateException("The underlying file does not exist");
+                    }
+                    jar = new IndexedJarFile(file);
+                }
+            }
         }
+        return jar;
     }
 }
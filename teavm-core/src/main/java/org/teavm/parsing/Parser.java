@@ -18,6 +18,7 @@ package org.teavm.parsing;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.List;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.JSRInlinerAdapter;
@@ -34,26 +35,16 @@ public final class Parser {
     }
 
     public static MethodHolder parseMethod(MethodNode node, String className, String fileName) {
-        MethodNode nodeWithoutJsr = new MethodNode(Opcodes.ASM5, node.access, node.name, node.desc, node.signature,
-                node.exceptions.toArray(new String[0]));
-        JSRInlinerAdapter adapter = new JSRInlinerAdapter(nodeWithoutJsr, node.access, node.name, node.desc,
-                node.signature, node.exceptions.toArray(new String[0]));
-        node.accept(adapter);
-        node = nodeWithoutJsr;
+        MethodHolder method = parseMethodHeader(node);
+        method.setProgram(parseProgram(node, className, fileName, method.getParameterTypes()));
+        return method;
+    }
+
+    private static MethodHolder parseMethodHeader(MethodNode node) {
         ValueType[] signature = MethodDescriptor.parseSignature(node.desc);
         MethodHolder method = new MethodHolder(node.name, signature);
         parseModifiers(node.access, method);
-        ProgramParser programParser = new ProgramParser();
-        programParser.setFileName(fileName);
-        Program program = programParser.parse(node, className);
-        new UnreachableBasicBlockEliminator().optimize(program);
-        SSATransformer ssaProducer = new SSATransformer();
-        ssaProducer.transformToSSA(program, programParser, method.getParameterTypes());
-        method.setProgram(program);
         parseAnnotations(method.getAnnotations(), node.visibleAnnotations, node.invisibleAnnotations);
-        while (program.variableCount() <= method.parameterCount()) {
-            program.createVariable();
-        }
         if (node.annotationDefault != null) {
             method.setAnnotationDefault(parseAnnotationValue(node.annotationDefault));
         }
@@ -65,7 +56,43 @@ public final class Parser {
         return method;
     }
 
+    private static Program parseProgram(MethodNode node, String className, String fileName,
+            ValueType[] parameterTypes) {
+        MethodNode nodeWithoutJsr = new MethodNode(Opcodes.ASM5, node.access, node.name, node.desc, node.signature,
+                node.exceptions.toArray(new String[0]));
+        JSRInlinerAdapter adapter = new JSRInlinerAdapter(nodeWithoutJsr, node.access, node.name, node.desc,
+                node.signature, node.exceptions.toArray(new String[0]));
+        node.accept(adapter);
+        node = nodeWithoutJsr;
+        ProgramParser programParser = new ProgramParser();
+        programParser.setFileName(fileName);
+        Program program = programParser.parse(node, className);
+        new UnreachableBasicBlockEliminator().optimize(program);
+        SSATransformer ssaProducer = new SSATransformer();
+        ssaProducer.transformToSSA(program, programParser, parameterTypes);
+        while (program.variableCount() <= parameterTypes.length) {
+            program.createVariable();
+        }
+        return program;
+    }
+
     public static ClassHolder parseClass(ClassNode node) {
+        return parseClass(node, false);
+    }
+
+    /**
+     * <p>Parses class, but leaves bodies of its methods unparsed. The class file is read once, and each method
+     * gets a lazy {@link CompactProgram} that converts instructions of the method into SSA form when the
+     * program is read for the first time, so methods that nobody reads are never converted. Instructions
+     * are kept until then.</p>
+     */
+    public static ClassHolder parseClassLazily(ClassReader classFile) {
+        ClassNode node = new ClassNode();
+        classFile.accept(node, 0);
+        return parseClass(node, true);
+    }
+
+    private static ClassHolder parseClass(ClassNode node, boolean lazy) {
         ClassHolder cls = new ClassHolder(node.name.replace('/', '.'));
         parseModifiers(node.access, cls);
         if (node.superName != null) {
@@ -85,7 +112,11 @@ public final class Parser {
         }
         String fullFileName = node.name.substring(0, node.name.lastIndexOf('/') + 1) + node.sourceFile;
         for (MethodNode methodNode : node.methods) {
-            cls.addMethod(parseMethod(methodNode, node.name, fullFileName));
+            if (!lazy || (methodNode.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                cls.addMethod(parseMethod(methodNode, node.name, fullFileName));
+            } else {
+                cls.addMethod(parseMethodLazily(methodNode, node.name, fullFileName));
+            }
         }
         if (node.outerClass != null) {
             cls.setOwnerName(node.outerClass.replace('/', '.'));
@@ -99,6 +130,14 @@ public final class Parser {
         return cls;
     }
 
+    private static MethodHolder parseMethodLazily(MethodNode node, String className, String fileName) {
+        MethodHolder method = parseMethodHeader(node);
+        ValueType[] parameterTypes = method.getParameterTypes();
+        method.setCompactProgram(CompactProgram.lazy(() -> parseProgram(node, className, fileName,
+                parameterTypes)));
+        return method;
+    }
+
     public static FieldHolder parseField(FieldNode node) {
         FieldHolder field = new FieldHolder(node.name);
         field.setType(ValueType.parse(node.desc));
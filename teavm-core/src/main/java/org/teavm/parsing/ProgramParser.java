@@ -512,7 +512,7 @@ public class ProgramParser implements VariableDebugInformation {
                 insn.setReceiver(getVariable(returnType.getSize() == 2 ? pushDouble() : pushSingle()));
             }
 
-            insn.setMethod(new MethodDescriptor(name, MethodDescriptor.parseSignature(desc)));
+            insn.setMethod(MethodDescriptor.parse(name + desc));
             for (int i = 0; i < bsmArgs.length; ++i) {
                 insn.getBootstrapArguments().add(convertConstant(bsmArgs[i]));
             }
@@ -571,7 +571,7 @@ public class ProgramParser implements VariableDebugInformation {
                     for (int i = types.length - 1; i >= 0; --i) {
                         args[--j] = types[i].getSize() == 2 ? getVariable(popDouble()) : getVariable(popSingle());
                     }
-                    MethodDescriptor method = new MethodDescriptor(name, MethodDescriptor.parseSignature(desc));
+                    MethodDescriptor method = MethodDescriptor.parse(name + desc);
                     int instance = -1;
                     if (opcode != Opcodes.INVOKESTATIC) {
                         instance = popSingle();
@@ -584,7 +584,7 @@ public class ProgramParser implements VariableDebugInformation {
                     if (instance == -1) {
                         InvokeInstruction insn = new InvokeInstruction();
                         insn.setType(InvocationType.SPECIAL);
-                        insn.setMethod(new MethodReference(ownerCls, method));
+                        insn.setMethod(ReferenceCache.getCached(new MethodReference(ownerCls, method)));
                         if (result >= 0) {
                             insn.setReceiver(getVariable(result));
                         }
@@ -597,7 +597,7 @@ public class ProgramParser implements VariableDebugInformation {
                         } else {
                             insn.setType(InvocationType.VIRTUAL);
                         }
-                        insn.setMethod(new MethodReference(ownerCls, method));
+                        insn.setMethod(ReferenceCache.getCached(new MethodReference(ownerCls, method)));
                         if (result >= 0) {
                             insn.setReceiver(getVariable(result));
                         }
@@ -0,0 +1,329 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * <p>Finds resources of a class loader. When the class loader is a plain {@link URLClassLoader} over local
+ * directories and jar files, the index reads central directories of all jar files and lists all directories
+ * once, and remembers which jar files and directories contain each package. A lookup of a resource checks
+ * only the jar files and the directories that contain its package, instead of asking every element of the
+ * class path, and reads entries from jar files directly, see {@link IndexedJarFile}.</p>
+ *
+ * <p>When parents of the class loader are plain {@link URLClassLoader}s as well, their class paths are indexed
+ * too, and resources are looked up in the first parent of another kind before the index, as the class loader
+ * itself does. Indexes of class loaders over jar files only are shared by all instances, so a long-running
+ * process that keeps such a class loader as a parent of class loaders over directories, which change between
+ * builds, reads central directories only once. For other class loaders, or when some element of the class
+ * path can't be indexed, the index simply asks the class loader. The index is built when the first resource
+ * is requested, and it never changes, so a new index should be created when the class path changes. The class
+ * is thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class ClasspathIndex {
+    private static final Map<ClassLoader, Map<String, Root[]>> jarLoaderIndexes = new WeakHashMap<>();
+    private ClassLoader classLoader;
+    private volatile Map<String, Root[]> packages;
+    private boolean indexed;
+    private ClassLoader topLoader;
+
+    public ClasspathIndex(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public boolean hasResource(String name) {
+        return getResource(name) != null;
+    }
+
+    /**
+     * <p>Opens the resource.</p>
+     *
+     * @return the stream, or <code>null</code>, if there is no such resource.
+     */
+    public InputStream openResource(String name) throws IOException {
+        Object resource = getResource(name);
+        if (resource == null) {
+            return null;
+        }
+        if (resource instanceof Root) {
+            return ((Root) resource).open(name);
+        }
+        return ((URL) resource).openStream();
+    }
+
+    /**
+     * <p>Gets modification date of the file the resource comes from, i.e. either the resource itself or the jar
+     * file that contains it.</p>
+     *
+     * @return the date, or <code>null</code>, if there is no such resource or the date is unknown.
+     */
+    public Date getModificationDate(String name) {
+        Object resource = getResource(name);
+        if (resource == null) {
+            return null;
+        }
+        File file = resource instanceof Root ? ((Root) resource).getFile(name) : getFile((URL) resource);
+        return file != null && file.exists() ? new Date(file.lastModified()) : null;
+    }
+
+    private static File getFile(URL url) {
+        if (url.getProtocol().equals("file")) {
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        } else if (url.getProtocol().equals("jar") && url.getPath().startsWith("file:")) {
+            int exclIndex = url.getPath().indexOf('!');
+            String jarFileName = exclIndex >= 0 ? url.getPath().substring(0, exclIndex) : url.getPath();
+            return new File(jarFileName.substring("file:".length()));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return either {@link Root} that contains the resource, or {@link URL} of the resource.
+     */
+    private Object getResource(String name) {
+        Map<String, Root[]> packages = getPackages();
+        if (!indexed) {
+            return classLoader.getResource(name);
+        }
+        URL parentResource = topLoader.getResource(name);
+        if (parentResource != null) {
+            return parentResource;
+        }
+        int index = name.lastIndexOf('/');
+        Root[] roots = packages.get(index >= 0 ? name.substring(0, index) : "");
+        if (roots != null) {
+            for (Root root : roots) {
+                if (root.contains(name)) {
+                    return root;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Map<String, Root[]> getPackages() {
+        if (packages == null) {
+            synchronized (this) {
+                if (packages == null) {
+                    Map<String, Root[]> result = buildIndex();
+                    indexed = result != null;
+                    packages = indexed ? result : Collections.emptyMap();
+                }
+            }
+        }
+        return packages;
+    }
+
+    private Map<String, Root[]> buildIndex() {
+        List<URLClassLoader> chain = new ArrayList<>();
+        ClassLoader loader = classLoader;
+        while (loader != null && loader.getClass() == URLClassLoader.class) {
+            chain.add((URLClassLoader) loader);
+            loader = loader.getParent();
+        }
+        if (chain.isEmpty() || loader == null) {
+            return null;
+        }
+        topLoader = loader;
+
+        // Class loaders ask their parents first, so roots of parents come first
+        Collections.reverse(chain);
+        Map<String, Root[]> result = null;
+        for (URLClassLoader urlClassLoader : chain) {
+            Map<String, Root[]> loaderIndex = getLoaderIndex(urlClassLoader);
+            if (loaderIndex == null) {
+                return null;
+            }
+            result = result == null ? loaderIndex : merge(result, loaderIndex);
+        }
+        return result;
+    }
+
+    private static Map<String, Root[]> getLoaderIndex(URLClassLoader loader) {
+        synchronized (jarLoaderIndexes) {
+            Map<String, Root[]> index = jarLoaderIndexes.get(loader);
+            if (index != null) {
+                return index;
+            }
+        }
+        boolean[] onlyJars = { true };
+        Map<String, Root[]> index = buildLoaderIndex(loader, onlyJars);
+        if (index != null && onlyJars[0]) {
+            // Contents of directories may change, while jar files are not expected to change under a living
+            // class loader, so indexes of class loaders over jar files are shared by all instances
+            synchronized (jarLoaderIndexes) {
+                jarLoaderIndexes.put(loader, index);
+            }
+        }
+        return index;
+    }
+
+    private static Map<String, Root[]> buildLoaderIndex(URLClassLoader loader, boolean[] onlyJars) {
+        Map<String, List<Root>> packageRoots = new HashMap<>();
+        try {
+            for (URL url : loader.getURLs()) {
+                if (!url.getProtocol().equals("file")) {
+                    return null;
+                }
+                File file = new File(url.toURI());
+                if (file.isDirectory()) {
+                    onlyJars[0] = false;
+                    DirectoryRoot root = new DirectoryRoot(file);
+                    indexDirectory(file, "", root, packageRoots);
+                } else if (file.isFile()) {
+                    JarRoot root = new JarRoot(new IndexedJarFile(file));
+                    Manifest manifest = root.jar.getManifest();
+                    if (manifest != null && manifest.getMainAttributes().containsKey(Attributes.Name.CLASS_PATH)) {
+                        // Class loader follows Class-Path of manifests, let it do it
+                        return null;
+                    }
+                    root.jar.forEachName(name -> {
+                        if (!name.endsWith("/")) {
+                            int index = name.lastIndexOf('/');
+                            addRoot(packageRoots, index >= 0 ? name.substring(0, index) : "", root);
+                        }
+                    });
+                } else {
+                    onlyJars[0] = false;
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            // Class loader knows better what to do with such class path
+            return null;
+        }
+        Map<String, Root[]> result = new HashMap<>();
+        for (Map.Entry<String, List<Root>> entry : packageRoots.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(new Root[entry.getValue().size()]));
+        }
+        return result;
+    }
+
+    private static Map<String, Root[]> merge(Map<String, Root[]> first, Map<String, Root[]> second) {
+        Map<String, Root[]> result = new HashMap<>(first);
+        for (Map.Entry<String, Root[]> entry : second.entrySet()) {
+            Root[] firstRoots = result.get(entry.getKey());
+            if (firstRoots == null) {
+                result.put(entry.getKey(), entry.getValue());
+            } else {
+                Root[] roots = Arrays.copyOf(firstRoots, firstRoots.length + entry.getValue().length);
+                System.arraycopy(entry.getValue(), 0, roots, firstRoots.length, entry.getValue().length);
+                result.put(entry.getKey(), roots);
+            }
+        }
+        return result;
+    }
+
+    private static void indexDirectory(File directory, String packageName, Root root,
+            Map<String, List<Root>> packageRoots) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                String childPackage = packageName.isEmpty() ? file.getName() : packageName + "/" + file.getName();
+                indexDirectory(file, childPackage, root, packageRoots);
+            } else {
+                addRoot(packageRoots, packageName, root);
+            }
+        }
+    }
+
+    private static void addRoot(Map<String, List<Root>> packageRoots, String packageName, Root root) {
+        List<Root> roots = packageRoots.computeIfAbsent(packageName, key -> new ArrayList<>(1));
+        if (roots.isEmpty() || roots.get(roots.size() - 1) != root) {
+            roots.add(root);
+        }
+    }
+
+    private interface Root {
+        boolean contains(String name);
+
+        InputStream open(String name) throws IOException;
+
+        File getFile(String name);
+    }
+
+    private static class DirectoryRoot implements Root {
+        private File directory;
+
+        DirectoryRoot(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public boolean contains(String name) {
+            return new File(directory, name).isFile();
+        }
+
+        @Override
+        public InputStream open(String name) throws IOException {
+            return new FileInputStream(new File(directory, name));
+        }
+
+        @Override
+        public File getFile(String name) {
+            return new File(directory, name);
+        }
+    }
+
+    private static class JarRoot implements Root {
+        private IndexedJarFile jar;
+
+        JarRoot(IndexedJarFile jar) {
+            this.jar = jar;
+        }
+
+        @Override
+        public boolean contains(String name) {
+            try {
+                return jar.hasEntry(name);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public InputStream open(String name) throws IOException {
+            return jar.open(name);
+        }
+
+        @Override
+        public File getFile(String name) {
+            return jar.getFile();
+        }
+    }
+}
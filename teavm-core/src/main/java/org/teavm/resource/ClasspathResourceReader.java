@@ -23,10 +23,14 @@ import java.io.InputStream;
  * @author Alexey Andreev
  */
 public class ClasspathResourceReader implements ResourceReader {
-    private ClassLoader classLoader;
+    private ClasspathIndex index;
+
+    public ClasspathResourceReader(ClasspathIndex index) {
+        this.index = index;
+    }
 
     public ClasspathResourceReader(ClassLoader classLoader) {
-        this.classLoader = classLoader;
+        this(new ClasspathIndex(classLoader));
     }
 
     public ClasspathResourceReader() {
@@ -35,11 +39,11 @@ public class ClasspathResourceReader implements ResourceReader {
 
     @Override
     public boolean hasResource(String name) {
-        return classLoader.getResource(name) != null;
+        return index.hasResource(name);
     }
 
     @Override
     public InputStream openResource(String name) throws IOException {
-        return classLoader.getResourceAsStream(name);
+        return index.openResource(name);
     }
 }
@@ -0,0 +1,256 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Read-only jar file whose central directory is kept in memory. Entries are read with positional reads and
+ * inflated without opening streams, so looking up an entry costs a hash table lookup, and the table is built
+ * only when the first entry is requested.</p>
+ *
+ * <p>The file is neither memory mapped nor kept open between reads. Long-running processes keep instances for
+ * jar files of plugins and dependencies, and a mapping or an open file would prevent build tools from replacing
+ * or deleting these files on some platforms, while a mapped file that is rewritten in place would crash
+ * the process. When the file changes after the central directory was read, reading an entry throws
+ * {@link IOException}.</p>
+ *
+ * <p>Only plain zip files are supported, i.e. neither ZIP64 archives nor encrypted entries. For such files
+ * the constructor throws {@link IOException}. The class is thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public final class IndexedJarFile {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ENTRY_SIGNATURE = 0x02014b50;
+    private static final int ENTRY_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private File file;
+    private long fileSize;
+    private long lastModified;
+    private ByteBuffer directory;
+    private int entryCount;
+    private volatile Map<String, Integer> entries;
+
+    public IndexedJarFile(File file) throws IOException {
+        this.file = file;
+        lastModified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Jar file is too large: " + file);
+            }
+            readDirectory(channel);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void readDirectory(FileChannel channel) throws IOException {
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        for (int i = tailSize - END_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                entryCount = tail.getShort(i + 10) & 0xFFFF;
+                long offset = tail.getInt(i + 16) & 0xFFFFFFFFL;
+                long endOffset = fileSize - tailSize + i;
+                if (entryCount == 0xFFFF || offset >= endOffset) {
+                    throw new IOException("ZIP64 archives are not supported: " + file);
+                }
+                directory = read(channel, offset, (int) (endOffset - offset));
+                return;
+            }
+        }
+        throw new IOException("Not a jar file: " + file);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * <p>Passes names of all entries to the given consumer in order they appear in the central directory.</p>
+     */
+    public void forEachName(Consumer<String> consumer) throws IOException {
+        int offset = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            consumer.accept(readName(offset));
+            offset = nextEntry(offset);
+        }
+    }
+
+    public boolean hasEntry(String name) throws IOException {
+        return getEntries().containsKey(name);
+    }
+
+    /**
+     * <p>Reads content of the entry.</p>
+     *
+     * @return the content, or <code>null</code>, if there is no such entry.
+     */
+    public byte[] read(String name) throws IOException {
+        Integer offset = getEntries().get(name);
+        return offset != null ? read(name, offset) : null;
+    }
+
+    /**
+     * <p>Reads manifest of the jar file without building the table of entries.</p>
+     *
+     * @return the manifest, or <code>null</code>, if the file has no manifest.
+     */
+    public Manifest getManifest() throws IOException {
+        int offset = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            if (readName(offset).equals(JarFile.MANIFEST_NAME)) {
+                return new Manifest(new ByteArrayInputStream(read(JarFile.MANIFEST_NAME, offset)));
+            }
+            offset = nextEntry(offset);
+        }
+        return null;
+    }
+
+    private byte[] read(String name, int offset) throws IOException {
+        int method = directory.getShort(offset + 10) & 0xFFFF;
+        int flags = directory.getShort(offset + 8) & 0xFFFF;
+        int compressedSize = directory.getInt(offset + 20);
+        int size = directory.getInt(offset + 24);
+        long localOffset = directory.getInt(offset + 42) & 0xFFFFFFFFL;
+        if ((flags & 1) != 0 || compressedSize < 0 || size < 0) {
+            throw new IOException("Unsupported entry " + name + " in " + file);
+        }
+
+        // Inflater may need an extra byte after deflated data, see Inflater(boolean)
+        byte[] data = new byte[method == DEFLATED ? compressedSize + 1 : compressedSize];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != fileSize || file.lastModified() != lastModified) {
+                throw new IOException("Jar file was changed after it had been opened: " + file);
+            }
+            ByteBuffer local = read(channel, localOffset, LOCAL_SIZE);
+            if (local.getInt(0) != LOCAL_SIGNATURE) {
+                throw new IOException("Broken entry " + name + " in " + file);
+            }
+            long dataOffset = localOffset + LOCAL_SIZE + (local.getShort(26) & 0xFFFF)
+                    + (local.getShort(28) & 0xFFFF);
+            ByteBuffer view = ByteBuffer.wrap(data, 0, compressedSize);
+            while (view.hasRemaining()) {
+                if (channel.read(view, dataOffset + view.position()) < 0) {
+                    throw new IOException("Broken entry " + name + " in " + file);
+                }
+            }
+        }
+
+        switch (method) {
+            case STORED:
+                return data;
+            case DEFLATED:
+                return inflate(name, data, size);
+            default:
+                throw new IOException("Unsupported compression method of " + name + " in " + file);
+        }
+    }
+
+    public InputStream open(String name) throws IOException {
+        byte[] data = read(name);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+
+    private byte[] inflate(String name, byte[] data, int size) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int bytesInflated = inflater.inflate(result, length, size - length);
+                if (bytesInflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += bytesInflated;
+            }
+            if (length != size) {
+                throw new IOException("Broken entry " + name + " in " + file);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Broken entry " + name + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private Map<String, Integer> getEntries() throws IOException {
+        if (entries == null) {
+            synchronized (this) {
+                if (entries == null) {
+                    Map<String, Integer> result = new HashMap<>(entryCount * 2);
+                    int offset = 0;
+                    for (int i = 0; i < entryCount; ++i) {
+                        result.putIfAbsent(readName(offset), offset);
+                        offset = nextEntry(offset);
+                    }
+                    entries = result;
+                }
+            }
+        }
+        return entries;
+    }
+
+    private String readName(int offset) throws IOException {
+        if (directory.getInt(offset) != ENTRY_SIGNATURE) {
+            throw new IOException("Broken central directory of " + file);
+        }
+        byte[] name = new byte[directory.getShort(offset + 28) & 0xFFFF];
+        ByteBuffer view = directory.duplicate();
+        view.position(offset + ENTRY_SIZE);
+        view.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private int nextEntry(int offset) {
+        return offset + ENTRY_SIZE + (directory.getShort(offset + 28) & 0xFFFF)
+                + (directory.getShort(offset + 30) & 0xFFFF) + (directory.getShort(offset + 32) & 0xFFFF);
+    }
+}
@@ -29,11 +29,24 @@ import org.teavm.parsing.Parser;
  */
 public class ResourceClassHolderMapper implements Mapper<String, ClassHolder> {
     private ResourceReader resourceReader;
+    private boolean lazy;
 
     public ResourceClassHolderMapper(ResourceReader resourceReader) {
         this.resourceReader = resourceReader;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * <p>Specifies whether bodies of methods are parsed only when they are requested. See
+     * {@link Parser#parseClassLazily(ClassReader)}.</p>
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     @Override
     public ClassHolder map(String name) {
         ClassNode clsNode = new ClassNode();
@@ -43,10 +56,20 @@ public class ResourceClassHolderMapper implements Mapper<String, ClassHolder> {
         }
         try (InputStream input = resourceReader.openResource(resourceName)) {
             ClassReader reader = new ClassReader(input);
+            classFileRead(name, reader);
+            if (lazy) {
+                return Parser.parseClassLazily(reader);
+            }
             reader.accept(clsNode, 0);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         return Parser.parseClass(clsNode);
     }
+
+    /**
+     * <p>Called when the class file was read, but not parsed yet. Does nothing by default.</p>
+     */
+    protected void classFileRead(String name, ClassReader classFile) {
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Writer that keeps text in memory and writes it to a file when closed. The text is encoded to UTF-8 at once
+ * and passed to a single write of a file channel, instead of being encoded and written in small portions
+ * by a chain of buffered streams.</p>
+ *
+ * @author Alexey Andreev
+ */
+class BulkFileWriter extends Writer {
+    private File file;
+    private StringBuilder text = new StringBuilder(1 << 20);
+
+    BulkFileWriter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        text.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        text.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        text.append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        ensureOpen();
+        text.append(csq != null ? csq : "null", start, end);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (text == null) {
+            return;
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        text = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (text == null) {
+            throw new IOException("Writer closed");
+        }
+    }
+}
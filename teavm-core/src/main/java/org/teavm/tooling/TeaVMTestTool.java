@@ -57,6 +57,7 @@ public class TeaVMTestTool {
     private boolean sourceMapsGenerated;
     private boolean sourceFilesCopied;
     private boolean incremental;
+    private boolean lazyParsing;
     private List<SourceFileProvider> sourceFileProviders = new ArrayList<>();
     private MethodNodeCache astCache;
     private ProgramCache programCache;
@@ -134,6 +135,22 @@ public class TeaVMTestTool {
         this.incremental = incremental;
     }
 
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+
+    /**
+     * <p>Specifies whether bodies of methods are parsed only when they are read, see
+     * {@link org.teavm.parsing.ClasspathClassHolderSource#setLazy(boolean)}. Disabled by default.</p>
+     *
+     * <p>Class transformers change lazily parsed methods when the methods are read, and the methods may be read
+     * in any thread. Methods that are never read are not transformed, so transformers don't report problems
+     * in such methods, e.g. JSO does not report wrong usages of overlay types in unreachable methods.</p>
+     */
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
     public boolean isDebugInformationGenerated() {
         return debugInformationGenerated;
     }
@@ -180,7 +197,10 @@ public class TeaVMTestTool {
             resourceToFile(prefix + "/res/toggle-small-expand.png", "res/toggle-small-expand.png");
             resourceToFile(prefix + "/res/toggle-small.png", "res/toggle-small.png");
             resourceToFile(prefix + "/junit.html", "junit.html");
-            ClassHolderSource classSource = new ClasspathClassHolderSource(classLoader);
+            ClasspathClassHolderSource classpathClassSource = new ClasspathClassHolderSource(classLoader);
+            classpathClassSource.setNumThreads(numThreads);
+            classpathClassSource.setLazy(lazyParsing);
+            ClassHolderSource classSource = classpathClassSource;
             if (incremental) {
                 classSource = new PreOptimizingClassHolderSource(classSource);
             }
@@ -18,16 +18,23 @@ package org.teavm.tooling;
 import java.io.*;
 import java.util.*;
 import org.apache.commons.io.IOUtils;
+import org.teavm.cache.CacheStatistics;
+import org.teavm.cache.CacheStorage;
+import org.teavm.cache.DirectoryCacheStorage;
 import org.teavm.cache.DiskCachedClassHolderSource;
+import org.teavm.cache.DiskDependencySnapshotCache;
 import org.teavm.cache.DiskProgramCache;
 import org.teavm.cache.DiskRegularMethodNodeCache;
 import org.teavm.cache.FileSymbolTable;
+import org.teavm.cache.PackCacheStorage;
 import org.teavm.debugging.information.DebugInformation;
 import org.teavm.debugging.information.DebugInformationBuilder;
 import org.teavm.dependency.DependencyInfo;
 import org.teavm.diagnostics.ProblemProvider;
 import org.teavm.javascript.RenderingContext;
 import org.teavm.model.*;
+import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
 import org.teavm.parsing.ClasspathClassHolderSource;
 import org.teavm.vm.*;
 import org.teavm.vm.spi.AbstractRendererListener;
@@ -50,19 +57,35 @@ public class TeaVMTool {
     private boolean sourceFilesCopied;
     private boolean incremental;
     private File cacheDirectory = new File("./teavm-cache");
+    private CacheStorageType cacheStorageType = CacheStorageType.DIRECTORY;
+    private int cacheMaxSize;
+    private boolean cacheGarbageCollecting;
+    private int numThreads = 1;
+    private boolean codeSplitting;
+    private List<String> splitPoints = new ArrayList<>();
     private List<ClassHolderTransformer> transformers = new ArrayList<>();
     private List<ClassAlias> classAliases = new ArrayList<>();
     private List<MethodAlias> methodAliases = new ArrayList<>();
     private TeaVMToolLog log = new EmptyTeaVMToolLog();
     private ClassLoader classLoader = TeaVMTool.class.getClassLoader();
+    private CacheStorage cacheStorage;
     private DiskCachedClassHolderSource cachedClassSource;
     private DiskProgramCache programCache;
     private DiskRegularMethodNodeCache astCache;
+    private DiskDependencySnapshotCache dependencySnapshotCache;
     private FileSymbolTable symbolTable;
     private FileSymbolTable fileTable;
     private boolean cancelled;
     private TeaVMProgressListener progressListener;
+    private TeaVMToolCache cache;
     private TeaVM vm;
+    private File metricsFile;
+    private BuildMetrics metrics;
+    private boolean stringPoolPacked;
+    private boolean lazyParsing;
+    private File sizeReportFile;
+    private File sizeReportBaseline;
+    private OutputSizeReport sizeReport;
     private List<SourceFileProvider> sourceFileProviders = new ArrayList<>();
 
     public File getTargetDirectory() {
@@ -145,6 +168,38 @@ public class TeaVMTool {
         this.cacheDirectory = cacheDirectory;
     }
 
+    public CacheStorageType getCacheStorageType() {
+        return cacheStorageType;
+    }
+
+    public void setCacheStorageType(CacheStorageType cacheStorageType) {
+        this.cacheStorageType = cacheStorageType;
+    }
+
+    /**
+     * <p>Gets maximum size of incremental build cache in megabytes. When cache grows larger, least recently
+     * used entries are removed. Zero means that size is not limited.</p>
+     */
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * <p>Tells whether cache entries the build did not use should be removed from incremental build cache.
+     * Useful when cache is not shared between different builds.</p>
+     */
+    public boolean isCacheGarbageCollecting() {
+        return cacheGarbageCollecting;
+    }
+
+    public void setCacheGarbageCollecting(boolean cacheGarbageCollecting) {
+        this.cacheGarbageCollecting = cacheGarbageCollecting;
+    }
+
     public boolean isSourceMapsFileGenerated() {
         return sourceMapsFileGenerated;
     }
@@ -161,6 +216,115 @@ public class TeaVMTool {
         this.sourceFilesCopied = sourceFilesCopied;
     }
 
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * <p>Specifies file where to write metrics of the build as JSON, see {@link BuildMetrics}. When the file is
+     * <code>null</code>, which is the default, metrics are not collected.</p>
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * <p>Gets metrics of the last build, or <code>null</code> if metrics were not collected.</p>
+     */
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isStringPoolPacked() {
+        return stringPoolPacked;
+    }
+
+    /**
+     * <p>Specifies whether string constants are written as a single string literal with a table of lengths,
+     * which is smaller and faster to load when there are many constants.</p>
+     */
+    public void setStringPoolPacked(boolean stringPoolPacked) {
+        this.stringPoolPacked = stringPoolPacked;
+    }
+
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+
+    /**
+     * <p>Specifies whether bodies of methods are parsed only when they are read, see
+     * {@link org.teavm.parsing.ClasspathClassHolderSource#setLazy(boolean)}. Disabled by default. Has no effect on
+     * incremental builds, which parse every method to fingerprint and cache it.</p>
+     *
+     * <p>Class transformers change lazily parsed methods when the methods are read, and the methods may be read
+     * in any thread. Methods that are never read are not transformed, so transformers don't report problems
+     * in such methods, e.g. JSO does not report wrong usages of overlay types in unreachable methods.</p>
+     */
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
+    public File getSizeReportFile() {
+        return sizeReportFile;
+    }
+
+    /**
+     * <p>Specifies file where to write sizes of generated code, see {@link OutputSizeReport}. The report is written
+     * as HTML when name of the file ends with <code>.html</code>, otherwise as JSON. When the file is
+     * <code>null</code>, which is the default, sizes are not measured.</p>
+     */
+    public void setSizeReportFile(File sizeReportFile) {
+        this.sizeReportFile = sizeReportFile;
+    }
+
+    public File getSizeReportBaseline() {
+        return sizeReportBaseline;
+    }
+
+    /**
+     * <p>Specifies JSON size report of another build, that the size report of this build is compared to.</p>
+     */
+    public void setSizeReportBaseline(File sizeReportBaseline) {
+        this.sizeReportBaseline = sizeReportBaseline;
+    }
+
+    /**
+     * <p>Gets size report of the last build, or <code>null</code> if sizes were not measured.</p>
+     */
+    public OutputSizeReport getSizeReport() {
+        return sizeReport;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public boolean isCodeSplitting() {
+        return codeSplitting;
+    }
+
+    /**
+     * <p>Specifies whether to split code into chunks that are loaded on demand. Chunks are written next to
+     * the target file, their names start with the name of the target file. See
+     * {@link TeaVM#setCodeSplitting(boolean)}.</p>
+     */
+    public void setCodeSplitting(boolean codeSplitting) {
+        this.codeSplitting = codeSplitting;
+    }
+
+    /**
+     * <p>Gets methods that are split points in addition to methods annotated by
+     * {@link org.teavm.javascript.spi.SplitPoint}, in format <code>class.name(descriptor)</code>, for example,
+     * <code>org.example.Editor.open(Ljava/lang/String;)V</code>.</p>
+     */
+    public List<String> getSplitPoints() {
+        return splitPoints;
+    }
+
     public Properties getProperties() {
         return properties;
     }
@@ -193,6 +357,18 @@ public class TeaVMTool {
         this.classLoader = classLoader;
     }
 
+    public TeaVMToolCache getCache() {
+        return cache;
+    }
+
+    /**
+     * <p>Specifies state to keep between builds, so that builds that run in the same process one after another
+     * do not parse unchanged classes again.</p>
+     */
+    public void setCache(TeaVMToolCache cache) {
+        this.cache = cache;
+    }
+
     public void setProgressListener(TeaVMProgressListener progressListener) {
         this.progressListener = progressListener;
     }
@@ -252,43 +428,90 @@ public class TeaVMTool {
     public void generate() throws TeaVMToolException {
         try {
             cancelled = false;
+            metrics = metricsFile != null ? new BuildMetrics() : null;
+            sizeReport = sizeReportFile != null ? new OutputSizeReport() : null;
             log.info("Building JavaScript file");
             TeaVMBuilder vmBuilder = new TeaVMBuilder();
+            ClasspathClassHolderSource parsingClassSource;
             if (incremental) {
                 cacheDirectory.mkdirs();
-                symbolTable = new FileSymbolTable(new File(cacheDirectory, "symbols"));
-                fileTable = new FileSymbolTable(new File(cacheDirectory, "files"));
+                symbolTable = getSymbolTable(new File(cacheDirectory, "symbols"));
+                fileTable = getSymbolTable(new File(cacheDirectory, "files"));
                 ClasspathClassHolderSource innerClassSource = new ClasspathClassHolderSource(classLoader);
-                ClassHolderSource classSource = new PreOptimizingClassHolderSource(innerClassSource);
-                cachedClassSource = new DiskCachedClassHolderSource(cacheDirectory, symbolTable, fileTable,
-                        classSource, innerClassSource);
-                programCache = new DiskProgramCache(cacheDirectory, symbolTable, fileTable, innerClassSource);
-                astCache = new DiskRegularMethodNodeCache(cacheDirectory, symbolTable, fileTable, innerClassSource);
+                parsingClassSource = innerClassSource;
+                innerClassSource.setNumThreads(numThreads);
+                ClassDateProvider classDateProvider = cache != null
+                        ? cache.wrapDateProvider(innerClassSource) : innerClassSource;
+                ClassHashProvider classHashProvider = cache != null
+                        ? cache.wrapHashProvider(innerClassSource) : innerClassSource;
+                ClassHolderSource classSource = wrapClassSource(
+                        new PreOptimizingClassHolderSource(innerClassSource), classDateProvider);
+                if (cacheStorageType == CacheStorageType.PACK) {
+                    cacheStorage = new PackCacheStorage(cacheDirectory);
+                } else {
+                    DirectoryCacheStorage directoryStorage = new DirectoryCacheStorage(cacheDirectory);
+                    // Dates of use only matter to trimming
+                    directoryStorage.setUsageRecorded(cacheMaxSize > 0);
+                    cacheStorage = directoryStorage;
+                }
+                cachedClassSource = new DiskCachedClassHolderSource(cacheStorage, symbolTable, fileTable,
+                        classSource, classHashProvider);
+                programCache = new DiskProgramCache(cacheStorage, symbolTable, fileTable, classHashProvider);
+                astCache = new DiskRegularMethodNodeCache(cacheStorage, symbolTable, fileTable, classHashProvider);
+                dependencySnapshotCache = new DiskDependencySnapshotCache(cacheStorage, symbolTable, fileTable,
+                        cachedClassSource, classDateProvider);
+                if (metrics != null) {
+                    metrics.addCache("classes", cachedClassSource.getStatistics());
+                    metrics.addCache("programs", programCache.getStatistics());
+                    metrics.addCache("asts", astCache.getStatistics());
+                }
                 try {
-                    symbolTable.update();
-                    fileTable.update();
+                    symbolTable.refresh();
+                    fileTable.refresh();
                 } catch (IOException e) {
                     log.info("Cache is missing");
                 }
                 vmBuilder.setClassLoader(classLoader).setClassSource(cachedClassSource);
             } else {
-                vmBuilder.setClassLoader(classLoader).setClassSource(new PreOptimizingClassHolderSource(
-                        new ClasspathClassHolderSource(classLoader)));
+                ClasspathClassHolderSource classSource = new ClasspathClassHolderSource(classLoader);
+                parsingClassSource = classSource;
+                classSource.setNumThreads(numThreads);
+                classSource.setLazy(lazyParsing);
+                vmBuilder.setClassLoader(classLoader).setClassSource(wrapClassSource(
+                        new PreOptimizingClassHolderSource(classSource),
+                        cache != null ? cache.wrapDateProvider(classSource) : classSource));
             }
             vm = vmBuilder.build();
+            vm.setMetrics(metrics);
+            vm.setSizeReport(sizeReport);
             if (progressListener != null) {
                 vm.setProgressListener(progressListener);
             }
             vm.setMinifying(minifying);
+            vm.setStringPoolPacked(stringPoolPacked);
             vm.setBytecodeLogging(bytecodeLogging);
             vm.setProperties(properties);
+            vm.setNumThreads(numThreads);
             DebugInformationBuilder debugEmitter = debugInformationGenerated || sourceMapsFileGenerated
                     ? new DebugInformationBuilder() : null;
             vm.setDebugEmitter(debugEmitter);
             vm.setIncremental(incremental);
+            vm.setCodeSplitting(codeSplitting);
+            String targetBaseName = targetFileName.endsWith(".js")
+                    ? targetFileName.substring(0, targetFileName.length() - 3) : targetFileName;
+            vm.setChunkFileNamePrefix(targetBaseName + "-");
+            Map<String, DebugInformationBuilder> chunkDebugEmitters = new HashMap<>();
+            if (debugEmitter != null) {
+                vm.setChunkDebugEmitterFactory(chunkFileName -> chunkDebugEmitters.computeIfAbsent(chunkFileName,
+                        name -> new DebugInformationBuilder()));
+            }
             if (incremental) {
                 vm.setAstCache(astCache);
                 vm.setProgramCache(programCache);
+                vm.setDependencySnapshotCache(dependencySnapshotCache);
+                if (cache != null) {
+                    vm.setFragmentCache(cache.getFragmentCache());
+                }
             }
             vm.installPlugins();
             for (ClassHolderTransformer transformer : transformers) {
@@ -304,6 +527,9 @@ public class TeaVMTool {
             for (ClassAlias alias : classAliases) {
                 vm.exportType(alias.getAlias(), alias.getClassName());
             }
+            for (String splitPoint : splitPoints) {
+                vm.addSplitPoint(MethodReference.parse(splitPoint));
+            }
             for (MethodAlias methodAlias : methodAliases) {
                 MethodReference ref = new MethodReference(methodAlias.getClassName(), methodAlias.getMethodName(),
                         MethodDescriptor.parseSignature(methodAlias.getDescriptor()));
@@ -323,8 +549,7 @@ public class TeaVMTool {
                 }
             }
             targetDirectory.mkdirs();
-            try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(
-                    new FileOutputStream(new File(targetDirectory, targetFileName)), 65536), "UTF-8")) {
+            try (Writer writer = new BulkFileWriter(new File(targetDirectory, targetFileName))) {
                 if (runtime == RuntimeCopyOperation.MERGED) {
                     vm.add(runtimeInjector);
                 }
@@ -334,6 +559,24 @@ public class TeaVMTool {
                     cancelled = true;
                     return;
                 }
+                if (incremental) {
+                    if (metrics != null) {
+                        CacheStatistics snapshotStatistics = new CacheStatistics();
+                        snapshotStatistics.record(vm.wasDependencySnapshotReused());
+                        metrics.addCache("dependencySnapshot", snapshotStatistics);
+                    }
+                    if (vm.wasDependencySnapshotReused() && !dependencySnapshotCache.getChangedClasses().isEmpty()) {
+                        log.info("Dependency analysis replayed from cache, except for methods affected by "
+                                + dependencySnapshotCache.getChangedClasses().size() + " changed classes");
+                        log.debug("Changed classes: " + dependencySnapshotCache.getChangedClasses());
+                    } else if (vm.wasDependencySnapshotReused()) {
+                        log.info("Dependency analysis replayed from cache");
+                    } else if (!dependencySnapshotCache.getChangedClasses().isEmpty()) {
+                        log.info("Dependencies analyzed again, since " + dependencySnapshotCache.getChangedClasses()
+                                .size() + " classes changed");
+                        log.debug("Changed classes: " + dependencySnapshotCache.getChangedClasses());
+                    }
+                }
                 if (mainClass != null) {
                     writer.append("main = $rt_mainStarter(main);\n");
                 }
@@ -347,21 +590,27 @@ public class TeaVMTool {
                     log.info("JavaScript file built with errors");
                     TeaVMProblemRenderer.describeProblems(vm, log);
                 }
+                if (!vm.getChunks().isEmpty()) {
+                    log.info(vm.getChunks().size() + " chunks written");
+                }
                 if (debugInformationGenerated) {
-                    DebugInformation debugInfo = debugEmitter.getDebugInformation();
-                    try (OutputStream debugInfoOut = new FileOutputStream(new File(targetDirectory,
-                            targetFileName + ".teavmdbg"))) {
-                        debugInfo.write(debugInfoOut);
+                    writeDebugInformation(targetFileName, debugEmitter.getDebugInformation());
+                    for (TeaVMChunk chunk : vm.getChunks()) {
+                        writeDebugInformation(chunk.getFileName(),
+                                chunkDebugEmitters.get(chunk.getFileName()).getDebugInformation());
                     }
                     log.info("Debug information successfully written");
                 }
                 if (sourceMapsFileGenerated) {
-                    DebugInformation debugInfo = debugEmitter.getDebugInformation();
-                    String sourceMapsFileName = targetFileName + ".map";
-                    writer.append("\n//# sourceMappingURL=").append(sourceMapsFileName);
-                    try (Writer sourceMapsOut = new OutputStreamWriter(new FileOutputStream(
-                            new File(targetDirectory, sourceMapsFileName)), "UTF-8")) {
-                        debugInfo.writeAsSourceMaps(sourceMapsOut, "src", targetFileName);
+                    writer.append("\n//# sourceMappingURL=").append(targetFileName + ".map");
+                    writeSourceMaps(targetFileName, debugEmitter.getDebugInformation());
+                    for (TeaVMChunk chunk : vm.getChunks()) {
+                        try (Writer chunkWriter = new OutputStreamWriter(new FileOutputStream(
+                                new File(targetDirectory, chunk.getFileName()), true), "UTF-8")) {
+                            chunkWriter.append("\n//# sourceMappingURL=").append(chunk.getFileName() + ".map");
+                        }
+                        writeSourceMaps(chunk.getFileName(),
+                                chunkDebugEmitters.get(chunk.getFileName()).getDebugInformation());
                     }
                     log.info("Source maps successfully written");
                 }
@@ -373,8 +622,11 @@ public class TeaVMTool {
                     programCache.flush();
                     astCache.flush();
                     cachedClassSource.flush();
+                    dependencySnapshotCache.flush();
+                    cacheStorage.flush();
                     symbolTable.flush();
                     fileTable.flush();
+                    collectCacheGarbage();
                     log.info("Cache updated");
                 }
             }
@@ -392,11 +644,109 @@ public class TeaVMTool {
                     writer.append(text);
                 }
             }
+            if (sizeReport != null) {
+                writeSizeReport();
+            }
+            if (metrics != null) {
+                writeMetrics(parsingClassSource);
+            }
         } catch (IOException e) {
             throw new TeaVMToolException("IO error occured", e);
         }
     }
 
+    private void writeDebugInformation(String fileName, DebugInformation debugInfo) throws IOException {
+        try (OutputStream debugInfoOut = new FileOutputStream(new File(targetDirectory, fileName + ".teavmdbg"))) {
+            debugInfo.write(debugInfoOut);
+        }
+    }
+
+    private void writeSourceMaps(String fileName, DebugInformation debugInfo) throws IOException {
+        try (Writer sourceMapsOut = new OutputStreamWriter(new FileOutputStream(
+                new File(targetDirectory, fileName + ".map")), "UTF-8")) {
+            debugInfo.writeAsSourceMaps(sourceMapsOut, "src", fileName);
+        }
+    }
+
+    private void writeMetrics(ClasspathClassHolderSource parsingClassSource) throws IOException {
+        metrics.setCounter("parsedClasses", parsingClassSource.getParsedClassCount());
+        metrics.setCounter("parsedMethods", parsingClassSource.getParsedMethodCount());
+        metrics.finish();
+        File parentDirectory = metricsFile.getAbsoluteFile().getParentFile();
+        if (parentDirectory != null) {
+            parentDirectory.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(metricsFile), "UTF-8")) {
+            metrics.write(writer);
+        }
+        log.info("Build metrics written to " + metricsFile);
+    }
+
+    private void writeSizeReport() throws IOException {
+        sizeReport.addFile(targetFileName, new File(targetDirectory, targetFileName).length());
+        for (TeaVMChunk chunk : vm.getChunks()) {
+            sizeReport.addFile(chunk.getFileName(), new File(targetDirectory, chunk.getFileName()).length());
+        }
+        if (sizeReportBaseline != null) {
+            if (sizeReportBaseline.exists()) {
+                try (Reader reader = new InputStreamReader(new FileInputStream(sizeReportBaseline), "UTF-8")) {
+                    sizeReport.setBaseline(OutputSizeReport.read(new BufferedReader(reader)));
+                }
+            } else {
+                log.warning("Baseline size report " + sizeReportBaseline + " not found");
+            }
+        }
+        File parentDirectory = sizeReportFile.getAbsoluteFile().getParentFile();
+        if (parentDirectory != null) {
+            parentDirectory.mkdirs();
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sizeReportFile),
+                "UTF-8"))) {
+            if (sizeReportFile.getName().endsWith(".html")) {
+                sizeReport.writeHtml(writer);
+            } else {
+                sizeReport.write(writer);
+            }
+        }
+        log.info("Output size report written to " + sizeReportFile);
+    }
+
+    private FileSymbolTable getSymbolTable(File file) {
+        return cache != null ? cache.getSymbolTable(file) : new FileSymbolTable(file);
+    }
+
+    private ClassHolderSource wrapClassSource(ClassHolderSource classSource, ClassDateProvider classDateProvider) {
+        if (cache == null) {
+            return classSource;
+        }
+        CacheStatistics statistics = new CacheStatistics();
+        if (metrics != null) {
+            metrics.addCache("memory", statistics);
+        }
+        return cache.getClassCache().createSource(classSource, classDateProvider, statistics);
+    }
+
+    private void collectCacheGarbage() throws IOException {
+        if (cacheGarbageCollecting) {
+            cacheStorage.removeUnused();
+            if (isMostlyUnused(symbolTable) || isMostlyUnused(fileTable)) {
+                // Symbols can't be renumbered without rewriting all entries, so it's easier to start from scratch
+                cacheStorage.clear();
+                symbolTable.clear();
+                fileTable.clear();
+                log.info("Cache cleared, since most of its symbols are no longer used");
+                return;
+            }
+        }
+        if (cacheMaxSize > 0) {
+            cacheStorage.trim(cacheMaxSize * 1024L * 1024L);
+        }
+    }
+
+    private static boolean isMostlyUnused(FileSymbolTable table) {
+        return table.getUsedSymbolCount() * 2 < table.size();
+    }
+
     private void copySourceFiles() {
         if (vm.getWrittenClasses() == null) {
             return;
@@ -407,7 +757,10 @@ public class TeaVMTool {
         copier.copy(new File(targetDirectory, "src"));
     }
 
-    private AbstractRendererListener runtimeInjector = new AbstractRendererListener() {
+    private AbstractRendererListener runtimeInjector = new RuntimeInjector();
+
+    // Named class, since output size report names runtime code by classes of renderer listeners
+    private class RuntimeInjector extends AbstractRendererListener {
         @Override
         public void begin(RenderingContext context, BuildTarget buildTarget) throws IOException {
             StringWriter writer = new StringWriter();
@@ -415,7 +768,7 @@ public class TeaVMTool {
             writer.close();
             context.getWriter().append(writer.toString()).newLine();
         }
-    };
+    }
 
     private void resourceToFile(String resource, String fileName) throws IOException {
         try (InputStream input = TeaVMTool.class.getClassLoader().getResourceAsStream(resource)) {
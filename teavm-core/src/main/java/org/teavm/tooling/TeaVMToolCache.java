@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.teavm.cache.FileSymbolTable;
+import org.teavm.cache.InMemoryClassHolderCache;
+import org.teavm.javascript.ClassFragmentCache;
+import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
+
+/**
+ * <p>State that {@link TeaVMTool} keeps in memory between builds that run in the same process, either by the
+ * same tool or by different tools. Contains parsed classes, see {@link InMemoryClassHolderCache}, and symbol
+ * tables of incremental build caches, so that they are not decoded again by each build. Incremental builds also
+ * keep rendered code of classes, see {@link ClassFragmentCache}.</p>
+ *
+ * <p>When the owner of the cache knows which class files change between builds, for example, because it
+ * watches the file system, it may promise to report all changes, see {@link #setChangesReported(boolean)}.
+ * Then modification dates and hashes of class files, that incremental caches check on each build, are
+ * computed once and remembered until the class is reported as changed.</p>
+ *
+ * <p>Builds that share the cache may run one after another, but not concurrently.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMToolCache {
+    private InMemoryClassHolderCache classCache = new InMemoryClassHolderCache();
+    private Map<File, FileSymbolTable> symbolTables = new HashMap<>();
+    private volatile boolean changesReported;
+    private Map<String, Optional<Date>> classDates = new ConcurrentHashMap<>();
+    private Map<String, Optional<byte[]>> classHashes = new ConcurrentHashMap<>();
+    private ClassFragmentCache fragmentCache = new ClassFragmentCache();
+
+    public InMemoryClassHolderCache getClassCache() {
+        return classCache;
+    }
+
+    public synchronized FileSymbolTable getSymbolTable(File file) {
+        return symbolTables.computeIfAbsent(file.getAbsoluteFile(), FileSymbolTable::new);
+    }
+
+    public ClassFragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    public boolean isChangesReported() {
+        return changesReported;
+    }
+
+    /**
+     * <p>Specifies whether all changes of class files are reported by {@link #classesChanged(Collection)} and
+     * {@link #classPathChanged()} between builds.</p>
+     */
+    public void setChangesReported(boolean changesReported) {
+        this.changesReported = changesReported;
+        classPathChanged();
+    }
+
+    /**
+     * <p>Reports that class files of the given classes were changed, added or removed.</p>
+     */
+    public void classesChanged(Collection<String> classNames) {
+        for (String className : classNames) {
+            classDates.remove(className);
+            classHashes.remove(className);
+        }
+    }
+
+    /**
+     * <p>Reports that class files may have changed in a way that is not known, for example, a jar file
+     * was replaced.</p>
+     */
+    public void classPathChanged() {
+        classDates.clear();
+        classHashes.clear();
+        // Plugins may have changed, and code they generate is not covered by fingerprints of classes
+        fragmentCache.clear();
+    }
+
+    public ClassDateProvider wrapDateProvider(ClassDateProvider provider) {
+        if (!changesReported) {
+            return provider;
+        }
+        return className -> classDates.computeIfAbsent(className,
+                name -> Optional.ofNullable(provider.getModificationDate(name))).orElse(null);
+    }
+
+    public ClassHashProvider wrapHashProvider(ClassHashProvider provider) {
+        if (!changesReported) {
+            return provider;
+        }
+        return className -> classHashes.computeIfAbsent(className,
+                name -> Optional.ofNullable(provider.getClassHash(name))).orElse(null);
+    }
+
+    public synchronized void clear() {
+        classCache.clear();
+        symbolTables.clear();
+        classPathChanged();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling.daemon;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.tooling.CacheStorageType;
+import org.teavm.tooling.ClassAlias;
+import org.teavm.tooling.MethodAlias;
+import org.teavm.tooling.RuntimeCopyOperation;
+import org.teavm.tooling.TeaVMTool;
+
+/**
+ * <p>Messages that clients and the daemon exchange. A client sends a header, settings of {@link TeaVMTool},
+ * class path and names of class transformers. The daemon answers with log messages, followed by the result
+ * of the build.</p>
+ *
+ * <p>The header contains a token that the daemon writes to a file that only the user who runs the daemon can
+ * read, see {@link #getTokenFile(File, int)}. The daemon loads classes and writes files on requests, so other
+ * users of the machine, who can connect to the port as well, must not be able to send requests.</p>
+ *
+ * @author Alexey Andreev
+ */
+final class DaemonProtocol {
+    static final int MAGIC = 0x5456444D;
+    static final int VERSION = 7;
+    static final int INFO = 0;
+    static final int DEBUG = 1;
+    static final int WARNING = 2;
+    static final int ERROR = 3;
+    static final int RESULT = 4;
+    private static RuntimeCopyOperation[] runtimeCopyOperations = RuntimeCopyOperation.values();
+    private static CacheStorageType[] cacheStorageTypes = CacheStorageType.values();
+
+    private DaemonProtocol() {
+    }
+
+    static void writeHeader(DataOutput output, String token) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(token);
+    }
+
+    static void readHeader(DataInput input, String token) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a TeaVM daemon client");
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of TeaVM daemon protocol: " + version);
+        }
+        byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+        // Length of the string is limited, so that a client that does not know the token can't make the daemon
+        // allocate much memory
+        byte[] actual = input.readUTF().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new IOException("Client sent wrong token");
+        }
+    }
+
+    static File getDefaultTokenDirectory() {
+        return new File(System.getProperty("user.home"), ".teavm");
+    }
+
+    static File getTokenFile(File directory, int port) {
+        return new File(directory, "daemon-" + port + ".token");
+    }
+
+    static String createToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * <p>Writes the token to a new file that only the owner can read and write. The file is created with these
+     * permissions, rather than restricted after it is written, so that nobody can open it in between.</p>
+     */
+    static void writeToken(File file, String token) throws IOException {
+        Path path = file.toPath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) || !file.setWritable(false, false)
+                    || !file.setWritable(true, true)) {
+                throw new IOException("Could not restrict access to " + file);
+            }
+        }
+        Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readToken(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IOException("Token file " + file + " not found, TeaVM daemon is not running on this port "
+                    + "or is run by another user");
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    static void writeSettings(TeaVMTool tool, DataOutput output) throws IOException {
+        writeString(output, tool.getTargetDirectory().getAbsolutePath());
+        writeString(output, tool.getTargetFileName());
+        output.writeBoolean(tool.isMinifying());
+        writeString(output, tool.getMainClass());
+        output.writeByte(tool.getRuntime().ordinal());
+        output.writeBoolean(tool.isMainPageIncluded());
+        output.writeBoolean(tool.isBytecodeLogging());
+        output.writeBoolean(tool.isDebugInformationGenerated());
+        output.writeBoolean(tool.isSourceMapsFileGenerated());
+        output.writeBoolean(tool.isIncremental());
+        writeString(output, tool.getCacheDirectory().getAbsolutePath());
+        output.writeByte(tool.getCacheStorageType().ordinal());
+        output.writeInt(tool.getCacheMaxSize());
+        output.writeBoolean(tool.isCacheGarbageCollecting());
+        output.writeInt(tool.getNumThreads());
+        writeString(output, tool.getMetricsFile() != null ? tool.getMetricsFile().getAbsolutePath() : null);
+        output.writeBoolean(tool.isCodeSplitting());
+        writeStrings(output, tool.getSplitPoints());
+        output.writeBoolean(tool.isStringPoolPacked());
+        output.writeBoolean(tool.isLazyParsing());
+        writeString(output, tool.getSizeReportFile() != null ? tool.getSizeReportFile().getAbsolutePath() : null);
+        writeString(output, tool.getSizeReportBaseline() != null
+                ? tool.getSizeReportBaseline().getAbsolutePath() : null);
+
+        List<String> propertyNames = new ArrayList<>(tool.getProperties().stringPropertyNames());
+        output.writeInt(propertyNames.size());
+        for (String propertyName : propertyNames) {
+            writeString(output, propertyName);
+            writeString(output, tool.getProperties().getProperty(propertyName));
+        }
+
+        output.writeInt(tool.getClassAliases().size());
+        for (ClassAlias alias : tool.getClassAliases()) {
+            writeString(output, alias.getClassName());
+            writeString(output, alias.getAlias());
+        }
+
+        output.writeInt(tool.getMethodAliases().size());
+        for (MethodAlias alias : tool.getMethodAliases()) {
+            writeString(output, alias.getAlias());
+            writeString(output, alias.getClassName());
+            writeString(output, alias.getMethodName());
+            writeString(output, alias.getDescriptor());
+            String[] types = alias.getTypes();
+            output.writeInt(types != null ? types.length : -1);
+            if (types != null) {
+                for (String type : types) {
+                    writeString(output, type);
+                }
+            }
+        }
+    }
+
+    static void readSettings(TeaVMTool tool, DataInput input) throws IOException {
+        tool.setTargetDirectory(new File(readString(input)));
+        tool.setTargetFileName(readString(input));
+        tool.setMinifying(input.readBoolean());
+        tool.setMainClass(readString(input));
+        tool.setRuntime(runtimeCopyOperations[input.readByte()]);
+        tool.setMainPageIncluded(input.readBoolean());
+        tool.setBytecodeLogging(input.readBoolean());
+        tool.setDebugInformationGenerated(input.readBoolean());
+        tool.setSourceMapsFileGenerated(input.readBoolean());
+        tool.setIncremental(input.readBoolean());
+        tool.setCacheDirectory(new File(readString(input)));
+        tool.setCacheStorageType(cacheStorageTypes[input.readByte()]);
+        tool.setCacheMaxSize(input.readInt());
+        tool.setCacheGarbageCollecting(input.readBoolean());
+        tool.setNumThreads(input.readInt());
+        String metricsFile = readString(input);
+        tool.setMetricsFile(metricsFile != null ? new File(metricsFile) : null);
+        tool.setCodeSplitting(input.readBoolean());
+        tool.getSplitPoints().addAll(readStrings(input));
+        tool.setStringPoolPacked(input.readBoolean());
+        tool.setLazyParsing(input.readBoolean());
+        String sizeReportFile = readString(input);
+        tool.setSizeReportFile(sizeReportFile != null ? new File(sizeReportFile) : null);
+        String sizeReportBaseline = readString(input);
+        tool.setSizeReportBaseline(sizeReportBaseline != null ? new File(sizeReportBaseline) : null);
+
+        int propertyCount = input.readInt();
+        for (int i = 0; i < propertyCount; ++i) {
+            String propertyName = readString(input);
+            tool.getProperties().setProperty(propertyName, readString(input));
+        }
+
+        int classAliasCount = input.readInt();
+        for (int i = 0; i < classAliasCount; ++i) {
+            ClassAlias alias = new ClassAlias();
+            alias.setClassName(readString(input));
+            alias.setAlias(readString(input));
+            tool.getClassAliases().add(alias);
+        }
+
+        int methodAliasCount = input.readInt();
+        for (int i = 0; i < methodAliasCount; ++i) {
+            MethodAlias alias = new MethodAlias();
+            alias.setAlias(readString(input));
+            alias.setClassName(readString(input));
+            alias.setMethodName(readString(input));
+            alias.setDescriptor(readString(input));
+            int typeCount = input.readInt();
+            if (typeCount >= 0) {
+                String[] types = new String[typeCount];
+                for (int j = 0; j < typeCount; ++j) {
+                    types[j] = readString(input);
+                }
+                alias.setTypes(types);
+            }
+            tool.getMethodAliases().add(alias);
+        }
+    }
+
+    static void writeStrings(DataOutput output, List<String> strings) throws IOException {
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(output, string);
+        }
+    }
+
+    static List<String> readStrings(DataInput input) throws IOException {
+        int count = input.readInt();
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            strings.add(readString(input));
+        }
+        return strings;
+    }
+
+    /**
+     * <p>Writes a string that may be <code>null</code>. Unlike {@link DataOutput#writeUTF(String)}, does not
+     * limit length of the string, which matters for stack traces.</p>
+     */
+    static void writeString(DataOutput output, String string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String describe(String text, Throwable e) {
+        StringWriter writer = new StringWriter();
+        writer.append(text).append('\n');
+        e.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.model.ClassHolderTransformer;
+import org.teavm.tooling.EmptyTeaVMToolLog;
+import org.teavm.tooling.TeaVMTool;
+import org.teavm.tooling.TeaVMToolCache;
+import org.teavm.tooling.TeaVMToolException;
+import org.teavm.tooling.TeaVMToolLog;
+import org.teavm.vm.TeaVMPhase;
+import org.teavm.vm.TeaVMProgressFeedback;
+import org.teavm.vm.TeaVMProgressListener;
+
+/**
+ * <p>Long-running process that builds JavaScript on requests of {@link TeaVMDaemonClient}s. The daemon listens
+ * on a port of the loopback interface and runs builds one after another, so that they share state that
+ * survives between builds:</p>
+ *
+ * <ul>
+ *   <li>parsed classes and symbol tables of incremental caches, see {@link TeaVMToolCache};</li>
+ *   <li>class loader over jar files at the beginning of class path. While none of these files changes,
+ *   the class loader is reused, so classes of TeaVM plugins stay loaded and compiled by JIT, data that plugins
+ *   keep in static fields survives, and central directories of jar files are read only once. Remaining
+ *   elements of class path, usually directories with classes of the project, get a new class loader
+ *   for each build.</li>
+ * </ul>
+ *
+ * <p>Only the user who runs the daemon can send requests. The daemon writes a random token to a file that only
+ * this user can read, and rejects clients that don't send the token, see {@link #getTokenFile()}. A client
+ * that does not send its request in time is dropped, so that it can't block other clients.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMDaemon implements Closeable {
+    public static final int DEFAULT_PORT = 3998;
+    static final int DEFAULT_REQUEST_TIMEOUT = 10000;
+    private ServerSocket serverSocket;
+    private File tokenFile;
+    private String token;
+    private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private ClassLoader classLoader;
+    private TeaVMToolLog log = new EmptyTeaVMToolLog();
+    private TeaVMToolCache cache = new TeaVMToolCache();
+    private List<String> jarClassPath = new ArrayList<>();
+    private URLClassLoader jarClassLoader;
+
+    /**
+     * @param port port to listen to, or <code>0</code> to choose any free port.
+     * @param classLoader class loader that is parent of class loaders of builds.
+     */
+    public TeaVMDaemon(int port, ClassLoader classLoader) throws IOException {
+        this(port, classLoader, DaemonProtocol.getDefaultTokenDirectory());
+    }
+
+    /**
+     * @param tokenDirectory directory where the token file is written, see {@link #getTokenFile()}. Clients
+     * should look for the token in the same directory, see {@link TeaVMDaemonClient#setTokenDirectory(File)}.
+     */
+    public TeaVMDaemon(int port, ClassLoader classLoader, File tokenDirectory) throws IOException {
+        this.classLoader = classLoader;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            token = DaemonProtocol.createToken();
+            tokenFile = DaemonProtocol.getTokenFile(tokenDirectory, serverSocket.getLocalPort());
+            DaemonProtocol.writeToken(tokenFile, token);
+        } catch (IOException | RuntimeException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * <p>Gets file that contains the token which clients must send. The file is readable only by the owner and
+     * is removed when the daemon is closed.</p>
+     */
+    public File getTokenFile() {
+        return tokenFile;
+    }
+
+    void setRequestTimeout(int requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public TeaVMToolLog getLog() {
+        return log;
+    }
+
+    /**
+     * <p>Specifies log of the daemon itself. Messages of builds go to their clients.</p>
+     */
+    public void setLog(TeaVMToolLog log) {
+        this.log = log;
+    }
+
+    public TeaVMToolCache getCache() {
+        return cache;
+    }
+
+    /**
+     * <p>Accepts requests until the daemon is closed.</p>
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                serve(socket);
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warning("Error communicating with client", e);
+                }
+            } catch (IOException e) {
+                log.warning("Error communicating with client", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        if (tokenFile.exists() && DaemonProtocol.readToken(tokenFile).equals(token)) {
+            // The file may belong to another daemon that has since started on the same port
+            tokenFile.delete();
+        }
+        if (jarClassLoader != null) {
+            jarClassLoader.close();
+            jarClassLoader = null;
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        socket.setSoTimeout(requestTimeout);
+        DaemonProtocol.readHeader(input, token);
+        TeaVMTool tool = new TeaVMTool();
+        DaemonProtocol.readSettings(tool, input);
+        List<String> classPath = DaemonProtocol.readStrings(input);
+        List<String> transformers = DaemonProtocol.readStrings(input);
+        socket.setSoTimeout(0);
+
+        ClientLog clientLog = new ClientLog(output);
+        log.info("Building " + tool.getTargetDirectory() + File.separator + tool.getTargetFileName());
+        long start = System.currentTimeMillis();
+        boolean succeeded = build(tool, classPath, transformers, clientLog);
+        log.info("Build " + (succeeded ? "complete" : "failed") + " for "
+                + ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+        if (!clientLog.broken) {
+            output.writeByte(DaemonProtocol.RESULT);
+            output.writeBoolean(succeeded);
+            output.flush();
+        }
+    }
+
+    private boolean build(TeaVMTool tool, List<String> classPath, List<String> transformers, ClientLog clientLog) {
+        tool.setLog(clientLog);
+        tool.setCache(cache);
+        tool.setProgressListener(new TeaVMProgressListener() {
+            @Override
+            public TeaVMProgressFeedback progressReached(int progress) {
+                return clientLog.broken ? TeaVMProgressFeedback.CANCEL : TeaVMProgressFeedback.CONTINUE;
+            }
+
+            @Override
+            public TeaVMProgressFeedback phaseStarted(TeaVMPhase phase, int count) {
+                return clientLog.broken ? TeaVMProgressFeedback.CANCEL : TeaVMProgressFeedback.CONTINUE;
+            }
+        });
+        URLClassLoader buildClassLoader = null;
+        try {
+            int jarCount = updateJarClassLoader(classPath);
+            ClassLoader parentClassLoader = jarClassLoader != null ? jarClassLoader : classLoader;
+            if (jarCount < classPath.size()) {
+                buildClassLoader = new URLClassLoader(toURLs(classPath.subList(jarCount, classPath.size())),
+                        parentClassLoader);
+                tool.setClassLoader(buildClassLoader);
+            } else {
+                tool.setClassLoader(parentClassLoader);
+            }
+            for (String transformer : transformers) {
+                tool.getTransformers().add(instantiateTransformer(transformer, tool.getClassLoader()));
+            }
+            tool.generate();
+            return !tool.wasCancelled() && tool.getProblemProvider().getSevereProblems().isEmpty();
+        } catch (TeaVMToolException | IOException | RuntimeException e) {
+            clientLog.error("Build failed", e);
+            return false;
+        } finally {
+            if (buildClassLoader != null) {
+                try {
+                    buildClassLoader.close();
+                } catch (IOException e) {
+                    log.warning("Could not close class loader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Makes sure that {@link #jarClassLoader} contains jar files at the beginning of class path, and
+     * that none of them has changed since the class loader was created.</p>
+     *
+     * @return number of elements of class path that {@link #jarClassLoader} contains.
+     */
+    private int updateJarClassLoader(List<String> classPath) throws IOException {
+        List<String> jars = new ArrayList<>();
+        List<String> jarKey = new ArrayList<>();
+        for (String entry : classPath) {
+            File file = new File(entry);
+            if (!file.isFile()) {
+                break;
+            }
+            jars.add(entry);
+            jarKey.add(entry + "@" + file.lastModified() + ":" + file.length());
+        }
+        if (!jarKey.equals(jarClassPath)) {
+            if (jarClassLoader != null) {
+                jarClassLoader.close();
+                jarClassLoader = null;
+            }
+            if (!jars.isEmpty()) {
+                jarClassLoader = new URLClassLoader(toURLs(jars), classLoader);
+            }
+            jarClassPath = jarKey;
+            // Classes of plugins are loaded from jar files, code that previous builds rendered with them is stale
+            cache.classPathChanged();
+            log.info("Class loader created for " + jars.size() + " jar files");
+        }
+        return jars.size();
+    }
+
+    private static URL[] toURLs(List<String> classPath) throws MalformedURLException {
+        URL[] urls = new URL[classPath.size()];
+        for (int i = 0; i < urls.length; ++i) {
+            urls[i] = new File(classPath.get(i)).toURI().toURL();
+        }
+        return urls;
+    }
+
+    private static ClassHolderTransformer instantiateTransformer(String name, ClassLoader classLoader) {
+        try {
+            Class<?> type = Class.forName(name, true, classLoader);
+            return type.asSubclass(ClassHolderTransformer.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Could not instantiate transformer " + name, e);
+        }
+    }
+
+    private static class ClientLog implements TeaVMToolLog {
+        private DataOutputStream output;
+        volatile boolean broken;
+
+        ClientLog(DataOutputStream output) {
+            this.output = output;
+        }
+
+        private synchronized void send(int kind, String text) {
+            if (broken) {
+                return;
+            }
+            try {
+                output.writeByte(kind);
+                DaemonProtocol.writeString(output, text);
+                output.flush();
+            } catch (IOException e) {
+                // Client has gone, so the build gets cancelled
+                broken = true;
+            }
+        }
+
+        @Override
+        public void info(String text) {
+            send(DaemonProtocol.INFO, text);
+        }
+
+        @Override
+        public void debug(String text) {
+            send(DaemonProtocol.DEBUG, text);
+        }
+
+        @Override
+        public void warning(String text) {
+            send(DaemonProtocol.WARNING, text);
+        }
+
+        @Override
+        public void error(String text) {
+            send(DaemonProtocol.ERROR, text);
+        }
+
+        @Override
+        public void info(String text, Throwable e) {
+            send(DaemonProtocol.INFO, DaemonProtocol.describe(text, e));
+        }
+
+        @Override
+        public void debug(String text, Throwable e) {
+            send(DaemonProtocol.DEBUG, DaemonProtocol.describe(text, e));
+        }
+
+        @Override
+        public void warning(String text, Throwable e) {
+            send(DaemonProtocol.WARNING, DaemonProtocol.describe(text, e));
+        }
+
+        @Override
+        public void error(String text, Throwable e) {
+            send(DaemonProtocol.ERROR, DaemonProtocol.describe(text, e));
+        }
+    }
+}
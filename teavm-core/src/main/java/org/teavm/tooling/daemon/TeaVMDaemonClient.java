@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.tooling.TeaVMTool;
+import org.teavm.tooling.TeaVMToolLog;
+
+/**
+ * <p>Asks {@link TeaVMDaemon} running on this machine to build JavaScript. Settings of the build are taken from
+ * a {@link TeaVMTool}, except for its class loader, class transformers and source file providers, which can't
+ * be passed to another process. Instead, the class path and names of transformer classes are passed, and the
+ * daemon creates class loader and transformers itself. Messages of the daemon are passed to the log of
+ * the tool.</p>
+ *
+ * <p>The client authenticates with the token that the daemon writes to a file, see
+ * {@link TeaVMDaemon#getTokenFile()}, so it must run as the same user as the daemon.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMDaemonClient {
+    private int port;
+    private List<File> classPath = new ArrayList<>();
+    private List<String> transformers = new ArrayList<>();
+    private File tokenDirectory = DaemonProtocol.getDefaultTokenDirectory();
+
+    public TeaVMDaemonClient(int port) {
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public List<File> getClassPath() {
+        return classPath;
+    }
+
+    public List<String> getTransformers() {
+        return transformers;
+    }
+
+    public File getTokenDirectory() {
+        return tokenDirectory;
+    }
+
+    /**
+     * <p>Specifies directory where the daemon writes its token, if the daemon was given a directory other
+     * than the default one.</p>
+     */
+    public void setTokenDirectory(File tokenDirectory) {
+        this.tokenDirectory = tokenDirectory;
+    }
+
+    /**
+     * <p>Builds JavaScript in the daemon and waits until it finishes.</p>
+     *
+     * @return <code>true</code> if the build succeeded without severe problems.
+     * @throws IOException when the daemon is not running or connection breaks.
+     */
+    public boolean build(TeaVMTool tool) throws IOException {
+        TeaVMToolLog log = tool.getLog();
+        String token = DaemonProtocol.readToken(DaemonProtocol.getTokenFile(tokenDirectory, port));
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DaemonProtocol.writeHeader(output, token);
+            DaemonProtocol.writeSettings(tool, output);
+            List<String> classPathNames = new ArrayList<>();
+            for (File file : classPath) {
+                classPathNames.add(file.getAbsolutePath());
+            }
+            DaemonProtocol.writeStrings(output, classPathNames);
+            DaemonProtocol.writeStrings(output, transformers);
+            output.flush();
+
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                int kind = input.readByte();
+                if (kind == DaemonProtocol.RESULT) {
+                    return input.readBoolean();
+                }
+                String text = DaemonProtocol.readString(input);
+                switch (kind) {
+                    case DaemonProtocol.INFO:
+                        log.info(text);
+                        break;
+                    case DaemonProtocol.DEBUG:
+                        log.debug(text);
+                        break;
+                    case DaemonProtocol.WARNING:
+                        log.warning(text);
+                        break;
+                    case DaemonProtocol.ERROR:
+                        log.error(text);
+                        break;
+                    default:
+                        throw new IOException("Unexpected message from TeaVM daemon: " + kind);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.teavm.cache.CacheStatistics;
+import org.teavm.codegen.SourceWriter;
+import org.teavm.dependency.DependencyAgent;
+import org.teavm.dependency.DependencyListener;
+import org.teavm.dependency.FieldDependency;
+import org.teavm.dependency.MethodDependency;
+import org.teavm.diagnostics.Diagnostics;
+import org.teavm.javascript.spi.Generator;
+import org.teavm.javascript.spi.GeneratorContext;
+import org.teavm.javascript.spi.Injector;
+import org.teavm.javascript.spi.InjectorContext;
+import org.teavm.model.CallLocation;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassHolderTransformer;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Collects metrics of a single build: wall time, CPU time and peak heap usage of each {@link TeaVMPhase},
+ * time spent in each plugin, counters and statistics of caches. {@link TeaVM} measures phases and plugins
+ * by itself, when it is given metrics by {@link TeaVM#setMetrics(BuildMetrics)}. Counters and caches are
+ * added by whoever knows them, usually by {@link org.teavm.tooling.TeaVMTool}.</p>
+ *
+ * <p>Time of plugins is exclusive, i.e. when a plugin causes another plugin to run, for example, a dependency
+ * listener links a class and a class transformer runs, time of the transformer is subtracted from time of
+ * the listener. Plugins are identified by their classes, so instances of the same class are summed up.</p>
+ *
+ * <p>CPU time is CPU time of the whole process, when the JVM reports it, otherwise CPU time of the thread
+ * that runs the build. Peak heap usage is measured by memory pools of the JVM, which are shared by all
+ * threads, so the metrics are precise only when nothing else runs in the JVM. The class is thread-safe.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class BuildMetrics {
+    public static final String DEPENDENCY_LISTENER = "dependencyListener";
+    public static final String CLASS_TRANSFORMER = "classTransformer";
+    public static final String GENERATOR = "generator";
+    public static final String INJECTOR = "injector";
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    private long startTime;
+    private long startCpuTime;
+    private long wallTime = -1;
+    private long cpuTime = -1;
+    private List<PhaseMetrics> phases = new ArrayList<>();
+    private PhaseMetrics currentPhase;
+    private ConcurrentMap<String, PluginMetrics> plugins = new ConcurrentHashMap<>();
+    private ConcurrentMap<Object, String> wrappedPlugins = new ConcurrentHashMap<>();
+    private ThreadLocal<PluginCall> currentCall = new ThreadLocal<>();
+    private Map<String, AtomicLong> counters = new LinkedHashMap<>();
+    private Map<String, CacheStatistics> caches = new LinkedHashMap<>();
+
+    public BuildMetrics() {
+        startTime = System.nanoTime();
+        startCpuTime = getCpuTime();
+    }
+
+    /**
+     * <p>Finishes the previous phase and starts measuring the given one. Does nothing when the phase is
+     * already being measured.</p>
+     */
+    public synchronized void phaseStarted(TeaVMPhase phase) {
+        if (currentPhase != null && currentPhase.phase == phase) {
+            return;
+        }
+        finishPhase();
+        currentPhase = new PhaseMetrics(phase);
+        phases.add(currentPhase);
+        for (MemoryPoolMXBean pool : getHeapPools()) {
+            pool.resetPeakUsage();
+        }
+        currentPhase.startTime = System.nanoTime();
+        currentPhase.startCpuTime = getCpuTime();
+    }
+
+    /**
+     * <p>Finishes the current phase and the whole build. Metrics that are added later still get into report,
+     * but time is no longer measured.</p>
+     */
+    public synchronized void finish() {
+        finishPhase();
+        if (wallTime < 0) {
+            wallTime = System.nanoTime() - startTime;
+            cpuTime = getCpuTime() - startCpuTime;
+        }
+    }
+
+    private void finishPhase() {
+        if (currentPhase == null) {
+            return;
+        }
+        currentPhase.wallTime = System.nanoTime() - currentPhase.startTime;
+        currentPhase.cpuTime = getCpuTime() - currentPhase.startCpuTime;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : getHeapPools()) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        currentPhase.peakHeap = peakHeap;
+        currentPhase = null;
+    }
+
+    public synchronized List<PhaseMetrics> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    public List<PluginMetrics> getPlugins() {
+        List<PluginMetrics> result = new ArrayList<>(plugins.values());
+        Collections.sort(result, (a, b) -> Long.compare(b.time.get(), a.time.get()));
+        return result;
+    }
+
+    public synchronized void setCounter(String name, long value) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).set(value);
+    }
+
+    public void addToCounter(String name, long value) {
+        AtomicLong counter;
+        synchronized (this) {
+            counter = counters.computeIfAbsent(name, key -> new AtomicLong());
+        }
+        counter.addAndGet(value);
+    }
+
+    public synchronized long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * <p>Adds statistics of a cache to the report. Statistics are read when the report is written,
+     * so they may be added before the cache is used.</p>
+     */
+    public synchronized void addCache(String name, CacheStatistics statistics) {
+        caches.put(name, statistics);
+    }
+
+    public DependencyListener measureListener(DependencyListener listener) {
+        PluginMetrics metrics = getPlugin(DEPENDENCY_LISTENER, listener);
+        return new DependencyListener() {
+            @Override
+            public void started(DependencyAgent agent) {
+                PluginCall call = enter();
+                try {
+                    listener.started(agent);
+                } finally {
+                    exit(call, metrics);
+                }
+            }
+
+            @Override
+            public void classReached(DependencyAgent agent, String className, CallLocation location) {
+                PluginCall call = enter();
+                try {
+                    listener.classReached(agent, className, location);
+                } finally {
+                    exit(call, metrics);
+                }
+            }
+
+            @Override
+            public void methodReached(DependencyAgent agent, MethodDependency method, CallLocation location) {
+                PluginCall call = enter();
+                try {
+                    listener.methodReached(agent, method, location);
+                } finally {
+                    exit(call, metrics);
+                }
+            }
+
+            @Override
+            public void fieldReached(DependencyAgent agent, FieldDependency field, CallLocation location) {
+                PluginCall call = enter();
+                try {
+                    listener.fieldReached(agent, field, location);
+                } finally {
+                    exit(call, metrics);
+                }
+            }
+        };
+    }
+
+    public ClassHolderTransformer measureTransformer(ClassHolderTransformer transformer) {
+        PluginMetrics metrics = getPlugin(CLASS_TRANSFORMER, transformer);
+        return (ClassHolder cls, ClassReaderSource innerSource, Diagnostics diagnostics) -> {
+            PluginCall call = enter();
+            try {
+                transformer.transformClass(cls, innerSource, diagnostics);
+            } finally {
+                exit(call, metrics);
+            }
+        };
+    }
+
+    public Generator measureGenerator(Generator generator) {
+        PluginMetrics metrics = getPlugin(GENERATOR, generator);
+        Generator wrapper = (GeneratorContext context, SourceWriter writer, MethodReference methodRef) -> {
+            PluginCall call = enter();
+            try {
+                generator.generate(context, writer, methodRef);
+            } finally {
+                exit(call, metrics);
+            }
+        };
+        wrappedPlugins.put(wrapper, metrics.className);
+        return wrapper;
+    }
+
+    public Injector measureInjector(Injector injector) {
+        PluginMetrics metrics = getPlugin(INJECTOR, injector);
+        Injector wrapper = (InjectorContext context, MethodReference methodRef) -> {
+            PluginCall call = enter();
+            try {
+                injector.generate(context, methodRef);
+            } finally {
+                exit(call, metrics);
+            }
+        };
+        wrappedPlugins.put(wrapper, metrics.className);
+        return wrapper;
+    }
+
+    /**
+     * @return name of class of the plugin that the given generator or injector measures, or class of the given
+     * object, if it was not returned by {@link #measureGenerator(Generator)} or
+     * {@link #measureInjector(Injector)}.
+     */
+    public String getPluginClassName(Object plugin) {
+        String className = wrappedPlugins.get(plugin);
+        return className != null ? className : plugin.getClass().getName();
+    }
+
+    private PluginMetrics getPlugin(String kind, Object plugin) {
+        String className = plugin.getClass().getName();
+        return plugins.computeIfAbsent(kind + ":" + className, key -> new PluginMetrics(kind, className));
+    }
+
+    private PluginCall enter() {
+        PluginCall call = new PluginCall(currentCall.get());
+        currentCall.set(call);
+        call.startTime = System.nanoTime();
+        return call;
+    }
+
+    private void exit(PluginCall call, PluginMetrics metrics) {
+        long time = System.nanoTime() - call.startTime;
+        metrics.calls.incrementAndGet();
+        metrics.time.addAndGet(time - call.nestedTime);
+        if (call.parent != null) {
+            call.parent.nestedTime += time;
+            currentCall.set(call.parent);
+        } else {
+            currentCall.remove();
+        }
+    }
+
+    /**
+     * <p>Writes metrics as a JSON object. Times are written in milliseconds, memory in bytes.</p>
+     */
+    public synchronized void write(Writer writer) throws IOException {
+        writer.append("{\n");
+        writer.append("  \"wallTime\": ").append(millis(wallTime)).append(",\n");
+        writer.append("  \"cpuTime\": ").append(millis(cpuTime)).append(",\n");
+
+        writer.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); ++i) {
+            PhaseMetrics phase = phases.get(i);
+            writer.append(i > 0 ? ",\n" : "\n");
+            writer.append("    { \"phase\": ").append(string(phase.phase.name()))
+                    .append(", \"wallTime\": ").append(millis(phase.wallTime))
+                    .append(", \"cpuTime\": ").append(millis(phase.cpuTime))
+                    .append(", \"peakHeap\": ").append(String.valueOf(phase.peakHeap)).append(" }");
+        }
+        writer.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+
+        writer.append("  \"plugins\": [");
+        List<PluginMetrics> pluginList = getPlugins();
+        for (int i = 0; i < pluginList.size(); ++i) {
+            PluginMetrics plugin = pluginList.get(i);
+            writer.append(i > 0 ? ",\n" : "\n");
+            writer.append("    { \"kind\": ").append(string(plugin.kind))
+                    .append(", \"className\": ").append(string(plugin.className))
+                    .append(", \"calls\": ").append(String.valueOf(plugin.getCalls()))
+                    .append(", \"time\": ").append(millis(plugin.getTime())).append(" }");
+        }
+        writer.append(pluginList.isEmpty() ? "],\n" : "\n  ],\n");
+
+        writer.append("  \"counters\": {");
+        boolean first = true;
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            writer.append(first ? "\n" : ",\n");
+            first = false;
+            writer.append("    ").append(string(entry.getKey())).append(": ")
+                    .append(String.valueOf(entry.getValue().get()));
+        }
+        writer.append(counters.isEmpty() ? "},\n" : "\n  },\n");
+
+        writer.append("  \"caches\": {");
+        first = true;
+        for (Map.Entry<String, CacheStatistics> entry : caches.entrySet()) {
+            CacheStatistics statistics = entry.getValue();
+            writer.append(first ? "\n" : ",\n");
+            first = false;
+            writer.append("    ").append(string(entry.getKey()))
+                    .append(": { \"hits\": ").append(String.valueOf(statistics.getHits()))
+                    .append(", \"misses\": ").append(String.valueOf(statistics.getMisses()))
+                    .append(", \"hitRatio\": ").append(String.format(Locale.ROOT, "%.4f", statistics.getHitRatio()))
+                    .append(" }");
+        }
+        writer.append(caches.isEmpty() ? "}\n" : "\n  }\n");
+        writer.append("}\n");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    static String string(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long getCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long time = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            if (time >= 0) {
+                return time;
+            }
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    public static class PhaseMetrics {
+        final TeaVMPhase phase;
+        long startTime;
+        long startCpuTime;
+        long wallTime;
+        long cpuTime;
+        long peakHeap;
+
+        PhaseMetrics(TeaVMPhase phase) {
+            this.phase = phase;
+        }
+
+        public TeaVMPhase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return wall time in nanoseconds.
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * @return CPU time in nanoseconds.
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        /**
+         * @return peak usage of heap in bytes.
+         */
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+    }
+
+    public static class PluginMetrics {
+        final String kind;
+        final String className;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong time = new AtomicLong();
+
+        PluginMetrics(String kind, String className) {
+            this.kind = kind;
+            this.className = className;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * @return exclusive time in nanoseconds.
+         */
+        public long getTime() {
+            return time.get();
+        }
+    }
+
+    private static class PluginCall {
+        final PluginCall parent;
+        long startTime;
+        long nestedTime;
+
+        PluginCall(PluginCall parent) {
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.util.*;
+import org.teavm.callgraph.CallGraph;
+import org.teavm.callgraph.CallGraphNode;
+import org.teavm.callgraph.CallSite;
+import org.teavm.callgraph.ClassAccessSite;
+import org.teavm.callgraph.FieldAccessSite;
+import org.teavm.dependency.DependencyChecker;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+
+/**
+ * <p>Splits classes into chunks by the call graph. A chunk of a split point gets classes that are reachable
+ * from the split point, but neither from other split points, nor from methods that don't depend on split points.
+ * Reachability does not pass through split points, since they are called through stubs that load chunks.
+ * Classes that are shared between chunks stay in the main code.</p>
+ *
+ * @author Alexey Andreev
+ */
+class ChunkPartitioner {
+    private static final MethodDescriptor CLINIT = new MethodDescriptor("<clinit>", ValueType.VOID);
+    private DependencyChecker dependency;
+    private CallGraph callGraph;
+    private ClassReaderSource classSource;
+    private Set<MethodReference> splitPoints;
+
+    ChunkPartitioner(DependencyChecker dependency, Collection<MethodReference> splitPoints) {
+        this.dependency = dependency;
+        this.callGraph = dependency.getCallGraph();
+        this.classSource = dependency.getClassSource();
+        this.splitPoints = new HashSet<>();
+        for (MethodReference splitPoint : splitPoints) {
+            MethodReader method = classSource.resolve(splitPoint);
+            if (method != null && !method.hasModifier(ElementModifier.ABSTRACT)) {
+                this.splitPoints.add(method.getReference());
+            }
+        }
+    }
+
+    /**
+     * @param fileNamePrefix prefix of file names of chunks, which are followed by index of chunk.
+     * @param linkedClasses classes that are going to be rendered. Other reached classes are not put to chunks.
+     * @return chunks in order of names of their split points. Split points that don't get any classes
+     * have no chunks.
+     */
+    List<TeaVMChunk> partition(String fileNamePrefix, Collection<String> linkedClasses) {
+        List<MethodReference> orderedSplitPoints = new ArrayList<>(splitPoints);
+        orderedSplitPoints.sort(Comparator.comparing(MethodReference::toString));
+
+        Set<MethodReference> methodsReachedBySplitPoints = new HashSet<>();
+        List<Set<String>> classesBySplitPoint = new ArrayList<>();
+        for (MethodReference splitPoint : orderedSplitPoints) {
+            Reachability reachability = new Reachability();
+            reachability.start(splitPoint);
+            reachability.run();
+            methodsReachedBySplitPoints.addAll(reachability.methods);
+            classesBySplitPoint.add(reachability.classes);
+        }
+
+        // Methods that are reachable from nothing but roots can run before any split point is called,
+        // so classes they reach stay in the main code. Static initializers are linked by root whenever
+        // a field is linked, but they run only when their classes are reached. Classes that are linked by root,
+        // but are not reached by split points, stay in the main code anyway.
+        Reachability mainReachability = new Reachability();
+        for (MethodReference method : dependency.getRootMethods()) {
+            if (!method.getName().equals("<clinit>")) {
+                mainReachability.visitMethod(method);
+            }
+        }
+        for (MethodReference method : dependency.getAchievableMethods()) {
+            if (!methodsReachedBySplitPoints.contains(method) && !method.getName().equals("<clinit>")) {
+                mainReachability.visitMethod(method);
+            }
+        }
+        mainReachability.run();
+
+        Map<String, Integer> classUsage = new HashMap<>();
+        for (Set<String> classes : classesBySplitPoint) {
+            for (String className : classes) {
+                classUsage.merge(className, 1, Integer::sum);
+            }
+        }
+
+        List<TeaVMChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < orderedSplitPoints.size(); ++i) {
+            TeaVMChunk chunk = new TeaVMChunk(fileNamePrefix + (chunks.size() + 1) + ".js",
+                    orderedSplitPoints.get(i));
+            List<String> classNames = new ArrayList<>(classesBySplitPoint.get(i));
+            Collections.sort(classNames);
+            for (String className : classNames) {
+                if (classUsage.get(className) == 1 && !mainReachability.classes.contains(className)
+                        && linkedClasses.contains(className)) {
+                    chunk.addClass(className);
+                }
+            }
+            if (!chunk.getClassNames().isEmpty()) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    private class Reachability {
+        Set<MethodReference> methods = new HashSet<>();
+        Set<String> classes = new HashSet<>();
+        Deque<MethodReference> queue = new ArrayDeque<>();
+
+        void start(MethodReference method) {
+            if (methods.add(method)) {
+                queue.add(method);
+            }
+        }
+
+        void visitMethod(MethodReference method) {
+            if (!splitPoints.contains(method)) {
+                start(method);
+            }
+        }
+
+        void visitClass(String className) {
+            while (className != null && classes.add(className)) {
+                ClassReader cls = classSource.get(className);
+                if (cls == null) {
+                    break;
+                }
+                MethodReader clinit = cls.getMethod(CLINIT);
+                if (clinit != null) {
+                    visitMethod(clinit.getReference());
+                }
+                for (String iface : cls.getInterfaces()) {
+                    visitClass(iface);
+                }
+                className = cls.getParent();
+            }
+        }
+
+        void run() {
+            while (!queue.isEmpty()) {
+                MethodReference method = queue.remove();
+                visitClass(method.getClassName());
+                CallGraphNode node = callGraph.getNode(method);
+                if (node == null) {
+                    continue;
+                }
+                for (CallSite callSite : node.getCallSites()) {
+                    visitMethod(callSite.getCallee().getMethod());
+                }
+                for (ClassAccessSite accessSite : node.getClassAccessSites()) {
+                    visitClass(accessSite.getClassName());
+                }
+                for (FieldAccessSite accessSite : node.getFieldAccessSites()) {
+                    visitClass(accessSite.getField().getClassName());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.util.*;
+import org.teavm.callgraph.CallGraph;
+import org.teavm.callgraph.CallGraphNode;
+import org.teavm.callgraph.CallSite;
+import org.teavm.callgraph.ClassAccessSite;
+import org.teavm.callgraph.FieldAccessSite;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+
+/**
+ * <p>Finds why classes are reachable, i.e. the shortest chain of calls by the call graph, that starts at a method
+ * linked by the root and ends at a method that uses the class. Reachability is the same as in
+ * {@link ChunkPartitioner}: a method uses the class it belongs to and classes it accesses, a class uses its
+ * superclass, interfaces and static initializer.</p>
+ *
+ * @author Alexey Andreev
+ */
+class DependencyChainFinder {
+    private static final MethodDescriptor CLINIT = new MethodDescriptor("<clinit>", ValueType.VOID);
+    private CallGraph callGraph;
+    private ClassReaderSource classSource;
+    private Map<MethodReference, MethodReference> methodPredecessors = new HashMap<>();
+    private Map<String, Step> classSteps = new HashMap<>();
+    private Deque<MethodReference> queue = new ArrayDeque<>();
+
+    private static class Step {
+        final MethodReference method;
+        final String subclass;
+
+        Step(MethodReference method, String subclass) {
+            this.method = method;
+            this.subclass = subclass;
+        }
+    }
+
+    DependencyChainFinder(CallGraph callGraph, ClassReaderSource classSource, Collection<MethodReference> roots) {
+        this.callGraph = callGraph;
+        this.classSource = classSource;
+        List<MethodReference> orderedRoots = new ArrayList<>(roots);
+        orderedRoots.sort(Comparator.comparing(MethodReference::toString));
+        // Static initializers are linked by root whenever a field is linked, but they run only when their
+        // classes are reached, so chains start at them only when nothing else reaches their classes
+        for (MethodReference root : orderedRoots) {
+            if (!root.getName().equals("<clinit>")) {
+                visitMethod(root, null);
+            }
+        }
+        run();
+        for (MethodReference root : orderedRoots) {
+            visitMethod(root, null);
+        }
+        run();
+    }
+
+    /**
+     * @return names of methods, starting from the root, and then names of subclasses, that led to the class.
+     * Empty list, if the class is not reachable by the call graph, for example, it was linked by the root.
+     */
+    List<String> getChain(String className) {
+        LinkedList<String> chain = new LinkedList<>();
+        Step step = classSteps.get(className);
+        while (step != null && step.subclass != null) {
+            chain.addFirst(step.subclass);
+            step = classSteps.get(step.subclass);
+        }
+        if (step != null) {
+            MethodReference method = step.method;
+            while (method != null) {
+                chain.addFirst(method.toString());
+                method = methodPredecessors.get(method);
+            }
+        }
+        return new ArrayList<>(chain);
+    }
+
+    private void visitMethod(MethodReference method, MethodReference predecessor) {
+        if (!methodPredecessors.containsKey(method)) {
+            methodPredecessors.put(method, predecessor);
+            queue.add(method);
+        }
+    }
+
+    private void visitClass(String className, MethodReference method, String subclass) {
+        if (classSteps.containsKey(className)) {
+            return;
+        }
+        classSteps.put(className, new Step(method, subclass));
+        ClassReader cls = classSource.get(className);
+        if (cls == null) {
+            return;
+        }
+        MethodReader clinit = cls.getMethod(CLINIT);
+        if (clinit != null) {
+            visitMethod(clinit.getReference(), method);
+        }
+        if (cls.getParent() != null) {
+            visitClass(cls.getParent(), method, className);
+        }
+        for (String iface : cls.getInterfaces()) {
+            visitClass(iface, method, className);
+        }
+    }
+
+    private void run() {
+        while (!queue.isEmpty()) {
+            MethodReference method = queue.remove();
+            visitClass(method.getClassName(), method, null);
+            CallGraphNode node = callGraph.getNode(method);
+            if (node == null) {
+                continue;
+            }
+            // Sites are not ordered, so they are sorted to get the same chains on each build
+            List<MethodReference> callees = new ArrayList<>();
+            for (CallSite callSite : node.getCallSites()) {
+                callees.add(callSite.getCallee().getMethod());
+            }
+            callees.sort(Comparator.comparing(MethodReference::toString));
+            for (MethodReference callee : callees) {
+                visitMethod(callee, method);
+            }
+            Set<String> accessedClasses = new TreeSet<>();
+            for (ClassAccessSite accessSite : node.getClassAccessSites()) {
+                accessedClasses.add(accessSite.getClassName());
+            }
+            for (FieldAccessSite accessSite : node.getFieldAccessSites()) {
+                accessedClasses.add(accessSite.getField().getClassName());
+            }
+            for (String className : accessedClasses) {
+                visitClass(className, method, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Reads JSON that reports of TeaVM are written in. Objects are read as {@link Map}s that keep order of
+ * properties, arrays as {@link List}s, numbers as {@link Long}s or {@link Double}s.</p>
+ *
+ * @author Alexey Andreev
+ */
+class JsonReader {
+    private Reader reader;
+    private int current;
+    private int position;
+
+    private JsonReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    static Object read(Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.next();
+        Object value = jsonReader.readValue();
+        jsonReader.skipWhitespace();
+        if (jsonReader.current >= 0) {
+            throw jsonReader.error("End of input expected");
+        }
+        return value;
+    }
+
+    private Object readValue() throws IOException {
+        skipWhitespace();
+        switch (current) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                if (current == '-' || (current >= '0' && current <= '9')) {
+                    return readNumber();
+                }
+                throw error("Value expected");
+        }
+    }
+
+    private Map<String, Object> readObject() throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        next();
+        skipWhitespace();
+        if (current == '}') {
+            next();
+            return result;
+        }
+        while (true) {
+            skipWhitespace();
+            if (current != '"') {
+                throw error("Property name expected");
+            }
+            String name = readString();
+            skipWhitespace();
+            if (current != ':') {
+                throw error("':' expected");
+            }
+            next();
+            result.put(name, readValue());
+            skipWhitespace();
+            if (current == '}') {
+                next();
+                return result;
+            }
+            if (current != ',') {
+                throw error("',' or '}' expected");
+            }
+            next();
+        }
+    }
+
+    private List<Object> readArray() throws IOException {
+        List<Object> result = new ArrayList<>();
+        next();
+        skipWhitespace();
+        if (current == ']') {
+            next();
+            return result;
+        }
+        while (true) {
+            result.add(readValue());
+            skipWhitespace();
+            if (current == ']') {
+                next();
+                return result;
+            }
+            if (current != ',') {
+                throw error("',' or ']' expected");
+            }
+            next();
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        next();
+        while (current != '"') {
+            if (current < 0) {
+                throw error("Unterminated string");
+            }
+            if (current == '\\') {
+                next();
+                switch (current) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u': {
+                        int code = 0;
+                        for (int i = 0; i < 4; ++i) {
+                            next();
+                            int digit = Character.digit(current, 16);
+                            if (digit < 0) {
+                                throw error("Hexadecimal digit expected");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        sb.append((char) code);
+                        break;
+                    }
+                    default:
+                        if (current < 0) {
+                            throw error("Unterminated string");
+                        }
+                        sb.append((char) current);
+                        break;
+                }
+            } else {
+                sb.append((char) current);
+            }
+            next();
+        }
+        next();
+        return sb.toString();
+    }
+
+    private Number readNumber() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        boolean integer = true;
+        while (current == '-' || current == '+' || current == '.' || current == 'e' || current == 'E'
+                || (current >= '0' && current <= '9')) {
+            if (current == '.' || current == 'e' || current == 'E') {
+                integer = false;
+            }
+            sb.append((char) current);
+            next();
+        }
+        try {
+            return integer ? (Number) Long.parseLong(sb.toString()) : (Number) Double.parseDouble(sb.toString());
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + sb);
+        }
+    }
+
+    private void expect(String word) throws IOException {
+        for (int i = 0; i < word.length(); ++i) {
+            if (current != word.charAt(i)) {
+                throw error("'" + word + "' expected");
+            }
+            next();
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (current == ' ' || current == '\n' || current == '\r' || current == '\t') {
+            next();
+        }
+    }
+
+    private void next() throws IOException {
+        current = reader.read();
+        ++position;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at position " + position);
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+import org.teavm.javascript.CodeSizeRecorder;
+
+/**
+ * <p>Tells what the generated code consists of: sizes of classes, their methods and packages, sizes of code
+ * written by generators and injectors, of runtime functions, string constants and class metadata. For each
+ * class the report gives the chain of calls that made the class reachable. {@link TeaVM} fills the report when
+ * it is given one by {@link TeaVM#setSizeReport(OutputSizeReport)}. Sizes of files are added by whoever writes
+ * them, usually by {@link org.teavm.tooling.TeaVMTool}.</p>
+ *
+ * <p>Sizes of code are measured in characters, sizes of files in bytes. Classes, generators and injectors
+ * include code of all outputs, i.e. of the main output and of chunks. Sizes of classes include sizes of their
+ * methods, sizes of methods include code written by generators and injectors.</p>
+ *
+ * <p>The report is written either as JSON, that can be read back by {@link #read(Reader)}, or as HTML.
+ * When the report is given a report of another build by {@link #setBaseline(OutputSizeReport)}, it also
+ * tells how sizes changed since that build.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class OutputSizeReport {
+    public static final String CLASSES = "classes";
+    public static final String RUNTIME = "runtime";
+    public static final String STRING_POOL = "stringPool";
+    public static final String METADATA = "metadata";
+    public static final String OTHER = "other";
+    private Map<String, Long> outputs = new LinkedHashMap<>();
+    private Map<String, Long> files = new LinkedHashMap<>();
+    private Map<String, Long> sections = new LinkedHashMap<>();
+    private Map<String, Long> runtime = new HashMap<>();
+    private Map<String, Long> generators = new HashMap<>();
+    private Map<String, Long> injectors = new HashMap<>();
+    private Map<String, ClassSize> classes = new HashMap<>();
+    private OutputSizeReport baseline;
+
+    public static class ClassSize {
+        final String name;
+        long size;
+        Map<String, Long> methods = new HashMap<>();
+        List<String> dependencyChain = new ArrayList<>();
+
+        ClassSize(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return sizes of functions of methods by descriptors of methods.
+         */
+        public Map<String, Long> getMethods() {
+            return Collections.unmodifiableMap(methods);
+        }
+
+        /**
+         * @return methods, starting from a method linked by the root, and then subclasses, that made the class
+         * reachable. Empty list, if the class is not reachable by the call graph, for example, when it is
+         * linked by the root.
+         */
+        public List<String> getDependencyChain() {
+            return Collections.unmodifiableList(dependencyChain);
+        }
+    }
+
+    void addOutput(String name, long size) {
+        outputs.merge(name, size, Long::sum);
+    }
+
+    void collect(CodeSizeRecorder recorder, DependencyChainFinder chainFinder) {
+        for (Map.Entry<String, Long> entry : recorder.getSizes(CodeSizeRecorder.Kind.CLASS).entrySet()) {
+            ClassSize cls = new ClassSize(entry.getKey());
+            cls.size = entry.getValue();
+            cls.methods.putAll(recorder.getMethodSizes(cls.name));
+            if (chainFinder != null) {
+                cls.dependencyChain.addAll(chainFinder.getChain(cls.name));
+            }
+            classes.put(cls.name, cls);
+        }
+        runtime.putAll(recorder.getSizes(CodeSizeRecorder.Kind.RUNTIME));
+        generators.putAll(recorder.getSizes(CodeSizeRecorder.Kind.GENERATOR));
+        injectors.putAll(recorder.getSizes(CodeSizeRecorder.Kind.INJECTOR));
+
+        sections.clear();
+        sections.put(CLASSES, recorder.getTopLevelSize(CodeSizeRecorder.Kind.CLASS));
+        sections.put(RUNTIME, recorder.getTopLevelSize(CodeSizeRecorder.Kind.RUNTIME));
+        sections.put(STRING_POOL, recorder.getTopLevelSize(CodeSizeRecorder.Kind.STRING_POOL));
+        sections.put(METADATA, recorder.getTopLevelSize(CodeSizeRecorder.Kind.METADATA));
+        long known = 0;
+        for (long size : sections.values()) {
+            known += size;
+        }
+        sections.put(OTHER, getTotal() - known);
+    }
+
+    /**
+     * <p>Adds size of a written file, in bytes.</p>
+     */
+    public void addFile(String name, long size) {
+        files.put(name, size);
+    }
+
+    /**
+     * @return size of all generated code in characters.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long size : outputs.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    /**
+     * @return sizes of generated code by outputs: <code>main</code> for the main output, and names of files
+     * for chunks.
+     */
+    public Map<String, Long> getOutputs() {
+        return Collections.unmodifiableMap(outputs);
+    }
+
+    public Map<String, Long> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * @return sizes of parts of generated code: {@link #CLASSES}, {@link #RUNTIME}, {@link #STRING_POOL},
+     * {@link #METADATA} and {@link #OTHER}, that includes entry points and code that renderer listeners
+     * wrote after runtime.
+     */
+    public Map<String, Long> getSections() {
+        return Collections.unmodifiableMap(sections);
+    }
+
+    /**
+     * @return sizes of runtime functions by what wrote them, i.e. by the renderer or by renderer listeners.
+     */
+    public Map<String, Long> getRuntime() {
+        return Collections.unmodifiableMap(runtime);
+    }
+
+    /**
+     * @return sizes of code written by generators, by classes of generators.
+     */
+    public Map<String, Long> getGenerators() {
+        return Collections.unmodifiableMap(generators);
+    }
+
+    /**
+     * @return sizes of code written by injectors, by classes of injectors.
+     */
+    public Map<String, Long> getInjectors() {
+        return Collections.unmodifiableMap(injectors);
+    }
+
+    public Map<String, Long> getPackages() {
+        Map<String, Long> packages = new HashMap<>();
+        for (ClassSize cls : classes.values()) {
+            int index = cls.name.lastIndexOf('.');
+            packages.merge(index >= 0 ? cls.name.substring(0, index) : "", cls.size, Long::sum);
+        }
+        return packages;
+    }
+
+    public Collection<ClassSize> getClasses() {
+        return Collections.unmodifiableCollection(classes.values());
+    }
+
+    public ClassSize getClassSize(String className) {
+        return classes.get(className);
+    }
+
+    public OutputSizeReport getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * <p>Specifies report of another build, usually read by {@link #read(Reader)}, that this report is compared
+     * to when it is written.</p>
+     */
+    public void setBaseline(OutputSizeReport baseline) {
+        this.baseline = baseline;
+    }
+
+    private Map<String, Long> getClassSizes() {
+        Map<String, Long> result = new HashMap<>();
+        for (ClassSize cls : classes.values()) {
+            result.put(cls.name, cls.size);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Writes the report as a JSON object. When there is a baseline, the object has <code>diff</code> property,
+     * that gives changes of sizes that are not zero.</p>
+     */
+    public void write(Writer writer) throws IOException {
+        writer.append("{\n");
+        writer.append("  \"total\": ").append(String.valueOf(getTotal())).append(",\n");
+        writeSizes(writer, "outputs", outputs, false);
+        writeSizes(writer, "files", files, false);
+        writeSizes(writer, "sections", sections, false);
+        writeSizes(writer, "runtime", runtime, true);
+        writeSizes(writer, "generators", generators, true);
+        writeSizes(writer, "injectors", injectors, true);
+        writeSizes(writer, "packages", getPackages(), true);
+
+        writer.append("  \"classes\": [");
+        List<ClassSize> classList = sortClasses(classes.values());
+        for (int i = 0; i < classList.size(); ++i) {
+            ClassSize cls = classList.get(i);
+            writer.append(i > 0 ? ",\n" : "\n");
+            writer.append("    { \"name\": ").append(BuildMetrics.string(cls.name))
+                    .append(", \"size\": ").append(String.valueOf(cls.size)).append(", \"methods\": {");
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : sort(cls.methods)) {
+                writer.append(first ? " " : ", ");
+                first = false;
+                writer.append(BuildMetrics.string(entry.getKey())).append(": ")
+                        .append(String.valueOf(entry.getValue()));
+            }
+            writer.append(cls.methods.isEmpty() ? "}" : " }").append(", \"dependencyChain\": [");
+            for (int j = 0; j < cls.dependencyChain.size(); ++j) {
+                writer.append(j > 0 ? ", " : "").append(BuildMetrics.string(cls.dependencyChain.get(j)));
+            }
+            writer.append("] }");
+        }
+        writer.append(classList.isEmpty() ? "]" : "\n  ]");
+
+        if (baseline != null) {
+            writer.append(",\n  \"diff\": {\n");
+            writer.append("    \"total\": ").append(String.valueOf(getTotal() - baseline.getTotal()));
+            writeDiff(writer, "outputs", outputs, baseline.outputs);
+            writeDiff(writer, "files", files, baseline.files);
+            writeDiff(writer, "sections", sections, baseline.sections);
+            writeDiff(writer, "runtime", runtime, baseline.runtime);
+            writeDiff(writer, "generators", generators, baseline.generators);
+            writeDiff(writer, "injectors", injectors, baseline.injectors);
+            writeDiff(writer, "packages", getPackages(), baseline.getPackages());
+            writeDiff(writer, "classes", getClassSizes(), baseline.getClassSizes());
+            writer.append("\n  }");
+        }
+        writer.append("\n}\n");
+    }
+
+    private static void writeSizes(Writer writer, String name, Map<String, Long> sizes, boolean sorted)
+            throws IOException {
+        writer.append("  ").append(BuildMetrics.string(name)).append(": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : sorted ? sort(sizes) : sizes.entrySet()) {
+            writer.append(first ? "\n" : ",\n");
+            first = false;
+            writer.append("    ").append(BuildMetrics.string(entry.getKey())).append(": ")
+                    .append(String.valueOf(entry.getValue()));
+        }
+        writer.append(sizes.isEmpty() ? "},\n" : "\n  },\n");
+    }
+
+    private static void writeDiff(Writer writer, String name, Map<String, Long> sizes, Map<String, Long> baseSizes)
+            throws IOException {
+        Map<String, Long> diff = diff(sizes, baseSizes);
+        writer.append(",\n    ").append(BuildMetrics.string(name)).append(": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : diff.entrySet()) {
+            writer.append(first ? "\n" : ",\n");
+            first = false;
+            writer.append("      ").append(BuildMetrics.string(entry.getKey())).append(": ")
+                    .append(String.valueOf(entry.getValue()));
+        }
+        writer.append(diff.isEmpty() ? "}" : "\n    }");
+    }
+
+    /**
+     * @return changes of sizes that are not zero, ordered by their absolute values, greatest first.
+     */
+    private static Map<String, Long> diff(Map<String, Long> sizes, Map<String, Long> baseSizes) {
+        Map<String, Long> diff = new HashMap<>();
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+            diff.put(entry.getKey(), entry.getValue() - baseSizes.getOrDefault(entry.getKey(), 0L));
+        }
+        for (Map.Entry<String, Long> entry : baseSizes.entrySet()) {
+            if (!sizes.containsKey(entry.getKey())) {
+                diff.put(entry.getKey(), -entry.getValue());
+            }
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(diff.entrySet());
+        entries.removeIf(entry -> entry.getValue() == 0);
+        entries.sort(Comparator.comparing((Map.Entry<String, Long> entry) -> -Math.abs(entry.getValue()))
+                .thenComparing(Map.Entry::getKey));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static List<Map.Entry<String, Long>> sort(Map<String, Long> sizes) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(sizes.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<String, Long> entry) -> -entry.getValue())
+                .thenComparing(Map.Entry::getKey));
+        return entries;
+    }
+
+    private static List<ClassSize> sortClasses(Collection<ClassSize> classes) {
+        List<ClassSize> result = new ArrayList<>(classes);
+        result.sort(Comparator.comparing((ClassSize cls) -> -cls.size).thenComparing(cls -> cls.name));
+        return result;
+    }
+
+    /**
+     * <p>Writes the report as a single HTML page.</p>
+     */
+    public void writeHtml(Writer writer) throws IOException {
+        writer.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n")
+                .append("<title>TeaVM output size report</title>\n<style>\n")
+                .append("body { font-family: sans-serif; font-size: 14px; }\n")
+                .append("table { border-collapse: collapse; margin-bottom: 24px; }\n")
+                .append("th, td { border: 1px solid #ccc; padding: 2px 8px; vertical-align: top; }\n")
+                .append("td.size { text-align: right; font-family: monospace; }\n")
+                .append("summary { cursor: pointer; }\n")
+                .append(".grown { color: #b00; }\n.shrunk { color: #070; }\n")
+                .append("</style>\n</head>\n<body>\n");
+        writer.append("<h1>TeaVM output size report</h1>\n");
+        long total = getTotal();
+        writer.append("<p>Total size of generated code is ").append(String.valueOf(getTotal()))
+                .append(" characters");
+        if (baseline != null) {
+            writer.append(" (").append(formatDelta(getTotal() - baseline.getTotal())).append(" since baseline)");
+        }
+        writer.append(".</p>\n");
+
+        long fileTotal = 0;
+        for (long size : files.values()) {
+            fileTotal += size;
+        }
+        writeHtmlTable(writer, "Files, bytes", files, baseline != null ? baseline.files : null, false, fileTotal);
+        writeHtmlTable(writer, "Outputs", outputs, baseline != null ? baseline.outputs : null, false, total);
+        writeHtmlTable(writer, "Sections", sections, baseline != null ? baseline.sections : null, false, total);
+        writeHtmlTable(writer, "Packages", getPackages(), baseline != null ? baseline.getPackages() : null, true,
+                total);
+
+        writer.append("<h2>Classes</h2>\n<table>\n<tr><th>Class</th><th>Size</th><th>Share</th>");
+        if (baseline != null) {
+            writer.append("<th>Change</th>");
+        }
+        writer.append("</tr>\n");
+        Map<String, Long> baseClasses = baseline != null ? baseline.getClassSizes() : null;
+        for (ClassSize cls : sortClasses(classes.values())) {
+            writer.append("<tr><td><details><summary>").append(escapeHtml(cls.name)).append("</summary>\n");
+            if (!cls.methods.isEmpty()) {
+                writer.append("<table>\n");
+                for (Map.Entry<String, Long> method : sort(cls.methods)) {
+                    writer.append("<tr><td>").append(escapeHtml(method.getKey())).append("</td><td class=\"size\">")
+                            .append(String.valueOf(method.getValue())).append("</td></tr>\n");
+                }
+                writer.append("</table>\n");
+            }
+            writer.append("<p>Reached by:</p>\n<ol>\n");
+            if (cls.dependencyChain.isEmpty()) {
+                writer.append("<li>root</li>\n");
+            }
+            for (String step : cls.dependencyChain) {
+                writer.append("<li>").append(escapeHtml(step)).append("</li>\n");
+            }
+            writer.append("</ol>\n</details></td>");
+            writeHtmlSizes(writer, cls.size, total, baseClasses != null
+                    ? (Long) (cls.size - baseClasses.getOrDefault(cls.name, 0L)) : null);
+            writer.append("</tr>\n");
+        }
+        if (baseClasses != null) {
+            List<String> removedClasses = new ArrayList<>(baseClasses.keySet());
+            removedClasses.removeAll(classes.keySet());
+            Collections.sort(removedClasses);
+            for (String className : removedClasses) {
+                writer.append("<tr><td>").append(escapeHtml(className)).append(" (removed)</td>");
+                writeHtmlSizes(writer, 0, total, -baseClasses.get(className));
+                writer.append("</tr>\n");
+            }
+        }
+        writer.append("</table>\n");
+
+        writeHtmlTable(writer, "Generators", generators, baseline != null ? baseline.generators : null, true,
+                total);
+        writeHtmlTable(writer, "Injectors", injectors, baseline != null ? baseline.injectors : null, true, total);
+        writeHtmlTable(writer, "Runtime", runtime, baseline != null ? baseline.runtime : null, true, total);
+        writer.append("</body>\n</html>\n");
+    }
+
+    private void writeHtmlTable(Writer writer, String title, Map<String, Long> sizes, Map<String, Long> baseSizes,
+            boolean sorted, long total) throws IOException {
+        writer.append("<h2>").append(escapeHtml(title)).append("</h2>\n<table>\n<tr><th>Name</th><th>Size</th>")
+                .append("<th>Share</th>");
+        if (baseSizes != null) {
+            writer.append("<th>Change</th>");
+        }
+        writer.append("</tr>\n");
+        Map<String, Long> allSizes = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : sorted ? sort(sizes) : sizes.entrySet()) {
+            allSizes.put(entry.getKey(), entry.getValue());
+        }
+        if (baseSizes != null) {
+            for (String name : baseSizes.keySet()) {
+                allSizes.putIfAbsent(name, 0L);
+            }
+        }
+        for (Map.Entry<String, Long> entry : allSizes.entrySet()) {
+            writer.append("<tr><td>").append(escapeHtml(entry.getKey().isEmpty() ? "(default)" : entry.getKey()))
+                    .append("</td>");
+            writeHtmlSizes(writer, entry.getValue(), total, baseSizes != null
+                    ? (Long) (entry.getValue() - baseSizes.getOrDefault(entry.getKey(), 0L)) : null);
+            writer.append("</tr>\n");
+        }
+        writer.append("</table>\n");
+    }
+
+    private static void writeHtmlSizes(Writer writer, long size, long total, Long delta) throws IOException {
+        writer.append("<td class=\"size\">").append(String.valueOf(size)).append("</td>");
+        writer.append("<td class=\"size\">").append(total > 0
+                ? String.format(Locale.ROOT, "%.2f%%", size * 100.0 / total) : "").append("</td>");
+        if (delta != null) {
+            writer.append("<td class=\"size").append(delta > 0 ? " grown" : delta < 0 ? " shrunk" : "")
+                    .append("\">").append(delta != 0 ? formatDelta(delta) : "").append("</td>");
+        }
+    }
+
+    private static String formatDelta(long delta) {
+        return delta > 0 ? "+" + delta : String.valueOf(delta);
+    }
+
+    private static String escapeHtml(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * <p>Reads a report written by {@link #write(Writer)}. The report that is read has no baseline.</p>
+     */
+    public static OutputSizeReport read(Reader reader) throws IOException {
+        Object json = JsonReader.read(reader);
+        if (!(json instanceof Map)) {
+            throw new IOException("Size report expected to be a JSON object");
+        }
+        Map<?, ?> object = (Map<?, ?>) json;
+        OutputSizeReport report = new OutputSizeReport();
+        readSizes(object.get("outputs"), report.outputs);
+        readSizes(object.get("files"), report.files);
+        readSizes(object.get("sections"), report.sections);
+        readSizes(object.get("runtime"), report.runtime);
+        readSizes(object.get("generators"), report.generators);
+        readSizes(object.get("injectors"), report.injectors);
+        Object classList = object.get("classes");
+        if (classList instanceof List) {
+            for (Object item : (List<?>) classList) {
+                if (!(item instanceof Map)) {
+                    throw new IOException("Class entry expected to be a JSON object");
+                }
+                Map<?, ?> clsObject = (Map<?, ?>) item;
+                ClassSize cls = new ClassSize(String.valueOf(clsObject.get("name")));
+                cls.size = readSize(clsObject.get("size"));
+                readSizes(clsObject.get("methods"), cls.methods);
+                Object chain = clsObject.get("dependencyChain");
+                if (chain instanceof List) {
+                    for (Object step : (List<?>) chain) {
+                        cls.dependencyChain.add(String.valueOf(step));
+                    }
+                }
+                report.classes.put(cls.name, cls);
+            }
+        }
+        return report;
+    }
+
+    private static void readSizes(Object json, Map<String, Long> target) throws IOException {
+        if (json == null) {
+            return;
+        }
+        if (!(json instanceof Map)) {
+            throw new IOException("Sizes expected to be a JSON object");
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) json).entrySet()) {
+            target.put((String) entry.getKey(), readSize(entry.getValue()));
+        }
+    }
+
+    private static long readSize(Object json) throws IOException {
+        if (!(json instanceof Number)) {
+            throw new IOException("Size expected to be a number");
+        }
+        return ((Number) json).longValue();
+    }
+}
@@ -17,20 +17,27 @@ package org.teavm.vm;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.teavm.cache.NoCache;
 import org.teavm.codegen.*;
 import org.teavm.common.ServiceRepository;
 import org.teavm.debugging.information.DebugInformationEmitter;
+import org.teavm.debugging.information.DummyDebugInformationEmitter;
 import org.teavm.debugging.information.SourceLocation;
 import org.teavm.dependency.*;
 import org.teavm.diagnostics.AccumulationDiagnostics;
 import org.teavm.diagnostics.ProblemProvider;
 import org.teavm.javascript.*;
 import org.teavm.javascript.ast.ClassNode;
+import org.teavm.javascript.ast.MethodNode;
 import org.teavm.javascript.spi.GeneratedBy;
 import org.teavm.javascript.spi.Generator;
 import org.teavm.javascript.spi.InjectedBy;
 import org.teavm.javascript.spi.Injector;
+import org.teavm.javascript.spi.SplitPoint;
 import org.teavm.model.*;
 import org.teavm.model.instructions.*;
 import org.teavm.model.util.*;
@@ -87,11 +94,24 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
     private ProgramCache programCache;
     private MethodNodeCache astCache = new EmptyRegularMethodNodeCache();
     private boolean incremental;
+    private DependencySnapshotCache dependencySnapshotCache;
+    private boolean dependencySnapshotReused;
     private TeaVMProgressListener progressListener;
     private boolean cancelled;
     private ListableClassHolderSource writtenClasses;
     private Set<MethodReference> asyncMethods = new HashSet<>();
     private Set<MethodReference> asyncFamilyMethods = new HashSet<>();
+    private int numThreads = 1;
+    private BuildMetrics metrics;
+    private AtomicInteger optimizedMethodCount = new AtomicInteger();
+    private boolean codeSplitting;
+    private Set<MethodReference> splitPoints = new LinkedHashSet<>();
+    private String chunkFileNamePrefix = "chunk-";
+    private Function<String, DebugInformationEmitter> chunkDebugEmitterFactory;
+    private List<TeaVMChunk> chunks = Collections.emptyList();
+    private ClassFragmentCache fragmentCache;
+    private OutputSizeReport sizeReport;
+    private boolean stringPoolPacked;
 
     TeaVM(ClassReaderSource classSource, ClassLoader classLoader) {
         this.classSource = classSource;
@@ -109,21 +129,22 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
 
     @Override
     public void add(DependencyListener listener) {
-        dependencyChecker.addDependencyListener(listener);
+        dependencyChecker.addDependencyListener(metrics != null ? metrics.measureListener(listener) : listener);
     }
 
     @Override
     public void add(ClassHolderTransformer transformer) {
-        dependencyChecker.addClassTransformer(transformer);
+        dependencyChecker.addClassTransformer(metrics != null ? metrics.measureTransformer(transformer) : transformer);
     }
 
     @Override
     public void add(MethodReference methodRef, Generator generator) {
-        methodGenerators.put(methodRef, generator);
+        methodGenerators.put(methodRef, metrics != null ? metrics.measureGenerator(generator) : generator);
     }
 
     @Override
     public void add(MethodReference methodRef, Injector injector) {
+        // Injector is measured by renderer, so that renderer knows which class of injector it uses
         methodInjectors.put(methodRef, injector);
     }
 
@@ -213,6 +234,57 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         this.incremental = incremental;
     }
 
+    public DependencySnapshotCache getDependencySnapshotCache() {
+        return dependencySnapshotCache;
+    }
+
+    /**
+     * <p>Specifies where TeaVM keeps results of dependency analysis between builds. When the cache has
+     * a snapshot taken with the same entry points, plugins and properties from the same classes,
+     * dependency analysis replays it instead of analyzing every reachable method again.
+     * Should be called before entry points are added, since they are part of snapshot configuration.</p>
+     *
+     * @param dependencySnapshotCache cache or {@code null} if dependency analysis should not be cached.
+     */
+    public void setDependencySnapshotCache(DependencySnapshotCache dependencySnapshotCache) {
+        this.dependencySnapshotCache = dependencySnapshotCache;
+        dependencyChecker.setSnapshotRecording(dependencySnapshotCache != null);
+    }
+
+    /**
+     * <p>Reports whether the last build replayed dependency analysis from a snapshot.</p>
+     */
+    public boolean wasDependencySnapshotReused() {
+        return dependencySnapshotReused;
+    }
+
+    /**
+     * Reports how many threads TeaVM uses to propagate types, optimize and decompile methods.
+     *
+     * @see #setNumThreads(int)
+     * @return number of threads, or {@code 0} if TeaVM uses as many threads as there are available processors.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * <p>Specifies how many threads TeaVM uses to propagate types during dependency analysis, to optimize
+     * methods, allocate registers, decompile and render classes. Methods and classes are processed independently
+     * of each other, so when more than one thread is given, they are processed concurrently.
+     * The generated code does not depend on this setting.</p>
+     *
+     * @param numThreads number of threads. {@code 1} means that everything happens in the calling thread,
+     * {@code 0} means that TeaVM uses as many threads as there are available processors.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("Number of threads must not be negative: " + numThreads);
+        }
+        this.numThreads = numThreads;
+        dependencyChecker.setNumThreads(numThreads);
+    }
+
     public TeaVMProgressListener getProgressListener() {
         return progressListener;
     }
@@ -221,6 +293,32 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         this.progressListener = progressListener;
     }
 
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * <p>Specifies where to collect metrics of the build. Plugins are measured only when they are added after
+     * this call, so metrics should be specified before {@link #installPlugins()}. The build does not
+     * {@link BuildMetrics#finish() finish} metrics, since the caller may have more work to measure.</p>
+     */
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private String describeSnapshotConfiguration() {
+        StringBuilder sb = new StringBuilder(dependencyChecker.describeConfiguration());
+        for (String property : new TreeSet<>(properties.stringPropertyNames())) {
+            if (property.equals("sun.java.command")) {
+                // Command line tools pass system properties, this one differs with every change of arguments
+                continue;
+            }
+            sb.append("property ").append(property).append('=').append(properties.getProperty(property))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
     public boolean wasCancelled() {
         return cancelled;
     }
@@ -279,6 +377,20 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         return entryPoint;
     }
 
+    /**
+     * <p>Adds a split point, i.e. a method whose code is loaded on demand. The method is linked like
+     * an entry point, so it may be a method that is called by JavaScript code only. Methods annotated
+     * by {@link SplitPoint} are split points as well. Split points take effect only when code splitting
+     * is enabled, see {@link #setCodeSplitting(boolean)}.</p>
+     *
+     * @param ref a full reference to the method.
+     * @return an entry point that you can additionally adjust.
+     */
+    public TeaVMEntryPoint addSplitPoint(MethodReference ref) {
+        splitPoints.add(ref);
+        return linkMethod(ref);
+    }
+
     public void exportType(String name, String className) {
         if (exportedClasses.containsKey(name)) {
             throw new IllegalArgumentException("Class with public name `" + name + "' already defined for class "
@@ -331,6 +443,93 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         return debugEmitter;
     }
 
+    public boolean isCodeSplitting() {
+        return codeSplitting;
+    }
+
+    /**
+     * <p>Specifies whether TeaVM splits code into the main file and chunks that are loaded on demand.
+     * Each split point gets a chunk with classes that only the split point uses. A stub with the name of the split
+     * point remains in the main file and loads the chunk on the first call. Chunks are written to
+     * the build target, see {@link #getChunks()}. The main file does not change when there are no split points.
+     * </p>
+     *
+     * <p>Chunks are loaded synchronously, since a call to a split point can't be suspended in general.</p>
+     */
+    public void setCodeSplitting(boolean codeSplitting) {
+        this.codeSplitting = codeSplitting;
+    }
+
+    public String getChunkFileNamePrefix() {
+        return chunkFileNamePrefix;
+    }
+
+    /**
+     * <p>Specifies how chunks are named. A name of a chunk consists of the prefix, index of the chunk and
+     * the <code>.js</code> extension. Default prefix is <code>chunk-</code>.</p>
+     */
+    public void setChunkFileNamePrefix(String chunkFileNamePrefix) {
+        this.chunkFileNamePrefix = chunkFileNamePrefix;
+    }
+
+    public Function<String, DebugInformationEmitter> getChunkDebugEmitterFactory() {
+        return chunkDebugEmitterFactory;
+    }
+
+    /**
+     * <p>Specifies how to create debug information emitters for chunks. Locations in a chunk are relative to
+     * the file of the chunk, so each chunk needs its own debug information.</p>
+     *
+     * @param chunkDebugEmitterFactory takes file name of a chunk and returns emitter, or <code>null</code>
+     * if debug information for the chunk is not needed.
+     */
+    public void setChunkDebugEmitterFactory(Function<String, DebugInformationEmitter> chunkDebugEmitterFactory) {
+        this.chunkDebugEmitterFactory = chunkDebugEmitterFactory;
+    }
+
+    public ClassFragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * <p>Specifies cache that keeps rendered code of classes, so that the next build in the same process renders
+     * only classes that changed, see {@link ClassFragmentCache}.</p>
+     */
+    public void setFragmentCache(ClassFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    public boolean isStringPoolPacked() {
+        return stringPoolPacked;
+    }
+
+    /**
+     * <p>Specifies whether string constants are written as a single string literal, see
+     * {@link Renderer#setStringPoolPacked(boolean)}.</p>
+     */
+    public void setStringPoolPacked(boolean stringPoolPacked) {
+        this.stringPoolPacked = stringPoolPacked;
+    }
+
+    public OutputSizeReport getSizeReport() {
+        return sizeReport;
+    }
+
+    /**
+     * <p>Specifies report to fill with sizes of generated code, see {@link OutputSizeReport}. Measuring sizes
+     * makes rendering a bit slower, so it is off by default. Each build should be given a new report.</p>
+     */
+    public void setSizeReport(OutputSizeReport sizeReport) {
+        this.sizeReport = sizeReport;
+    }
+
+    /**
+     * @return chunks that were written by the last build, in order of their indexes.
+     */
+    public List<TeaVMChunk> getChunks() {
+        return chunks;
+    }
+
     public void setDebugEmitter(DebugInformationEmitter debugEmitter) {
         this.debugEmitter = debugEmitter;
     }
@@ -387,10 +586,23 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         exceptionCons.use();
         exceptionCons.getVariable(0).propagate(dependencyChecker.getType(NoSuchMethodError.class.getName()));
         exceptionCons.getVariable(1).propagate(dependencyChecker.getType("java.lang.String"));
+        String snapshotConfiguration = null;
+        dependencySnapshotReused = false;
+        if (dependencySnapshotCache != null) {
+            snapshotConfiguration = describeSnapshotConfiguration();
+            DependencySnapshot snapshot = dependencySnapshotCache.get(snapshotConfiguration);
+            if (snapshot != null) {
+                dependencyChecker.replay(snapshot);
+                dependencySnapshotReused = true;
+            }
+        }
         dependencyChecker.processDependencies();
         if (wasCancelled() || !diagnostics.getSevereProblems().isEmpty()) {
             return;
         }
+        if (dependencySnapshotCache != null && !dependencyChecker.wasInterrupted()) {
+            dependencySnapshotCache.store(dependencyChecker.createSnapshot(snapshotConfiguration));
+        }
 
         // Link
         reportPhase(TeaVMPhase.LINKING, 1);
@@ -412,6 +624,25 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         }
 
         List<ClassNode> clsNodes = modelToAst(classSet);
+        chunks = codeSplitting ? new ChunkPartitioner(dependencyChecker, collectSplitPoints(classSet))
+                .partition(chunkFileNamePrefix, classSet.getClassNames()) : Collections.emptyList();
+        Map<String, TeaVMChunk> chunksByClass = new HashMap<>();
+        Map<MethodReference, String> splitPointChunks = new HashMap<>();
+        for (TeaVMChunk chunk : chunks) {
+            for (String className : chunk.getClassNames()) {
+                chunksByClass.put(className, chunk);
+            }
+            splitPointChunks.put(chunk.getSplitPoint(), chunk.getFileName());
+        }
+        if (metrics != null) {
+            int methodCount = 0;
+            for (String className : classSet.getClassNames()) {
+                methodCount += classSet.get(className).getMethods().size();
+            }
+            metrics.setCounter("linkedClasses", classSet.getClassNames().size());
+            metrics.setCounter("linkedMethods", methodCount);
+            metrics.setCounter("optimizedMethods", optimizedMethodCount.get());
+        }
 
         // Render
         reportPhase(TeaVMPhase.RENDERING, classSet.getClassNames().size());
@@ -425,15 +656,32 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         SourceWriter sourceWriter = builder.build(writer);
         Renderer renderer = new Renderer(sourceWriter, classSet, classLoader, this, asyncMethods, asyncFamilyMethods,
                 diagnostics);
+        if (metrics != null) {
+            renderer.setInjectorWrapper(metrics::measureInjector);
+        }
         renderer.setProperties(properties);
         renderer.setMinifying(minifying);
+        renderer.setStringPoolPacked(stringPoolPacked);
+        renderer.setNumThreads(numThreads != 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+        renderer.setSplitPoints(splitPointChunks);
+        renderer.setFragmentCache(fragmentCache);
+        CodeSizeRecorder sizeRecorder = null;
+        if (sizeReport != null) {
+            sizeRecorder = new CodeSizeRecorder();
+            if (metrics != null) {
+                sizeRecorder.setPluginNaming(metrics::getPluginClassName);
+            }
+            renderer.setSizeRecorder(sizeRecorder);
+        }
         if (debugEmitter != null) {
             int classIndex = 0;
             for (String className : classSet.getClassNames()) {
                 ClassHolder cls = classSet.get(className);
-                for (MethodHolder method : cls.getMethods()) {
-                    if (method.getProgram() != null) {
-                        emitCFG(debugEmitter, method.getProgram());
+                if (!chunksByClass.containsKey(className)) {
+                    for (MethodHolder method : cls.getMethods()) {
+                        if (method.getProgram() != null && !splitPointChunks.containsKey(method.getReference())) {
+                            emitCFG(debugEmitter, method.getProgram());
+                        }
                     }
                 }
                 reportProgress(++classIndex);
@@ -449,11 +697,29 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         }
         try {
             for (RendererListener listener : rendererListeners) {
+                if (sizeRecorder != null) {
+                    sizeRecorder.enter(CodeSizeRecorder.Kind.RUNTIME, listener.getClass().getName(),
+                            sourceWriter.getOffset());
+                }
                 listener.begin(renderer, target);
+                if (sizeRecorder != null) {
+                    sizeRecorder.exit(sourceWriter.getOffset());
+                }
             }
             sourceWriter.append("\"use strict\";").newLine();
             renderer.renderRuntime();
-            renderer.render(clsNodes);
+            List<ClassNode> mainClsNodes = new ArrayList<>();
+            for (ClassNode clsNode : clsNodes) {
+                if (!chunksByClass.containsKey(clsNode.getName())) {
+                    mainClsNodes.add(clsNode);
+                }
+            }
+            renderer.render(mainClsNodes);
+            for (TeaVMChunk chunk : chunks) {
+                if (chunksByClass.get(chunk.getSplitPoint().getClassName()) == chunk) {
+                    renderer.renderSplitPoint(findMethodNode(clsNodes, chunk.getSplitPoint()));
+                }
+            }
             renderer.renderStringPool();
             for (Map.Entry<String, TeaVMEntryPoint> entry : entryPoints.entrySet()) {
                 sourceWriter.append("var ").append(entry.getKey()).ws().append("=").ws();
@@ -468,11 +734,99 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
             for (RendererListener listener : rendererListeners) {
                 listener.complete();
             }
+            if (sizeReport != null) {
+                sizeReport.addOutput("main", sourceWriter.getOffset());
+            }
+            for (TeaVMChunk chunk : chunks) {
+                renderChunk(renderer, builder, chunk, clsNodes, classSet, target);
+            }
+            if (sizeReport != null) {
+                sizeReport.collect(sizeRecorder, new DependencyChainFinder(dependencyChecker.getCallGraph(),
+                        dependencyChecker.getClassSource(), dependencyChecker.getRootMethods()));
+            }
+            if (metrics != null && fragmentCache != null) {
+                metrics.addCache("fragments", fragmentCache.getStatistics());
+            }
         } catch (IOException e) {
             throw new RenderingException("IO Error occured", e);
         }
     }
 
+    private Set<MethodReference> collectSplitPoints(ListableClassHolderSource classes) {
+        Set<MethodReference> result = new HashSet<>(splitPoints);
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getAnnotations().get(SplitPoint.class.getName()) != null) {
+                    result.add(method.getReference());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static MethodNode findMethodNode(List<ClassNode> clsNodes, MethodReference method) {
+        for (ClassNode clsNode : clsNodes) {
+            if (clsNode.getName().equals(method.getClassName())) {
+                for (MethodNode methodNode : clsNode.getMethods()) {
+                    if (methodNode.getReference().equals(method)) {
+                        return methodNode;
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("Split point " + method + " was not decompiled");
+    }
+
+    private void renderChunk(Renderer renderer, SourceWriterBuilder builder, TeaVMChunk chunk,
+            List<ClassNode> clsNodes, ListableClassHolderSource classSet, BuildTarget target) throws IOException {
+        if (target == null) {
+            throw new RenderingException("Can't write chunk " + chunk.getFileName() + " without build target");
+        }
+        DebugInformationEmitter chunkDebugEmitter = chunkDebugEmitterFactory != null
+                ? chunkDebugEmitterFactory.apply(chunk.getFileName()) : null;
+        if (chunkDebugEmitter != null) {
+            for (String className : chunk.getClassNames()) {
+                for (MethodHolder method : classSet.get(className).getMethods()) {
+                    if (method.getProgram() != null) {
+                        emitCFG(chunkDebugEmitter, method.getProgram());
+                    }
+                }
+            }
+            MethodReference splitPointRef = chunk.getSplitPoint();
+            if (!chunk.getClassNames().contains(splitPointRef.getClassName())) {
+                MethodHolder splitPoint = classSet.get(splitPointRef.getClassName())
+                        .getMethod(splitPointRef.getDescriptor());
+                if (splitPoint.getProgram() != null) {
+                    emitCFG(chunkDebugEmitter, splitPoint.getProgram());
+                }
+            }
+        } else {
+            chunkDebugEmitter = new DummyDebugInformationEmitter();
+        }
+        try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(
+                target.createResource(chunk.getFileName())), "UTF-8")) {
+            SourceWriter sourceWriter = builder.build(writer);
+            chunkDebugEmitter.setLocationProvider(sourceWriter);
+            renderer.setDebugEmitter(chunkDebugEmitter);
+            renderer.startChunk(chunk.getFileName(), sourceWriter);
+            sourceWriter.append("\"use strict\";").newLine();
+            List<ClassNode> chunkClsNodes = new ArrayList<>();
+            for (ClassNode clsNode : clsNodes) {
+                if (chunk.getClassNames().contains(clsNode.getName())) {
+                    chunkClsNodes.add(clsNode);
+                }
+            }
+            renderer.render(chunkClsNodes);
+            if (!chunk.getClassNames().contains(chunk.getSplitPoint().getClassName())) {
+                renderer.renderSplitPoint(findMethodNode(clsNodes, chunk.getSplitPoint()));
+            }
+            renderer.renderStringPool();
+            if (sizeReport != null) {
+                sizeReport.addOutput(chunk.getFileName(), sourceWriter.getOffset());
+            }
+        }
+    }
+
     public ListableClassHolderSource link(DependencyInfo dependency) {
         reportPhase(TeaVMPhase.LINKING, dependency.getAchievableClasses().size());
         Linker linker = new Linker();
@@ -481,8 +835,12 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         if (wasCancelled()) {
             return cutClasses;
         }
+        // Classes are reached in different order when dependency analysis is replayed from snapshot,
+        // so the order is fixed here to get the same output in both cases
+        List<String> classNames = new ArrayList<>(dependency.getAchievableClasses());
+        Collections.sort(classNames);
         int index = 0;
-        for (String className : dependency.getAchievableClasses()) {
+        for (String className : classNames) {
             ClassReader clsReader = dependency.getClassSource().get(className);
             if (clsReader == null) {
                 continue;
@@ -497,6 +855,9 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
     }
 
     private void reportPhase(TeaVMPhase phase, int progressLimit) {
+        if (metrics != null) {
+            metrics.phaseStarted(phase);
+        }
         if (progressListener.phaseStarted(phase, progressLimit) == TeaVMProgressFeedback.CANCEL) {
             cancelled = true;
         }
@@ -554,37 +915,95 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         asyncMethods.addAll(asyncFinder.getAsyncMethods());
         asyncFamilyMethods.addAll(asyncFinder.getAsyncFamilyMethods());
 
-        progressListener.phaseStarted(TeaVMPhase.DECOMPILATION, classes.getClassNames().size());
-        Decompiler decompiler = new Decompiler(classes, classLoader, asyncMethods, asyncFamilyMethods);
-        decompiler.setRegularMethodCache(incremental ? astCache : null);
-
-        for (Map.Entry<MethodReference, Generator> entry : methodGenerators.entrySet()) {
-            decompiler.addGenerator(entry.getKey(), entry.getValue());
-        }
-        for (MethodReference injectedMethod : methodInjectors.keySet()) {
-            decompiler.addMethodToPass(injectedMethod);
+        if (metrics != null) {
+            metrics.phaseStarted(TeaVMPhase.DECOMPILATION);
         }
+        progressListener.phaseStarted(TeaVMPhase.DECOMPILATION, classes.getClassNames().size());
+        Decompiler decompiler = createDecompiler(classes);
         List<String> classOrder = decompiler.getClassOrdering(classes.getClassNames());
-        List<ClassNode> classNodes = new ArrayList<>();
-        int index = 0;
+        int threadCount = numThreads != 0 ? numThreads : Runtime.getRuntime().availableProcessors();
         try (PrintWriter bytecodeLogger = bytecodeLogging
                 ? new PrintWriter(new OutputStreamWriter(logStream, "UTF-8")) : null) {
+            if (threadCount > 1) {
+                return modelToAstConcurrently(classes, classOrder, threadCount, bytecodeLogger);
+            }
+            List<ClassNode> classNodes = new ArrayList<>();
+            int index = 0;
             for (String className : classOrder) {
                 ClassHolder cls = classes.get(className);
-                for (MethodHolder method : cls.getMethods()) {
-                    processMethod(method);
-                    preprocessNativeMethod(method);
-                    if (bytecodeLogging) {
-                        logMethodBytecode(bytecodeLogger, method);
-                    }
-                }
+                processClass(cls);
+                preprocessNativeMethods(cls, bytecodeLogger);
                 classNodes.add(decompiler.decompile(cls));
                 progressListener.progressReached(++index);
             }
+            return classNodes;
         } catch (UnsupportedEncodingException e) {
             throw new AssertionError("UTF-8 is expected to be supported");
         }
-        return classNodes;
+    }
+
+    private List<ClassNode> modelToAstConcurrently(ListableClassHolderSource classes, List<String> classOrder,
+            int threadCount, PrintWriter bytecodeLogger) {
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            List<ForkJoinTask<?>> optimizationTasks = new ArrayList<>();
+            for (String className : classOrder) {
+                ClassHolder cls = classes.get(className);
+                optimizationTasks.add(pool.submit(() -> processClass(cls)));
+            }
+
+            // Decompiler keeps state of a method being decompiled, so each worker thread needs its own instance.
+            // Native methods are still preprocessed in this thread, since they report diagnostics.
+            ThreadLocal<Decompiler> decompilers = ThreadLocal.withInitial(() -> createDecompiler(classes));
+            List<ForkJoinTask<ClassNode>> decompilationTasks = new ArrayList<>();
+            for (int i = 0; i < classOrder.size(); ++i) {
+                ClassHolder cls = classes.get(classOrder.get(i));
+                optimizationTasks.get(i).join();
+                preprocessNativeMethods(cls, bytecodeLogger);
+                decompilationTasks.add(pool.submit(() -> decompilers.get().decompile(cls)));
+            }
+
+            List<ClassNode> classNodes = new ArrayList<>();
+            int index = 0;
+            for (ForkJoinTask<ClassNode> task : decompilationTasks) {
+                classNodes.add(task.join());
+                progressListener.progressReached(++index);
+            }
+            return classNodes;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Decompiler createDecompiler(ListableClassHolderSource classes) {
+        Decompiler decompiler = new Decompiler(classes, classLoader, asyncMethods, asyncFamilyMethods);
+        decompiler.setRegularMethodCache(incremental ? astCache : null);
+        if (metrics != null) {
+            decompiler.setGeneratorWrapper(metrics::measureGenerator);
+        }
+
+        for (Map.Entry<MethodReference, Generator> entry : methodGenerators.entrySet()) {
+            decompiler.addGenerator(entry.getKey(), entry.getValue());
+        }
+        for (MethodReference injectedMethod : methodInjectors.keySet()) {
+            decompiler.addMethodToPass(injectedMethod);
+        }
+        return decompiler;
+    }
+
+    private void processClass(ClassHolder cls) {
+        for (MethodHolder method : cls.getMethods()) {
+            processMethod(method);
+        }
+    }
+
+    private void preprocessNativeMethods(ClassHolder cls, PrintWriter bytecodeLogger) {
+        for (MethodHolder method : cls.getMethods()) {
+            preprocessNativeMethod(method);
+            if (bytecodeLogging) {
+                logMethodBytecode(bytecodeLogger, method);
+            }
+        }
     }
 
     private void preprocessNativeMethod(MethodHolder method) {
@@ -643,6 +1062,7 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                 }
                 RegisterAllocator allocator = new RegisterAllocator();
                 allocator.allocateRegisters(method, optimizedProgram);
+                optimizedMethodCount.incrementAndGet();
             }
             if (incremental && programCache != null) {
                 programCache.store(method.getReference(), optimizedProgram);
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>A part of generated code that is loaded on demand, when its split point is called for the first time.
+ * Contains the split point and classes that are used by the split point only.
+ * See {@link TeaVM#addSplitPoint(MethodReference)}.</p>
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMChunk {
+    private String fileName;
+    private MethodReference splitPoint;
+    private Set<String> classNames = new LinkedHashSet<>();
+
+    TeaVMChunk(String fileName, MethodReference splitPoint) {
+        this.fileName = fileName;
+        this.splitPoint = splitPoint;
+    }
+
+    /**
+     * @return name of the file that contains code of the chunk, relative to the main file.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public MethodReference getSplitPoint() {
+        return splitPoint;
+    }
+
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classNames);
+    }
+
+    void addClass(String className) {
+        classNames.add(className);
+    }
+}
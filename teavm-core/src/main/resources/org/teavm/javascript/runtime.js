@@ -435,14 +435,73 @@ function $rt_mainStarter(f) {
     };
 }
 var $rt_stringPool_instance;
+var $rt_stringPool_data;
+var $rt_stringPool_packed;
+var $rt_stringPool_offsets;
 function $rt_stringPool(strings) {
     $rt_stringPool_instance = new Array(strings.length);
-    for (var i = 0; i < strings.length; ++i) {
-        $rt_stringPool_instance[i] = $rt_intern($rt_str(strings[i]));
+    $rt_stringPool_data = strings;
+}
+function $rt_stringPoolPacked(packed, lengths) {
+    var offsets = new Array(lengths.length + 1);
+    var offset = 0;
+    for (var i = 0; i < lengths.length; ++i) {
+        offsets[i] = offset;
+        offset += lengths[i];
     }
+    offsets[lengths.length] = offset;
+    $rt_stringPool_instance = new Array(lengths.length);
+    $rt_stringPool_data = [];
+    $rt_stringPool_packed = packed;
+    $rt_stringPool_offsets = offsets;
 }
 function $rt_s(index) {
-    return $rt_stringPool_instance[index];
+    var str = $rt_stringPool_instance[index];
+    if (str === undefined) {
+        var offsets = $rt_stringPool_offsets;
+        var data = offsets && index + 1 < offsets.length
+                ? $rt_stringPool_packed.substring(offsets[index], offsets[index + 1])
+                : $rt_stringPool_data[index];
+        str = $rt_intern($rt_str(data));
+        $rt_stringPool_instance[index] = str;
+    }
+    return str;
+}
+function $rt_stringPoolAppend(data) {
+    if (!$rt_stringPool_instance) {
+        $rt_stringPool_instance = [];
+        $rt_stringPool_data = [];
+    }
+    for (var i = 0; i < data.length; i += 2) {
+        $rt_stringPool_data[data[i]] = data[i + 1];
+    }
+}
+var $rt_chunkBase = typeof document !== 'undefined' && document.currentScript
+        ? document.currentScript.src.substring(0, document.currentScript.src.lastIndexOf('/') + 1) : "";
+var $rt_loadedChunks = {};
+function $rt_loadChunk(name) {
+    if ($rt_loadedChunks[name]) {
+        return;
+    }
+    var url = $rt_chunkBase + name;
+    if (typeof document !== 'undefined' && typeof XMLHttpRequest !== 'undefined') {
+        // Code that calls a split point can't suspend, so the chunk is loaded synchronously
+        var xhr = new XMLHttpRequest();
+        xhr.open("GET", url, false);
+        xhr.send();
+        if (xhr.status !== 200 && xhr.status !== 0) {
+            throw new Error("Could not load chunk " + url + ": " + xhr.status);
+        }
+        var script = document.createElement("script");
+        script.text = xhr.responseText + "\n//# sourceURL=" + url;
+        document.getElementsByTagName("head")[0].appendChild(script);
+    } else if (typeof importScripts === 'function') {
+        importScripts(url);
+    } else {
+        throw new Error("Could not load chunk " + url + ": chunks can be loaded only by a page with "
+                + "XMLHttpRequest or by a worker with importScripts, otherwise $rt_loadChunk should be replaced");
+    }
+    $rt_loadedChunks[name] = true;
 }
 function TeaVMThread(runner) {
     this.status = 3;
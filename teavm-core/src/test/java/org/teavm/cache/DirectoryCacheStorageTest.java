@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class DirectoryCacheStorageTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("teavm-cache").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void unusedEntriesAreRemoved() throws IOException {
+        DirectoryCacheStorage storage = new DirectoryCacheStorage(directory);
+        write(storage, "foo/A.teavm-cls", "first");
+        write(storage, "foo/B.teavm-cls", "second");
+        write(storage, "bar/C.teavm-cls", "third");
+        File symbols = new File(directory, "symbols");
+        assertTrue(symbols.createNewFile());
+        storage.flush();
+
+        storage = new DirectoryCacheStorage(directory);
+        try (InputStream input = storage.read("foo/A.teavm-cls")) {
+            assertTrue(input != null);
+        }
+        storage.flush();
+        storage.removeUnused();
+
+        assertTrue(new File(directory, "foo/A.teavm-cls").exists());
+        assertFalse(new File(directory, "foo/B.teavm-cls").exists());
+        assertFalse(new File(directory, "bar").exists());
+        assertTrue(symbols.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreTrimmed() throws IOException {
+        DirectoryCacheStorage storage = new DirectoryCacheStorage(directory);
+        write(storage, "A.teavm-cls", "first");
+        write(storage, "B.teavm-cls", "second");
+        write(storage, "C.teavm-cls", "third");
+        storage.flush();
+        long now = System.currentTimeMillis();
+        assertTrue(new File(directory, "A.teavm-cls").setLastModified(now - 30000));
+        assertTrue(new File(directory, "B.teavm-cls").setLastModified(now - 10000));
+        assertTrue(new File(directory, "C.teavm-cls").setLastModified(now - 20000));
+
+        storage = new DirectoryCacheStorage(directory);
+        storage.trim(8);
+
+        assertFalse(new File(directory, "A.teavm-cls").exists());
+        assertTrue(new File(directory, "B.teavm-cls").exists());
+        assertFalse(new File(directory, "C.teavm-cls").exists());
+    }
+
+    @Test
+    public void readEntriesAreTrimmedLast() throws IOException {
+        writeOldEntries();
+
+        DirectoryCacheStorage storage = new DirectoryCacheStorage(directory);
+        read(storage, "A.teavm-cls");
+        storage.flush();
+        storage.trim(8);
+
+        assertTrue(new File(directory, "A.teavm-cls").exists());
+        assertFalse(new File(directory, "B.teavm-cls").exists());
+        assertFalse(new File(directory, "C.teavm-cls").exists());
+    }
+
+    @Test
+    public void datesAreKeptWhenUsageIsNotRecorded() throws IOException {
+        long date = writeOldEntries();
+
+        DirectoryCacheStorage storage = new DirectoryCacheStorage(directory);
+        storage.setUsageRecorded(false);
+        read(storage, "A.teavm-cls");
+        storage.flush();
+        storage.removeUnused();
+
+        File file = new File(directory, "A.teavm-cls");
+        assertTrue(file.exists());
+        assertTrue(file.lastModified() == date - 30000);
+        assertFalse(new File(directory, "B.teavm-cls").exists());
+    }
+
+    private long writeOldEntries() throws IOException {
+        DirectoryCacheStorage storage = new DirectoryCacheStorage(directory);
+        write(storage, "A.teavm-cls", "first");
+        write(storage, "B.teavm-cls", "second");
+        write(storage, "C.teavm-cls", "third");
+        storage.flush();
+        // File systems may keep dates with a precision of seconds
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        assertTrue(new File(directory, "A.teavm-cls").setLastModified(now - 30000));
+        assertTrue(new File(directory, "B.teavm-cls").setLastModified(now - 10000));
+        assertTrue(new File(directory, "C.teavm-cls").setLastModified(now - 20000));
+        return now;
+    }
+
+    private void read(CacheStorage storage, String key) throws IOException {
+        try (InputStream input = storage.read(key)) {
+            assertTrue(input != null);
+        }
+    }
+
+    private void write(CacheStorage storage, String key, String value) throws IOException {
+        try (OutputStream output = storage.write(key)) {
+            output.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
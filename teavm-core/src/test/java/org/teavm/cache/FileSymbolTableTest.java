@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class FileSymbolTableTest {
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("teavm-symbols", "");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void symbolsSurviveReopening() throws IOException {
+        FileSymbolTable table = new FileSymbolTable(file);
+        assertThat(table.lookup("java.lang.Object"), is(0));
+        assertThat(table.lookup("жук"), is(1));
+        table.flush();
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.at(1), is("жук"));
+        assertThat(table.lookup("java.lang.String"), is(2));
+        assertThat(table.lookup("java.lang.Object"), is(0));
+        table.flush();
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.size(), is(3));
+        assertThat(table.at(2), is("java.lang.String"));
+        assertThat(table.at(0), is("java.lang.Object"));
+        assertThat(table.at(1), is("жук"));
+    }
+
+    @Test
+    public void refreshSeesChangesOfFile() throws IOException {
+        FileSymbolTable table = new FileSymbolTable(file);
+        table.lookup("foo");
+        table.flush();
+        table.refresh();
+        assertThat(table.size(), is(1));
+        assertThat(table.getUsedSymbolCount(), is(0));
+        assertThat(table.at(0), is("foo"));
+
+        FileSymbolTable otherTable = new FileSymbolTable(file);
+        otherTable.update();
+        otherTable.lookup("bar");
+        otherTable.flush();
+
+        table.refresh();
+        assertThat(table.size(), is(2));
+        assertThat(table.at(1), is("bar"));
+    }
+
+    @Test
+    public void incompleteChunkIsOverwritten() throws IOException {
+        FileSymbolTable table = new FileSymbolTable(file);
+        table.lookup("foo");
+        table.flush();
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(output.length());
+            output.writeInt(1000);
+            output.writeInt(5);
+        }
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.size(), is(1));
+        assertThat(table.lookup("bar"), is(1));
+        table.flush();
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.size(), is(2));
+        assertThat(table.at(1), is("bar"));
+    }
+
+    @Test
+    public void updatedTableRewrittenAndTruncatedInPlace() throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeShort(3);
+            output.writeChars("foo");
+        }
+
+        FileSymbolTable table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.lookup("bar"), is(1));
+        table.flush();
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(output.length());
+            output.writeInt(1000);
+            output.writeInt(5);
+        }
+
+        table.update();
+        assertThat(table.lookup("baz"), is(2));
+        table.flush();
+        table.refresh();
+        assertThat(table.size(), is(3));
+        assertThat(table.at(0), is("foo"));
+        assertThat(table.at(2), is("baz"));
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.size(), is(3));
+        assertThat(table.at(1), is("bar"));
+        assertThat(table.at(2), is("baz"));
+    }
+
+    @Test
+    public void legacyFormatMigrated() throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            for (String symbol : new String[] { "foo", "bar" }) {
+                output.writeShort(symbol.length());
+                output.writeChars(symbol);
+            }
+        }
+
+        FileSymbolTable table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.at(0), is("foo"));
+        assertThat(table.lookup("bar"), is(1));
+        assertThat(table.lookup("baz"), is(2));
+        table.flush();
+
+        table = new FileSymbolTable(file);
+        table.update();
+        assertThat(table.size(), is(3));
+        assertThat(table.at(1), is("bar"));
+        assertThat(table.at(2), is("baz"));
+    }
+}
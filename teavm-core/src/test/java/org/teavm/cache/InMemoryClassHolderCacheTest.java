@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassHolderSource;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class InMemoryClassHolderCacheTest {
+    private Map<String, Date> dates = new HashMap<>();
+    private int parseCount;
+
+    @Test
+    public void unchangedClassesAreReused() {
+        InMemoryClassHolderCache cache = new InMemoryClassHolderCache();
+        dates.put("A", new Date(1000));
+        dates.put("B", new Date(1000));
+
+        ClassHolderSource source = cache.createSource(this::parse, dates::get);
+        ClassHolder firstA = source.get("A");
+        ClassHolder firstB = source.get("B");
+        assertThat(source.get("A") == firstA, is(true));
+        assertThat(parseCount, is(2));
+
+        dates.put("B", new Date(2000));
+        CacheStatistics statistics = new CacheStatistics();
+        source = cache.createSource(this::parse, dates::get, statistics);
+        assertThat(source.get("A") == firstA, is(true));
+        assertThat(source.get("B") == firstB, is(false));
+        assertThat(source.get("C"), is(nullValue()));
+        assertThat(source.get("A") == firstA, is(true));
+        assertThat(parseCount, is(4));
+        assertThat(cache.size(), is(2));
+        assertThat(statistics.getHits(), is(1L));
+        assertThat(statistics.getMisses(), is(2L));
+    }
+
+    private ClassHolder parse(String name) {
+        ++parseCount;
+        return dates.containsKey(name) ? new ClassHolder(name) : null;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class PackCacheStorageTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("teavm-cache").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws IOException {
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        assertThat(storage.read("foo/Bar.teavm-cls"), is(nullValue()));
+        write(storage, "foo/Bar.teavm-cls", "bar");
+        write(storage, "foo/Baz.teavm-cls", "baz");
+        assertThat(read(storage, "foo/Bar.teavm-cls"), is("bar"));
+        storage.flush();
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "foo/Bar.teavm-cls"), is("bar"));
+        assertThat(read(storage, "foo/Baz.teavm-cls"), is("baz"));
+        write(storage, "foo/Bar.teavm-cls", "bar2");
+        storage.flush();
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "foo/Bar.teavm-cls"), is("bar2"));
+        assertThat(read(storage, "foo/Baz.teavm-cls"), is("baz"));
+        assertThat(storage.read("foo/Qux.teavm-cls"), is(nullValue()));
+    }
+
+    @Test
+    public void indexIsRebuiltFromPack() throws IOException {
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        write(storage, "a", "first");
+        write(storage, "b", "second");
+        storage.flush();
+        write(storage, "a", "third");
+        storage.flush();
+
+        // Simulate a build that crashed while appending to pack
+        File packFile = new File(directory, "cache.teavm-pack");
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "rw")) {
+            file.seek(file.length());
+            file.writeInt(100);
+            file.write(new byte[] { 1, 2, 3 });
+        }
+        assertTrue(new File(directory, "cache.teavm-idx").delete());
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "a"), is("third"));
+        assertThat(read(storage, "b"), is("second"));
+        write(storage, "c", "fourth");
+        storage.flush();
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "a"), is("third"));
+        assertThat(read(storage, "c"), is("fourth"));
+    }
+
+    @Test
+    public void replacedEntriesAreCompacted() throws IOException {
+        byte[] data = new byte[100000];
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        for (int i = 0; i < 30; ++i) {
+            Arrays.fill(data, (byte) i);
+            for (int j = 0; j < 5; ++j) {
+                try (OutputStream output = storage.write("entry" + j)) {
+                    output.write(data);
+                }
+            }
+            storage.flush();
+            assertTrue(storage.getPackSize() < 3 * 5 * data.length);
+        }
+
+        storage = new PackCacheStorage(directory);
+        for (int j = 0; j < 5; ++j) {
+            try (InputStream input = storage.read("entry" + j)) {
+                byte[] actual = new byte[data.length];
+                int offset = 0;
+                while (offset < actual.length) {
+                    offset += input.read(actual, offset, actual.length - offset);
+                }
+                assertThat(actual, is(data));
+                assertThat(input.read(), is(-1));
+            }
+        }
+    }
+
+    @Test
+    public void unusedEntriesAreRemoved() throws IOException {
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        write(storage, "a", "first");
+        write(storage, "b", "second");
+        write(storage, "c", "third");
+        storage.flush();
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "a"), is("first"));
+        write(storage, "c", "fourth");
+        storage.flush();
+        storage.removeUnused();
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "a"), is("first"));
+        assertThat(storage.read("b"), is(nullValue()));
+        assertThat(read(storage, "c"), is("fourth"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreTrimmed() throws IOException, InterruptedException {
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        write(storage, "a", "first");
+        write(storage, "b", "second");
+        write(storage, "c", "third");
+        storage.flush();
+        Thread.sleep(20);
+
+        storage = new PackCacheStorage(directory);
+        assertThat(read(storage, "b"), is("second"));
+        storage.flush();
+        storage.trim(30);
+
+        storage = new PackCacheStorage(directory);
+        assertTrue(storage.getPackSize() <= 30);
+        assertThat(storage.read("a"), is(nullValue()));
+        assertThat(read(storage, "b"), is("second"));
+        assertThat(storage.read("c"), is(nullValue()));
+    }
+
+    @Test
+    public void entriesReadBeforeTruncationAndCompactionStayIntact() throws IOException {
+        PackCacheStorage storage = new PackCacheStorage(directory);
+        write(storage, "a", "first");
+        write(storage, "b", "second");
+        storage.flush();
+        try (RandomAccessFile pack = new RandomAccessFile(new File(directory, "cache.teavm-pack"), "rw")) {
+            pack.seek(pack.length());
+            pack.write(new byte[1000]);
+        }
+
+        storage = new PackCacheStorage(directory);
+        try (InputStream input = storage.read("a")) {
+            write(storage, "c", "third");
+            storage.flush();
+            assertThat(new File(directory, "cache.teavm-pack").length(), is(storage.getPackSize()));
+            storage.trim(0);
+            assertThat(read(input), is("first"));
+        }
+        storage = new PackCacheStorage(directory);
+        assertThat(storage.read("a"), is(nullValue()));
+    }
+
+    private void write(CacheStorage storage, String key, String value) throws IOException {
+        try (OutputStream output = storage.write(key)) {
+            output.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String read(CacheStorage storage, String key) throws IOException {
+        try (InputStream input = storage.read(key)) {
+            return read(input);
+        }
+    }
+
+    private String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16];
+        while (true) {
+            int bytesRead = input.read(buffer);
+            if (bytesRead < 0) {
+                break;
+            }
+            output.write(buffer, 0, bytesRead);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -27,8 +27,10 @@ import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 import org.teavm.model.BasicBlock;
+import org.teavm.model.FieldReference;
 import org.teavm.model.Program;
 import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
 import org.teavm.model.instructions.*;
 
 /**
@@ -163,6 +165,47 @@ public class ProgramIOTest {
         assertThat(subInsn.getReceiver().getIndex(), is(3));
     }
 
+    @Test
+    public void fieldAccess() {
+        Program program = new Program();
+        BasicBlock block = program.createBasicBlock();
+        Variable instance = program.createVariable();
+        GetFieldInstruction getFieldInsn = new GetFieldInstruction();
+        getFieldInsn.setInstance(instance);
+        getFieldInsn.setField(new FieldReference("foo.Bar", "baz"));
+        getFieldInsn.setFieldType(ValueType.INTEGER);
+        getFieldInsn.setReceiver(program.createVariable());
+        block.getInstructions().add(getFieldInsn);
+        PutFieldInstruction putFieldInsn = new PutFieldInstruction();
+        putFieldInsn.setInstance(instance);
+        putFieldInsn.setField(new FieldReference("foo.Bar", "baz"));
+        putFieldInsn.setFieldType(ValueType.INTEGER);
+        putFieldInsn.setValue(getFieldInsn.getReceiver());
+        block.getInstructions().add(putFieldInsn);
+        putFieldInsn = new PutFieldInstruction();
+        putFieldInsn.setField(new FieldReference("foo.Bar", "qux"));
+        putFieldInsn.setValue(instance);
+        block.getInstructions().add(putFieldInsn);
+
+        program = inputOutput(program);
+        block = program.basicBlockAt(0);
+
+        assertThat(block.getInstructions().size(), is(3));
+        getFieldInsn = (GetFieldInstruction)block.getInstructions().get(0);
+        assertThat(getFieldInsn.getField(), is(new FieldReference("foo.Bar", "baz")));
+        assertThat(getFieldInsn.getFieldType(), is(ValueType.INTEGER));
+
+        putFieldInsn = (PutFieldInstruction)block.getInstructions().get(1);
+        assertThat(putFieldInsn.getInstance().getIndex(), is(0));
+        assertThat(putFieldInsn.getField(), is(new FieldReference("foo.Bar", "baz")));
+        assertThat(putFieldInsn.getFieldType(), is(ValueType.INTEGER));
+        assertThat(putFieldInsn.getValue().getIndex(), is(1));
+
+        putFieldInsn = (PutFieldInstruction)block.getInstructions().get(2);
+        assertThat(putFieldInsn.getInstance(), is((Variable)null));
+        assertThat(putFieldInsn.getFieldType(), is((ValueType)null));
+    }
+
     private Program inputOutput(Program program) {
         InMemorySymbolTable symbolTable = new InMemorySymbolTable();
         InMemorySymbolTable fileTable = new InMemorySymbolTable();
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.codegen;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import org.junit.Test;
+import org.teavm.javascript.Renderer;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class SourceFragmentTest {
+    @Test
+    public void writesSameCodeAsSourceWriter() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        SourceWriter writer = createWriter(expected);
+        writeFirst(writer);
+        writeSecond(writer);
+
+        StringBuilder actual = new StringBuilder();
+        writer = createWriter(actual);
+        SourceFragment first = new SourceFragment(writer.getNaming());
+        SourceFragment second = new SourceFragment(writer.getNaming());
+        writeSecond(second.getWriter());
+        writeFirst(first.getWriter());
+        first.writeTo(writer);
+        second.writeTo(writer);
+
+        assertThat(actual.toString(), is(expected.toString()));
+    }
+
+    @Test
+    public void computesDeferredValuesWhenWritten() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        SourceWriter writer = createWriter(sb);
+        SourceFragment fragment = new SourceFragment(writer.getNaming());
+        int[] counter = new int[1];
+        String first = fragment.defer(() -> String.valueOf(counter[0]++));
+        fragment.getWriter().append(first).append(";").softNewLine();
+        fragment.addAction(target -> target.append("x;").softNewLine());
+        String second = fragment.defer(() -> String.valueOf(counter[0]++));
+        fragment.getWriter().append("[" + second + "," + first + "]");
+        assertThat(counter[0], is(0));
+
+        fragment.writeTo(writer);
+        assertThat(sb.toString(), is("0;\nx;\n[1,0]"));
+    }
+
+    @Test
+    public void writtenAgainWithAnotherNaming() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        SourceWriter writer = createWriter(expected);
+        writeSecond(writer);
+        writeFirst(writer);
+
+        StringBuilder first = new StringBuilder();
+        writer = createWriter(first);
+        SourceFragment fragment = new SourceFragment(writer.getNaming());
+        writeFirst(fragment.getWriter());
+        fragment.writeTo(writer);
+
+        StringBuilder second = new StringBuilder();
+        writer = createWriter(second);
+        writeSecond(writer);
+        fragment.setTargetNaming(writer.getNaming());
+        fragment.writeTo(writer);
+
+        assertThat(second.toString(), is(expected.toString()));
+    }
+
+    @Test
+    public void writesEscapedReservedCharacter() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        SourceWriter writer = createWriter(sb);
+        SourceFragment fragment = new SourceFragment(writer.getNaming());
+        fragment.getWriter().append("\"" + Renderer.escapeString("a\uFFFF0\uFFFF") + "\";");
+        fragment.writeTo(writer);
+        assertThat(sb.toString(), is("\"a\\uffff0\\uffff\";"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReservedCharacterInFragment() throws IOException {
+        SourceFragment fragment = new SourceFragment(createWriter(new StringBuilder()).getNaming());
+        fragment.getWriter().append("\"\uFFFF0\uFFFF\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReservedCharacter() throws IOException {
+        createWriter(new StringBuilder()).append('\uFFFF');
+    }
+
+    private static SourceWriter createWriter(StringBuilder sb) {
+        DefaultNamingStrategy naming = new DefaultNamingStrategy(new MinifyingAliasProvider(), null);
+        naming.setMinifying(true);
+        return new SourceWriterBuilder(naming).build(sb);
+    }
+
+    private static void writeFirst(SourceWriter writer) throws IOException {
+        writer.append("function ").appendFunction("foo").append("()").ws().append("{").indent().softNewLine();
+        writer.append("return ").appendFunction("bar").append("();").softNewLine();
+        writer.outdent().append("}").newLine();
+    }
+
+    private static void writeSecond(SourceWriter writer) throws IOException {
+        writer.appendFunction("baz").append("(").appendFunction("foo").append(");").newLine();
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.teavm.diagnostics.AccumulationDiagnostics;
+import org.teavm.model.AccessLevel;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.FieldReference;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.*;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class DependencyCheckerTest {
+    private static final int SHAPE_COUNT = 60;
+    private static final String SHAPE = "test.Shape";
+    private static final String HOLDER = "test.Holder";
+    private static final ValueType SHAPE_TYPE = ValueType.object(SHAPE);
+    private static final ValueType SHAPE_ARRAY_TYPE = ValueType.arrayOf(SHAPE_TYPE);
+    private static final MethodReference OBJECT_INIT = new MethodReference("java.lang.Object", "<init>",
+            ValueType.VOID);
+    private static final FieldReference LAST_FIELD = new FieldReference(HOLDER, "last");
+    private static final FieldReference SHAPES_FIELD = new FieldReference(HOLDER, "shapes");
+
+    @Test
+    public void concurrentPropagationReachesSequentialFixpoint() {
+        MutableClassHolderSource classSource = createClassSource();
+        DependencyChecker sequential = analyze(classSource, 1);
+        DependencyChecker concurrent = analyze(classSource, 4);
+
+        assertTrue(sequential.getDiagnostics() instanceof AccumulationDiagnostics);
+        assertThat(((AccumulationDiagnostics) sequential.getDiagnostics()).getSevereProblems().size(), is(0));
+        assertThat(new TreeSet<>(concurrent.getAchievableClasses()),
+                is(new TreeSet<>(sequential.getAchievableClasses())));
+        assertThat(concurrent.getAchievableMethods(), is(sequential.getAchievableMethods()));
+        assertThat(concurrent.getAchievableFields(), is(sequential.getAchievableFields()));
+        assertThat(describeTypes(concurrent), is(describeTypes(sequential)));
+        assertTrue(sequential.getAchievableClasses().contains(SHAPE + 1));
+        assertTrue(sequential.getAchievableClasses().size() < SHAPE_COUNT);
+    }
+
+    @Test
+    public void concurrentPropagationIsRepeatable() {
+        MutableClassHolderSource classSource = createClassSource();
+        Map<String, String> expected = describeTypes(analyze(classSource, 3));
+        for (int i = 0; i < 5; ++i) {
+            assertThat(describeTypes(analyze(classSource, 3)), is(expected));
+        }
+    }
+
+    @Test
+    public void nodesInCycleShareTypes() {
+        DependencyChecker checker = new DependencyChecker(createClassSource(),
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        DependencyNode[] nodes = new DependencyNode[4];
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = checker.createNode();
+        }
+        DependencyNode filtered = checker.createNode();
+        DependencyNode items = checker.createNode();
+        nodes[0].connect(nodes[1]);
+        nodes[1].connect(nodes[2]);
+        nodes[2].connect(nodes[3]);
+        nodes[3].connect(filtered, type -> !type.getName().equals(SHAPE + 1));
+        nodes[0].getArrayItem().connect(items);
+        nodes[3].connect(nodes[0]);
+        assertThat(checker.mergedNodes, is(3));
+
+        nodes[2].propagate(checker.getType(SHAPE + 0));
+        nodes[1].propagate(checker.getType(SHAPE + 1));
+        checker.processDependencies();
+        for (DependencyNode node : nodes) {
+            assertThat(describeTypes(node), is("[test.Shape0, test.Shape1]"));
+        }
+        assertThat(describeTypes(filtered), is("[test.Shape0]"));
+
+        nodes[3].getArrayItem().propagate(checker.getType(SHAPE + 2));
+        checker.processDependencies();
+        assertThat(describeTypes(items), is("[]"));
+
+        nodes[1].propagate(checker.getType("[" + SHAPE_TYPE));
+        checker.processDependencies();
+        for (DependencyNode node : nodes) {
+            assertThat(node.getArrayItem().hasType(SHAPE + 2), is(true));
+        }
+        assertThat(describeTypes(items), is("[test.Shape2]"));
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedPropagationWaitsForRunningTasks() {
+        DependencyChecker checker = new DependencyChecker(createClassSource(),
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        checker.setNumThreads(2);
+        DependencyNode source = checker.createNode();
+        DependencyNode destination = checker.createNode();
+        CountDownLatch filterStarted = new CountDownLatch(1);
+        AtomicBoolean filterFinished = new AtomicBoolean();
+        source.connect(destination, type -> {
+            filterStarted.countDown();
+            // Running task ignores interruption, like most of code does
+            long end = System.nanoTime() + 200000000;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+            filterFinished.set(true);
+            return true;
+        });
+        Thread analyzingThread = Thread.currentThread();
+        Thread interruptingThread = new Thread(() -> {
+            try {
+                filterStarted.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            analyzingThread.interrupt();
+        });
+        interruptingThread.start();
+
+        source.propagate(checker.getType(SHAPE + 0));
+        checker.processDependencies();
+        boolean interrupted = Thread.interrupted();
+
+        assertTrue(interrupted);
+        assertTrue(checker.wasInterrupted());
+        assertTrue(filterFinished.get());
+    }
+
+    @Test
+    public void replayedSnapshotReachesSameResult() {
+        MutableClassHolderSource classSource = createClassSource();
+        DependencyChecker recorded = new DependencyChecker(classSource,
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        recorded.setSnapshotRecording(true);
+        recorded.linkMethod(new MethodReference(HOLDER, "main", ValueType.VOID), null).use();
+        recorded.processDependencies();
+        DependencySnapshot snapshot = recorded.createSnapshot("test");
+        assertTrue(snapshot.getReplayableMethods().contains(new MethodReference(HOLDER, "run", SHAPE_TYPE,
+                SHAPE_ARRAY_TYPE, ValueType.VOID)));
+        assertTrue(snapshot.getClassFingerprints().containsKey(SHAPE + 1));
+
+        DependencyChecker replayed = new DependencyChecker(classSource,
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        replayed.linkMethod(new MethodReference(HOLDER, "main", ValueType.VOID), null).use();
+        replayed.replay(snapshot);
+        replayed.processDependencies();
+
+        assertThat(new TreeSet<>(replayed.getAchievableClasses()),
+                is(new TreeSet<>(recorded.getAchievableClasses())));
+        assertThat(replayed.getAchievableMethods(), is(recorded.getAchievableMethods()));
+        assertThat(replayed.getAchievableFields(), is(recorded.getAchievableFields()));
+        assertThat(describeTypes(replayed), is(describeTypes(recorded)));
+        for (MethodReference methodRef : recorded.getAchievableMethods()) {
+            MethodDependency expected = recorded.getMethod(methodRef);
+            MethodDependency actual = replayed.getMethod(methodRef);
+            assertThat(actual.getVariableCount(), is(expected.getVariableCount()));
+            for (int i = 0; i < expected.getVariableCount(); ++i) {
+                if (expected.getVariable(i) != null) {
+                    assertThat(describeTypes(actual.getVariable(i)), is(describeTypes(expected.getVariable(i))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void replayAnalyzesAgainOnlyAffectedMethods() {
+        // Only body of a constructor changes, it now creates a shape that was not reachable before
+        MutableClassHolderSource changedSource = createClassSource();
+        changedSource.putClassHolder(createShape(1, new int[] { 7 }, new int[0]));
+        DependencyChecker replayed = replayChanges(createClassSource(), changedSource, SHAPE + 1);
+
+        assertTrue(replayed.getAchievableClasses().contains(SHAPE + 7));
+        assertFalse(replayed.getReplayedMethods().contains(new MethodReference(SHAPE + 1, "<init>",
+                ValueType.VOID)));
+        // Only the constructor, methods it calls and methods that call any of them are analyzed again
+        assertTrue(replayed.getReplayedMethods().contains(new MethodReference(HOLDER, "run", SHAPE_TYPE,
+                SHAPE_ARRAY_TYPE, ValueType.VOID)));
+        for (int index : new int[] { 1, 4, 13 }) {
+            assertTrue(replayed.getReplayedMethods().contains(new MethodReference(SHAPE + index, "next",
+                    SHAPE_TYPE)));
+        }
+    }
+
+    @Test
+    public void replayForgetsAllocationRemovedFromConstructor() {
+        MutableClassHolderSource recordedSource = createClassSource();
+        recordedSource.putClassHolder(createShape(1, new int[] { 7 }, new int[0]));
+        DependencyChecker replayed = replayChanges(recordedSource, createClassSource(), SHAPE + 1);
+
+        assertFalse(replayed.getAchievableClasses().contains(SHAPE + 7));
+        assertTrue(replayed.getReplayedMethods().contains(new MethodReference(SHAPE + 4, "next", SHAPE_TYPE)));
+    }
+
+    @Test
+    public void replayForgetsTypesOfRemovedAllocation() {
+        // Removed shape was passed through a field, an array and results of virtual calls
+        MutableClassHolderSource recordedSource = createClassSource();
+        recordedSource.putClassHolder(createShape(1, 7));
+        DependencyChecker replayed = replayChanges(recordedSource, createClassSource(), SHAPE + 1);
+
+        assertFalse(replayed.getAchievableClasses().contains(SHAPE + 7));
+        assertFalse(replayed.getAchievableClasses().contains(SHAPE + 22));
+    }
+
+    private DependencyChecker replayChanges(MutableClassHolderSource recordedSource,
+            MutableClassHolderSource changedSource, String changedClass) {
+        DependencyChecker recorded = new DependencyChecker(recordedSource,
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        recorded.setSnapshotRecording(true);
+        recorded.linkMethod(new MethodReference(HOLDER, "main", ValueType.VOID), null).use();
+        recorded.processDependencies();
+        DependencySnapshot snapshot = recorded.createSnapshot("test");
+
+        assertThat(snapshot.findChangedClasses(changedSource, className -> null, new Date(0)),
+                is(Collections.singleton(changedClass)));
+        snapshot.invalidate(Collections.singleton(changedClass), changedSource);
+
+        DependencyChecker replayed = new DependencyChecker(changedSource,
+                DependencyCheckerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        replayed.linkMethod(new MethodReference(HOLDER, "main", ValueType.VOID), null).use();
+        replayed.replay(snapshot);
+        replayed.processDependencies();
+        DependencyChecker expected = analyze(changedSource, 1);
+
+        assertThat(new TreeSet<>(replayed.getAchievableClasses()),
+                is(new TreeSet<>(expected.getAchievableClasses())));
+        assertThat(replayed.getAchievableMethods(), is(expected.getAchievableMethods()));
+        assertThat(replayed.getAchievableFields(), is(expected.getAchievableFields()));
+        assertThat(describeTypes(replayed), is(describeTypes(expected)));
+        return replayed;
+    }
+
+    private DependencyChecker analyze(MutableClassHolderSource classSource, int numThreads) {
+        DependencyChecker checker = new DependencyChecker(classSource, DependencyCheckerTest.class.getClassLoader(),
+                null, new AccumulationDiagnostics());
+        checker.setNumThreads(numThreads);
+        checker.linkMethod(new MethodReference(HOLDER, "main", ValueType.VOID), null).use();
+        checker.processDependencies();
+        return checker;
+    }
+
+    private Map<String, String> describeTypes(DependencyChecker checker) {
+        Map<String, String> result = new HashMap<>();
+        for (MethodReference methodRef : checker.getAchievableMethods()) {
+            MethodDependency method = checker.getMethod(methodRef);
+            for (int i = 0; i < method.getParameterCount(); ++i) {
+                result.put(methodRef + ":" + i, describeTypes(method.getVariable(i)));
+            }
+            if (method.getResult() != null) {
+                result.put(methodRef + ":result", describeTypes(method.getResult()));
+            }
+        }
+        for (FieldReference fieldRef : checker.getAchievableFields()) {
+            FieldDependency field = checker.getField(fieldRef);
+            result.put(fieldRef.toString(), describeTypes(field.getValue()));
+        }
+        return result;
+    }
+
+    private String describeTypes(DependencyNode node) {
+        String[] types = node.getTypes();
+        Arrays.sort(types);
+        String result = Arrays.toString(types);
+        if (node.hasArrayType()) {
+            result += " " + describeTypes(node.getArrayItem());
+        }
+        return result;
+    }
+
+    private MutableClassHolderSource createClassSource() {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+
+        ClassHolder objectClass = new ClassHolder("java.lang.Object");
+        objectClass.setParent(null);
+        objectClass.setLevel(AccessLevel.PUBLIC);
+        Program program = new Program();
+        program.createVariable();
+        program.createBasicBlock().getInstructions().add(new ExitInstruction());
+        objectClass.addMethod(createMethod(program, false, "<init>", ValueType.VOID));
+        classSource.putClassHolder(objectClass);
+
+        ClassHolder shapeInterface = new ClassHolder(SHAPE);
+        shapeInterface.setLevel(AccessLevel.PUBLIC);
+        shapeInterface.getModifiers().add(ElementModifier.INTERFACE);
+        shapeInterface.getModifiers().add(ElementModifier.ABSTRACT);
+        MethodHolder abstractNext = createMethod(null, false, "next", SHAPE_TYPE);
+        abstractNext.getModifiers().add(ElementModifier.ABSTRACT);
+        shapeInterface.addMethod(abstractNext);
+        classSource.putClassHolder(shapeInterface);
+
+        for (int i = 0; i < SHAPE_COUNT; ++i) {
+            classSource.putClassHolder(createShape(i));
+        }
+
+        ClassHolder holder = new ClassHolder(HOLDER);
+        holder.setLevel(AccessLevel.PUBLIC);
+        holder.addField(createStaticField(LAST_FIELD.getFieldName(), SHAPE_TYPE));
+        holder.addField(createStaticField(SHAPES_FIELD.getFieldName(), SHAPE_ARRAY_TYPE));
+        holder.addMethod(createMain());
+        holder.addMethod(createRun());
+        classSource.putClassHolder(holder);
+
+        return classSource;
+    }
+
+    private ClassHolder createShape(int index, int... alsoCreatedShapes) {
+        return createShape(index, new int[0], alsoCreatedShapes);
+    }
+
+    private ClassHolder createShape(int index, int[] constructedShapes, int[] alsoCreatedShapes) {
+        String className = SHAPE + index;
+        ClassHolder cls = new ClassHolder(className);
+        cls.setLevel(AccessLevel.PUBLIC);
+        cls.getInterfaces().add(SHAPE);
+
+        Program program = new Program();
+        Variable self = program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        InvokeInstruction superInit = new InvokeInstruction();
+        superInit.setType(InvocationType.SPECIAL);
+        superInit.setMethod(OBJECT_INIT);
+        superInit.setInstance(self);
+        block.getInstructions().add(superInit);
+        for (int constructed : constructedShapes) {
+            construct(block, SHAPE + constructed);
+        }
+        block.getInstructions().add(new ExitInstruction());
+        cls.addMethod(createMethod(program, false, "<init>", ValueType.VOID));
+
+        // Every shape creates the next one, so that only a part of shapes is reachable from the first one
+        program = new Program();
+        program.createVariable();
+        block = program.createBasicBlock();
+        Variable next = construct(block, SHAPE + ((index * 3 + 1) % SHAPE_COUNT));
+        for (int alsoCreated : alsoCreatedShapes) {
+            block.getInstructions().add(putStatic(LAST_FIELD, construct(block, SHAPE + alsoCreated), SHAPE_TYPE));
+        }
+        block.getInstructions().add(putStatic(LAST_FIELD, next, SHAPE_TYPE));
+        Variable shapes = getStatic(block, SHAPES_FIELD, SHAPE_ARRAY_TYPE);
+        PutElementInstruction putElement = new PutElementInstruction();
+        putElement.setArray(unwrap(block, shapes));
+        putElement.setIndex(intConstant(block, index % 10));
+        putElement.setValue(next);
+        block.getInstructions().add(putElement);
+        ExitInstruction exit = new ExitInstruction();
+        exit.setValueToReturn(next);
+        block.getInstructions().add(exit);
+        cls.addMethod(createMethod(program, false, "next", SHAPE_TYPE));
+
+        return cls;
+    }
+
+    private MethodHolder createMain() {
+        Program program = new Program();
+        program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        ConstructArrayInstruction createArray = new ConstructArrayInstruction();
+        createArray.setItemType(SHAPE_TYPE);
+        createArray.setSize(intConstant(block, 10));
+        createArray.setReceiver(program.createVariable());
+        block.getInstructions().add(createArray);
+        block.getInstructions().add(putStatic(SHAPES_FIELD, createArray.getReceiver(), SHAPE_ARRAY_TYPE));
+
+        InvokeInstruction run = new InvokeInstruction();
+        run.setType(InvocationType.SPECIAL);
+        run.setMethod(new MethodReference(HOLDER, "run", SHAPE_TYPE, SHAPE_ARRAY_TYPE, ValueType.VOID));
+        run.getArguments().add(construct(block, SHAPE + 0));
+        run.getArguments().add(createArray.getReceiver());
+        block.getInstructions().add(run);
+        block.getInstructions().add(new ExitInstruction());
+        return createMethod(program, true, "main", ValueType.VOID);
+    }
+
+    private MethodHolder createRun() {
+        Program program = new Program();
+        program.createVariable();
+        Variable shape = program.createVariable();
+        Variable shapes = program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        MethodReference nextMethod = new MethodReference(SHAPE, "next", SHAPE_TYPE);
+        invokeNext(block, shape, nextMethod);
+
+        GetElementInstruction getElement = new GetElementInstruction();
+        getElement.setArray(unwrap(block, shapes));
+        getElement.setIndex(intConstant(block, 0));
+        getElement.setReceiver(program.createVariable());
+        block.getInstructions().add(getElement);
+        invokeNext(block, getElement.getReceiver(), nextMethod);
+
+        CastInstruction cast = new CastInstruction();
+        cast.setValue(getStatic(block, LAST_FIELD, SHAPE_TYPE));
+        cast.setTargetType(ValueType.object(SHAPE + 4));
+        cast.setReceiver(program.createVariable());
+        block.getInstructions().add(cast);
+        invokeNext(block, cast.getReceiver(), new MethodReference(SHAPE + 4, "next", SHAPE_TYPE));
+
+        block.getInstructions().add(new ExitInstruction());
+        return createMethod(program, true, "run", SHAPE_TYPE, SHAPE_ARRAY_TYPE, ValueType.VOID);
+    }
+
+    private MethodHolder createMethod(Program program, boolean isStatic, String name, ValueType... signature) {
+        MethodHolder method = new MethodHolder(name, signature);
+        method.setLevel(AccessLevel.PUBLIC);
+        if (isStatic) {
+            method.getModifiers().add(ElementModifier.STATIC);
+        }
+        method.setProgram(program);
+        return method;
+    }
+
+    private FieldHolder createStaticField(String name, ValueType type) {
+        FieldHolder field = new FieldHolder(name);
+        field.setLevel(AccessLevel.PUBLIC);
+        field.getModifiers().add(ElementModifier.STATIC);
+        field.setType(type);
+        return field;
+    }
+
+    private Variable construct(BasicBlock block, String className) {
+        ConstructInstruction construct = new ConstructInstruction();
+        construct.setType(className);
+        construct.setReceiver(block.getProgram().createVariable());
+        block.getInstructions().add(construct);
+        InvokeInstruction init = new InvokeInstruction();
+        init.setType(InvocationType.SPECIAL);
+        init.setMethod(new MethodReference(className, "<init>", ValueType.VOID));
+        init.setInstance(construct.getReceiver());
+        block.getInstructions().add(init);
+        return construct.getReceiver();
+    }
+
+    private void invokeNext(BasicBlock block, Variable instance, MethodReference method) {
+        InvokeInstruction invoke = new InvokeInstruction();
+        invoke.setType(InvocationType.VIRTUAL);
+        invoke.setMethod(method);
+        invoke.setInstance(instance);
+        invoke.setReceiver(block.getProgram().createVariable());
+        block.getInstructions().add(invoke);
+    }
+
+    private Variable unwrap(BasicBlock block, Variable array) {
+        UnwrapArrayInstruction unwrap = new UnwrapArrayInstruction(ArrayElementType.OBJECT);
+        unwrap.setArray(array);
+        unwrap.setReceiver(block.getProgram().createVariable());
+        block.getInstructions().add(unwrap);
+        return unwrap.getReceiver();
+    }
+
+    private Variable intConstant(BasicBlock block, int value) {
+        IntegerConstantInstruction constant = new IntegerConstantInstruction();
+        constant.setConstant(value);
+        constant.setReceiver(block.getProgram().createVariable());
+        block.getInstructions().add(constant);
+        return constant.getReceiver();
+    }
+
+    private Variable getStatic(BasicBlock block, FieldReference field, ValueType type) {
+        GetFieldInstruction getField = new GetFieldInstruction();
+        getField.setField(field);
+        getField.setFieldType(type);
+        getField.setReceiver(block.getProgram().createVariable());
+        block.getInstructions().add(getField);
+        return getField.getReceiver();
+    }
+
+    private PutFieldInstruction putStatic(FieldReference field, Variable value, ValueType type) {
+        PutFieldInstruction putField = new PutFieldInstruction();
+        putField.setField(field);
+        putField.setFieldType(type);
+        putField.setValue(value);
+        return putField;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class DependencyTypeSetTest {
+    @Test
+    public void equalSetsAreShared() {
+        DependencyTypeSet.Table table = new DependencyTypeSet.Table();
+        DependencyTypeSet first = table.add(table.add(DependencyTypeSet.EMPTY, 3), 7);
+        DependencyTypeSet second = table.add(table.add(DependencyTypeSet.EMPTY, 7), 3);
+        DependencyTypeSet third = table.addAll(DependencyTypeSet.EMPTY, new int[] { 7, 3, 7 });
+        assertThat(second, sameInstance(first));
+        assertThat(third, sameInstance(first));
+        assertThat(table.add(first, 3), sameInstance(first));
+        assertThat(first.toArray(), is(new int[] { 3, 7 }));
+    }
+
+    @Test
+    public void largeSetsAreShared() {
+        DependencyTypeSet.Table table = new DependencyTypeSet.Table();
+        DependencyTypeSet ascending = DependencyTypeSet.EMPTY;
+        for (int i = 0; i < 100; ++i) {
+            ascending = table.add(ascending, i * 3);
+        }
+        int[] types = new int[100];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = (99 - i) * 3;
+        }
+        DependencyTypeSet descending = table.addAll(table.addAll(DependencyTypeSet.EMPTY, new int[] { 297, 0 }),
+                types);
+        assertThat(descending, sameInstance(ascending));
+        assertThat(ascending.size(), is(100));
+        assertTrue(ascending.contains(150));
+        assertFalse(ascending.contains(151));
+        assertFalse(ascending.contains(1000));
+        assertThat(ascending.toArray().length, is(100));
+        assertThat(ascending.toArray()[99], is(297));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.javascript;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.teavm.codegen.DefaultAliasProvider;
+import org.teavm.codegen.DefaultNamingStrategy;
+import org.teavm.codegen.SourceWriter;
+import org.teavm.codegen.SourceWriterBuilder;
+import org.teavm.diagnostics.AccumulationDiagnostics;
+import org.teavm.javascript.ast.ClassNode;
+import org.teavm.javascript.spi.Injector;
+import org.teavm.model.AccessLevel;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ClassFragmentCacheTest {
+    private static final String CALLER = "test.Caller";
+    private static final String CALLEE = "test.Callee";
+    private static final MethodReference VALUE_METHOD = new MethodReference(CALLEE, "value", ValueType.INTEGER);
+    private static final Injector INJECTOR = (context, methodRef) -> context.getWriter().append("42");
+
+    @Test
+    public void callersRenderedAgainWhenInjectorAdded() {
+        ClassFragmentCache cache = new ClassFragmentCache();
+        render(createClassSource(false), cache, renderer -> { });
+
+        String cached = render(createClassSource(false), cache,
+                renderer -> renderer.addInjector(VALUE_METHOD, INJECTOR));
+        String expected = render(createClassSource(false), null,
+                renderer -> renderer.addInjector(VALUE_METHOD, INJECTOR));
+        assertThat(cached, is(expected));
+        assertTrue(cached.contains("42"));
+
+        String withoutInjector = render(createClassSource(false), cache, renderer -> { });
+        assertThat(withoutInjector, is(render(createClassSource(false), null, renderer -> { })));
+    }
+
+    @Test
+    public void callersRenderedAgainWhenCalleeGetsStaticInitializer() {
+        ClassFragmentCache cache = new ClassFragmentCache();
+        render(createClassSource(false), cache, renderer -> { });
+
+        String cached = render(createClassSource(true), cache, renderer -> { });
+        assertThat(cached, is(render(createClassSource(true), null, renderer -> { })));
+        // Only the root class is reused, the callee changed and its caller depends on it
+        assertThat(cache.getStatistics().getMisses(), is(2L));
+    }
+
+    @Test
+    public void unchangedClassesTakenFromCache() {
+        ClassFragmentCache cache = new ClassFragmentCache();
+        render(createClassSource(false), cache, renderer -> { });
+
+        String cached = render(createClassSource(false), cache, renderer -> { });
+        assertThat(cached, is(render(createClassSource(false), null, renderer -> { })));
+        assertThat(cache.getStatistics().getMisses(), is(0L));
+    }
+
+    private String render(MutableClassHolderSource classSource, ClassFragmentCache cache,
+            Consumer<Renderer> setup) {
+        Decompiler decompiler = new Decompiler(classSource, ClassFragmentCacheTest.class.getClassLoader(),
+                Collections.emptySet(), Collections.emptySet());
+        List<ClassNode> classes = decompiler.decompile(classSource.getClassNames());
+        StringBuilder output = new StringBuilder();
+        SourceWriter writer = new SourceWriterBuilder(new DefaultNamingStrategy(new DefaultAliasProvider(),
+                classSource)).build(output);
+        Renderer renderer = new Renderer(writer, classSource, ClassFragmentCacheTest.class.getClassLoader(),
+                null, Collections.emptySet(), Collections.emptySet(), new AccumulationDiagnostics());
+        renderer.setFragmentCache(cache);
+        setup.accept(renderer);
+        renderer.render(classes);
+        return output.toString();
+    }
+
+    private MutableClassHolderSource createClassSource(boolean calleeInitialized) {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+        ClassHolder objectClass = new ClassHolder("java.lang.Object");
+        objectClass.setParent(null);
+        objectClass.setLevel(AccessLevel.PUBLIC);
+        classSource.putClassHolder(objectClass);
+
+        ClassHolder callee = new ClassHolder(CALLEE);
+        callee.setLevel(AccessLevel.PUBLIC);
+        Program program = new Program();
+        program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        IntegerConstantInstruction constant = new IntegerConstantInstruction();
+        constant.setConstant(1);
+        constant.setReceiver(program.createVariable());
+        block.getInstructions().add(constant);
+        ExitInstruction exit = new ExitInstruction();
+        exit.setValueToReturn(constant.getReceiver());
+        block.getInstructions().add(exit);
+        callee.addMethod(createStaticMethod(program, "value", ValueType.INTEGER));
+        if (calleeInitialized) {
+            program = new Program();
+            program.createVariable();
+            program.createBasicBlock().getInstructions().add(new ExitInstruction());
+            callee.addMethod(createStaticMethod(program, "<clinit>", ValueType.VOID));
+        }
+        classSource.putClassHolder(callee);
+
+        ClassHolder caller = new ClassHolder(CALLER);
+        caller.setLevel(AccessLevel.PUBLIC);
+        program = new Program();
+        program.createVariable();
+        block = program.createBasicBlock();
+        Variable result = program.createVariable();
+        InvokeInstruction invoke = new InvokeInstruction();
+        invoke.setType(InvocationType.SPECIAL);
+        invoke.setMethod(VALUE_METHOD);
+        invoke.setReceiver(result);
+        block.getInstructions().add(invoke);
+        exit = new ExitInstruction();
+        exit.setValueToReturn(result);
+        block.getInstructions().add(exit);
+        caller.addMethod(createStaticMethod(program, "run", ValueType.INTEGER));
+        classSource.putClassHolder(caller);
+
+        return classSource;
+    }
+
+    private MethodHolder createStaticMethod(Program program, String name, ValueType... signature) {
+        MethodHolder method = new MethodHolder(name, signature);
+        method.setLevel(AccessLevel.PUBLIC);
+        method.getModifiers().add(ElementModifier.STATIC);
+        method.setProgram(program);
+        return method;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ClassHierarchyTest {
+    @Test
+    public void answersSameAsClassSource() {
+        MutableClassHolderSource classSource = generate(new Random(12345), 200, 60, 10);
+        List<String> names = new ArrayList<>(classSource.getClassNames());
+        for (int i = 0; i < 10; ++i) {
+            names.add("MissingClass" + i);
+            names.add("MissingInterface" + i);
+        }
+        ClassHierarchy hierarchy = new ClassHierarchy(classSource);
+        for (String superType : names) {
+            for (String subType : names) {
+                assertThat(superType + " :> " + subType, hierarchy.isSuperType(superType, subType),
+                        is(classSource.isSuperType(superType, subType)));
+            }
+        }
+    }
+
+    @Test
+    public void answersAboutValueTypes() {
+        MutableClassHolderSource classSource = generate(new Random(1), 10, 5, 0);
+        ClassHierarchy hierarchy = new ClassHierarchy(classSource);
+        ValueType[] types = { ValueType.INTEGER, ValueType.object("java.lang.Object"), ValueType.object("Class3"),
+                ValueType.object("Interface2"), ValueType.arrayOf(ValueType.object("Class3")),
+                ValueType.arrayOf(ValueType.object("Interface2")), ValueType.arrayOf(ValueType.INTEGER) };
+        for (ValueType superType : types) {
+            for (ValueType subType : types) {
+                assertThat(hierarchy.isSuperType(superType, subType), is(classSource.isSuperType(superType,
+                        subType)));
+            }
+        }
+    }
+
+    /**
+     * <p>Generates random hierarchy of classes that extend each other and implement several interfaces.
+     * Some of classes refer to missing superclasses and interfaces.</p>
+     */
+    private static MutableClassHolderSource generate(Random random, int classCount, int interfaceCount,
+            int missingCount) {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+        classSource.putClassHolder(new ClassHolder("java.lang.Object"));
+        for (int i = 0; i < interfaceCount; ++i) {
+            ClassHolder cls = new ClassHolder("Interface" + i);
+            cls.getModifiers().add(ElementModifier.INTERFACE);
+            cls.setParent("java.lang.Object");
+            addInterfaces(random, cls, i, missingCount);
+            classSource.putClassHolder(cls);
+        }
+        for (int i = 0; i < classCount; ++i) {
+            ClassHolder cls = new ClassHolder("Class" + i);
+            if (missingCount > 0 && random.nextInt(20) == 0) {
+                cls.setParent("MissingClass" + random.nextInt(missingCount));
+            } else if (i == 0 || random.nextInt(5) == 0) {
+                cls.setParent("java.lang.Object");
+            } else {
+                cls.setParent("Class" + random.nextInt(i));
+            }
+            addInterfaces(random, cls, interfaceCount, missingCount);
+            classSource.putClassHolder(cls);
+        }
+        return classSource;
+    }
+
+    private static void addInterfaces(Random random, ClassHolder cls, int interfaceCount, int missingCount) {
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; ++i) {
+            if (missingCount > 0 && random.nextInt(10) == 0) {
+                cls.getInterfaces().add("MissingInterface" + random.nextInt(missingCount));
+            } else if (interfaceCount > 0) {
+                cls.getInterfaces().add("Interface" + random.nextInt(interfaceCount));
+            }
+        }
+    }
+}
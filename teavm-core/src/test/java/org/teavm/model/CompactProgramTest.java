@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.teavm.model.util.ListingBuilder;
+import org.teavm.model.util.ModelUtils;
+import org.teavm.parsing.ClasspathClassHolderSource;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class CompactProgramTest {
+    private ClassHolderSource classSource = new ClasspathClassHolderSource();
+
+    @Test
+    public void readsSameAsOriginal() {
+        int methodCount = 0;
+        for (String className : new String[] { CompactProgram.class.getName(), ClassHierarchy.class.getName(),
+                "java.util.HashMap", "java.lang.String" }) {
+            for (MethodHolder method : classSource.get(className).getMethods()) {
+                Program program = method.getProgram();
+                if (program == null) {
+                    continue;
+                }
+                CompactProgram compactProgram = CompactProgram.create(program);
+                String listing = listing(program);
+                assertThat(method.getReference().toString(), listing(compactProgram), is(listing));
+                assertThat(method.getReference().toString(), listing(compactProgram.toProgram()), is(listing));
+                ++methodCount;
+            }
+        }
+        assertTrue(methodCount > 100);
+    }
+
+    @Test
+    public void holderConvertsProgramWhenRequested() {
+        ClassHolder cls = classSource.get(ClassHierarchy.class.getName());
+        ClassHolder copy = ModelUtils.copyClass(cls);
+        for (MethodHolder method : copy.getMethods()) {
+            if (method.readProgram() != null) {
+                assertTrue(method.readProgram() instanceof CompactProgram);
+            }
+        }
+
+        MethodHolder method = copy.getMethod(new MethodDescriptor("getClassSource", ClassReaderSource.class));
+        String listing = listing(method.readProgram());
+        Program program = method.getProgram();
+        assertSame(program, method.readProgram());
+        assertThat(listing(program), is(listing));
+        assertThat(listing(ModelUtils.copyMethod(method).getProgram()), is(listing));
+    }
+
+    @Test
+    public void lazyProgramIsProducedOnce() {
+        Program original = classSource.get(ClassHierarchy.class.getName())
+                .getMethod(new MethodDescriptor("getClassSource", ClassReaderSource.class)).getProgram();
+        String listing = listing(original);
+        AtomicInteger supplierCalls = new AtomicInteger();
+        AtomicInteger transformationCalls = new AtomicInteger();
+        CompactProgram program = CompactProgram.lazy(() -> {
+            supplierCalls.incrementAndGet();
+            return CompactProgram.create(original).toProgram();
+        });
+        CompactProgram transformed = program.transform(p -> transformationCalls.incrementAndGet());
+        assertThat(supplierCalls.get(), is(0));
+        assertThat(transformationCalls.get(), is(0));
+
+        assertThat(listing(transformed), is(listing));
+        assertThat(listing(transformed.toProgram()), is(listing));
+        assertThat(listing(program), is(listing));
+        assertThat(supplierCalls.get(), is(1));
+        assertThat(transformationCalls.get(), is(1));
+    }
+
+    private static String listing(ProgramReader program) {
+        return new ListingBuilder().buildListing(program, "");
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model;
+
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ReferenceCacheTest {
+    @Test
+    public void parsedTypesAreCanonical() {
+        ValueType type = ValueType.parse("[[Ljava/lang/String;");
+        assertSame(type, ValueType.parse("[[Ljava/lang/String;"));
+        assertSame(type, ReferenceCache.getCached(ValueType.arrayOf(ValueType.arrayOf(
+                ValueType.object("java.lang.String")))));
+        assertSame(((ValueType.Array) type).getItemType(), ValueType.parse("[Ljava/lang/String;"));
+    }
+
+    @Test
+    public void parsedMethodsAreCanonical() {
+        MethodReference method = MethodReference.parse("java.lang.Integer.valueOf(I)Ljava/lang/Integer;");
+        assertSame(method, MethodReference.parse("java.lang.Integer.valueOf(I)Ljava/lang/Integer;"));
+        assertSame(method, ReferenceCache.getCached(new MethodReference(Integer.class, "valueOf", int.class,
+                Integer.class)));
+        assertSame(method.getDescriptor(), MethodDescriptor.parse("valueOf(I)Ljava/lang/Integer;"));
+    }
+
+    @Test
+    public void cachedMethodsShareTypes() {
+        MethodReference method = ReferenceCache.getCached(new MethodReference("foo.Bar", "baz",
+                ValueType.object("foo.Baz"), ValueType.VOID));
+        MethodDescriptor descriptor = ReferenceCache.getCached(new MethodDescriptor("qux",
+                ValueType.object("foo.Baz"), ValueType.INTEGER));
+        assertSame(method.parameterType(0), descriptor.parameterType(0));
+        assertSame(method.parameterType(0), ValueType.parse("Lfoo/Baz;"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.parsing;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.util.ListingBuilder;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ClasspathClassHolderSourceTest {
+    private static final String[] CLASS_NAMES = { ClasspathClassHolderSource.class.getName(),
+            ClasspathResourceMapper.class.getName(), Parser.class.getName(), ProgramParser.class.getName(),
+            "java.util.ArrayList", "java.util.HashMap" };
+
+    @Test
+    public void prefetchingGivesSameClasses() {
+        ClasspathClassHolderSource expectedSource = new ClasspathClassHolderSource();
+        ClasspathClassHolderSource actualSource = new ClasspathClassHolderSource();
+        actualSource.setNumThreads(4);
+        for (String className : CLASS_NAMES) {
+            assertThat(className, describe(actualSource.get(className)), is(describe(expectedSource.get(className))));
+        }
+    }
+
+    @Test
+    public void lazyParsingGivesSameClasses() {
+        ClasspathClassHolderSource expectedSource = new ClasspathClassHolderSource();
+        ClasspathClassHolderSource actualSource = new ClasspathClassHolderSource();
+        actualSource.setLazy(true);
+        for (String className : CLASS_NAMES) {
+            assertThat(className, describe(actualSource.get(className)), is(describe(expectedSource.get(className))));
+        }
+    }
+
+    @Test
+    public void lazyProgramTransformedWhenRead() throws InterruptedException {
+        ClasspathClassHolderSource classSource = new ClasspathClassHolderSource();
+        classSource.setLazy(true);
+        ClassHolder cls = classSource.get(ProgramParser.class.getName());
+        AtomicInteger transformCount = new AtomicInteger();
+        AtomicReference<Thread> transformThread = new AtomicReference<>();
+        for (MethodHolder method : cls.getMethods()) {
+            method.transformProgram(program -> {
+                transformCount.incrementAndGet();
+                transformThread.set(Thread.currentThread());
+            });
+        }
+        assertThat(transformCount.get(), is(0));
+
+        MethodHolder method = cls.getMethods().stream()
+                .filter(m -> m.getName().equals("parse"))
+                .findFirst().get();
+        Thread thread = new Thread(() -> method.readProgram().basicBlockCount());
+        thread.start();
+        thread.join();
+        assertThat(transformCount.get(), is(1));
+        assertSame(thread, transformThread.get());
+    }
+
+    @Test
+    public void concurrentRequestsGetSameClass() throws InterruptedException {
+        ClasspathClassHolderSource classSource = new ClasspathClassHolderSource();
+        classSource.setNumThreads(2);
+        List<Thread> threads = new ArrayList<>();
+        List<AtomicReference<ClassHolder>> results = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            AtomicReference<ClassHolder> result = new AtomicReference<>();
+            results.add(result);
+            Thread thread = new Thread(() -> result.set(classSource.get(ProgramParser.class.getName())));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ClassHolder cls = classSource.get(ProgramParser.class.getName());
+        for (AtomicReference<ClassHolder> result : results) {
+            assertSame(cls, result.get());
+        }
+    }
+
+    private static String describe(ClassHolder cls) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(cls.getName()).append(" extends ").append(cls.getParent()).append(" implements ")
+                .append(cls.getInterfaces()).append('\n');
+        for (MethodHolder method : cls.getMethods()) {
+            sb.append(method.getDescriptor()).append('\n');
+            if (method.getProgram() != null) {
+                sb.append(new ListingBuilder().buildListing(method.getProgram(), "    "));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.resource;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ClasspathIndexTest {
+    private File directory;
+    private URLClassLoader classLoader;
+
+    @Before
+    public void createClasspath() throws IOException {
+        directory = Files.createTempDirectory("teavm-classpath").toFile();
+        File first = new File(directory, "first.jar");
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(first))) {
+            writeEntry(output, "foo/A.txt", "first A", ZipEntry.DEFLATED);
+            writeEntry(output, "foo/B.txt", "first B", ZipEntry.STORED);
+            writeEntry(output, "root.txt", "root", ZipEntry.DEFLATED);
+        }
+        File second = new File(directory, "second.jar");
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(second))) {
+            writeEntry(output, "foo/A.txt", "second A", ZipEntry.DEFLATED);
+            writeEntry(output, "foo/bar/C.txt", repeat("second C", 1000), ZipEntry.DEFLATED);
+        }
+        File classes = new File(directory, "classes");
+        new File(classes, "foo/bar").mkdirs();
+        Files.write(new File(classes, "foo/bar/C.txt").toPath(), "directory C".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(classes, "foo/bar/D.txt").toPath(), "directory D".getBytes(StandardCharsets.UTF_8));
+        classLoader = new URLClassLoader(new URL[] { first.toURI().toURL(), classes.toURI().toURL(),
+                second.toURI().toURL() }, ClasspathIndexTest.class.getClassLoader());
+    }
+
+    @After
+    public void deleteClasspath() throws IOException {
+        classLoader.close();
+        delete(directory);
+    }
+
+    @Test
+    public void findsSameResourcesAsClassLoader() throws IOException {
+        ClasspathIndex index = new ClasspathIndex(classLoader);
+        for (String name : new String[] { "foo/A.txt", "foo/B.txt", "root.txt", "foo/bar/C.txt", "foo/bar/D.txt",
+                "foo/C.txt", "bar/A.txt", "A.txt", ClasspathIndex.class.getName().replace('.', '/') + ".class" }) {
+            assertThat(name, index.hasResource(name), is(classLoader.getResource(name) != null));
+            assertThat(name, read(index.openResource(name)), is(read(classLoader.getResourceAsStream(name))));
+        }
+    }
+
+    @Test
+    public void indexesParentClassLoaders() throws IOException {
+        try (URLClassLoader jarClassLoader = new URLClassLoader(new URL[] {
+                    new File(directory, "first.jar").toURI().toURL(),
+                    new File(directory, "second.jar").toURI().toURL() }, ClasspathIndexTest.class.getClassLoader());
+                URLClassLoader directoryClassLoader = new URLClassLoader(new URL[] {
+                    new File(directory, "classes").toURI().toURL() }, jarClassLoader)) {
+            ClasspathIndex index = new ClasspathIndex(directoryClassLoader);
+            for (String name : new String[] { "foo/A.txt", "foo/B.txt", "foo/bar/C.txt", "foo/bar/D.txt",
+                    "foo/C.txt" }) {
+                assertThat(name, read(index.openResource(name)),
+                        is(read(directoryClassLoader.getResourceAsStream(name))));
+            }
+            assertThat(read(new ClasspathIndex(jarClassLoader).openResource("foo/bar/C.txt")),
+                    is(repeat("second C", 1000)));
+        }
+    }
+
+    @Test
+    public void reportsDateOfContainingFile() {
+        ClasspathIndex index = new ClasspathIndex(classLoader);
+        assertThat(index.getModificationDate("foo/B.txt"),
+                is(new Date(new File(directory, "first.jar").lastModified())));
+        assertThat(index.getModificationDate("foo/bar/D.txt"),
+                is(new Date(new File(directory, "classes/foo/bar/D.txt").lastModified())));
+        assertThat(index.getModificationDate("foo/bar/E.txt"), is(nullValue()));
+    }
+
+    @Test
+    public void jarFileMayBeReplacedWhileOpened() throws IOException {
+        File file = new File(directory, "first.jar");
+        IndexedJarFile jar = new IndexedJarFile(file);
+        assertThat(new String(jar.read("foo/A.txt"), StandardCharsets.UTF_8), is("first A"));
+        assertThat(new String(jar.read("foo/B.txt"), StandardCharsets.UTF_8), is("first B"));
+
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file))) {
+            writeEntry(output, "foo/A.txt", "replaced A", ZipEntry.DEFLATED);
+        }
+        try {
+            jar.read("foo/A.txt");
+            fail("Changed jar file should not be read");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(file.delete());
+        assertThat(new String(new IndexedJarFile(new File(directory, "second.jar")).read("foo/A.txt"),
+                StandardCharsets.UTF_8), is("second A"));
+    }
+
+    private static void writeEntry(ZipOutputStream output, String name, String content, int method)
+            throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        output.putNextEntry(entry);
+        output.write(data);
+        output.closeEntry();
+    }
+
+    private static String read(InputStream input) throws IOException {
+        if (input == null) {
+            return null;
+        }
+        try (InputStream source = input) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (true) {
+                int bytesRead = source.read(buffer);
+                if (bytesRead < 0) {
+                    break;
+                }
+                output.write(buffer, 0, bytesRead);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMToolCacheTest {
+    private Map<String, Integer> hashRequests = new HashMap<>();
+    private Map<String, Integer> dateRequests = new HashMap<>();
+    private ClassHashProvider hashProvider = className -> {
+        hashRequests.merge(className, 1, Integer::sum);
+        return className.equals("Missing") ? null : className.getBytes();
+    };
+    private ClassDateProvider dateProvider = className -> {
+        dateRequests.merge(className, 1, Integer::sum);
+        return className.equals("Missing") ? null : new Date(className.length());
+    };
+
+    @Test
+    public void providersNotWrappedUnlessChangesReported() {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        assertThat(cache.wrapHashProvider(hashProvider), is(sameInstance(hashProvider)));
+        assertThat(cache.wrapDateProvider(dateProvider), is(sameInstance(dateProvider)));
+    }
+
+    @Test
+    public void hashesRememberedUntilClassChanged() {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        cache.setChangesReported(true);
+        ClassHashProvider hashes = cache.wrapHashProvider(hashProvider);
+        ClassDateProvider dates = cache.wrapDateProvider(dateProvider);
+        for (int i = 0; i < 2; ++i) {
+            assertThat(hashes.getClassHash("A"), is("A".getBytes()));
+            assertThat(hashes.getClassHash("B"), is("B".getBytes()));
+            assertThat(dates.getModificationDate("A"), is(new Date(1)));
+        }
+        assertThat(hashRequests.get("A"), is(1));
+        assertThat(dateRequests.get("A"), is(1));
+
+        cache.classesChanged(Collections.singleton("A"));
+        hashes = cache.wrapHashProvider(hashProvider);
+        dates = cache.wrapDateProvider(dateProvider);
+        hashes.getClassHash("A");
+        hashes.getClassHash("B");
+        dates.getModificationDate("A");
+        assertThat(hashRequests.get("A"), is(2));
+        assertThat(hashRequests.get("B"), is(1));
+        assertThat(dateRequests.get("A"), is(2));
+    }
+
+    @Test
+    public void missingClassRemembered() {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        cache.setChangesReported(true);
+        ClassHashProvider hashes = cache.wrapHashProvider(hashProvider);
+        assertThat(hashes.getClassHash("Missing"), is(nullValue()));
+        assertThat(hashes.getClassHash("Missing"), is(nullValue()));
+        assertThat(hashRequests.get("Missing"), is(1));
+
+        cache.classesChanged(Arrays.asList("Missing"));
+        assertThat(hashes.getClassHash("Missing"), is(nullValue()));
+        assertThat(hashRequests.get("Missing"), is(2));
+    }
+
+    @Test
+    public void everythingForgottenWhenClassPathChanged() {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        cache.setChangesReported(true);
+        ClassHashProvider hashes = cache.wrapHashProvider(hashProvider);
+        ClassDateProvider dates = cache.wrapDateProvider(dateProvider);
+        hashes.getClassHash("A");
+        dates.getModificationDate("B");
+
+        cache.classPathChanged();
+        hashes.getClassHash("A");
+        dates.getModificationDate("B");
+        assertThat(hashRequests.get("A"), is(2));
+        assertThat(dateRequests.get("B"), is(2));
+    }
+
+    @Test
+    public void rememberedValuesDroppedWhenReportingStops() {
+        TeaVMToolCache cache = new TeaVMToolCache();
+        cache.setChangesReported(true);
+        cache.wrapHashProvider(hashProvider).getClassHash("A");
+        cache.setChangesReported(false);
+        cache.setChangesReported(true);
+        cache.wrapHashProvider(hashProvider).getClassHash("A");
+        assertThat(hashRequests.get("A"), is(2));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling.daemon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.Test;
+import org.teavm.tooling.CacheStorageType;
+import org.teavm.tooling.MethodAlias;
+import org.teavm.tooling.RuntimeCopyOperation;
+import org.teavm.tooling.TeaVMTool;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class DaemonProtocolTest {
+    @Test
+    public void headerWithRightTokenAccepted() throws IOException {
+        String token = DaemonProtocol.createToken();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DaemonProtocol.writeHeader(new DataOutputStream(bytes), token);
+        DaemonProtocol.readHeader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), token);
+    }
+
+    @Test(expected = IOException.class)
+    public void headerWithWrongTokenRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DaemonProtocol.writeHeader(new DataOutputStream(bytes), DaemonProtocol.createToken());
+        DaemonProtocol.readHeader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                DaemonProtocol.createToken());
+    }
+
+    @Test
+    public void tokenFileReadableOnlyByOwner() throws IOException {
+        File directory = Files.createTempDirectory("teavm-token").toFile();
+        try {
+            File file = DaemonProtocol.getTokenFile(directory, 3998);
+            String token = DaemonProtocol.createToken();
+            DaemonProtocol.writeToken(file, token);
+            assertThat(DaemonProtocol.readToken(file), is(token));
+            if (file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())),
+                        is("rw-------"));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void settingsSurviveTransfer() throws IOException {
+        TeaVMTool tool = new TeaVMTool();
+        tool.setTargetDirectory(new File("target"));
+        tool.setTargetFileName("app.js");
+        tool.setMinifying(false);
+        tool.setMainClass("foo.Main");
+        tool.setRuntime(RuntimeCopyOperation.MERGED);
+        tool.setIncremental(true);
+        tool.setCacheStorageType(CacheStorageType.PACK);
+        tool.setCacheMaxSize(100);
+        tool.setNumThreads(4);
+        tool.setMetricsFile(new File("metrics.json"));
+        tool.setSizeReportFile(new File("sizes.html"));
+        tool.setStringPoolPacked(true);
+        tool.setLazyParsing(true);
+        tool.getProperties().setProperty("java.util.Locale.available", "en_US, ru_RU");
+        MethodAlias alias = new MethodAlias();
+        alias.setAlias("run");
+        alias.setClassName("foo.Main");
+        alias.setMethodName("run");
+        alias.setDescriptor("()V");
+        tool.getMethodAliases().add(alias);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DaemonProtocol.writeSettings(tool, new DataOutputStream(bytes));
+        TeaVMTool copy = new TeaVMTool();
+        DaemonProtocol.readSettings(copy, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(copy.getTargetDirectory(), is(new File("target").getAbsoluteFile()));
+        assertThat(copy.getTargetFileName(), is("app.js"));
+        assertThat(copy.isMinifying(), is(false));
+        assertThat(copy.getMainClass(), is("foo.Main"));
+        assertThat(copy.getRuntime(), is(RuntimeCopyOperation.MERGED));
+        assertThat(copy.isIncremental(), is(true));
+        assertThat(copy.getCacheStorageType(), is(CacheStorageType.PACK));
+        assertThat(copy.getCacheMaxSize(), is(100));
+        assertThat(copy.getNumThreads(), is(4));
+        assertThat(copy.getMetricsFile(), is(new File("metrics.json").getAbsoluteFile()));
+        assertThat(copy.getSizeReportFile(), is(new File("sizes.html").getAbsoluteFile()));
+        assertThat(copy.getSizeReportBaseline(), is(nullValue()));
+        assertThat(copy.isStringPoolPacked(), is(true));
+        assertThat(copy.isLazyParsing(), is(true));
+        assertThat(copy.getProperties().getProperty("java.util.Locale.available"), is("en_US, ru_RU"));
+        assertThat(copy.getMethodAliases().size(), is(1));
+        assertThat(copy.getMethodAliases().get(0).getDescriptor(), is("()V"));
+        assertThat(copy.getMethodAliases().get(0).getTypes(), is(nullValue()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling.daemon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.tooling.EmptyTeaVMToolLog;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class TeaVMDaemonTest {
+    private File tokenDirectory;
+    private TeaVMDaemon daemon;
+    private Thread daemonThread;
+
+    @Before
+    public void start() throws IOException {
+        tokenDirectory = Files.createTempDirectory("teavm-daemon").toFile();
+        daemon = new TeaVMDaemon(0, TeaVMDaemonTest.class.getClassLoader(), tokenDirectory);
+        daemon.setLog(new EmptyTeaVMToolLog());
+        daemon.setRequestTimeout(200);
+        daemonThread = new Thread(daemon::run);
+        daemonThread.setDaemon(true);
+        daemonThread.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.close();
+        daemonThread.join(5000);
+        delete(tokenDirectory);
+    }
+
+    @Test
+    public void tokenFileWrittenAndRemoved() throws IOException {
+        File file = daemon.getTokenFile();
+        assertThat(file, is(DaemonProtocol.getTokenFile(tokenDirectory, daemon.getPort())));
+        assertThat(DaemonProtocol.readToken(file).length(), is(64));
+        daemon.close();
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test(timeout = 10000)
+    public void idleClientDoesNotBlockOthers() throws IOException {
+        try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DataOutputStream output = new DataOutputStream(client.getOutputStream());
+            DaemonProtocol.writeHeader(output, DaemonProtocol.createToken());
+            output.flush();
+            // The daemon drops the idle client after the timeout, then rejects the wrong token
+            assertThat(client.getInputStream().read(), is(-1));
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
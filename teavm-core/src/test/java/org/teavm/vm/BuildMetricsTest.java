@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import org.teavm.cache.CacheStatistics;
+import org.teavm.diagnostics.Diagnostics;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassHolderTransformer;
+import org.teavm.model.ClassReaderSource;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class BuildMetricsTest {
+    @Test
+    public void nestedPluginTimeIsExclusive() {
+        BuildMetrics metrics = new BuildMetrics();
+        ClassHolderTransformer inner = metrics.measureTransformer(new InnerTransformer());
+        ClassHolderTransformer outer = metrics.measureTransformer(new OuterTransformer(inner));
+        outer.transformClass(null, null, null);
+        outer.transformClass(null, null, null);
+
+        List<BuildMetrics.PluginMetrics> plugins = metrics.getPlugins();
+        assertThat(plugins.size(), is(2));
+        BuildMetrics.PluginMetrics innerMetrics = plugins.get(0);
+        BuildMetrics.PluginMetrics outerMetrics = plugins.get(1);
+        assertThat(innerMetrics.getClassName(), is(InnerTransformer.class.getName()));
+        assertThat(innerMetrics.getKind(), is(BuildMetrics.CLASS_TRANSFORMER));
+        assertThat(innerMetrics.getCalls(), is(2L));
+        assertThat(outerMetrics.getCalls(), is(2L));
+        assertThat(innerMetrics.getTime() >= 40000000, is(true));
+        assertThat(outerMetrics.getTime() < 20000000, is(true));
+    }
+
+    @Test
+    public void writesJson() throws IOException {
+        BuildMetrics metrics = new BuildMetrics();
+        metrics.phaseStarted(TeaVMPhase.DEPENDENCY_CHECKING);
+        metrics.phaseStarted(TeaVMPhase.LINKING);
+        metrics.phaseStarted(TeaVMPhase.LINKING);
+        metrics.setCounter("linkedClasses", 10);
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.hit();
+        statistics.hit();
+        statistics.hit();
+        statistics.miss();
+        metrics.addCache("programs", statistics);
+        metrics.finish();
+
+        assertThat(metrics.getPhases().size(), is(2));
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        String json = writer.toString();
+        assertThat(json.contains("\"phase\": \"LINKING\""), is(true));
+        assertThat(json.contains("\"linkedClasses\": 10"), is(true));
+        assertThat(json.contains("\"programs\": { \"hits\": 3, \"misses\": 1, \"hitRatio\": 0.7500 }"), is(true));
+    }
+
+    static class InnerTransformer implements ClassHolderTransformer {
+        @Override
+        public void transformClass(ClassHolder cls, ClassReaderSource innerSource, Diagnostics diagnostics) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static class OuterTransformer implements ClassHolderTransformer {
+        private ClassHolderTransformer inner;
+
+        OuterTransformer(ClassHolderTransformer inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void transformClass(ClassHolder cls, ClassReaderSource innerSource, Diagnostics diagnostics) {
+            inner.transformClass(cls, innerSource, diagnostics);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.teavm.dependency.DependencyChecker;
+import org.teavm.diagnostics.AccumulationDiagnostics;
+import org.teavm.model.AccessLevel;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.ConstructInstruction;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class ChunkPartitionerTest {
+    private static final String OBJECT = "java.lang.Object";
+    private static final MethodReference MAIN = staticMethod("test.Main", "main");
+    private static final MethodReference EXTRA = staticMethod("test.Main", "extra");
+    private static final MethodReference SPLIT_A = staticMethod("test.SplitA", "run");
+    private static final MethodReference SPLIT_B = staticMethod("test.SplitB", "run");
+    private static final MethodReference EXPORTED = staticMethod("test.Exported", "run");
+
+    @Test
+    public void classesUsedBySingleSplitPointGoToItsChunk() {
+        List<TeaVMChunk> chunks = partition(Arrays.asList(SPLIT_A, SPLIT_B, EXTRA));
+
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(0).getFileName(), is("chunk-1.js"));
+        assertThat(chunks.get(0).getSplitPoint(), is(EXTRA));
+        assertThat(describe(chunks.get(0)), is("[test.OnlyExtra]"));
+        assertThat(chunks.get(1).getSplitPoint(), is(SPLIT_A));
+        assertThat(describe(chunks.get(1)), is("[test.BaseA, test.InitHelper, test.OnlyA]"));
+        assertThat(chunks.get(2).getSplitPoint(), is(SPLIT_B));
+        assertThat(describe(chunks.get(2)), is("[test.OnlyB]"));
+    }
+
+    @Test
+    public void classOfSplitPointCalledOnlyByRootGoesToChunk() {
+        // Calls to static methods initialize their classes, so a class of a split point that main code calls
+        // stays in main code, but an entry point is called from outside
+        List<TeaVMChunk> chunks = partition(Arrays.asList(SPLIT_A, EXPORTED));
+
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(0).getSplitPoint(), is(EXPORTED));
+        assertThat(describe(chunks.get(0)), is("[test.Exported, test.ExportedHelper]"));
+        assertThat(chunks.get(1).getSplitPoint(), is(SPLIT_A));
+        assertThat(chunks.get(1).getClassNames().contains("test.SplitA"), is(false));
+    }
+
+    @Test
+    public void sharedClassesStayInMainCode() {
+        List<String> chunkClasses = new ArrayList<>();
+        for (TeaVMChunk chunk : partition(Arrays.asList(SPLIT_A, SPLIT_B, EXTRA))) {
+            chunkClasses.addAll(chunk.getClassNames());
+        }
+
+        // Shared is used by both split points, SharedBase is a parent of classes in main code and in a chunk,
+        // Main declares a split point, but is used by main code as well, the same is true for classes whose
+        // split points are called by main code
+        for (String className : new String[] { OBJECT, "test.Main", "test.Direct", "test.Shared",
+                "test.SharedBase", "test.SplitA", "test.SplitB" }) {
+            assertThat(className, chunkClasses.contains(className), is(false));
+        }
+    }
+
+    @Test
+    public void classesReachableWithoutSplitPointStayInMainCode() {
+        // Without SplitB as a split point, Shared is called whenever main runs
+        List<TeaVMChunk> chunks = partition(Arrays.asList(SPLIT_A));
+
+        assertThat(chunks.size(), is(1));
+        assertThat(describe(chunks.get(0)), is("[test.BaseA, test.InitHelper, test.OnlyA]"));
+    }
+
+    @Test
+    public void splitPointWithoutOwnClassesGetsNoChunk() {
+        List<TeaVMChunk> chunks = partition(Arrays.asList(staticMethod("test.Shared", "help")));
+
+        assertThat(chunks.size(), is(0));
+    }
+
+    @Test
+    public void onlyLinkedClassesGoToChunks() {
+        List<TeaVMChunk> chunks = new ChunkPartitioner(analyze(), Arrays.asList(SPLIT_A))
+                .partition("part-", Arrays.asList("test.OnlyA", "test.InitHelper"));
+
+        assertThat(chunks.size(), is(1));
+        assertThat(chunks.get(0).getFileName(), is("part-1.js"));
+        assertThat(describe(chunks.get(0)), is("[test.InitHelper, test.OnlyA]"));
+    }
+
+    private List<TeaVMChunk> partition(List<MethodReference> splitPoints) {
+        return new ChunkPartitioner(analyze(), splitPoints).partition("chunk-", allClasses());
+    }
+
+    private static String describe(TeaVMChunk chunk) {
+        List<String> classNames = new ArrayList<>(chunk.getClassNames());
+        Collections.sort(classNames);
+        return classNames.toString();
+    }
+
+    private List<String> allClasses() {
+        return Arrays.asList(OBJECT, "test.Main", "test.SplitA", "test.SplitB", "test.Shared", "test.SharedBase",
+                "test.Direct", "test.BaseA", "test.OnlyA", "test.InitHelper", "test.OnlyB", "test.OnlyExtra",
+                "test.Exported", "test.ExportedHelper");
+    }
+
+    private DependencyChecker analyze() {
+        DependencyChecker checker = new DependencyChecker(createClassSource(),
+                ChunkPartitionerTest.class.getClassLoader(), null, new AccumulationDiagnostics());
+        checker.linkMethod(MAIN, null).use();
+        checker.linkMethod(EXPORTED, null).use();
+        checker.processDependencies();
+        return checker;
+    }
+
+    /**
+     * <p>Main calls both split points and the third split point <code>extra</code>, and constructs Direct.
+     * SplitA calls Shared and constructs OnlyA, whose parent is BaseA and whose static initializer calls
+     * InitHelper. SplitB calls Shared and constructs OnlyB. Both OnlyB and Direct extend SharedBase.
+     * The <code>extra</code> split point calls OnlyExtra. Exported is an entry point that calls ExportedHelper.</p>
+     */
+    private MutableClassHolderSource createClassSource() {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+
+        ClassHolder objectClass = createClass(OBJECT, null);
+        Program program = new Program();
+        program.createVariable();
+        program.createBasicBlock().getInstructions().add(new ExitInstruction());
+        objectClass.addMethod(createMethod(program, false, "<init>"));
+        classSource.putClassHolder(objectClass);
+
+        ClassHolder mainClass = createClass("test.Main", OBJECT);
+        mainClass.addMethod(createStaticMethod("main", new String[] { "test.Direct" }, SPLIT_A, SPLIT_B, EXTRA));
+        mainClass.addMethod(createStaticMethod("extra", new String[0], staticMethod("test.OnlyExtra", "go")));
+        classSource.putClassHolder(mainClass);
+
+        ClassHolder splitA = createClass("test.SplitA", OBJECT);
+        splitA.addMethod(createStaticMethod("run", new String[] { "test.OnlyA" },
+                staticMethod("test.Shared", "help")));
+        classSource.putClassHolder(splitA);
+
+        ClassHolder splitB = createClass("test.SplitB", OBJECT);
+        splitB.addMethod(createStaticMethod("run", new String[] { "test.OnlyB" },
+                staticMethod("test.Shared", "help")));
+        classSource.putClassHolder(splitB);
+
+        ClassHolder onlyA = createClassWithConstructor("test.OnlyA", "test.BaseA");
+        onlyA.addMethod(createStaticMethod("<clinit>", new String[0], staticMethod("test.InitHelper", "init")));
+        classSource.putClassHolder(onlyA);
+
+        classSource.putClassHolder(createClassWithConstructor("test.BaseA", OBJECT));
+        classSource.putClassHolder(createClassWithConstructor("test.SharedBase", OBJECT));
+        classSource.putClassHolder(createClassWithConstructor("test.Direct", "test.SharedBase"));
+        classSource.putClassHolder(createClassWithConstructor("test.OnlyB", "test.SharedBase"));
+        classSource.putClassHolder(createClassWithMethod("test.Shared", "help"));
+        classSource.putClassHolder(createClassWithMethod("test.InitHelper", "init"));
+        classSource.putClassHolder(createClassWithMethod("test.OnlyExtra", "go"));
+
+        ClassHolder exported = createClass("test.Exported", OBJECT);
+        exported.addMethod(createStaticMethod("run", new String[0], staticMethod("test.ExportedHelper", "go")));
+        classSource.putClassHolder(exported);
+        classSource.putClassHolder(createClassWithMethod("test.ExportedHelper", "go"));
+
+        return classSource;
+    }
+
+    private ClassHolder createClass(String name, String parent) {
+        ClassHolder cls = new ClassHolder(name);
+        cls.setLevel(AccessLevel.PUBLIC);
+        cls.setParent(parent);
+        return cls;
+    }
+
+    private ClassHolder createClassWithMethod(String name, String methodName) {
+        ClassHolder cls = createClass(name, OBJECT);
+        cls.addMethod(createStaticMethod(methodName, new String[0]));
+        return cls;
+    }
+
+    private ClassHolder createClassWithConstructor(String name, String parent) {
+        ClassHolder cls = createClass(name, parent);
+        Program program = new Program();
+        Variable self = program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        InvokeInstruction superInit = new InvokeInstruction();
+        superInit.setType(InvocationType.SPECIAL);
+        superInit.setMethod(new MethodReference(parent, "<init>", ValueType.VOID));
+        superInit.setInstance(self);
+        block.getInstructions().add(superInit);
+        block.getInstructions().add(new ExitInstruction());
+        cls.addMethod(createMethod(program, false, "<init>"));
+        return cls;
+    }
+
+    private MethodHolder createStaticMethod(String name, String[] constructedClasses, MethodReference... callees) {
+        Program program = new Program();
+        program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        for (String className : constructedClasses) {
+            ConstructInstruction construct = new ConstructInstruction();
+            construct.setType(className);
+            construct.setReceiver(program.createVariable());
+            block.getInstructions().add(construct);
+            InvokeInstruction init = new InvokeInstruction();
+            init.setType(InvocationType.SPECIAL);
+            init.setMethod(new MethodReference(className, "<init>", ValueType.VOID));
+            init.setInstance(construct.getReceiver());
+            block.getInstructions().add(init);
+        }
+        for (MethodReference callee : callees) {
+            InvokeInstruction invoke = new InvokeInstruction();
+            invoke.setType(InvocationType.SPECIAL);
+            invoke.setMethod(callee);
+            block.getInstructions().add(invoke);
+        }
+        block.getInstructions().add(new ExitInstruction());
+        return createMethod(program, true, name);
+    }
+
+    private MethodHolder createMethod(Program program, boolean isStatic, String name) {
+        MethodHolder method = new MethodHolder(name, ValueType.VOID);
+        method.setLevel(AccessLevel.PUBLIC);
+        if (isStatic) {
+            method.getModifiers().add(ElementModifier.STATIC);
+        }
+        method.setProgram(program);
+        return method;
+    }
+
+    private static MethodReference staticMethod(String className, String name) {
+        return new MethodReference(className, name, ValueType.VOID);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2015 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.Test;
+import org.teavm.javascript.CodeSizeRecorder;
+
+/**
+ *
+ * @author Alexey Andreev
+ */
+public class OutputSizeReportTest {
+    @Test
+    public void nestedRegionsAreInclusive() {
+        OutputSizeReport report = createReport(100);
+
+        assertThat(report.getTotal(), is(150L));
+        assertThat(report.getClassSize("foo.A").getSize(), is(110L));
+        assertThat(report.getClassSize("foo.A").getMethods().get("m()V"), is(100L));
+        assertThat(report.getGenerators().get("foo.Gen"), is(30L));
+        assertThat(report.getPackages().get("foo"), is(110L));
+        assertThat(report.getSections().get(OutputSizeReport.CLASSES), is(110L));
+        assertThat(report.getSections().get(OutputSizeReport.RUNTIME), is(20L));
+        assertThat(report.getSections().get(OutputSizeReport.OTHER), is(20L));
+    }
+
+    @Test
+    public void readsWrittenJson() throws IOException {
+        OutputSizeReport report = createReport(100);
+        report.addFile("classes.js", 160);
+        StringWriter writer = new StringWriter();
+        report.write(writer);
+
+        OutputSizeReport copy = OutputSizeReport.read(new StringReader(writer.toString()));
+        assertThat(copy.getTotal(), is(150L));
+        assertThat(copy.getFiles().get("classes.js"), is(160L));
+        assertThat(copy.getClassSize("foo.A").getSize(), is(110L));
+        assertThat(copy.getClassSize("foo.A").getMethods().get("m()V"), is(100L));
+        assertThat(copy.getGenerators().get("foo.Gen"), is(30L));
+        assertThat(copy.getSections().get(OutputSizeReport.OTHER), is(20L));
+    }
+
+    @Test
+    public void writesDiff() throws IOException {
+        OutputSizeReport report = createReport(80);
+        report.setBaseline(createReport(100));
+        StringWriter writer = new StringWriter();
+        report.write(writer);
+        String json = writer.toString();
+
+        String diff = json.substring(json.indexOf("\"diff\""));
+        assertThat(diff.contains("\"total\": -20"), is(true));
+        assertThat(diff.contains("\"foo.A\": -20"), is(true));
+        assertThat(diff.contains("\"foo.Gen\""), is(false));
+    }
+
+    private static OutputSizeReport createReport(int methodSize) {
+        CodeSizeRecorder recorder = new CodeSizeRecorder();
+        recorder.enter(CodeSizeRecorder.Kind.RUNTIME, "runtime", 0);
+        recorder.exit(20);
+        recorder.enter(CodeSizeRecorder.Kind.CLASS, "foo.A", 30);
+        recorder.enter(CodeSizeRecorder.Kind.METHOD, "m()V", 40);
+        recorder.enter(CodeSizeRecorder.Kind.GENERATOR, "foo.Gen", 50);
+        recorder.exit(80);
+        recorder.exit(40 + methodSize);
+        recorder.exit(40 + methodSize);
+
+        OutputSizeReport report = new OutputSizeReport();
+        report.addOutput("main", 50 + methodSize);
+        report.collect(recorder, null);
+        return report;
+    }
+}
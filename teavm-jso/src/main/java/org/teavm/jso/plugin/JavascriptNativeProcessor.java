@@ -280,7 +280,16 @@ class JavascriptNativeProcessor {
     }
 
     public void processProgram(MethodHolder methodToProcess) {
-        program = methodToProcess.getProgram();
+        MethodReference methodRef = methodToProcess.getReference();
+        methodToProcess.transformProgram(program -> {
+            synchronized (this) {
+                processProgram(methodRef, program);
+            }
+        });
+    }
+
+    private void processProgram(MethodReference methodToProcess, Program program) {
+        this.program = program;
         for (int i = 0; i < program.basicBlockCount(); ++i) {
             BasicBlock block = program.basicBlockAt(i);
             List<Instruction> instructions = block.getInstructions();
@@ -303,13 +312,12 @@ class JavascriptNativeProcessor {
                 if (method.hasModifier(ElementModifier.FINAL)) {
                     MethodReader overriden = getOverridenMethod(method);
                     if (overriden != null) {
-                        CallLocation callLocation = new CallLocation(methodToProcess.getReference(),
-                                insn.getLocation());
+                        CallLocation callLocation = new CallLocation(methodToProcess, insn.getLocation());
                         diagnostics.error(callLocation, "JS final method {{m0}} overrides {{M1}}. "
                                 + "Overriding final method of overlay types is prohibited.",
                                 method.getReference(), overriden.getReference());
                     }
-                    if (method.getProgram() != null && method.getProgram().basicBlockCount() > 0) {
+                    if (method.readProgram() != null && method.readProgram().basicBlockCount() > 0) {
                         invoke.setMethod(new MethodReference(method.getOwnerName(), method.getName() + "$static",
                                 getStaticSignature(method.getReference())));
                         invoke.getArguments().add(0, invoke.getInstance());
@@ -319,7 +327,7 @@ class JavascriptNativeProcessor {
                     continue;
                 }
 
-                CallLocation callLocation = new CallLocation(methodToProcess.getReference(), insn.getLocation());
+                CallLocation callLocation = new CallLocation(methodToProcess, insn.getLocation());
                 if (method.getAnnotations().get(JSProperty.class.getName()) != null) {
                     if (isProperGetter(method.getDescriptor())) {
                         String propertyName;
@@ -16,6 +16,7 @@
 package org.teavm.maven;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
@@ -35,6 +36,7 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.repository.RepositorySystem;
 import org.teavm.model.ClassHolderTransformer;
 import org.teavm.tooling.*;
+import org.teavm.tooling.daemon.TeaVMDaemonClient;
 
 /**
  *
@@ -103,6 +105,12 @@ public class BuildJavascriptMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project.build.directory}/teavm-cache")
     private File cacheDirectory;
 
+    @Parameter
+    private int cacheMaxSize;
+
+    @Parameter
+    private boolean cacheGarbageCollecting;
+
     @Parameter
     private String[] transformers;
 
@@ -115,6 +123,33 @@ public class BuildJavascriptMojo extends AbstractMojo {
     @Parameter
     private boolean stopOnErrors = true;
 
+    @Parameter
+    private int numThreads = 1;
+
+    @Parameter
+    private int daemonPort;
+
+    @Parameter
+    private File metricsFile;
+
+    @Parameter
+    private boolean stringPoolPacked;
+
+    @Parameter
+    private boolean lazyParsing;
+
+    @Parameter
+    private File sizeReportFile;
+
+    @Parameter
+    private File sizeReportBaseline;
+
+    @Parameter
+    private boolean codeSplitting;
+
+    @Parameter
+    private String[] splitPoints;
+
     private TeaVMTool tool = new TeaVMTool();
 
     public void setProject(MavenProject project) {
@@ -205,6 +240,78 @@ public class BuildJavascriptMojo extends AbstractMojo {
         this.stopOnErrors = stopOnErrors;
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
+    public void setDaemonPort(int daemonPort) {
+        this.daemonPort = daemonPort;
+    }
+
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public boolean isStringPoolPacked() {
+        return stringPoolPacked;
+    }
+
+    public void setStringPoolPacked(boolean stringPoolPacked) {
+        this.stringPoolPacked = stringPoolPacked;
+    }
+
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
+    public File getSizeReportFile() {
+        return sizeReportFile;
+    }
+
+    public void setSizeReportFile(File sizeReportFile) {
+        this.sizeReportFile = sizeReportFile;
+    }
+
+    public File getSizeReportBaseline() {
+        return sizeReportBaseline;
+    }
+
+    public void setSizeReportBaseline(File sizeReportBaseline) {
+        this.sizeReportBaseline = sizeReportBaseline;
+    }
+
+    public boolean isCodeSplitting() {
+        return codeSplitting;
+    }
+
+    public void setCodeSplitting(boolean codeSplitting) {
+        this.codeSplitting = codeSplitting;
+    }
+
+    public String[] getSplitPoints() {
+        return splitPoints;
+    }
+
+    public void setSplitPoints(String[] splitPoints) {
+        this.splitPoints = splitPoints;
+    }
+
     public File getCacheDirectory() {
         return cacheDirectory;
     }
@@ -213,13 +320,39 @@ public class BuildJavascriptMojo extends AbstractMojo {
         this.cacheDirectory = cacheDirectory;
     }
 
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public boolean isCacheGarbageCollecting() {
+        return cacheGarbageCollecting;
+    }
+
+    public void setCacheGarbageCollecting(boolean cacheGarbageCollecting) {
+        this.cacheGarbageCollecting = cacheGarbageCollecting;
+    }
+
     @Override
     public void execute() throws MojoExecutionException {
         Log log = getLog();
         tool.setLog(new MavenTeaVMToolLog(log));
         try {
-            ClassLoader classLoader = prepareClassLoader();
-            tool.setClassLoader(classLoader);
+            List<File> classPath = prepareClassPath();
+            boolean inDaemon = daemonPort != 0;
+            if (inDaemon && sourceFilesCopied) {
+                log.info("Building in this process instead of TeaVM daemon, since source files can't be copied "
+                        + "by the daemon");
+                inDaemon = false;
+            }
+            if (!inDaemon) {
+                ClassLoader classLoader = prepareClassLoader(classPath);
+                tool.setClassLoader(classLoader);
+                tool.getTransformers().addAll(instantiateTransformers(classLoader));
+            }
             tool.setBytecodeLogging(bytecodeLogging);
             tool.setMainClass(mainClass);
             tool.setMainPageIncluded(mainPageIncluded);
@@ -227,7 +360,6 @@ public class BuildJavascriptMojo extends AbstractMojo {
             tool.setRuntime(runtime);
             tool.setTargetDirectory(targetDirectory);
             tool.setTargetFileName(targetFileName);
-            tool.getTransformers().addAll(instantiateTransformers(classLoader));
             if (sourceFilesCopied) {
                 MavenSourceFileProviderLookup lookup = new MavenSourceFileProviderLookup();
                 lookup.setMavenProject(project);
@@ -250,9 +382,26 @@ public class BuildJavascriptMojo extends AbstractMojo {
             }
             tool.setCacheDirectory(cacheDirectory);
             tool.setIncremental(incremental);
+            tool.setCacheMaxSize(cacheMaxSize);
+            tool.setCacheGarbageCollecting(cacheGarbageCollecting);
+            tool.setNumThreads(numThreads);
             tool.setDebugInformationGenerated(debugInformationGenerated);
             tool.setSourceMapsFileGenerated(sourceMapsGenerated);
             tool.setSourceFilesCopied(sourceFilesCopied);
+            tool.setMetricsFile(metricsFile);
+            tool.setStringPoolPacked(stringPoolPacked);
+            tool.setLazyParsing(lazyParsing);
+            tool.setSizeReportFile(sizeReportFile);
+            tool.setSizeReportBaseline(sizeReportBaseline);
+            tool.setCodeSplitting(codeSplitting);
+            if (splitPoints != null) {
+                tool.setCodeSplitting(true);
+                tool.getSplitPoints().addAll(Arrays.asList(splitPoints));
+            }
+            if (inDaemon) {
+                buildInDaemon(classPath);
+                return;
+            }
             tool.generate();
             if (stopOnErrors && !tool.getProblemProvider().getSevereProblems().isEmpty()) {
                 throw new MojoExecutionException("Build error");
@@ -264,6 +413,24 @@ public class BuildJavascriptMojo extends AbstractMojo {
         }
     }
 
+    private void buildInDaemon(List<File> classPath) throws MojoExecutionException {
+        getLog().info("Building JavaScript in TeaVM daemon on port " + daemonPort);
+        TeaVMDaemonClient client = new TeaVMDaemonClient(daemonPort);
+        client.getClassPath().addAll(classPath);
+        if (transformers != null) {
+            client.getTransformers().addAll(Arrays.asList(transformers));
+        }
+        boolean succeeded;
+        try {
+            succeeded = client.build(tool);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error communicating with TeaVM daemon", e);
+        }
+        if (stopOnErrors && !succeeded) {
+            throw new MojoExecutionException("Build error");
+        }
+    }
+
     private List<ClassHolderTransformer> instantiateTransformers(ClassLoader classLoader)
             throws MojoExecutionException {
         List<ClassHolderTransformer> transformerInstances = new ArrayList<>();
@@ -299,36 +466,44 @@ public class BuildJavascriptMojo extends AbstractMojo {
         return transformerInstances;
     }
 
-    private ClassLoader prepareClassLoader() throws MojoExecutionException {
-        try {
-            Log log = getLog();
-            log.info("Preparing classpath for JavaScript generation");
-            List<URL> urls = new ArrayList<>();
-            StringBuilder classpath = new StringBuilder();
-            Set<String> scopes;
-            if (compileScopes == null) {
-                scopes = new HashSet<>(Arrays.asList(
-                    Artifact.SCOPE_COMPILE, Artifact.SCOPE_PROVIDED, Artifact.SCOPE_SYSTEM));
-            } else {
-                scopes = new HashSet<>(compileScopes);
-            }
-            for (Artifact artifact : project.getArtifacts()) {
-                if (!scopes.contains(artifact.getScope())) {
-                    continue;
-                }
-                File file = artifact.getFile();
-                if (classpath.length() > 0) {
-                    classpath.append(':');
-                }
-                classpath.append(file.getPath());
-                urls.add(file.toURI().toURL());
+    private List<File> prepareClassPath() {
+        Log log = getLog();
+        log.info("Preparing classpath for JavaScript generation");
+        List<File> classPath = new ArrayList<>();
+        StringBuilder classpath = new StringBuilder();
+        Set<String> scopes;
+        if (compileScopes == null) {
+            scopes = new HashSet<>(Arrays.asList(
+                Artifact.SCOPE_COMPILE, Artifact.SCOPE_PROVIDED, Artifact.SCOPE_SYSTEM));
+        } else {
+            scopes = new HashSet<>(compileScopes);
+        }
+        for (Artifact artifact : project.getArtifacts()) {
+            if (!scopes.contains(artifact.getScope())) {
+                continue;
             }
+            File file = artifact.getFile();
             if (classpath.length() > 0) {
                 classpath.append(':');
             }
-            classpath.append(classFiles.getPath());
-            urls.add(classFiles.toURI().toURL());
-            log.info("Using the following classpath for JavaScript generation: " + classpath);
+            classpath.append(file.getPath());
+            classPath.add(file);
+        }
+        if (classpath.length() > 0) {
+            classpath.append(':');
+        }
+        classpath.append(classFiles.getPath());
+        classPath.add(classFiles);
+        log.info("Using the following classpath for JavaScript generation: " + classpath);
+        return classPath;
+    }
+
+    private ClassLoader prepareClassLoader(List<File> classPath) throws MojoExecutionException {
+        try {
+            List<URL> urls = new ArrayList<>();
+            for (File file : classPath) {
+                urls.add(file.toURI().toURL());
+            }
             return new URLClassLoader(urls.toArray(new URL[urls.size()]), BuildJavascriptMojo.class.getClassLoader());
         } catch (MalformedURLException e) {
             throw new MojoExecutionException("Error gathering classpath information", e);
@@ -110,6 +110,9 @@ public class BuildJavascriptTestMojo extends AbstractMojo {
     @Parameter
     private boolean incremental;
 
+    @Parameter
+    private boolean lazyParsing;
+
     @Parameter
     private boolean debugInformationGenerated;
 
@@ -173,6 +176,14 @@ public class BuildJavascriptTestMojo extends AbstractMojo {
         this.incremental = incremental;
     }
 
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
     public boolean isDebugInformationGenerated() {
         return debugInformationGenerated;
     }
@@ -219,6 +230,7 @@ public class BuildJavascriptTestMojo extends AbstractMojo {
             tool.setNumThreads(numThreads);
             tool.setMinifying(minifying);
             tool.setIncremental(incremental);
+            tool.setLazyParsing(lazyParsing);
             tool.setDebugInformationGenerated(debugInformationGenerated);
             tool.setSourceMapsGenerated(sourceMapsGenerated);
             tool.setSourceFilesCopied(sourceFilesCopied);
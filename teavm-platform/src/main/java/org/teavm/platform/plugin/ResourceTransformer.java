@@ -26,10 +26,8 @@ class ResourceTransformer implements ClassHolderTransformer {
     @Override
     public void transformClass(ClassHolder cls, ClassReaderSource innerSource, Diagnostics diagnostics) {
         for (MethodHolder method : cls.getMethods()) {
-            Program program = method.getProgram();
-            if (program != null) {
-                new ResourceProgramTransformer(innerSource, program).transformProgram();
-            }
+            method.transformProgram(program -> new ResourceProgramTransformer(innerSource, program)
+                    .transformProgram());
         }
     }
 }